@@ -0,0 +1,151 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.FileHash;
+import llc.berserkr.cache.hash.StorageOptions;
+import llc.berserkr.cache.hash.ValueLease;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte keys to {@link ByteBuffer} values, for values that are passed on to a channel or decoder and never need to be
+ * a byte array. A get is a {@link ValueLease} on the value where it lies in the mapped segment file, nothing is
+ * copied and the bucket can't change until the lease is closed.
+ *
+ * try(final ValueLease lease = cache.get(key)) {
+ *     if(lease != null) {
+ *         channel.write(lease.getBuffer());
+ *     }
+ * }
+ *
+ * This isn't a {@link Cache}, a get there is a value the caller keeps and a lease has to be given back.
+ */
+public class BufferCache {
+
+    private final FileHash hash;
+
+    public BufferCache(
+        final File dataFolder
+    ) {
+        this(dataFolder, 10000);
+    }
+
+    public BufferCache(
+        final File dataFolder,
+        final int hashSize
+    ) {
+        this(dataFolder, hashSize, StorageOptions.defaults().withMappedSegments(true));
+    }
+
+    /**
+     * @param options - values are only lent without a copy with {@link StorageOptions#withMappedSegments(boolean)},
+     *                otherwise the bucket is read into the heap and the lease is a view of that
+     */
+    public BufferCache(
+        final File dataFolder,
+        final int hashSize,
+        final StorageOptions options
+    ) {
+
+        dataFolder.mkdirs();
+
+        if(!dataFolder.isDirectory()) {
+            throw new IllegalArgumentException("Invalid data folder");
+        }
+
+        final File hashFile = new File(dataFolder, "hash");
+        final File segmentFile = new File(dataFolder, "segments");
+
+        hash = new FileHash(hashFile, segmentFile, hashSize, options);
+
+    }
+
+    public boolean exists(byte [] key) throws ResourceException {
+
+        try(final ValueLease lease = get(key)) {
+            return lease != null;
+        }
+
+    }
+
+    /**
+     * @return the value lent until the lease is closed, null if the key isn't there
+     */
+    public ValueLease get(byte [] key) throws ResourceException {
+
+        if(key == null || key.length == 0) {
+            throw new IllegalArgumentException("invalid key length");
+        }
+
+        try {
+            return hash.lease(key);
+        } catch (ReadFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
+    /**
+     * Stores the value from its position to its limit, the position isn't moved. The bucket is rewritten as a whole
+     * so the value is copied into it once, a heap buffer that covers its whole array isn't copied before that.
+     */
+    public void put(byte [] key, ByteBuffer value) throws ResourceException {
+
+        if(key == null || key.length == 0) {
+            throw new IllegalArgumentException("invalid key length");
+        }
+
+        try {
+            hash.put(key, toBytes(value));
+        }
+        catch (ReadFailure | WriteFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
+    public void remove(byte [] key) throws ResourceException {
+
+        if(key == null || key.length == 0) {
+            throw new IllegalArgumentException("invalid key length");
+        }
+
+        try {
+            hash.remove(key);
+        } catch (ReadFailure | WriteFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
+    /**
+     * Every lease has to be closed first.
+     */
+    public void clear() throws ResourceException {
+
+        try {
+            hash.clear();
+        } catch (ReadFailure | WriteFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
+    private static byte [] toBytes(ByteBuffer value) {
+
+        if(value.hasArray() && value.arrayOffset() == 0 && value.position() == 0 && value.remaining() == value.array().length) {
+            return value.array();
+        }
+
+        final byte [] bytes = new byte[value.remaining()];
+
+        value.duplicate().get(bytes);
+
+        return bytes;
+
+    }
+
+}
@@ -3,7 +3,9 @@ package llc.berserkr.cache;
 import llc.berserkr.cache.exception.ReadFailure;
 import llc.berserkr.cache.exception.ResourceException;
 import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.DurabilityPolicy;
 import llc.berserkr.cache.hash.FileHash;
+import llc.berserkr.cache.hash.StorageOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,10 +25,32 @@ public class BytesFileCache implements Cache<byte [], byte []> {
         this(dataFolder, 10000);
     }
 
+    public BytesFileCache(
+        final File dataFolder,
+        final DurabilityPolicy durability
+    ) {
+        this(dataFolder, StorageOptions.defaults().withDurability(durability));
+    }
+
+    public BytesFileCache(
+        final File dataFolder,
+        final StorageOptions options
+    ) {
+        this(dataFolder, 10000, options);
+    }
+
     public BytesFileCache(
         final File dataFolder,
         final int hashSize
     ) {
+        this(dataFolder, hashSize, StorageOptions.defaults());
+    }
+
+    public BytesFileCache(
+        final File dataFolder,
+        final int hashSize,
+        final StorageOptions options
+    ) {
 
         dataFolder.mkdirs();
 
@@ -37,7 +61,7 @@ public class BytesFileCache implements Cache<byte [], byte []> {
         final File hashFile = new File(dataFolder, "hash");
         final File segmentFile = new File(dataFolder, "segments");
 
-        hash = new FileHash(hashFile, segmentFile, hashSize);
+        hash = new FileHash(hashFile, segmentFile, hashSize, options);
 
     }
     @Override
@@ -8,6 +8,7 @@ import java.io.InputStream;
 import java.util.function.Consumer;
 
 import llc.berserkr.cache.converter.BytesStringConverter;
+import llc.berserkr.cache.hash.StorageOptions;
 
 public class CacheFactory {
     
@@ -25,6 +26,16 @@ public class CacheFactory {
             final File cacheRoot,
             final Converter<Integer, Value> sizeConverter
     ) throws IOException {
+        return getSerializingFileCache(maxSize, expireTimeout, cacheRoot, sizeConverter, StorageOptions.defaults());
+    }
+
+    public static final <Value> Cache<String, Value> getSerializingFileCache(
+            final int maxSize,
+            final int expireTimeout,
+            final File cacheRoot,
+            final Converter<Integer, Value> sizeConverter,
+            final StorageOptions options
+    ) throws IOException {
 
         final File dataFolder = new File(cacheRoot, "data");
         final File tempFolder = new File(cacheRoot, "temp");
@@ -34,7 +45,7 @@ public class CacheFactory {
         final File expiringDataFolder = new File(expiringRoot, "data");
         final File expiringTempFolder = new File(expiringRoot, "temp");
 
-        final StreamFileCache diskCache = new StreamFileCache(dataFolder);
+        final StreamFileCache diskCache = new StreamFileCache(dataFolder, options);
 
         final KeyConvertingCache<String, byte [], InputStream> keyConvertingCache =
                 new KeyConvertingCache<>(diskCache, new ReverseConverter<>(new BytesStringConverter()));
@@ -48,7 +59,7 @@ public class CacheFactory {
                     new SerializingConverter<Value>()
             );
 
-        final StreamFileCache diskCache2 = new StreamFileCache(expiringTempFolder);
+        final StreamFileCache diskCache2 = new StreamFileCache(expiringTempFolder, options);
 
         final KeyConvertingCache<String, byte [], InputStream> expringPersistDiskCache =
                 new KeyConvertingCache<>(diskCache2, new ReverseConverter<>(new BytesStringConverter()));
@@ -59,7 +70,8 @@ public class CacheFactory {
                                 dataFolder,
                                 fileCache,
                                 sizeConverter,
-                                maxSize
+                                maxSize,
+                                options
                         ),
                     new ValueConvertingCache<>(expringPersistDiskCache, new ReverseConverter<>(new InputStreamConverter())),
                         (long)expireTimeout,
@@ -75,10 +87,19 @@ public class CacheFactory {
         final File cacheRoot,
         final Consumer<Value> onRemoved
     ) throws IOException {
+        return getSerializingMaxCountFileCache(maxCount, cacheRoot, onRemoved, StorageOptions.defaults());
+    }
+
+    public static final <Value> Cache<String, Value> getSerializingMaxCountFileCache(
+        final int maxCount,
+        final File cacheRoot,
+        final Consumer<Value> onRemoved,
+        final StorageOptions options
+    ) throws IOException {
 
         final File dataFolder = new File(cacheRoot, "data");
 
-        final BytesFileCache diskCache = new BytesFileCache(dataFolder);
+        final BytesFileCache diskCache = new BytesFileCache(dataFolder, options);
 
         final KeyConvertingCache<String, byte [], byte []> keyConvertingCache =
                 new KeyConvertingCache<>(diskCache, new ReverseConverter<>(new BytesStringConverter()));
@@ -94,7 +115,8 @@ public class CacheFactory {
                 dataFolder,
                 fileCache,
                 maxCount,
-                onRemoved
+                onRemoved,
+                options
             );
 
         return new SynchronizedCache<String, Value>(cache);
@@ -171,10 +193,19 @@ public class CacheFactory {
             final File cacheRoot,
             final Converter<Integer, Value> sizeConverter
     ) throws IOException {
+        return getMaxSizeFileCache(maxSize, cacheRoot, sizeConverter, StorageOptions.defaults());
+    }
+
+    public static final <Value> Cache<String, Value> getMaxSizeFileCache(
+            final long maxSize,
+            final File cacheRoot,
+            final Converter<Integer, Value> sizeConverter,
+            final StorageOptions options
+    ) throws IOException {
 
         final File dataFolder = new File(cacheRoot, "data");
 
-        final StreamFileCache diskCache = new StreamFileCache(dataFolder);
+        final StreamFileCache diskCache = new StreamFileCache(dataFolder, options);
 
         final KeyConvertingCache<String, byte [], InputStream> keyConvertingCache =
             new KeyConvertingCache<String, byte[], InputStream>(
@@ -195,7 +226,8 @@ public class CacheFactory {
                         dataFolder,
                         fileCache,
                         sizeConverter,
-                        maxSize
+                        maxSize,
+                        options
                 );
 
         return new SynchronizedCache<String, Value>(cache);
@@ -214,6 +246,15 @@ public class CacheFactory {
         final File cacheRoot,
         final Converter<Integer, Value> sizeConverter
     ) throws IOException {
+        return getExpiringFileCache(expireTimeout, cacheRoot, sizeConverter, StorageOptions.defaults());
+    }
+
+    public static final <Value> Cache<String, Value> getExpiringFileCache(
+        final long expireTimeout,
+        final File cacheRoot,
+        final Converter<Integer, Value> sizeConverter,
+        final StorageOptions options
+    ) throws IOException {
 
         final File dataFolder = new File(cacheRoot, "data");
 
@@ -221,7 +262,7 @@ public class CacheFactory {
 
         final File expiringDataFolder = new File(expiringRoot, "data");
 
-        final BytesFileCache diskCache = new BytesFileCache(dataFolder);
+        final BytesFileCache diskCache = new BytesFileCache(dataFolder, options);
 
         final KeyConvertingCache<String, byte [], byte []> keyConvertingCache =
             new KeyConvertingCache<String, byte[], byte []>(
@@ -234,7 +275,7 @@ public class CacheFactory {
                 new SerializingConverter<Value>()
             );
 
-        final BytesFileCache expringPersistDiskCache = new BytesFileCache(expiringDataFolder);
+        final BytesFileCache expringPersistDiskCache = new BytesFileCache(expiringDataFolder, options);
         final KeyConvertingCache<String, byte [], byte []> keyConvertingExpiringCache =
             new KeyConvertingCache<String, byte[], byte []>(
                 expringPersistDiskCache, new ReverseConverter<>(new BytesStringConverter())
@@ -441,6 +482,17 @@ public class CacheFactory {
         final Converter<Integer, Value> sizeConverter,
         final Converter<Value, byte[]> valueConvertJobToBytes
     ) throws IOException {
+        return getMaxSizeExpiringFileCache(cacheRoot, maxSize, expireTimeout, sizeConverter, valueConvertJobToBytes, StorageOptions.defaults());
+    }
+
+    public static final <Value> Cache<String, Value> getMaxSizeExpiringFileCache(
+        final File cacheRoot,
+        final int maxSize,
+        final int expireTimeout,
+        final Converter<Integer, Value> sizeConverter,
+        final Converter<Value, byte[]> valueConvertJobToBytes,
+        final StorageOptions options
+    ) throws IOException {
 
         final File dataFolder = new File(cacheRoot, "data");
         final File expiringRoot = new File(cacheRoot, "expiringRoot");
@@ -450,7 +502,7 @@ public class CacheFactory {
             new SynchronizedCache<> (
                 new ValueConvertingCache<> (
                     new KeyConvertingCache<>(
-                        new BytesFileCache(dataFolder), new ReverseConverter<>(new BytesStringConverter())
+                        new BytesFileCache(dataFolder, options), new ReverseConverter<>(new BytesStringConverter())
                     ),
                     valueConvertJobToBytes
                 )
@@ -464,10 +516,11 @@ public class CacheFactory {
                     dataFolder,
                     fileCache,
                     sizeConverter,
-                    maxSize
+                    maxSize,
+                    options
                 ),
                 new KeyConvertingCache<>(
-                    new BytesFileCache(expiringDataFolder), new ReverseConverter<>(new BytesStringConverter())
+                    new BytesFileCache(expiringDataFolder, options), new ReverseConverter<>(new BytesStringConverter())
                 ),
                 expireTimeout,
                 (expireTimeout * 2L)
@@ -491,12 +544,21 @@ public class CacheFactory {
         final int maxSize,
         final int expireTimeout
     ) throws IOException {
+        return getMaxSizeExpiringFileCache(cacheRoot, maxSize, expireTimeout, StorageOptions.defaults());
+    }
+
+    public static final Cache<String, InputStream> getMaxSizeExpiringFileCache(
+        final File cacheRoot,
+        final int maxSize,
+        final int expireTimeout,
+        final StorageOptions options
+    ) throws IOException {
 
         final File dataFolder = new File(cacheRoot, "data");
         final File expiringRoot = new File(cacheRoot, "expiringRoot");
         final File expiringDataFolder = new File(expiringRoot, "data");
 
-        final StreamFileCache diskCache = new StreamFileCache(dataFolder);
+        final StreamFileCache diskCache = new StreamFileCache(dataFolder, options);
 
         final KeyConvertingCache<String, byte [], InputStream> keyConvertingCache =
             new KeyConvertingCache<String, byte[], InputStream>(
@@ -508,7 +570,7 @@ public class CacheFactory {
                 keyConvertingCache
             );
 
-        final BytesFileCache expringPersistDiskCache = new BytesFileCache(expiringDataFolder);
+        final BytesFileCache expringPersistDiskCache = new BytesFileCache(expiringDataFolder, options);
         final KeyConvertingCache<String, byte [], byte []> keyConvertingExpiringCache =
                 new KeyConvertingCache<String, byte[], byte []>(
                         expringPersistDiskCache, new ReverseConverter<>(new BytesStringConverter())
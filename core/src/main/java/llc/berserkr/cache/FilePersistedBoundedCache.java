@@ -0,0 +1,321 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.converter.BytesStringConverter;
+import llc.berserkr.cache.converter.ReverseConverter;
+import llc.berserkr.cache.converter.SerializingStreamConverter;
+import llc.berserkr.cache.data.RecencyList;
+import llc.berserkr.cache.eviction.EvictionPolicy;
+import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.StorageOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static llc.berserkr.cache.hash.SegmentedFile.delete;
+
+/**
+ * What the size and count bounded caches share. The keys in the cache and what each weighs are kept in a
+ * {@link RecencyList}, a put is one record appended to its journal and a get that finds a value is recorded without
+ * writing anything. Once the weights add up to more than the max the {@link EvictionPolicy} picks victims, their
+ * values are removed and then the keys, all of them in one more write. Without a policy the least recently used go.
+ *
+ * @param <Value>
+ */
+public abstract class FilePersistedBoundedCache<Value> implements Cache<String, Value> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilePersistedBoundedCache.class);
+
+    protected final Cache<String, Value> internal;
+    protected final RecencyList recency;
+
+    private final long maxWeight;
+
+    /**
+     * @param persistRoot - the recency list is kept in it
+     * @param internal
+     * @param maxWeight
+     * @param options - storage options for the recency journal
+     * @param policy - picks what's evicted, made with maxWeight as its max. null evicts the least recently used
+     */
+    protected FilePersistedBoundedCache(
+        final File persistRoot,
+        final Cache<String, Value> internal,
+        final long maxWeight,
+        final StorageOptions options,
+        final EvictionPolicy policy
+    ) {
+
+        this.internal = internal;
+        this.maxWeight = maxWeight;
+
+        persistRoot.mkdirs();
+
+        if(!persistRoot.isDirectory()) {
+            throw new IllegalArgumentException("persist root must be a folder");
+        }
+
+        this.recency = new RecencyList(persistRoot, options, policy);
+
+    }
+
+    /**
+     * Removes a value the policy picked, its key is removed from the list after.
+     */
+    protected void evict(String key) throws ResourceException {
+        internal.remove(key);
+    }
+
+    @Override
+    public boolean exists(String key) throws ResourceException {
+        return internal.exists(key);
+    }
+
+    @Override
+    public Value get(String key) throws ResourceException {
+
+        final Value value = internal.get(key);
+
+        if(value != null) {
+            recency.recordAccess(key);
+        }
+
+        return value;
+
+    }
+
+    @Override
+    public List<Value> getAll(List<String> keys) throws ResourceException {
+
+        final List<Value> values = internal.getAll(keys);
+
+        for(int i = 0; i < values.size() && i < keys.size(); i++) {
+            if(values.get(i) != null) {
+                recency.recordAccess(keys.get(i));
+            }
+        }
+
+        return values;
+
+    }
+
+    @Override
+    public void clear() throws ResourceException {
+
+        internal.clear();
+
+        try {
+            recency.clear();
+        }
+        catch (WriteFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
+    @Override
+    public void remove(String key) throws ResourceException {
+
+        internal.remove(key);
+
+        try {
+            //after the value, if we crash in between the key is evicted later with nothing to remove
+            recency.remove(key);
+        }
+        catch (WriteFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
+    /**
+     * Puts a value whose weight is known before it's written, then evicts until it's back within the max.
+     *
+     * @param weight - what the value counts for against the max
+     */
+    protected void put(String key, Value value, int weight) throws ResourceException {
+
+        try {
+
+            //before the value so a crash can't leave a value that isn't counted
+            recency.touch(key, weight);
+
+            try {
+                internal.put(key, value);
+            }
+            catch (ResourceException e) {
+
+                try {
+                    remove(key); //whatever is there now isn't what was counted
+                }
+                catch (ResourceException e2) {
+                    logger.error("failed to remove " + key + " after failing to put it", e2);
+                }
+
+                throw e;
+
+            }
+
+            evictOverMax();
+
+        }
+        catch (WriteFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
+    /**
+     * Evicts what the policy picks until the weight is within the max. If removing a value fails the keys of the
+     * ones already removed still go, the rest stay to be picked again.
+     *
+     * Puts on more than one thread can pick the same victims when the cache isn't wrapped in a
+     * {@link SynchronizedCache}. The one that removes them second stops evicting instead of failing its put.
+     */
+    protected void evictOverMax() throws ResourceException, WriteFailure {
+
+        for(long over = recency.getTotalSize() - maxWeight; over > 0; over = recency.getTotalSize() - maxWeight) {
+
+            final List<String> victims = recency.victims(over);
+
+            if(victims.isEmpty()) {
+                logger.warn("over the max but the policy picked nothing " + maxWeight + " " + recency.getTotalSize());
+                break;
+            }
+
+            final List<String> evicted = new ArrayList<>(victims.size());
+
+            try {
+
+                for(final String victim : victims) {
+                    evict(victim);
+                    evicted.add(victim);
+                }
+
+            }
+            catch (ResourceException e) {
+                recency.removeAll(evicted);
+                throw e;
+            }
+
+            //after the values, a crash leaves keys with nothing to remove rather than values nobody counts
+            if(recency.removeAll(evicted) == 0) {
+
+                //another put evicted the same ones first, or the policy is picking keys that aren't there. Stop
+                //rather than loop on it, the next put evicts whatever is still over
+                logger.warn("none of the keys evicted were still in the list " + victims);
+                break;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * The keys used to be kept as serialized links in a file cache in the folder given. Walks that list eldest first
+     * and touches each key that still has a value in that order, weighing it again. Then checkpoints and
+     * deletes the old list and the other folders given.
+     *
+     * @param importer - touches a key from the old list if its value is still there
+     */
+    protected void migrateLegacy(File legacyFolder, StorageOptions options, LegacyImporter importer, File... alsoDelete) {
+
+        if(!legacyFolder.exists()) {
+            return;
+        }
+
+        if(recency.getCount() == 0) {
+
+            try {
+                importLegacy(legacyFolder, options, importer);
+            }
+            catch (ResourceException | WriteFailure | RuntimeException e) {
+                logger.error("couldn't import the old list in " + legacyFolder + ", what was in it won't be evicted", e);
+            }
+
+        }
+
+        try {
+            recency.checkpoint(); //before the old one is deleted
+        }
+        catch (WriteFailure e) {
+            logger.error("Error while trying to load persisted cache", e);
+            throw new RuntimeException("could not initialize");
+        }
+
+        delete(legacyFolder);
+
+        for(final File folder : alsoDelete) {
+            delete(folder);
+        }
+
+    }
+
+    private void importLegacy(File legacyFolder, StorageOptions options, LegacyImporter importer) throws ResourceException, WriteFailure {
+
+        final Cache<String, Serializable> legacy = new ValueConvertingCache<String, Serializable, InputStream>(
+            new KeyConvertingCache<String, byte[], InputStream>(
+                new StreamFileCache(legacyFolder, options), new ReverseConverter<>(new BytesStringConverter())
+            ),
+            new SerializingStreamConverter<>()
+        );
+
+        final LegacyLink bottom = (LegacyLink) legacy.get("bottomKey");
+        final LegacyLink top = (LegacyLink) legacy.get("topKey");
+
+        final Set<String> seen = new HashSet<>();
+
+        String key = bottom == null ? null : bottom.getMyKey();
+        String after = bottom == null ? null : bottom.getKeyAfter();
+
+        while(key != null && seen.add(key)) { //the old list could loop on itself
+
+            importer.importKey(key);
+
+            key = after;
+
+            if(key != null) {
+
+                final LegacyLink linked = (LegacyLink) legacy.get("linked:" + key);
+
+                after = linked == null ? null : linked.getKeyAfter();
+
+            }
+
+        }
+
+        if(top != null && !seen.contains(top.getMyKey())) {
+            importer.importKey(top.getMyKey());
+        }
+
+    }
+
+    /**
+     * Each cache weighs what it imports its own way, the same as it does on put.
+     */
+    protected interface LegacyImporter {
+
+        void importKey(String key) throws ResourceException, WriteFailure;
+
+    }
+
+    /**
+     * A link of the old list. Each cache serialized its own class for it so each still has one to read them with.
+     */
+    protected interface LegacyLink {
+
+        String getMyKey();
+
+        String getKeyAfter();
+
+    }
+
+}
@@ -9,13 +9,22 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * This class is used for expiring the values. It only works on memory caches. This will not work on a file cache.
- * 
- * TODO this class really has an issue with large and numerous keys. It will degrade performance with O(N)
- * TODO this class restricts the writes/reads to one at a time, needs to be updated now that the file cache handles async writes and reads
+ *
+ * When each key was last put is kept in the persisting cache, one record per key. Keys are also indexed by when they
+ * expire, in buckets of a 64th of the timeout. A bucket is a count and one record per key put into it, so a put or
+ * remove writes a fixed number of records no matter how many keys there are. A cleanup only reads the buckets that
+ * have expired. Keys that were removed or put again since are skipped then, a remove doesn't go looking for its
+ * entry. Which buckets there are is kept in memory and written when one is added or dropped.
+ *
+ * Only changes to the bucket index are serialized, the reads and writes of values go straight to the caches.
+ *
  * @author Sean Wagner
  *
  */
@@ -23,15 +32,26 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
     
     private static final Logger logger = LoggerFactory.getLogger(FilePersistedExpiringCache.class);
 
+    //the whole list serialized in one record, only read to import it
     private static final String LAST_UPDATED_KEY = "filePersistedExpiringCache.lastUpdated";
     private static final String LAST_UPDATED_PRE_KEY = "filePersistedExpiringCache.lastUpdated.";
-    
+    private static final String BUCKETS_KEY = "filePersistedExpiringCache.buckets";
+    private static final String BUCKET_PRE_KEY = "filePersistedExpiringCache.bucket.";
+
+    private static final int BUCKETS_PER_TIMEOUT = 64;
+
     private final Cache<String, Value> internal;
     private final long timeout;
     private final ExpiringStates states = new ExpiringStates();
     private final long cleanupTimeout;
     private final Cache<String, byte []> persisting;
 
+    //bucket to how many keys were put in it
+    private final TreeMap<Long, Integer> buckets = new TreeMap<>();
+
+    //how long a bucket is, kept from when the buckets were written if the timeout changed since
+    private long bucketWidth;
+
     public FilePersistedExpiringCache(
         final Cache<String, Value> internal,
         final Cache<String, byte []> persistingRoot,
@@ -56,26 +76,11 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         this.cleanupTimeout = cleanupTimeout;
         this.internal = internal;
         this.timeout = timeout;
+        this.bucketWidth = Math.max(1, timeout / BUCKETS_PER_TIMEOUT);
         
         try {
-            
-        	LinkedList<SerializingPair<String, Long>> lastUpdated;
-            
-            if(persisting.get(LAST_UPDATED_KEY) == null) {
-                
-                lastUpdated = new LinkedList<SerializingPair<String, Long>>();
-                persisting.put(LAST_UPDATED_KEY, DataUtils.serialize(lastUpdated));
-                
-            } else {
-            	lastUpdated = DataUtils.deserialize(persisting.get(LAST_UPDATED_KEY));
-            }
-            
-        } 
-        catch (IOException e) {
-            throw new RuntimeException("could not create cache 1", e);    
-        }
-        catch (ClassNotFoundException e) {
-            throw new RuntimeException("could not create cache 2", e);
+            loadBuckets();
+            importLegacy();
         } 
         catch (ResourceException e) {
             throw new RuntimeException("could not create cache 3", e);
@@ -91,57 +96,15 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         }
         
         final long time = System.currentTimeMillis();
-        final long lastUpdatedTime;
-        final boolean wasPerformed = this.cleanup(time);
-        
-        final byte [] temp = this.persisting.get(LAST_UPDATED_PRE_KEY + key);
-        
-        if(temp == null) {
-            lastUpdatedTime = time;
-        }
-        else {
-            
-            Long deserialized;
-            
-            try {
-                deserialized = DataUtils.deserialize(temp);
-            } 
-            catch (IOException e) {
-                
-                logger.error("Could not deserialize 1", e);
-                deserialized = time;
-                
-            }
-            catch (ClassNotFoundException e) {
-                
-                logger.error("Could not deserialize 2", e);
-                deserialized = time;
-                
-            }
-            
-            lastUpdatedTime = deserialized;
-            
-        }            
-        
-        final boolean returnVal;
-        
-        if(!wasPerformed) { //if cleanup wasn't performed check the individual value for expiration.
-            
-            final long timeToExpire = time - this.timeout;
-            
-            if(lastUpdatedTime > timeToExpire) {
-                returnVal = internal.exists(key);
-            }
-            else {
-                returnVal = false;
-            }
-            
-        }
-        else { //cleanup was performed in this cycle we don't need to check again.
-            returnVal = internal.exists(key);
+
+        this.cleanup(time);
+
+        //even right after a cleanup, the bucket that's only partly expired is left for the next one
+        if(isExpired(key, time)) {
+            return false;
         }
-        
-        return returnVal;
+
+        return internal.exists(key);
         
     }
 
@@ -153,62 +116,19 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         }
         
         final long time = System.currentTimeMillis();
-        final long lastUpdatedTime;            
-        final boolean wasPerformed = this.cleanup(time);
-        
-        final byte [] temp = this.persisting.get(LAST_UPDATED_PRE_KEY + key);
-        
-        if(temp == null) {
-            lastUpdatedTime = time;
-        }
-        else {
-            
-            Long deserialized;
-            
-            try {
-                deserialized = DataUtils.deserialize(temp);
-            } 
-            catch (IOException e) {
-                
-                logger.error("Could not deserialize 1", e);
-                deserialized = time;
-                
-            }
-            catch (ClassNotFoundException e) {
-                
-                logger.error("Could not deserialize 2", e);
-                deserialized = time;
-                
-            }
-            
-            lastUpdatedTime = deserialized;
-            
-        }         
-        
-        final Value returnVal;
-        
-        if(!wasPerformed) { //if cleanup wasn't performed check the individual value for expiration.
-            
-            final long timeToExpire = time - this.timeout;
-            
-            if(lastUpdatedTime > timeToExpire) {
-                returnVal = internal.get(key);
-            }
-            else {
-                
-                if(internal.exists(key)) {
-                    internal.remove(key);
-                }
-                
-                returnVal = null;
-            }
-            
-        }
-        else { //cleanup was performed in this cycle we don't need to check again.
-            returnVal = internal.get(key);
+
+        this.cleanup(time);
+
+        if(isExpired(key, time)) {
+
+            internal.remove(key);
+            persisting.remove(LAST_UPDATED_PRE_KEY + key);
+
+            return null;
+
         }
-        
-        return returnVal;
+
+        return internal.get(key);
         
     }
 
@@ -225,59 +145,21 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         
         final long time = System.currentTimeMillis();
         final Set<String> expired = new HashSet<String>();
-            
-        if(!this.cleanup(time)) { //if cleanup wasn't performed we need to check all our specific keys.
-        
-            for(final String key : keys) {
-                
-                final long lastUpdatedTime;
-                
-                final byte [] temp = this.persisting.get(LAST_UPDATED_PRE_KEY + key);
-                
-                if(temp == null) {
-                    lastUpdatedTime = time;
-                }
-                else {
-                    
-                    Long deserialized;
-                    
-                    try {
-                        deserialized = DataUtils.deserialize(temp);
-                    } 
-                    catch (IOException e) {
-                        
-                        logger.error("Could not deserialize 1", e);
-                        deserialized = time;
-                        
-                    }
-                    catch (ClassNotFoundException e) {
-                        
-                        logger.error("Could not deserialize 2", e);
-                        deserialized = time;
-                        
-                    }
-                    
-                    lastUpdatedTime = deserialized;
-                    
-                }    
-                
-                final long timeToExpire = time - this.timeout;
-                                    
-                if(lastUpdatedTime < timeToExpire) {
-                    expired.add(key);
-                }
-                
+
+        this.cleanup(time);
+
+        for(final String key : keys) {
+
+            if(isExpired(key, time)) {
+                expired.add(key);
             }
-            
+
         }
         
         //remove expired keys
-        if(expired.size() > 0) {
-            
-            for(final String key : keys) {
-                internal.remove(key);
-            }
-            
+        for(final String key : expired) {
+            internal.remove(key);
+            persisting.remove(LAST_UPDATED_PRE_KEY + key);
         }
         
         final List<String> toGet = new ArrayList<String>();
@@ -313,14 +195,10 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         
         this.internal.clear();
         this.persisting.clear();
-        
-        final LinkedList<SerializingPair<String, Long>> lastUpdated = new LinkedList<SerializingPair<String, Long>>();
-        
-        try {
-            persisting.put(LAST_UPDATED_KEY, DataUtils.serialize(lastUpdated));
-        } 
-        catch (IOException e) {
-            throw new ResourceException("Couldn't recreate last updated");
+
+        synchronized (buckets) {
+            buckets.clear();
+            bucketWidth = Math.max(1, timeout / BUCKETS_PER_TIMEOUT);
         }
         
     }
@@ -333,34 +211,10 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         }
 
         this.internal.remove(key);
-        
+
+        //its bucket entry is skipped when that bucket expires
         persisting.remove(LAST_UPDATED_PRE_KEY + key);
         
-        try {
-        
-            final LinkedList<SerializingPair<String, Long>> lastUpdated = DataUtils.deserialize(persisting.get(LAST_UPDATED_KEY));
-            
-            final Set<SerializingPair<String, Long>> toRemove = new HashSet<SerializingPair<String, Long>>();
-            
-            for(final SerializingPair<String, Long> entry : lastUpdated) {
-                
-                if(entry.getOne().equals(key)) {
-                    toRemove.add(entry);
-                }
-                
-            }
-            
-            lastUpdated.removeAll(toRemove);            
-        
-            persisting.put(LAST_UPDATED_KEY, DataUtils.serialize(lastUpdated));
-        } 
-        catch (IOException e) {
-            throw new ResourceException("failed to serialize", e);
-        } 
-        catch (ClassNotFoundException e) {
-            throw new ResourceException("failed to serialize", e);
-        }
-        
     }
 
     @Override
@@ -392,26 +246,8 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         else {
 
             try {
-                
-                final LinkedList<SerializingPair<String, Long>> lastUpdated = DataUtils.deserialize(persisting.get(LAST_UPDATED_KEY));
-                
-                lastUpdated.addFirst(new SerializingPair<String, Long>(key, time));
-                
-                persisting.put(LAST_UPDATED_KEY, DataUtils.serialize(lastUpdated));
-                
+                index(key, time);
             } 
-            catch (IOException e) {
-                
-                logger.error("ERROR PUTTING LAST UPDATED 1", e);
-                return;
-                
-            }
-            catch (ClassNotFoundException e) {
-                
-                logger.error("ERROR PUTTING LAST UPDATED 2", e);
-                return;
-                
-            }
             catch (ResourceException e) {
                 
                 logger.error("ERROR PUTTING LAST UPDATED 3", e);
@@ -424,104 +260,240 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
     }
     
     private boolean cleanup(long currentTime) throws ResourceException {
-            
-        final LinkedList<SerializingPair<String, Long>> lastUpdated;
-        
-        if (persisting.get(LAST_UPDATED_KEY) == null) {
-        	return true;
+
+        final long timeToClean = currentTime - this.cleanupTimeout;
+
+        if(this.states.getLastCleanup() >= timeToClean) { //determine if we need to clean up or not
+            return false;
         }
-        
+
         try {
-            
-            lastUpdated = DataUtils.deserialize(persisting.get(LAST_UPDATED_KEY));
-        
-            final boolean wasPerformed;
-            final long timeToExpire = currentTime - this.timeout;
-            final long timeToClean = currentTime - this.cleanupTimeout;
-            
-            if(this.states.getLastCleanup() < timeToClean) { //determine if we need to clean up or not
-                
-                wasPerformed = true;
-                
-                final Set<String> toRemove = new HashSet<String>();
-                
-                while(true) {
-                    
-                    final SerializingPair<String, Long> current;
-                    
-                    try {
-                        current = lastUpdated.removeLast();
-                    }
-                    catch(NoSuchElementException e) {
-                        break;
-                    }
-                    
-                    final long time = current.getTwo();
-                    final String key = current.getOne();
-                    
-                    if(time > timeToExpire) {
-                        
-                        lastUpdated.addLast(current);
-                        break;
-                    }
-                    else {
-                        
-                        toRemove.add(key);
-                        
+            expire(currentTime - this.timeout);
+        }
+        catch (ResourceException e) {
+
+            logger.error("ERROR PUTTING LAST UPDATED 4", e);
+            throw new ResourceException("error putting last 1", e);
+
+        }
+
+        this.states.markClean();
+
+        return true;
+
+    }
+
+    /**
+     * Removes the keys in every bucket that's entirely at or before the time given. A key in one of those that was
+     * removed since has no last updated record, one that was put again has a later one and is in a later bucket too.
+     */
+    private void expire(long timeToExpire) throws ResourceException {
+
+        synchronized (buckets) {
+
+            final List<Map.Entry<Long, Integer>> due =
+                new ArrayList<>(buckets.headMap(Math.floorDiv(timeToExpire + 1, bucketWidth)).entrySet());
+
+            if(due.isEmpty()) {
+                return;
+            }
+
+            for(final Map.Entry<Long, Integer> bucket : due) {
+
+                final String bucketKey = BUCKET_PRE_KEY + bucket.getKey();
+
+                for(int i = 0; i < bucket.getValue(); i++) {
+
+                    final byte [] entry = persisting.get(bucketKey + "." + i);
+
+                    if(entry == null) {
+                        continue;
                     }
-                    
-                }
-                
-                final Set<String> toRetain = new HashSet<String>();
-                
-                for(final SerializingPair<String, Long> entry : lastUpdated) {
-                    toRetain.add(entry.getOne());
-                }
-                
-                for(final String key : toRemove) {
-                    
-                    if(!toRetain.contains(key)) {
-                        
+
+                    final String key = new String(entry, StandardCharsets.UTF_8);
+                    final Long lastUpdated = lastUpdated(key);
+
+                    if(lastUpdated != null && lastUpdated <= timeToExpire) {
                         internal.remove(key);
-                        this.persisting.remove(LAST_UPDATED_PRE_KEY + key);
-                        
+                        persisting.remove(LAST_UPDATED_PRE_KEY + key);
                     }
 
+                    persisting.remove(bucketKey + "." + i);
+
                 }
-                
-                persisting.put(LAST_UPDATED_KEY, DataUtils.serialize(lastUpdated));
-    
-                this.states.markClean();
-                    
+
+                persisting.remove(bucketKey);
+                buckets.remove(bucket.getKey());
+
             }
-            else {
-                wasPerformed = false;
+
+            saveBuckets();
+
+        }
+
+    }
+
+    /**
+     * adds the key to the bucket for the time it was put
+     */
+    private void index(String key, long time) throws ResourceException {
+
+        synchronized (buckets) {
+
+            final long bucket = Math.floorDiv(time, bucketWidth);
+            final String bucketKey = BUCKET_PRE_KEY + bucket;
+
+            Integer count = buckets.get(bucket);
+
+            if(count == null) {
+
+                count = 0;
+
+                buckets.put(bucket, count);
+                saveBuckets(); //before anything is in it so it can't be lost
+
             }
-            
-            return wasPerformed;
-                
-        } 
+
+            persisting.put(bucketKey + "." + count, key.getBytes(StandardCharsets.UTF_8));
+            persisting.put(bucketKey, DataUtils.intToByteArray(count + 1));
+
+            buckets.put(bucket, count + 1);
+
+        }
+
+    }
+
+    /**
+     * [bucket width 8] ([bucket 8])
+     */
+    private void saveBuckets() throws ResourceException {
+
+        if(buckets.isEmpty()) {
+            persisting.remove(BUCKETS_KEY);
+            return;
+        }
+
+        final ByteBuffer saved = ByteBuffer.allocate(8 + 8 * buckets.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+        saved.putLong(bucketWidth);
+
+        for(final long bucket : buckets.keySet()) {
+            saved.putLong(bucket);
+        }
+
+        persisting.put(BUCKETS_KEY, saved.array());
+
+    }
+
+    private void loadBuckets() throws ResourceException {
+
+        final byte [] saved = persisting.get(BUCKETS_KEY);
+
+        if(saved == null) {
+            return;
+        }
+
+        if(saved.length < 8 || saved.length % 8 != 0 || DataUtils.bytesToLong(saved, 0) <= 0) {
+            logger.error("expiring buckets are unreadable, what's in them only expires when it's read");
+            return;
+        }
+
+        bucketWidth = DataUtils.bytesToLong(saved, 0);
+
+        for(int offset = 8; offset < saved.length; offset += 8) {
+
+            final long bucket = DataUtils.bytesToLong(saved, offset);
+            final byte [] count = persisting.get(BUCKET_PRE_KEY + bucket);
+
+            int entries = count == null || count.length < 4 ? 0 : DataUtils.bytesToInt(count);
+
+            //an entry written just before a crash, before the count was
+            while(persisting.exists(BUCKET_PRE_KEY + bucket + "." + entries)) {
+                entries++;
+            }
+
+            buckets.put(bucket, entries);
+
+        }
+
+    }
+
+    /**
+     * The list used to be one serialized record rewritten on every put and remove. Indexes what's in it once, the
+     * newest put of each key, and removes it.
+     */
+    private void importLegacy() throws ResourceException {
+
+        final byte [] legacy = persisting.get(LAST_UPDATED_KEY);
+
+        if(legacy == null) {
+            return;
+        }
+
+        try {
+
+            final LinkedList<SerializingPair<String, Long>> lastUpdated = DataUtils.deserialize(legacy);
+
+            final Set<String> seen = new HashSet<>();
+
+            for(final SerializingPair<String, Long> entry : lastUpdated) { //newest first
+
+                if(!seen.add(entry.getOne())) {
+                    continue;
+                }
+
+                final Long time = lastUpdated(entry.getOne());
+
+                if(time != null) {
+                    index(entry.getOne(), time);
+                }
+
+            }
+
+        }
+        catch (IOException | ClassNotFoundException e) {
+            logger.error("couldn't import the old expiring list, what was in it only expires when it's read", e);
+        }
+
+        persisting.remove(LAST_UPDATED_KEY);
+
+    }
+
+    private boolean isExpired(String key, long time) throws ResourceException {
+
+        final Long lastUpdated = lastUpdated(key);
+
+        return lastUpdated != null && lastUpdated <= time - this.timeout;
+
+    }
+
+    /**
+     * @return when the key was last put, null if it isn't known
+     */
+    private Long lastUpdated(String key) throws ResourceException {
+
+        final byte [] temp = this.persisting.get(LAST_UPDATED_PRE_KEY + key);
+
+        if(temp == null) {
+            return null;
+        }
+
+        try {
+            return DataUtils.deserialize(temp);
+        }
         catch (IOException e) {
-            
-            logger.error("ERROR PUTTING LAST UPDATED 1", e);
-            throw new ResourceException("error putting last 1");
-            
+
+            logger.error("Could not deserialize 1", e);
+            return null;
+
         }
         catch (ClassNotFoundException e) {
-            
-            logger.error("ERROR PUTTING LAST UPDATED 2", e);
-            throw new ResourceException("error putting last 1");
-            
-        }
-        catch (ResourceException e) {
-            
-            logger.error("ERROR PUTTING LAST UPDATED 4", e);
-            throw new ResourceException("error putting last 1");
-            
+
+            logger.error("Could not deserialize 2", e);
+            return null;
+
         }
-        
-        
-        
+
     }
     
     private static class ExpiringStates {
@@ -542,6 +514,9 @@ public class FilePersistedExpiringCache<Value> implements Cache<String, Value>{
         
     }
 
+    /**
+     * an entry of the old list, only read to import it
+     */
     private static final class SerializingPair<ValueOne, ValueTwo> implements Serializable {
 
         @Serial
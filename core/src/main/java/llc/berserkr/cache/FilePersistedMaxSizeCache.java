@@ -1,36 +1,36 @@
 package llc.berserkr.cache;
 
 import llc.berserkr.cache.converter.*;
+import llc.berserkr.cache.data.RecencyList;
+import llc.berserkr.cache.eviction.EvictionPolicy;
 import llc.berserkr.cache.exception.ResourceException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import llc.berserkr.cache.hash.StorageOptions;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
-import java.util.List;
 
 /**
- * 
+ *
  * @author sean
  *
- * TODO this class restricts the writes/reads to one at a time, needs to be updated now that the file cache handles async writes and reads
+ * Evicts the least recently used values once their sizes add up to more than the max. The order and sizes are kept
+ * in a {@link RecencyList}, a put or remove is one record appended to its journal and the current size is never
+ * read back from disk. A get that finds a value moves it to the front without writing anything, see
+ * {@link RecencyList#recordAccess(String)}.
+ *
+ * Give it an {@link EvictionPolicy} to evict something other than the least recently used, like
+ * {@link llc.berserkr.cache.eviction.WindowTinyLfuPolicy} when scans would otherwise push out what's used all the time.
  *
  * @param <Value>
  */
-public class FilePersistedMaxSizeCache<Value> implements Cache<String, Value> {
+public class FilePersistedMaxSizeCache<Value> extends FilePersistedBoundedCache<Value> {
 
-    private static final Logger logger = LoggerFactory.getLogger(FilePersistedMaxSizeCache.class);
-    
-    private final long maxSize;
-    private final Cache<String, Value> internal;
-    private final Cache<String, Serializable> persistCache;
     private final Converter<Integer, Value> sizeConverter;
-    
-    
+
+
     /**
-     * 
+     *
      * @param rootFolder
      * @param internal
      * @param sizeConverter
@@ -42,216 +42,92 @@ public class FilePersistedMaxSizeCache<Value> implements Cache<String, Value> {
         final Converter<Integer, Value> sizeConverter,
         final long maxSize
     ) throws IOException {
-        
-        this.maxSize = maxSize;
-        this.internal = internal;
-        
-        final File persistRoot = new File(rootFolder, "sizePersisted");
-        
-        persistRoot.mkdirs();
-        
-        if(!persistRoot.isDirectory()) {
-            throw new IllegalArgumentException("persist root must be a folder");
-        }
-        
-        final File dataFolder = new File(persistRoot, "data");
-        final File tempFolder = new File(persistRoot, "temp");
-        
-        dataFolder.mkdirs();
-        tempFolder.mkdirs();
-        
-        if(!dataFolder.isDirectory()) {
-            throw new IllegalArgumentException("Data folder must be a folder");
-        }
-        
-        if(!tempFolder.isDirectory()) {
-            throw new IllegalArgumentException("Temp folder must be folder");
-        }
+        this(rootFolder, internal, sizeConverter, maxSize, StorageOptions.defaults());
+    }
+
+    /**
+     *
+     * @param rootFolder
+     * @param internal
+     * @param sizeConverter
+     * @param maxSize
+     * @param options - storage options for the recency journal
+     */
+    public FilePersistedMaxSizeCache(
+        final File rootFolder,
+        final Cache<String, Value> internal,
+        final Converter<Integer, Value> sizeConverter,
+        final long maxSize,
+        final StorageOptions options
+    ) throws IOException {
+        this(rootFolder, internal, sizeConverter, maxSize, options, null);
+    }
 
-        final Cache<byte [], InputStream> diskCache = new StreamFileCache(dataFolder);
+    /**
+     *
+     * @param rootFolder
+     * @param internal
+     * @param sizeConverter
+     * @param maxSize
+     * @param options - storage options for the recency journal
+     * @param policy - picks what's evicted, made with maxSize as its max. null evicts the least recently used
+     */
+    public FilePersistedMaxSizeCache(
+        final File rootFolder,
+        final Cache<String, Value> internal,
+        final Converter<Integer, Value> sizeConverter,
+        final long maxSize,
+        final StorageOptions options,
+        final EvictionPolicy policy
+    ) throws IOException {
 
-        final KeyConvertingCache<String, byte [], InputStream> keyConvertingCache =
-                new KeyConvertingCache<String, byte[], InputStream>(diskCache, new ReverseConverter<>(new BytesStringConverter()));
+        super(new File(rootFolder, "sizePersisted"), internal, maxSize, options, policy);
 
-        this.persistCache = new ValueConvertingCache<String, Serializable, InputStream>(
-                keyConvertingCache,
-                new SerializingStreamConverter<>()
-        );
         this.sizeConverter = sizeConverter;
-        
-        try {
-            
-            if(!this.persistCache.exists("currentSize")) {
-                this.persistCache.put("currentSize", 0);                
-            }
-            
-        } 
-        catch(ResourceException e) {
-            logger.error("Error while trying to load persisted cache", e);
-            throw new RuntimeException("could not initialize");
-        }
-        
-    }
-    
-    @Override
-    public boolean exists(String key) throws ResourceException {
-        return internal.exists(key);
-    }
 
-    @Override
-    public Value get(String key) throws ResourceException {
-        return internal.get(key);
-    }
+        final File persistRoot = new File(rootFolder, "sizePersisted");
 
-    @Override
-    public List<Value> getAll(List<String> keys) throws ResourceException {
-        return internal.getAll(keys);
-    }
+        migrateLegacy(new File(persistRoot, "data"), options, key -> {
 
-    @Override
-    public void clear() throws ResourceException {
-        
-        this.persistCache.clear();
-        
-        internal.clear();
-        
-        this.persistCache.put("currentSize", 0);
-        
-    }
+            final Value value = internal.get(key);
+
+            if(value != null) {
+                recency.touch(key, sizeConverter.restore(value));
+            }
+
+        }, new File(persistRoot, "temp"));
 
-    @Override
-    public void remove(String key) throws ResourceException {
-        
-        final Value removing = internal.get(key);
-        
-        if(removing != null) {
-            
-            final int removingSize = this.sizeConverter.restore(removing);
-            
-            int currentSize = (Integer)this.persistCache.get("currentSize");
-            currentSize -= removingSize;
-            
-            this.persistCache.put("currentSize", currentSize);
-            
-            internal.remove(key);
-            
-        }
-        
     }
 
+    /**
+     * the size is only worked out here, it's kept in the list after that
+     */
     @Override
     public void put(String key, Value value) throws ResourceException {
 
-        if (this.exists(key)) {
-        	this.remove(key);
-        }
-        
-        if(value != null) {
-            
-            final int sizeOfAdding = this.sizeConverter.restore(value);
-            
-            {
-                
-                int currentSize = (Integer)this.persistCache.get("currentSize");
-                currentSize += sizeOfAdding;
-                
-                this.persistCache.put("currentSize", currentSize);
-                
-            }
-                    
-            internal.put(key, value);
-            
-            final LinkedData topKey = (LinkedData) persistCache.get("topKey");
-            
-            if(topKey == null) {
-    
-                final LinkedData myLinkedData = new LinkedData(key, null, null);
-                        
-                persistCache.put("bottomKey", myLinkedData);
-                persistCache.put("topKey", myLinkedData);
-                
-            }
-            else {
-                
-                final LinkedData myLinkedData = new LinkedData(key, topKey.getMyKey(), null);
-                
-                final LinkedData keyAfterMine = new LinkedData(topKey.getMyKey(), topKey.getKeyBefore(), myLinkedData.getMyKey());
-                
-                persistCache.put("linked:" + keyAfterMine.getMyKey(), keyAfterMine);
-                persistCache.put("topKey", myLinkedData);
-                
-                final LinkedData bottom = (LinkedData) this.persistCache.get("bottomKey");
-                
-                if (bottom.getKeyAfter() == null) {
-                
-    	            final LinkedData newBottom = new LinkedData(bottom.getMyKey(), null, key);
-    	            
-    	            persistCache.put("bottomKey", newBottom);
-    	            
-                }
-                
-            }
-            
-            {
-                int currentSize = (Integer)this.persistCache.get("currentSize");
-                
-                while(currentSize > this.maxSize) {
-                     
-                    final LinkedData bottom = (LinkedData) this.persistCache.get("bottomKey");
-                    
-                    if(bottom == null) {
-                        throw new RuntimeException("Size too big but there is nothing in it?");
-                    }
-                    
-                    final LinkedData afterBottom = (LinkedData) this.persistCache.get("linked:" + bottom.getKeyAfter()); 
-                    
-                    final Value valueRemoving = internal.get(bottom.getMyKey());
-                            
-                    if(valueRemoving != null) {
-                       
-                        final int size = this.sizeConverter.restore(valueRemoving);
-                        
-                        currentSize -= size;
-                        
-                        if(currentSize < 0) {
-                            currentSize = 0;
-                        }
-                        
-                        this.persistCache.put("currentSize", currentSize);
-                        
-                        internal.remove(bottom.getMyKey());
-                        
-                    }
-                    
-                    if (afterBottom != null) {
-                    	
-                    	final LinkedData newBottom = new LinkedData(afterBottom.getMyKey(), null, afterBottom.getKeyAfter());
-    
-                        persistCache.remove("linked:" + bottom.getKeyAfter());
-                        
-                        persistCache.put("bottomKey", newBottom);
-                        
-                    }
-                    else {
-                        
-                        if(valueRemoving == null) {
-                            throw new RuntimeException("nothing to remove and nothing in the cache now.");
-                        }
-                        
-                    }
-                    
-                }
-                
-            }
-            
+        if(value == null) {
+            remove(key);
+            return;
         }
-        
+
+        put(key, value, sizeConverter.restore(value));
+
+    }
+
+    /**
+     * @return sum of the sizes of the values in the cache
+     */
+    public long getCurrentSize() {
+        return recency.getTotalSize();
     }
-    
-    private static class LinkedData implements Serializable {
-        
+
+    /**
+     * a link of the old list, only read to import it
+     */
+    private static class LinkedData implements Serializable, LegacyLink {
+
         private static final long serialVersionUID = 3976267230111713664L;
-        
+
         private final String keyBefore;
         private final String keyAfter;
         private final String myKey;
@@ -261,13 +137,13 @@ public class FilePersistedMaxSizeCache<Value> implements Cache<String, Value> {
             final String keyBefore,
             final String keyAfter
         ) {
-            
+
             this.myKey = myKey;
             this.keyBefore = keyBefore;
             this.keyAfter = keyAfter;
-            
+
         }
-        
+
         public String getMyKey() {
             return myKey;
         }
@@ -279,7 +155,7 @@ public class FilePersistedMaxSizeCache<Value> implements Cache<String, Value> {
         public String getKeyAfter() {
             return keyAfter;
         }
-        
+
     }
 
 }
@@ -3,6 +3,8 @@ package llc.berserkr.cache;
 import llc.berserkr.cache.exception.ReadFailure;
 import llc.berserkr.cache.exception.ResourceException;
 import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.StorageOptions;
 import llc.berserkr.cache.hash.StreamingFileHash;
 import llc.berserkr.cache.util.WrappingInputStream;
 import org.slf4j.Logger;
@@ -10,6 +12,8 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 public class StreamFileCache implements Cache<byte [], InputStream> {
@@ -24,10 +28,32 @@ public class StreamFileCache implements Cache<byte [], InputStream> {
         this(dataFolder, 10000);
     }
 
+    public StreamFileCache(
+        final File dataFolder,
+        final DurabilityPolicy durability
+    ) {
+        this(dataFolder, StorageOptions.defaults().withDurability(durability));
+    }
+
+    public StreamFileCache(
+        final File dataFolder,
+        final StorageOptions options
+    ) {
+        this(dataFolder, 10000, options);
+    }
+
     public StreamFileCache(
         final File dataFolder,
         final int hashSize
     ) {
+        this(dataFolder, hashSize, StorageOptions.defaults());
+    }
+
+    public StreamFileCache(
+        final File dataFolder,
+        final int hashSize,
+        final StorageOptions options
+    ) {
 
         dataFolder.mkdirs();
 
@@ -46,7 +72,7 @@ public class StreamFileCache implements Cache<byte [], InputStream> {
             throw new IllegalArgumentException("Invalid temp folder");
         }
 
-        hash = new StreamingFileHash(hashFile, blobFile, dataFile, tempFolder, hashSize);
+        hash = new StreamingFileHash(hashFile, blobFile, dataFile, tempFolder, hashSize, options);
 
     }
     @Override
@@ -133,6 +159,35 @@ public class StreamFileCache implements Cache<byte [], InputStream> {
 
     }
 
+    /**
+     * Sends a value to target straight from the file, a socket gets it with sendfile instead of copies through an
+     * InputStream. See {@link StreamingFileHash#transferTo(byte[], long, long, WritableByteChannel)}.
+     *
+     * @return bytes sent, -1 if the key isn't there
+     */
+    public long transferTo(byte [] key, WritableByteChannel target) throws ResourceException {
+        return transferTo(key, 0, Long.MAX_VALUE, target);
+    }
+
+    /**
+     * Sends count bytes of a value starting at offset, less if the value ends first. For range requests.
+     *
+     * @return bytes sent, -1 if the key isn't there
+     */
+    public long transferTo(byte [] key, long offset, long count, WritableByteChannel target) throws ResourceException {
+
+        if(key == null || key.length == 0) {
+            throw new IllegalArgumentException("invalid key length");
+        }
+
+        try {
+            return hash.transferTo(key, offset, count, target);
+        } catch (ReadFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
     @Override
     public List<InputStream> getAll(List<byte[]> bytes) throws ResourceException {
         throw new RuntimeException("Not implemented");
@@ -164,6 +219,30 @@ public class StreamFileCache implements Cache<byte [], InputStream> {
 
     }
 
+    /**
+     * Puts a value whose length is known up front, see {@link StreamingFileHash#put(byte[], ReadableByteChannel, long)}.
+     * A file's channel is copied with FileChannel.transferFrom, an InputStream with a content length can be passed
+     * as {@link java.nio.channels.Channels#newChannel(InputStream)}.
+     *
+     * @param key
+     * @param value - exactly length bytes are read from it, it isn't closed
+     * @param length - bytes in the value
+     */
+    public void put(byte [] key, ReadableByteChannel value, long length) throws ResourceException {
+
+        if(key == null || key.length == 0) {
+            throw new IllegalArgumentException("invalid key length");
+        }
+
+        try {
+            hash.put(key, value, length);
+        }
+        catch (ReadFailure | WriteFailure e) {
+            throw new ResourceException("failure", e);
+        }
+
+    }
+
     @Override
     public void put(byte [] key, InputStream value) throws ResourceException {
 
@@ -12,12 +12,20 @@ import java.io.RandomAccessFile;
 public class RandomAccessFileWriter implements LinearStreamWriter {
 	
 	private final RandomAccessFile random;
-	private final String ACCESS_MODE = "rws";
+	private static final String ACCESS_MODE = "rws";
 	
 	public RandomAccessFileWriter(final File file) throws LinearStreamException {
+		this(file, ACCESS_MODE);
+	}
+
+	/**
+	 * @param file
+	 * @param accessMode - RandomAccessFile mode, "rws" to sync every write or "rw" to let the OS buffer
+	 */
+	public RandomAccessFileWriter(final File file, final String accessMode) throws LinearStreamException {
 		
 		try {
-			random = new RandomAccessFile(file, ACCESS_MODE);
+			random = new RandomAccessFile(file, accessMode);
 		}
 		catch (FileNotFoundException e) {
 			throw new LinearStreamException(e);
@@ -0,0 +1,875 @@
+package llc.berserkr.cache.data;
+
+import llc.berserkr.cache.eviction.EvictionPolicy;
+import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.FileAccess;
+import llc.berserkr.cache.hash.StorageOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Keys in the order they were last touched with the size of each, for caches that evict the least recently used.
+ * The list is kept in memory, linked through the entries so touching, removing and finding the eldest are O(1).
+ *
+ * Every change is one record appended to a journal, nothing is rewritten. When the journal has a lot more records
+ * than the list has keys the whole list is written to a snapshot and the journal starts over. Loading reads the
+ * snapshot and replays the journal on top of it, up to the first record that wasn't completely written.
+ *
+ * Replaying a record that's already in the snapshot gives the same list again (a touch moves the key to the front
+ * with its latest size, a remove of a missing key does nothing) so a crash between writing a snapshot and
+ * emptying the journal doesn't matter.
+ *
+ * Reads go into a lossy ring buffer with {@link #recordAccess(String)} and don't lock or write. The next touch,
+ * remove or {@link #eldest()} drains the buffer, moving those keys to the front, and the next write journals
+ * them along with its own record. Eviction asks for the eldest so it always sees every read that was buffered.
+ *
+ * An {@link EvictionPolicy} can be given to choose what's evicted instead of the eldest, see {@link #victims(long)}. It's
+ * told about every touch, read and remove as they're applied, including the ones replayed when loading, and saves
+ * its own state whenever the list checkpoints.
+ */
+public class RecencyList {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecencyList.class);
+
+    private static final byte TOUCH_RECORD = 1;
+    private static final byte REMOVE_RECORD = 2;
+    private static final byte ACCESS_RECORD = 3;
+
+    //[type 1][key length 4][size 4] key [crc 4]
+    private static final int RECORD_HEADER_SIZE = 1 + 4 + 4;
+    private static final int RECORD_CRC_SIZE = 4;
+
+    private static final int SNAPSHOT_MAGIC = 0x52454331;
+
+    //journal records allowed before a snapshot, or twice the keys in the list if that's more
+    private static final int MIN_CHECKPOINT_RECORDS = 4096;
+
+    private final File folder;
+    private final File snapshotFile;
+    private final File snapshotTemp;
+    private final FileAccess journal;
+    private final EvictionPolicy policy;
+
+    //reads recorded without taking the lock, drained into the list by whoever takes it next
+    private static final int READ_BUFFER_SIZE = 1024;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    private final AtomicReferenceArray<String> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter; //only moved with the lock held
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    //read and moved to the front but not journaled yet
+    private final Map<String, Integer> accessed = new LinkedHashMap<>(); //times read
+
+    //most recent at the head
+    private Entry head;
+    private Entry tail;
+
+    private long totalSize;
+
+    private long journalLength;
+    private long journalRecords;
+
+    //records going out in one write
+    private ByteBuffer batch = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+    public RecencyList(File folder) {
+        this(folder, StorageOptions.defaults());
+    }
+
+    /**
+     * @param folder - the journal and snapshot are kept in it
+     * @param options - journal writes are synced the way its durability policy says
+     */
+    public RecencyList(File folder, StorageOptions options) {
+        this(folder, options, null);
+    }
+
+    /**
+     * @param folder - the journal and snapshot are kept in it
+     * @param options - journal writes are synced the way its durability policy says
+     * @param policy - picks the victims, null to evict the eldest
+     */
+    public RecencyList(File folder, StorageOptions options, EvictionPolicy policy) {
+
+        folder.mkdirs();
+
+        if(!folder.isDirectory()) {
+            throw new IllegalArgumentException("recency folder must be a folder");
+        }
+
+        this.folder = folder;
+        this.policy = policy;
+        this.snapshotFile = new File(folder, "recency.snapshot");
+        this.snapshotTemp = new File(folder, "recency.snapshot.tmp");
+
+        final File journalFile = new File(folder, "recency.journal");
+
+        try {
+
+            journalFile.createNewFile(); //readers open it read only
+
+            this.journal = FileAccess.open(journalFile, options);
+
+            snapshotTemp.delete(); //a snapshot that wasn't finished
+
+            if(policy != null) {
+                policy.load(folder);
+            }
+
+            if(snapshotFile.exists()) {
+                loadSnapshot();
+            }
+
+            replayJournal();
+
+        }
+        catch (IOException e) {
+            throw new RuntimeException("failed to load recency list " + folder, e);
+        }
+
+    }
+
+    /**
+     * Records that the key was read, it's moved to the front the next time the buffer is drained. Doesn't lock or
+     * write anything, if the buffer is full and someone else is draining it the read isn't counted, a key that's
+     * read a lot will get in another time.
+     */
+    public void recordAccess(String key) {
+
+        if(offer(key)) {
+            return;
+        }
+
+        if(lock.tryLock()) {
+
+            try {
+                drain();
+            }
+            finally {
+                lock.unlock();
+            }
+
+            offer(key);
+
+        }
+
+    }
+
+    /**
+     * Moves the key to the front, adding it if it isn't there.
+     *
+     * @param size - what the key's value counts for, replaces what it was
+     */
+    public void touch(String key, int size) throws WriteFailure {
+
+        lock.lock();
+
+        try {
+
+            drain();
+
+            batch.clear();
+
+            encodeAccesses();
+            encode(TOUCH_RECORD, key, size);
+
+            writeBatch();
+
+            applyTouch(key, size);
+
+            checkpointIfLong();
+
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * @return false if the key wasn't there, nothing is written then
+     */
+    public boolean remove(String key) throws WriteFailure {
+
+        lock.lock();
+
+        try {
+
+            drain();
+
+            if(!entries.containsKey(key)) {
+                return false;
+            }
+
+            batch.clear();
+
+            encodeAccesses();
+            encode(REMOVE_RECORD, key, 0);
+
+            writeBatch();
+
+            applyRemove(key);
+
+            checkpointIfLong();
+
+            return true;
+
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * Removes them all with one write to the journal, keys that aren't there are skipped.
+     *
+     * @return how many were there
+     */
+    public int removeAll(Collection<String> keys) throws WriteFailure {
+
+        lock.lock();
+
+        try {
+
+            drain();
+
+            batch.clear();
+
+            encodeAccesses();
+
+            final Set<String> removing = new LinkedHashSet<>();
+
+            for(final String key : keys) {
+                if(entries.containsKey(key) && removing.add(key)) {
+                    encode(REMOVE_RECORD, key, 0);
+                }
+            }
+
+            if(batch.position() == 0) {
+                return 0;
+            }
+
+            writeBatch();
+
+            for(final String key : removing) {
+                applyRemove(key);
+            }
+
+            checkpointIfLong();
+
+            return removing.size();
+
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * @return the least recently touched or read key, null if the list is empty
+     */
+    public String eldest() {
+
+        lock.lock();
+
+        try {
+
+            drain();
+
+            return tail == null ? null : tail.key;
+
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * Nothing is removed, the caller removes the values and then the keys with {@link #removeAll(Collection)}.
+     *
+     * @param weight - how much has to be freed
+     * @return keys the policy wants evicted, the eldest if there's no policy, adding up to at least weight unless
+     * that's everything
+     */
+    public List<String> victims(long weight) {
+
+        lock.lock();
+
+        try {
+
+            drain();
+
+            if(policy != null) {
+                return policy.selectVictims(weight);
+            }
+
+            final List<String> victims = new ArrayList<>();
+
+            long freed = 0;
+
+            for(Entry entry = tail; entry != null && freed < weight; entry = entry.prev) {
+                victims.add(entry.key);
+                freed += entry.size;
+            }
+
+            return victims;
+
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * @return the size the key was last touched with, -1 if it isn't there
+     */
+    public int getSize(String key) {
+
+        lock.lock();
+
+        try {
+
+            final Entry entry = entries.get(key);
+
+            return entry == null ? -1 : entry.size;
+
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    public boolean contains(String key) {
+
+        lock.lock();
+
+        try {
+            return entries.containsKey(key);
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * @return sum of the sizes of every key
+     */
+    public long getTotalSize() {
+
+        lock.lock();
+
+        try {
+            return totalSize;
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    public int getCount() {
+
+        lock.lock();
+
+        try {
+            return entries.size();
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    public void clear() throws WriteFailure {
+
+        lock.lock();
+
+        try {
+
+            drain();
+
+            entries.clear();
+            accessed.clear();
+            head = null;
+            tail = null;
+            totalSize = 0;
+
+            if(policy != null) {
+                policy.clear();
+            }
+
+            checkpoint();
+
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * Writes the list to the snapshot and empties the journal. Happens on its own as the journal grows.
+     */
+    public void checkpoint() throws WriteFailure {
+
+        lock.lock();
+
+        try {
+
+            drain();
+
+            if(policy != null) {
+                policy.save(folder); //first, replaying a journal the snapshot already has only counts some uses twice
+            }
+
+            try(final FileOutputStream file = new FileOutputStream(snapshotTemp)) {
+
+                final OutputStream out = new BufferedOutputStream(file, 64 * 1024);
+                final CRC32 crc = new CRC32();
+
+                final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+                header.putInt(SNAPSHOT_MAGIC).putInt(entries.size());
+
+                write(out, crc, header.array(), 8);
+
+                //eldest first so loading can touch them in order
+                for(Entry entry = tail; entry != null; entry = entry.prev) {
+
+                    final byte [] key = entry.key.getBytes(StandardCharsets.UTF_8);
+
+                    header.clear();
+                    header.putInt(key.length).putInt(entry.size);
+
+                    write(out, crc, header.array(), 8);
+                    write(out, crc, key, key.length);
+
+                }
+
+                header.clear();
+                header.putInt((int) crc.getValue());
+
+                out.write(header.array(), 0, 4);
+                out.flush();
+
+                file.getFD().sync();
+
+            }
+
+            Files.move(snapshotTemp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            journal.setLength(0);
+            journal.syncTransaction();
+
+            journalLength = 0;
+            journalRecords = 0;
+
+            accessed.clear(); //the snapshot has their order
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to checkpoint recency list " + snapshotFile + " " + e.getMessage(), e);
+        }
+        finally {
+            lock.unlock();
+        }
+
+    }
+
+    private static void write(OutputStream out, CRC32 crc, byte [] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        crc.update(bytes, 0, length);
+    }
+
+    /**
+     * @return false if the buffer is full or another reader got the slot first
+     */
+    private boolean offer(String key) {
+
+        final long tail = writeCounter.get();
+
+        if(tail - readCounter >= READ_BUFFER_SIZE) {
+            return false;
+        }
+
+        if(!writeCounter.compareAndSet(tail, tail + 1)) {
+            return false;
+        }
+
+        readBuffer.lazySet((int) (tail & READ_BUFFER_MASK), key);
+
+        return true;
+
+    }
+
+    /**
+     * Moves every key read since the last drain to the front, in the order they were read. They're journaled with
+     * the next write. Called with the lock held.
+     */
+    private void drain() {
+
+        long head = readCounter;
+        final long tail = writeCounter.get();
+
+        for(; head < tail; head++) {
+
+            final int index = (int) (head & READ_BUFFER_MASK);
+            final String key = readBuffer.get(index);
+
+            if(key == null) {
+                break; //a reader has the slot but hasn't put its key in yet, it's picked up next time
+            }
+
+            readBuffer.lazySet(index, null);
+
+            if(applyAccess(key, 1)) {
+
+                final Integer reads = accessed.remove(key); //to the end, journaled in the order they were read last
+
+                accessed.put(key, reads == null ? 1 : reads + 1);
+
+            }
+
+        }
+
+        readCounter = head;
+
+    }
+
+    /**
+     * adds the reads that haven't been journaled to the batch, ahead of the write they go out with
+     */
+    private void encodeAccesses() {
+
+        //one record for however many times it was read, the count goes where a touch has its size
+        for(final Map.Entry<String, Integer> read : accessed.entrySet()) {
+            encode(ACCESS_RECORD, read.getKey(), read.getValue());
+        }
+
+        accessed.clear();
+
+    }
+
+    private void encode(byte type, String key, int size) {
+
+        final byte [] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int length = RECORD_HEADER_SIZE + keyBytes.length + RECORD_CRC_SIZE;
+
+        if(batch.remaining() < length) {
+
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(batch.position() + length, batch.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+
+            grown.put(batch.array(), 0, batch.position());
+
+            batch = grown;
+
+        }
+
+        final int start = batch.position();
+
+        batch.put(type).putInt(keyBytes.length).putInt(size).put(keyBytes);
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(batch.array(), start, length - RECORD_CRC_SIZE);
+
+        batch.putInt((int) crc.getValue());
+
+        journalRecords++;
+
+    }
+
+    /**
+     * the whole batch is one write
+     */
+    private void writeBatch() throws WriteFailure {
+
+        try {
+
+            journal.write(journalLength, batch.array(), 0, batch.position());
+            journal.syncTransaction();
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write recency journal " + e.getMessage(), e);
+        }
+
+        journalLength += batch.position();
+
+    }
+
+    /**
+     * after the record is applied, the snapshot has to have it
+     */
+    private void checkpointIfLong() throws WriteFailure {
+
+        if(journalRecords > Math.max(MIN_CHECKPOINT_RECORDS, 2L * entries.size())) {
+            checkpoint();
+        }
+
+    }
+
+    private void loadSnapshot() throws IOException {
+
+        final byte [] bytes = Files.readAllBytes(snapshotFile.toPath());
+        final ByteBuffer snapshot = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(bytes, 0, Math.max(0, bytes.length - 4));
+
+        //it's only ever replaced whole so this is a bad disk or someone else's file, start empty, nothing is lost but
+        //the order and whatever isn't evicted can't be counted
+        if(bytes.length < 12 || snapshot.getInt(0) != SNAPSHOT_MAGIC || snapshot.getInt(bytes.length - 4) != (int) crc.getValue()) {
+            logger.error("recency snapshot " + snapshotFile + " is corrupt, starting empty");
+            return;
+        }
+
+        snapshot.position(4);
+
+        final int count = snapshot.getInt();
+
+        for(int i = 0; i < count; i++) {
+
+            final int keyLength = snapshot.getInt();
+            final int size = snapshot.getInt();
+
+            final String key = new String(bytes, snapshot.position(), keyLength, StandardCharsets.UTF_8);
+
+            touchEntry(key, size);
+
+            if(policy != null) {
+                policy.restore(key, size);
+            }
+
+            snapshot.position(snapshot.position() + keyLength);
+
+        }
+
+    }
+
+    private void replayJournal() throws IOException {
+
+        final long length = journal.length();
+
+        final byte [] header = new byte[RECORD_HEADER_SIZE];
+        final ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+        long position = 0;
+
+        while(position + RECORD_HEADER_SIZE + RECORD_CRC_SIZE <= length) {
+
+            journal.readFully(position, header);
+
+            final byte type = header[0];
+            final int keyLength = headerBuffer.getInt(1);
+            final int size = headerBuffer.getInt(5);
+
+            if((type != TOUCH_RECORD && type != REMOVE_RECORD && type != ACCESS_RECORD) || keyLength < 0 || position + RECORD_HEADER_SIZE + keyLength + RECORD_CRC_SIZE > length) {
+                break;
+            }
+
+            final byte [] rest = new byte[keyLength + RECORD_CRC_SIZE];
+
+            journal.readFully(position + RECORD_HEADER_SIZE, rest);
+
+            final CRC32 crc = new CRC32();
+
+            crc.update(header);
+            crc.update(rest, 0, keyLength);
+
+            if(ByteBuffer.wrap(rest, keyLength, RECORD_CRC_SIZE).order(ByteOrder.LITTLE_ENDIAN).getInt() != (int) crc.getValue()) {
+                break;
+            }
+
+            final String key = new String(rest, 0, keyLength, StandardCharsets.UTF_8);
+
+            if(type == TOUCH_RECORD) {
+                applyTouch(key, size);
+            }
+            else if(type == ACCESS_RECORD) {
+                applyAccess(key, Math.max(1, size));
+            }
+            else {
+                applyRemove(key);
+            }
+
+            position += RECORD_HEADER_SIZE + keyLength + RECORD_CRC_SIZE;
+            journalRecords++;
+
+        }
+
+        if(position < length) {
+            logger.debug("recency journal ends in a record that wasn't finished at " + position + ", dropping it");
+            journal.setLength(position);
+        }
+
+        journalLength = position;
+
+    }
+
+    private void applyTouch(String key, int size) {
+
+        touchEntry(key, size);
+
+        if(policy != null) {
+            policy.onInsert(key, size);
+        }
+
+    }
+
+    /**
+     * @param reads - the policy is told about each one, the list only moves it once
+     * @return false if the key isn't there, the policy isn't told then
+     */
+    private boolean applyAccess(String key, int reads) {
+
+        if(!accessEntry(key)) {
+            return false;
+        }
+
+        if(policy != null) {
+            for(int i = 0; i < reads; i++) {
+                policy.onAccess(key);
+            }
+        }
+
+        return true;
+
+    }
+
+    private void applyRemove(String key) {
+
+        removeEntry(key);
+
+        if(policy != null) {
+            policy.onRemove(key);
+        }
+
+    }
+
+    private void touchEntry(String key, int size) {
+
+        Entry entry = entries.get(key);
+
+        if(entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+        else {
+            totalSize -= entry.size;
+            unlink(entry);
+        }
+
+        entry.size = size;
+        totalSize += size;
+
+        //to the front
+        entry.next = head;
+
+        if(head != null) {
+            head.prev = entry;
+        }
+
+        head = entry;
+
+        if(tail == null) {
+            tail = entry;
+        }
+
+    }
+
+    /**
+     * @return false if the key isn't there, a read doesn't add it
+     */
+    private boolean accessEntry(String key) {
+
+        final Entry entry = entries.get(key);
+
+        if(entry == null) {
+            return false;
+        }
+
+        touchEntry(key, entry.size);
+
+        return true;
+
+    }
+
+    private void removeEntry(String key) {
+
+        final Entry entry = entries.remove(key);
+
+        if(entry != null) {
+            totalSize -= entry.size;
+            unlink(entry);
+        }
+
+    }
+
+    private void unlink(Entry entry) {
+
+        if(entry.prev != null) {
+            entry.prev.next = entry.next;
+        }
+        else {
+            head = entry.next;
+        }
+
+        if(entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        else {
+            tail = entry.prev;
+        }
+
+        entry.prev = null;
+        entry.next = null;
+
+    }
+
+    private static class Entry {
+
+        private final String key;
+        private int size;
+
+        private Entry prev; //more recent
+        private Entry next; //less recent
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+    }
+
+}
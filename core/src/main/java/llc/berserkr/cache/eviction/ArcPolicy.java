@@ -0,0 +1,280 @@
+package llc.berserkr.cache.eviction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adaptive replacement cache, with weights. Keys used once are in T1 and keys used more than once in T2, both LRU.
+ * Evicted keys are remembered without their values in the ghost lists B1 and B2. A put of a key that's in B1 means T1
+ * was too small so its target p grows, one in B2 means T2 was so it shrinks. Victims come from T1 while it's over p
+ * and from T2 otherwise, so the split between recent and frequent follows the traffic.
+ *
+ * Only keys picked by {@link #selectVictims(long)} go to the ghost lists when they're removed, a remove from the
+ * cache forgets the key. The ghost lists and p aren't saved, after a restart every key comes back in T1 and it
+ * learns again.
+ */
+public class ArcPolicy implements EvictionPolicy {
+
+    private static final byte T1 = 1;
+    private static final byte T2 = 2;
+    private static final byte B1 = 3;
+    private static final byte B2 = 4;
+
+    private final long maxWeight;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    private final NodeList t1 = new NodeList();
+    private final NodeList t2 = new NodeList();
+    private final NodeList b1 = new NodeList();
+    private final NodeList b2 = new NodeList();
+
+    //what T1 should weigh
+    private long target;
+
+    /**
+     * @param maxWeight - the same max as the cache
+     */
+    public ArcPolicy(long maxWeight) {
+
+        if(maxWeight <= 0) {
+            throw new IllegalArgumentException("max weight must be positive");
+        }
+
+        this.maxWeight = maxWeight;
+
+    }
+
+    @Override
+    public void restore(String key, int weight) {
+
+        forget(key);
+
+        final Node node = new Node(key, weight);
+
+        nodes.put(key, node);
+        t1.addFirst(node, T1);
+
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+
+        final Node node = nodes.get(key);
+
+        if(node == null) {
+
+            final Node added = new Node(key, weight);
+
+            nodes.put(key, added);
+            t1.addFirst(added, T1);
+
+            trimGhosts();
+
+            return;
+
+        }
+
+        if(node.queue == B1) {
+
+            target = Math.min(maxWeight, target + Math.max(b2.weight / Math.max(1, b1.weight), 1) * weight);
+
+            b1.remove(node);
+            node.weight = weight;
+            t2.addFirst(node, T2);
+
+        }
+        else if(node.queue == B2) {
+
+            target = Math.max(0, target - Math.max(b1.weight / Math.max(1, b2.weight), 1) * weight);
+
+            b2.remove(node);
+            node.weight = weight;
+            t2.addFirst(node, T2);
+
+        }
+        else {
+
+            listOf(node).reweigh(node, weight);
+            node.weight = weight;
+
+            onHit(node);
+
+        }
+
+        node.evicting = false;
+
+        trimGhosts();
+
+    }
+
+    @Override
+    public void onAccess(String key) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null && (node.queue == T1 || node.queue == T2)) {
+            onHit(node);
+        }
+
+    }
+
+    @Override
+    public void onRemove(String key) {
+
+        final Node node = nodes.get(key);
+
+        if(node == null || node.queue == B1 || node.queue == B2) {
+            return;
+        }
+
+        if(!node.evicting) {
+            forget(key);
+            return;
+        }
+
+        node.evicting = false;
+
+        //evicted, remembered in the ghost list for the one it was in
+        if(node.queue == T1) {
+            t1.remove(node);
+            b1.addFirst(node, B1);
+        }
+        else {
+            t2.remove(node);
+            b2.addFirst(node, B2);
+        }
+
+        trimGhosts();
+
+    }
+
+    /**
+     * T1's eldest while it weighs more than the target, T2's eldest otherwise, as if each were evicted before the next
+     * was picked
+     */
+    @Override
+    public List<String> selectVictims(long weight) {
+
+        final List<String> victims = new ArrayList<>();
+
+        long freed = 0;
+        long t1Weight = t1.weight;
+
+        Node fromT1 = t1.tail;
+        Node fromT2 = t2.tail;
+
+        while(freed < weight && (fromT1 != null || fromT2 != null)) {
+
+            final Node evicting;
+
+            if(fromT1 != null && (t1Weight > target || fromT2 == null)) {
+                evicting = fromT1;
+                t1Weight -= fromT1.weight;
+                fromT1 = fromT1.prev;
+            }
+            else {
+                evicting = fromT2;
+                fromT2 = fromT2.prev;
+            }
+
+            evicting.evicting = true;
+
+            victims.add(evicting.key);
+            freed += evicting.weight;
+
+        }
+
+        return victims;
+
+    }
+
+    @Override
+    public void clear() {
+
+        nodes.clear();
+
+        t1.clear();
+        t2.clear();
+        b1.clear();
+        b2.clear();
+
+        target = 0;
+
+    }
+
+    /**
+     * @return what T1 is aiming to weigh
+     */
+    public long getTarget() {
+        return target;
+    }
+
+    /**
+     * @return true if the key was used more than once since it was put
+     */
+    public boolean isFrequent(String key) {
+
+        final Node node = nodes.get(key);
+
+        return node != null && node.queue == T2;
+
+    }
+
+    private void onHit(Node node) {
+
+        node.evicting = false;
+
+        if(node.queue == T1) {
+            t1.remove(node);
+            t2.addFirst(node, T2);
+        }
+        else {
+            t2.moveToFront(node);
+        }
+
+    }
+
+    /**
+     * T1 and B1 together stay within the max, all four within twice it
+     */
+    private void trimGhosts() {
+
+        while(b1.tail != null && t1.weight + b1.weight > maxWeight) {
+            forget(b1.tail.key);
+        }
+
+        while(b2.tail != null && t1.weight + t2.weight + b1.weight + b2.weight > 2 * maxWeight) {
+            forget(b2.tail.key);
+        }
+
+        while(b1.tail != null && t1.weight + t2.weight + b1.weight + b2.weight > 2 * maxWeight) {
+            forget(b1.tail.key);
+        }
+
+    }
+
+    private void forget(String key) {
+
+        final Node node = nodes.remove(key);
+
+        if(node != null) {
+            listOf(node).remove(node);
+        }
+
+    }
+
+    private NodeList listOf(Node node) {
+
+        switch(node.queue) {
+            case T1: return t1;
+            case T2: return t2;
+            case B1: return b1;
+            default: return b2;
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package llc.berserkr.cache.eviction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CLOCK, second chance. Keys sit in a ring that a hand sweeps around, a read only sets the key's referenced bit so
+ * it's cheaper than moving it like LRU does. When something has to go the hand clears the bit of each referenced key
+ * it passes and picks the first one that wasn't. New keys go in just behind the hand so they're the last it gets to.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private static final byte QUEUE = 0;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    //the ring, the hand goes from head to tail and back to the head
+    private final NodeList ring = new NodeList();
+
+    private Node hand;
+
+    @Override
+    public void restore(String key, int weight) {
+
+        //in the order they were used so the eldest are swept first
+        final Node node = new Node(key, weight);
+
+        nodes.put(key, node);
+        ring.addAfter(ring.tail, node, QUEUE);
+
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+
+            ring.reweigh(node, weight);
+            node.weight = weight;
+            node.referenced = true;
+
+            return;
+
+        }
+
+        final Node added = new Node(key, weight);
+
+        nodes.put(key, added);
+
+        if(hand == null) {
+            ring.addAfter(ring.tail, added, QUEUE);
+        }
+        else {
+            ring.addAfter(hand.prev, added, QUEUE); //behind the hand
+        }
+
+    }
+
+    @Override
+    public void onAccess(String key) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+            node.referenced = true;
+        }
+
+    }
+
+    @Override
+    public void onRemove(String key) {
+
+        final Node node = nodes.remove(key);
+
+        if(node == null) {
+            return;
+        }
+
+        if(hand == node) {
+            hand = node.next;
+        }
+
+        ring.remove(node);
+
+    }
+
+    /**
+     * The hand stops on the key after the last one picked. Twice around is enough to clear every bit, keys already
+     * picked are passed over after that.
+     */
+    @Override
+    public List<String> selectVictims(long weight) {
+
+        final List<String> victims = new ArrayList<>();
+
+        if(ring.count == 0) {
+            return victims;
+        }
+
+        long freed = 0;
+
+        Node current = hand == null ? ring.head : hand;
+
+        for(long steps = 0; freed < weight && victims.size() < ring.count && steps < 3L * ring.count; steps++) {
+
+            if(current.referenced) {
+                current.referenced = false;
+            }
+            else if(!current.evicting) {
+
+                current.evicting = true; //so it isn't picked twice going around
+
+                victims.add(current.key);
+                freed += current.weight;
+
+            }
+
+            current = current.next == null ? ring.head : current.next;
+
+        }
+
+        for(final String victim : victims) {
+            nodes.get(victim).evicting = false;
+        }
+
+        hand = current;
+
+        return victims;
+
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        ring.clear();
+        hand = null;
+    }
+
+}
@@ -0,0 +1,76 @@
+package llc.berserkr.cache.eviction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decides what a bounded cache evicts. The cache's {@link llc.berserkr.cache.data.RecencyList} keeps which keys are
+ * there and what they weigh, and tells the policy about every change with its lock held, so a policy doesn't have
+ * to be thread safe and shouldn't do any io outside of {@link #save(File)} and {@link #load(File)}. Nothing the
+ * policy keeps is written per put or read, what it needs after a restart it gets from {@link #restore(String, int)}
+ * and the journal being replayed through it, plus whatever it saved itself.
+ *
+ * A policy is made for one cache, with the same max as that cache if it needs one.
+ *
+ * @see LruPolicy
+ * @see ClockPolicy
+ * @see SlruPolicy
+ * @see LfuPolicy
+ * @see ArcPolicy
+ * @see WindowTinyLfuPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * A key that was in the list when it was last saved, eldest first, before anything new is added. It isn't a use.
+     */
+    void restore(String key, int weight);
+
+    /**
+     * The key was put, it may already be there with another weight.
+     */
+    void onInsert(String key, int weight);
+
+    /**
+     * The key was read, it's there.
+     */
+    void onAccess(String key);
+
+    /**
+     * The key was removed or evicted, does nothing if it isn't there.
+     */
+    void onRemove(String key);
+
+    /**
+     * The cache is over its max by the weight given. The keys returned are evicted in order and then
+     * {@link #onRemove(String)} is called for each, if the cache fails part way through the rest are still there and
+     * it asks again later. So this doesn't remove anything itself but it can move keys around while it decides.
+     *
+     * @param weight - what has to be freed, at least 1
+     * @return keys to evict whose weights add up to at least weight, fewer if that's everything
+     */
+    List<String> selectVictims(long weight);
+
+    /**
+     * every key is gone, what the policy learned about keys in general can be kept
+     */
+    void clear();
+
+    /**
+     * Writes what the policy needs to come back the same after a restart, called when the list is checkpointed.
+     * Nothing by default, the order the keys are restored in and the journal replayed after are enough for most.
+     *
+     * @param folder - the list's folder, shared with it
+     */
+    default void save(File folder) throws IOException {
+    }
+
+    /**
+     * Reads what {@link #save(File)} wrote, called once before any keys are restored. Nothing being there isn't an
+     * error.
+     */
+    default void load(File folder) throws IOException {
+    }
+
+}
@@ -0,0 +1,162 @@
+package llc.berserkr.cache.eviction;
+
+/**
+ * Count-min sketch of how often keys were used, four 4 bit counters per key spread over a table of longs. Each long
+ * holds sixteen counters, a key's four are in the same quarter of four different longs. Once there have been ten
+ * times as many increments as the table has longs every counter is halved so what was popular a long time ago fades.
+ *
+ * Not thread safe, it's only used with the recency list's lock held.
+ */
+class FrequencySketch {
+
+    private static final long [] SEED = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private static final int MIN_TABLE_SIZE = 16;
+    private static final int MAX_TABLE_SIZE = 1 << 26;
+
+    private long [] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size; //increments since the last halving
+
+    FrequencySketch(long expectedKeys) {
+        resize(expectedKeys);
+    }
+
+    /**
+     * Grows the table for more keys, what was counted is lost when it does. Doesn't shrink.
+     */
+    void ensureCapacity(long expectedKeys) {
+
+        if(expectedKeys > table.length && table.length < MAX_TABLE_SIZE) {
+            resize(expectedKeys);
+        }
+
+    }
+
+    /**
+     * @return estimate of the uses of the key, 0 to 15
+     */
+    int frequency(String key) {
+
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+
+        int frequency = Integer.MAX_VALUE;
+
+        for(int i = 0; i < 4; i++) {
+
+            final int index = indexOf(hash, i);
+            final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+
+            frequency = Math.min(frequency, count);
+
+        }
+
+        return frequency;
+
+    }
+
+    void increment(String key) {
+
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+
+        boolean added = false;
+
+        for(int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if(added && ++size >= sampleSize) {
+            reset();
+        }
+
+    }
+
+    long [] getTable() {
+        return table;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * puts back what was saved, the table length has to be a power of two
+     */
+    void restore(long [] table, int size) {
+
+        this.table = table;
+        this.tableMask = table.length - 1;
+        this.sampleSize = 10 * table.length;
+        this.size = Math.max(0, Math.min(size, sampleSize - 1));
+
+    }
+
+    private void resize(long expectedKeys) {
+
+        final int tableSize = (int) Math.min(MAX_TABLE_SIZE, Math.max(MIN_TABLE_SIZE, Long.highestOneBit(Math.max(1, expectedKeys - 1)) << 1));
+
+        restore(new long[tableSize], 0);
+
+    }
+
+    /**
+     * @return false if the counter was already at 15
+     */
+    private boolean incrementAt(int index, int counter) {
+
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+
+        if((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * halves every counter, the odd ones lost are taken off the size too
+     */
+    private void reset() {
+
+        int odd = 0;
+
+        for(int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+
+        size = (size - (odd >>> 2)) >>> 1;
+
+    }
+
+    private int indexOf(int hash, int i) {
+
+        long index = (hash + SEED[i]) * SEED[i];
+
+        index += index >>> 32;
+
+        return ((int) index) & tableMask;
+
+    }
+
+    private static int spread(int x) {
+
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+
+        return (x >>> 16) ^ x;
+
+    }
+
+}
@@ -0,0 +1,203 @@
+package llc.berserkr.cache.eviction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Evicts the least frequently used, the least recently used of those first. Keys are kept in a list per use count so
+ * a put, read or remove only moves a key from one list to the next. Counts start at one, the next put of a key that
+ * was evicted starts it over.
+ *
+ * Counts never go down so a key that was used a lot once stays even if it never is again, {@link WindowTinyLfuPolicy}
+ * ages what it counts and only keeps counts for what's worth it. The counts are saved every time the recency list
+ * checkpoints, what's replayed from the journal after is counted again.
+ */
+public class LfuPolicy implements EvictionPolicy {
+
+    private static final String STATE_FILE = "lfu.state";
+
+    private static final int STATE_MAGIC = 0x4c465531;
+
+    private static final byte QUEUE = 0;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    //use count to the keys with that many, most recent at the head of each
+    private final TreeMap<Integer, NodeList> frequencies = new TreeMap<>();
+
+    //counts from the last save, restore gives them back
+    private Map<String, Integer> restoredFrequencies = new HashMap<>();
+
+    @Override
+    public void restore(String key, int weight) {
+
+        onRemove(key);
+
+        final Integer frequency = restoredFrequencies.remove(key);
+
+        add(new Node(key, weight), frequency == null ? 1 : frequency);
+
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+
+        final Node node = nodes.get(key);
+
+        if(node == null) {
+            add(new Node(key, weight), 1);
+            return;
+        }
+
+        frequencies.get(node.frequency).reweigh(node, weight);
+        node.weight = weight;
+
+        increment(node);
+
+    }
+
+    @Override
+    public void onAccess(String key) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+            increment(node);
+        }
+
+    }
+
+    @Override
+    public void onRemove(String key) {
+
+        final Node node = nodes.remove(key);
+
+        if(node != null) {
+            unlink(node);
+        }
+
+    }
+
+    @Override
+    public List<String> selectVictims(long weight) {
+
+        final List<String> victims = new ArrayList<>();
+
+        long freed = 0;
+
+        for(final NodeList list : frequencies.values()) {
+
+            for(Node node = list.tail; node != null && freed < weight; node = node.prev) {
+                victims.add(node.key);
+                freed += node.weight;
+            }
+
+            if(freed >= weight) {
+                break;
+            }
+
+        }
+
+        return victims;
+
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        frequencies.clear();
+    }
+
+    /**
+     * [count 4] ([key length 4] key [uses 4])
+     */
+    @Override
+    public void save(File folder) throws IOException {
+
+        PolicyStateFile.write(folder, STATE_FILE, STATE_MAGIC, out -> {
+
+            out.putInt(nodes.size());
+
+            for(final Node node : nodes.values()) {
+                out.putString(node.key);
+                out.putInt(node.frequency);
+            }
+
+        });
+
+    }
+
+    @Override
+    public void load(File folder) throws IOException {
+
+        final ByteBuffer state = PolicyStateFile.read(folder, STATE_FILE, STATE_MAGIC);
+
+        if(state == null) {
+            return;
+        }
+
+        final int count = state.getInt();
+        final Map<String, Integer> loaded = new HashMap<>();
+
+        for(int i = 0; i < count; i++) {
+
+            final String key = PolicyStateFile.getString(state);
+
+            loaded.put(key, Math.max(1, state.getInt()));
+
+        }
+
+        restoredFrequencies = loaded;
+
+    }
+
+    /**
+     * @return times the key was put or read, 0 if it isn't there
+     */
+    public int frequency(String key) {
+
+        final Node node = nodes.get(key);
+
+        return node == null ? 0 : node.frequency;
+
+    }
+
+    private void add(Node node, int frequency) {
+
+        node.frequency = frequency;
+
+        nodes.put(node.key, node);
+        frequencies.computeIfAbsent(frequency, f -> new NodeList()).addFirst(node, QUEUE);
+
+    }
+
+    private void increment(Node node) {
+
+        if(node.frequency == Integer.MAX_VALUE) {
+            frequencies.get(node.frequency).moveToFront(node);
+            return;
+        }
+
+        unlink(node);
+
+        node.frequency++;
+
+        frequencies.computeIfAbsent(node.frequency, f -> new NodeList()).addFirst(node, QUEUE);
+
+    }
+
+    private void unlink(Node node) {
+
+        final NodeList list = frequencies.get(node.frequency);
+
+        list.remove(node);
+
+        if(list.count == 0) {
+            frequencies.remove(node.frequency);
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package llc.berserkr.cache.eviction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evicts the least recently put or read. The same order the recency list keeps on its own, use this to get it
+ * through the policy interface, the caches evict this way without a policy and don't need a second list for it.
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    private static final byte QUEUE = 0;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final NodeList order = new NodeList();
+
+    @Override
+    public void restore(String key, int weight) {
+        onInsert(key, weight);
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+
+            order.reweigh(node, weight);
+            node.weight = weight;
+
+            order.moveToFront(node);
+
+            return;
+
+        }
+
+        final Node added = new Node(key, weight);
+
+        nodes.put(key, added);
+        order.addFirst(added, QUEUE);
+
+    }
+
+    @Override
+    public void onAccess(String key) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+            order.moveToFront(node);
+        }
+
+    }
+
+    @Override
+    public void onRemove(String key) {
+
+        final Node node = nodes.remove(key);
+
+        if(node != null) {
+            order.remove(node);
+        }
+
+    }
+
+    @Override
+    public List<String> selectVictims(long weight) {
+
+        final List<String> victims = new ArrayList<>();
+
+        long freed = 0;
+
+        for(Node node = order.tail; node != null && freed < weight; node = node.prev) {
+            victims.add(node.key);
+            freed += node.weight;
+        }
+
+        return victims;
+
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        order.clear();
+    }
+
+}
@@ -0,0 +1,24 @@
+package llc.berserkr.cache.eviction;
+
+/**
+ * A key in one of a policy's lists. Which fields mean anything depends on the policy.
+ */
+class Node {
+
+    final String key;
+    int weight;
+
+    byte queue; //which of the policy's lists it's in
+    int frequency; //uses, for the policies that count them
+    boolean referenced; //read since the clock hand last passed
+    boolean evicting; //picked as a victim and not used since
+
+    Node prev; //more recent
+    Node next; //less recent
+
+    Node(String key, int weight) {
+        this.key = key;
+        this.weight = weight;
+    }
+
+}
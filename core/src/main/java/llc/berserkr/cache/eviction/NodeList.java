@@ -0,0 +1,109 @@
+package llc.berserkr.cache.eviction;
+
+/**
+ * A list linked through its nodes, most recent at the head. Keeps the weight and count of what's in it.
+ */
+class NodeList {
+
+    Node head;
+    Node tail;
+    long weight;
+    int count;
+
+    void addFirst(Node node, byte queue) {
+
+        node.queue = queue;
+        node.prev = null;
+        node.next = head;
+
+        if(head != null) {
+            head.prev = node;
+        }
+
+        head = node;
+
+        if(tail == null) {
+            tail = node;
+        }
+
+        weight += node.weight;
+        count++;
+
+    }
+
+    /**
+     * puts it after the one given, at the head if that's null
+     */
+    void addAfter(Node after, Node node, byte queue) {
+
+        if(after == null) {
+            addFirst(node, queue);
+            return;
+        }
+
+        node.queue = queue;
+        node.prev = after;
+        node.next = after.next;
+
+        if(after.next != null) {
+            after.next.prev = node;
+        }
+        else {
+            tail = node;
+        }
+
+        after.next = node;
+
+        weight += node.weight;
+        count++;
+
+    }
+
+    void remove(Node node) {
+
+        if(node.prev != null) {
+            node.prev.next = node.next;
+        }
+        else {
+            head = node.next;
+        }
+
+        if(node.next != null) {
+            node.next.prev = node.prev;
+        }
+        else {
+            tail = node.prev;
+        }
+
+        node.prev = null;
+        node.next = null;
+
+        weight -= node.weight;
+        count--;
+
+    }
+
+    void moveToFront(Node node) {
+
+        if(head != node) {
+            remove(node);
+            addFirst(node, node.queue);
+        }
+
+    }
+
+    /**
+     * the node's weight is changing, call before it's set
+     */
+    void reweigh(Node node, int weight) {
+        this.weight += weight - node.weight;
+    }
+
+    void clear() {
+        head = null;
+        tail = null;
+        weight = 0;
+        count = 0;
+    }
+
+}
@@ -0,0 +1,152 @@
+package llc.berserkr.cache.eviction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * What a policy saves, [magic 4] body [crc 4] little endian. Written to a temp file, synced and moved over the last
+ * one so it's only ever replaced whole, the same as the recency list's snapshot.
+ */
+class PolicyStateFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicyStateFile.class);
+
+    interface Body {
+        void write(Output out) throws IOException;
+    }
+
+    private PolicyStateFile() {
+    }
+
+    static void write(File folder, String name, int magic, Body body) throws IOException {
+
+        final File stateFile = new File(folder, name);
+        final File stateTemp = new File(folder, name + ".tmp");
+
+        try(final FileOutputStream file = new FileOutputStream(stateTemp)) {
+
+            final Output out = new Output(new BufferedOutputStream(file, 64 * 1024));
+
+            out.putInt(magic);
+
+            body.write(out);
+
+            out.finish();
+
+            file.getFD().sync();
+
+        }
+
+        Files.move(stateTemp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    /**
+     * @return the body, null if it was never saved or it's corrupt, starting over is all anyone can do then
+     */
+    static ByteBuffer read(File folder, String name, int magic) throws IOException {
+
+        final File stateFile = new File(folder, name);
+
+        new File(folder, name + ".tmp").delete(); //wasn't finished
+
+        if(!stateFile.exists()) {
+            return null;
+        }
+
+        final byte [] bytes = Files.readAllBytes(stateFile.toPath());
+        final ByteBuffer state = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(bytes, 0, Math.max(0, bytes.length - 4));
+
+        if(bytes.length < 8 || state.getInt(0) != magic || state.getInt(bytes.length - 4) != (int) crc.getValue()) {
+            logger.error("eviction state " + stateFile + " is corrupt, starting over");
+            return null;
+        }
+
+        state.position(4);
+        state.limit(bytes.length - 4);
+
+        return state;
+
+    }
+
+    static String getString(ByteBuffer state) {
+
+        final int length = state.getInt();
+        final String returnVal = new String(state.array(), state.position(), length, StandardCharsets.UTF_8);
+
+        state.position(state.position() + length);
+
+        return returnVal;
+
+    }
+
+    static class Output {
+
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        private Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void putInt(int value) throws IOException {
+
+            scratch.clear();
+            scratch.putInt(value);
+
+            write(scratch.array(), 4);
+
+        }
+
+        void putLong(long value) throws IOException {
+
+            scratch.clear();
+            scratch.putLong(value);
+
+            write(scratch.array(), 8);
+
+        }
+
+        /**
+         * length first
+         */
+        void putString(String value) throws IOException {
+
+            final byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+            putInt(bytes.length);
+            write(bytes, bytes.length);
+
+        }
+
+        private void write(byte [] bytes, int length) throws IOException {
+            out.write(bytes, 0, length);
+            crc.update(bytes, 0, length);
+        }
+
+        private void finish() throws IOException {
+
+            scratch.clear();
+            scratch.putInt((int) crc.getValue());
+
+            out.write(scratch.array(), 0, 4);
+            out.flush();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,157 @@
+package llc.berserkr.cache.eviction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segmented LRU. New keys go on probation, a key read again while it's there moves to the protected segment. The
+ * protected segment gets 80% of the max, when it's over that its eldest go back to probation. Victims are the
+ * eldest on probation, so a key has to be used twice before a run of new keys can't push it out.
+ */
+public class SlruPolicy implements EvictionPolicy {
+
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+
+    private final long protectedMax;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    private final NodeList probation = new NodeList();
+    private final NodeList protectedSegment = new NodeList();
+
+    /**
+     * @param maxWeight - the same max as the cache
+     */
+    public SlruPolicy(long maxWeight) {
+
+        if(maxWeight <= 0) {
+            throw new IllegalArgumentException("max weight must be positive");
+        }
+
+        this.protectedMax = maxWeight * 8 / 10;
+
+    }
+
+    @Override
+    public void restore(String key, int weight) {
+
+        onRemove(key);
+
+        final Node node = new Node(key, weight);
+
+        nodes.put(key, node);
+        probation.addFirst(node, PROBATION);
+
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+
+            listOf(node).reweigh(node, weight);
+            node.weight = weight;
+
+            onHit(node);
+
+            return;
+
+        }
+
+        restore(key, weight);
+
+    }
+
+    @Override
+    public void onAccess(String key) {
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+            onHit(node);
+        }
+
+    }
+
+    @Override
+    public void onRemove(String key) {
+
+        final Node node = nodes.remove(key);
+
+        if(node != null) {
+            listOf(node).remove(node);
+        }
+
+    }
+
+    @Override
+    public List<String> selectVictims(long weight) {
+
+        final List<String> victims = new ArrayList<>();
+
+        long freed = 0;
+
+        for(Node node = probation.tail; node != null && freed < weight; node = node.prev) {
+            victims.add(node.key);
+            freed += node.weight;
+        }
+
+        for(Node node = protectedSegment.tail; node != null && freed < weight; node = node.prev) {
+            victims.add(node.key);
+            freed += node.weight;
+        }
+
+        return victims;
+
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    /**
+     * @return true if the key is in the protected segment
+     */
+    public boolean isProtected(String key) {
+
+        final Node node = nodes.get(key);
+
+        return node != null && node.queue == PROTECTED;
+
+    }
+
+    private void onHit(Node node) {
+
+        if(node.queue == PROTECTED) {
+            protectedSegment.moveToFront(node);
+            return;
+        }
+
+        probation.remove(node);
+        protectedSegment.addFirst(node, PROTECTED);
+
+        //never the one just promoted
+        while(protectedSegment.weight > protectedMax && protectedSegment.tail != node) {
+
+            final Node demoted = protectedSegment.tail;
+
+            protectedSegment.remove(demoted);
+            probation.addFirst(demoted, PROBATION);
+
+        }
+
+    }
+
+    private NodeList listOf(Node node) {
+        return node.queue == PROTECTED ? protectedSegment : probation;
+    }
+
+}
@@ -0,0 +1,409 @@
+package llc.berserkr.cache.eviction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * W-TinyLFU. New keys go into a small LRU window (1% of the max), keys pushed out of the window have to beat the
+ * main space's victim on how often they've been used to get in, so a scan of keys that are only read once goes
+ * through the window without flushing what's used all the time. The main space is a segmented LRU, a key read
+ * again while on probation moves to the protected segment (80% of the main space) and falls back to probation when
+ * it's pushed out of there.
+ *
+ * How often keys were used is kept in a {@link FrequencySketch}, which is saved along with which keys were protected
+ * every time the recency list checkpoints. Everything since the checkpoint is replayed from the list's journal so
+ * the counts come back as they were.
+ */
+public class WindowTinyLfuPolicy implements EvictionPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(WindowTinyLfuPolicy.class);
+
+    private static final String STATE_FILE = "tinylfu.state";
+
+    private static final int STATE_MAGIC = 0x544c4655;
+
+    //before the sketch has seen how many keys there are
+    private static final int INITIAL_EXPECTED_KEYS = 1024;
+
+    private static final byte WINDOW = 0;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+
+    private final FrequencySketch sketch;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    private final NodeList window = new NodeList();
+    private final NodeList probation = new NodeList();
+    private final NodeList protectedSegment = new NodeList();
+
+    private long totalWeight;
+
+    //were protected when the state was saved, restore puts them back there
+    private Set<String> restoredProtected = new HashSet<>();
+
+    /**
+     * @param maxWeight - the same max as the cache, the size of the values for a max size cache or the count
+     */
+    public WindowTinyLfuPolicy(long maxWeight) {
+
+        if(maxWeight <= 0) {
+            throw new IllegalArgumentException("max weight must be positive");
+        }
+
+        this.maxWeight = maxWeight;
+        this.windowMax = Math.max(1, maxWeight / 100);
+        this.protectedMax = (maxWeight - windowMax) * 8 / 10;
+        this.sketch = new FrequencySketch(Math.min(maxWeight, INITIAL_EXPECTED_KEYS));
+
+    }
+
+    @Override
+    public void restore(String key, int weight) {
+
+        onRemove(key);
+
+        final Node node = new Node(key, weight);
+
+        nodes.put(key, node);
+        totalWeight += weight;
+
+        if(restoredProtected.remove(key)) {
+            protectedSegment.addFirst(node, PROTECTED);
+            demoteProtected(node);
+        }
+        else {
+            window.addFirst(node, WINDOW);
+            spillWindow(true);
+        }
+
+        sketch.ensureCapacity(nodes.size());
+
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+
+        sketch.increment(key);
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+
+            totalWeight += weight - node.weight;
+            listOf(node).reweigh(node, weight);
+            node.weight = weight;
+
+            onHit(node);
+
+            return;
+
+        }
+
+        final Node added = new Node(key, weight);
+
+        nodes.put(key, added);
+        totalWeight += weight;
+
+        window.addFirst(added, WINDOW);
+
+        //only while there's room, once it's full whatever leaves the window has to be admitted by selectVictims
+        spillWindow(false);
+
+        sketch.ensureCapacity(nodes.size());
+
+    }
+
+    @Override
+    public void onAccess(String key) {
+
+        sketch.increment(key);
+
+        final Node node = nodes.get(key);
+
+        if(node != null) {
+            onHit(node);
+        }
+
+    }
+
+    @Override
+    public void onRemove(String key) {
+
+        final Node node = nodes.remove(key);
+
+        if(node != null) {
+            listOf(node).remove(node);
+            totalWeight -= node.weight;
+        }
+
+    }
+
+    /**
+     * While the window is over its share its eldest is the candidate, it's admitted to probation if it's been used
+     * more than the main space's victim and the victim is evicted, otherwise the candidate is. With the window
+     * within its share the main space is what's over so its victims go, probation first.
+     */
+    @Override
+    public List<String> selectVictims(long weight) {
+
+        final List<String> victims = new ArrayList<>();
+        final List<Node> admitted = new ArrayList<>();
+
+        long freed = 0;
+        long windowWeight = window.weight;
+
+        Node candidate = window.tail;
+        Node victim = probation.tail != null ? probation.tail : protectedSegment.tail;
+
+        while(freed < weight) {
+
+            final Node evicting;
+
+            if(candidate != null && windowWeight > windowMax && victim != null) {
+
+                windowWeight -= candidate.weight;
+
+                if(admit(candidate, victim)) {
+
+                    admitted.add(candidate);
+
+                    evicting = victim;
+                    victim = nextInMain(victim);
+
+                }
+                else {
+                    evicting = candidate;
+                }
+
+                candidate = candidate.prev;
+
+            }
+            else if(victim != null) {
+                evicting = victim;
+                victim = nextInMain(victim);
+            }
+            else if(candidate != null) {
+                evicting = candidate;
+                windowWeight -= candidate.weight;
+                candidate = candidate.prev;
+            }
+            else {
+                break;
+            }
+
+            victims.add(evicting.key);
+            freed += evicting.weight;
+
+        }
+
+        //after, moving them while walking the lists would have the walk run into them
+        for(final Node node : admitted) {
+            window.remove(node);
+            probation.addFirst(node, PROBATION);
+        }
+
+        return victims;
+
+    }
+
+    @Override
+    public void clear() {
+
+        nodes.clear();
+
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+
+        totalWeight = 0;
+
+    }
+
+    /**
+     * [table length 4][increments since halving 4] table [protected count 4] ([key length 4] key)
+     */
+    @Override
+    public void save(File folder) throws IOException {
+
+        final long [] table = sketch.getTable();
+
+        PolicyStateFile.write(folder, STATE_FILE, STATE_MAGIC, out -> {
+
+            out.putInt(table.length);
+            out.putInt(sketch.getSize());
+
+            for(final long counters : table) {
+                out.putLong(counters);
+            }
+
+            out.putInt(protectedSegment.count);
+
+            //eldest first, restore adds each to the front
+            for(Node node = protectedSegment.tail; node != null; node = node.prev) {
+                out.putString(node.key);
+            }
+
+        });
+
+    }
+
+    @Override
+    public void load(File folder) throws IOException {
+
+        final ByteBuffer state = PolicyStateFile.read(folder, STATE_FILE, STATE_MAGIC);
+
+        if(state == null) {
+            return;
+        }
+
+        final int tableLength = state.getInt();
+        final int size = state.getInt();
+
+        if(tableLength <= 0 || Integer.bitCount(tableLength) != 1 || 8L * tableLength + 4 > state.remaining()) {
+            logger.error("eviction state in " + folder + " has a bad table, frequencies start over");
+            return;
+        }
+
+        final long [] table = new long[tableLength];
+
+        for(int i = 0; i < tableLength; i++) {
+            table[i] = state.getLong();
+        }
+
+        sketch.restore(table, size);
+
+        final int count = state.getInt();
+        final Set<String> keys = new HashSet<>();
+
+        for(int i = 0; i < count; i++) {
+            keys.add(PolicyStateFile.getString(state));
+        }
+
+        restoredProtected = keys;
+
+    }
+
+    /**
+     * @return estimated uses of the key, whether it's cached or not
+     */
+    public int frequency(String key) {
+        return sketch.frequency(key);
+    }
+
+    /**
+     * @return true if the key is in the protected segment
+     */
+    public boolean isProtected(String key) {
+
+        final Node node = nodes.get(key);
+
+        return node != null && node.queue == PROTECTED;
+
+    }
+
+    /**
+     * ties go to the victim, a key has to have been used more to push out one that's already in
+     */
+    private boolean admit(Node candidate, Node victim) {
+
+        if(candidate.weight > maxWeight) {
+            return false;
+        }
+
+        return sketch.frequency(candidate.key) > sketch.frequency(victim.key);
+
+    }
+
+    /**
+     * the next main space victim after this one, through probation and then protected
+     */
+    private Node nextInMain(Node node) {
+
+        if(node.prev != null) {
+            return node.prev;
+        }
+
+        return node.queue == PROBATION ? protectedSegment.tail : null;
+
+    }
+
+    private void onHit(Node node) {
+
+        switch(node.queue) {
+
+            case WINDOW:
+                window.moveToFront(node);
+                break;
+
+            case PROBATION:
+                probation.remove(node);
+                protectedSegment.addFirst(node, PROTECTED);
+                demoteProtected(node);
+                break;
+
+            default:
+                protectedSegment.moveToFront(node);
+                break;
+
+        }
+
+    }
+
+    /**
+     * the eldest protected go back to probation while it's over its share, never the one just promoted
+     */
+    private void demoteProtected(Node promoted) {
+
+        while(protectedSegment.weight > protectedMax && protectedSegment.tail != promoted) {
+
+            final Node demoted = protectedSegment.tail;
+
+            protectedSegment.remove(demoted);
+            probation.addFirst(demoted, PROBATION);
+
+        }
+
+    }
+
+    /**
+     * @param always - move the window's eldest to probation even if the cache is over its max
+     */
+    private void spillWindow(boolean always) {
+
+        while(window.weight > windowMax && window.tail != null && (always || totalWeight <= maxWeight)) {
+
+            final Node spilled = window.tail;
+
+            window.remove(spilled);
+            probation.addFirst(spilled, PROBATION);
+
+        }
+
+    }
+
+    private NodeList listOf(Node node) {
+
+        switch(node.queue) {
+            case WINDOW: return window;
+            case PROBATION: return probation;
+            default: return protectedSegment;
+        }
+
+    }
+
+}
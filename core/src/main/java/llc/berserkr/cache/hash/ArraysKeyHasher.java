@@ -0,0 +1,21 @@
+package llc.berserkr.cache.hash;
+
+import java.util.Arrays;
+
+/**
+ * Arrays.hashCode made positive as a long (so Integer.MIN_VALUE doesn't stay negative), the hash indexes were
+ * addressed with before the hash function could be picked.
+ */
+class ArraysKeyHasher implements KeyHasher {
+
+    @Override
+    public long hash(byte[] key) {
+        return Math.abs((long) Arrays.hashCode(key));
+    }
+
+    @Override
+    public String getName() {
+        return "arrays";
+    }
+
+}
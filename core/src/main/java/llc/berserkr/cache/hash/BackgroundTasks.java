@@ -0,0 +1,77 @@
+package llc.berserkr.cache.hash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The daemon threads the periodic syncs and the compactors run on, shared by every open file. What they run for is
+ * only weakly held so a cache that goes away stops having work done for it.
+ */
+class BackgroundTasks {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundTasks.class);
+
+    private static final ScheduledExecutorService executor;
+
+    static {
+
+        //two so a long compaction doesn't hold the syncs up behind it
+        final ScheduledThreadPoolExecutor scheduled = new ScheduledThreadPoolExecutor(2, runnable -> {
+            final Thread thread = new Thread(runnable, "file-cache-background");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduled.setRemoveOnCancelPolicy(true);
+
+        executor = scheduled;
+
+    }
+
+    private BackgroundTasks() {}
+
+    /**
+     * Runs action on target every intervalMillis until target is collected. action is handed the target each run, it
+     * mustn't hold on to it itself or it's never collected.
+     */
+    static <T> void scheduleWeakly(final T target, final long intervalMillis, final Consumer<T> action) {
+
+        final WeakReference<T> reference = new WeakReference<>(target);
+
+        final ScheduledFuture<?> [] future = new ScheduledFuture<?>[1];
+
+        synchronized (future) {
+
+            future[0] = executor.scheduleWithFixedDelay(() -> {
+
+                final T current = reference.get();
+
+                if(current == null) {
+                    synchronized (future) {
+                        future[0].cancel(false);
+                    }
+                    return;
+                }
+
+                try {
+                    action.accept(current);
+                }
+                catch (RuntimeException e) {
+                    //anything thrown out of here cancels every run after it
+                    logger.error("background task failed", e);
+                }
+
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        }
+
+    }
+
+}
@@ -6,9 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import static llc.berserkr.cache.hash.SegmentedTransactions.*;
@@ -26,20 +24,49 @@ public class BlobsSegmentedStreamingHashDataManager implements HashDataManager<b
     private final SegmentedFile segmentedFile;
 
     public BlobsSegmentedStreamingHashDataManager(File segmentFile) {
-        this.segmentedFile = new SegmentedFile(segmentFile);
+        this(segmentFile, StorageOptions.defaults());
+    }
+
+    public BlobsSegmentedStreamingHashDataManager(File segmentFile, StorageOptions options) {
+        this.segmentedFile = new SegmentedFile(segmentFile, options);
     }
 
     @Override
     public Set<Pair<byte[], Long>> getBlobsAt(long blobIndex) throws ReadFailure {
 
-        final byte[] segment;
+        return getSegmentPairs(segmentedFile.readSegmentBytes(blobIndex));
+    }
+
+    /**
+     * Looks up one key in the bucket at blobIndex without decoding the rest of the bucket.
+     *
+     * @param blobIndex - address of the bucket segment
+     * @param key
+     * @return address of the key's blob or null if the key isn't in the bucket
+     * @throws ReadFailure
+     */
+    public Long getPointer(long blobIndex, byte [] key) throws ReadFailure {
+
+        final SegmentBuffer buffer = SegmentBuffer.local();
+
         try {
-            segment = convertInputStreamToBytes(segmentedFile.readSegment(blobIndex));
-        } catch (IOException e) {
-            throw new ReadFailure("failed", e);
+
+            if(!segmentedFile.readSegment(blobIndex, buffer)) {
+                return null;
+            }
+
+            return findPointer(buffer.getData(), buffer.getLength(), key);
+
         }
+        finally {
+            buffer.release();
+        }
+
+    }
 
-        return getSegmentPairs(segment);
+    @Override
+    public Long getValue(long blobIndex, byte [] key) throws ReadFailure {
+        return getPointer(blobIndex, key);
     }
 
     @Override
@@ -134,19 +161,14 @@ public class BlobsSegmentedStreamingHashDataManager implements HashDataManager<b
 
             final long transAddress = startAddTransaction(segmentedFile, pairData.length);
 
-            try(final InputStream is = new ByteArrayInputStream(pairData)) {
-                //no free segments, add to the end of the segment file
-                final long address = segmentedFile.writeToEnd(is);
+            //no free segments, add to the end of the segment file
+            final long address = segmentedFile.writeToEnd(pairData, transAddress);
 
-                segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
-
-                endTransactions(segmentedFile, transAddress);
+            segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
 
+            endTransactions(segmentedFile, transAddress);
 
-                return address;
-            } catch (IOException ex) {
-                throw new WriteFailure("failed to write ", ex);
-            }
+            return address;
         }
 
 //        if(blobIndex >= 0) {
@@ -250,23 +272,15 @@ public class BlobsSegmentedStreamingHashDataManager implements HashDataManager<b
 
     public static byte [] getPairData(Set<Pair<byte [], Long>> pairsIn) {
 
-        final List<Pair<byte [], Long>> pairs = new ArrayList<>(pairsIn);//ordered
-
-        char count = (char) pairs.size();
-
         try {
 
             final ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-            out.write(charToBytes(count));
-
-            for(int i = 0; i < count; i++) {
+            BucketFormat.writeHeader(out, pairsIn.size());
 
-                final Pair<byte [], Long> pair = pairs.get(i);
+            for(final Pair<byte [], Long> pair : pairsIn) {
 
-                out.write(intToByteArray(pair.getOne().length + 8));
-                out.write(intToByteArray(pair.getOne().length));
-                out.write(pair.getOne());
+                BucketFormat.writeEntryHeader(out, pair.getOne(), 8);
                 out.write(longToByteArray(pair.getTwo()));
 
             }
@@ -279,6 +293,26 @@ public class BlobsSegmentedStreamingHashDataManager implements HashDataManager<b
 
     }
 
+    /**
+     * Scans serialized pair data (see {@link #getPairData(Set)}) for a key without decoding the other pairs.
+     *
+     * @param data
+     * @param length - bytes of data that are filled
+     * @param key
+     * @return the blob address mapped to key, null if it isn't there
+     */
+    public static Long findPointer(byte [] data, int length, byte [] key) {
+
+        final int entry = BucketFormat.find(data, length, key);
+
+        if(entry < 0) {
+            return null;
+        }
+
+        return bytesToLong(data, entry + 8 + key.length);
+
+    }
+
     public static Set<Pair<byte [], Long>> getSegmentPairs(byte [] data) {
 
         final Set<Pair<byte [], Long>> pairs = new HashSet<>();
@@ -287,28 +321,36 @@ public class BlobsSegmentedStreamingHashDataManager implements HashDataManager<b
             return pairs;
         }
 
-        char count = bytesToChar(new byte [] {data[0], data[1]});
+        final boolean fingerprinted = BucketFormat.isFingerprinted(data, data.length);
+        final int count = BucketFormat.getCount(data, fingerprinted);
 
-        int dataBase = 2;
+        int dataBase = BucketFormat.getEntriesStart(fingerprinted);
 
         for(int i = 0; i < count; i++) {
 
-            final int pairLength = bytesToInt(new byte[] {data[dataBase], data[dataBase + 1], data[dataBase + 2], data[dataBase + 3]});
-            final int keyLength = bytesToInt(new byte[] {data[dataBase + 4], data[dataBase + 5], data[dataBase + 6], data[dataBase + 7]});
+            if(fingerprinted) {
+                dataBase += BucketFormat.FINGERPRINT_SIZE;
+            }
+
+            final int pairLength = bytesToInt(data, dataBase);
+            final int keyLength = bytesToInt(data, dataBase + 4);
 
             final byte [] keyData = new byte[keyLength];
-            final byte [] payloadData = new byte[pairLength - keyLength];
 
             System.arraycopy(data, dataBase + 8, keyData, 0, keyLength);
-            System.arraycopy(data, dataBase + 8 + keyLength, payloadData, 0, pairLength - keyLength);
+
+            pairs.add(new Pair<>(keyData, bytesToLong(data, dataBase + 8 + keyLength)));
 
             dataBase += pairLength + 8;
 
-            pairs.add(new Pair<>(keyData, bytesToLong(payloadData)));
         }
 
         return pairs;
 
     }
 
+    SegmentedFile getSegmentedFile() {
+        return segmentedFile;
+    }
+
 }
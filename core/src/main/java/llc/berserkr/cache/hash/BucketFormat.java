@@ -0,0 +1,236 @@
+package llc.berserkr.cache.hash;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static llc.berserkr.cache.util.DataUtils.*;
+
+/**
+ * Layout of the (key, value) pairs in a hash bucket segment.
+ *
+ * version 1 (no header)
+ * [count 2 bytes][[pairLength 4][keyLength 4][key][value] * count]
+ *
+ * version 2
+ * [0xFF 0xFF][version 1 byte][count 4 bytes][[fingerprint 4][pairLength 4][keyLength 4][key][value] * count]
+ *
+ * pairLength is key + value, the fingerprint is the 32 bit FNV-1a hash of the key. A probe compares fingerprints
+ * first so entries that don't match are skipped with one int compare and only a fingerprint hit compares the
+ * whole key.
+ *
+ * Buckets are always written as version 2. Version 1 buckets (files written before fingerprints) are read as they
+ * are and become version 2 the next time the bucket is written, so files migrate as they're used. A version 1
+ * bucket can't start with 0xFFFF unless it held exactly 65535 entries.
+ */
+final class BucketFormat {
+
+    static final int VERSION_MARKER = 0xFFFF;
+    static final byte VERSION = 2;
+
+    private static final int V1_HEADER_SIZE = 2;
+    private static final int V2_HEADER_SIZE = 2 + 1 + 4;
+
+    static final int FINGERPRINT_SIZE = 4;
+
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private BucketFormat() {}
+
+    /**
+     * @param data - bucket data
+     * @param length - bytes of data that are filled
+     * @return true if the bucket has the version 2 header and fingerprinted entries
+     */
+    static boolean isFingerprinted(byte [] data, int length) {
+        return length >= V2_HEADER_SIZE && bytesToChar(data, 0) == VERSION_MARKER && data[2] == VERSION;
+    }
+
+    static int getCount(byte [] data, boolean fingerprinted) {
+        return fingerprinted ? bytesToInt(data, 3) : bytesToChar(data, 0);
+    }
+
+    /**
+     * @return offset of the first entry
+     */
+    static int getEntriesStart(boolean fingerprinted) {
+        return fingerprinted ? V2_HEADER_SIZE : V1_HEADER_SIZE;
+    }
+
+    static void writeHeader(OutputStream out, int count) throws IOException {
+
+        out.write(charToBytes((char) VERSION_MARKER));
+        out.write(VERSION);
+        out.write(intToByteArray(count));
+
+    }
+
+    /**
+     * writes everything for the entry except the value, the value has to follow
+     */
+    static void writeEntryHeader(OutputStream out, byte [] key, int valueLength) throws IOException {
+
+        out.write(intToByteArray(fingerprint(key)));
+        out.write(intToByteArray(key.length + valueLength));
+        out.write(intToByteArray(key.length));
+        out.write(key);
+
+    }
+
+    /**
+     * Finds the entry for the key without decoding the other entries.
+     *
+     * @param data - bucket data in either version
+     * @param length - bytes of data that are filled
+     * @param key
+     * @return offset of the entry's pairLength, the key length follows it then the key and value. -1 if the key
+     * isn't in the bucket
+     */
+    static int find(byte [] data, int length, byte [] key) {
+
+        if(length < V1_HEADER_SIZE) {
+            return -1;
+        }
+
+        final boolean fingerprinted = isFingerprinted(data, length);
+        final int count = getCount(data, fingerprinted);
+        final int fingerprint = fingerprinted ? fingerprint(key) : 0;
+
+        int dataBase = getEntriesStart(fingerprinted);
+
+        for(int i = 0; i < count; i++) {
+
+            final int entryBase;
+
+            if(fingerprinted) {
+
+                if(dataBase + FINGERPRINT_SIZE + 8 > length) { //truncated, same as corrupt
+                    return -1;
+                }
+
+                entryBase = dataBase + FINGERPRINT_SIZE;
+
+            }
+            else {
+
+                if(dataBase + 8 > length) {
+                    return -1;
+                }
+
+                entryBase = dataBase;
+
+            }
+
+            final int pairLength = bytesToInt(data, entryBase);
+            final int keyStart = entryBase + 8;
+
+            if(keyStart + pairLength > length) {
+                return -1;
+            }
+
+            if(!fingerprinted || bytesToInt(data, dataBase) == fingerprint) {
+
+                final int keyLength = bytesToInt(data, entryBase + 4);
+
+                if(keyLength == key.length && Arrays.equals(data, keyStart, keyStart + keyLength, key, 0, keyLength)) {
+                    return entryBase;
+                }
+
+            }
+
+            dataBase = keyStart + pairLength;
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * {@link #find(byte[], int, byte[])} over a buffer from index 0 to its limit, so the bucket can be a view of a
+     * mapped segment that's never copied. Reads are absolute, the buffer's position and byte order don't matter.
+     *
+     * @return offset of the entry's pairLength, -1 if the key isn't in the bucket
+     */
+    static int find(ByteBuffer data, byte [] key) {
+
+        final int length = data.limit();
+
+        if(length < V1_HEADER_SIZE) {
+            return -1;
+        }
+
+        final boolean fingerprinted = length >= V2_HEADER_SIZE && getChar(data, 0) == VERSION_MARKER && data.get(2) == VERSION;
+        final int count = fingerprinted ? getInt(data, 3) : getChar(data, 0);
+        final int fingerprint = fingerprinted ? fingerprint(key) : 0;
+
+        final ByteBuffer wantedKey = ByteBuffer.wrap(key);
+
+        int dataBase = getEntriesStart(fingerprinted);
+
+        for(int i = 0; i < count; i++) {
+
+            final int entryBase = fingerprinted ? dataBase + FINGERPRINT_SIZE : dataBase;
+
+            if(entryBase + 8 > length) { //truncated, same as corrupt
+                return -1;
+            }
+
+            final int pairLength = getInt(data, entryBase);
+            final int keyStart = entryBase + 8;
+
+            if(keyStart + pairLength > length) {
+                return -1;
+            }
+
+            if(!fingerprinted || getInt(data, dataBase) == fingerprint) {
+
+                final int keyLength = getInt(data, entryBase + 4);
+
+                if(keyLength == key.length && data.slice(keyStart, keyLength).equals(wantedKey)) {
+                    return entryBase;
+                }
+
+            }
+
+            dataBase = keyStart + pairLength;
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * little endian int at index, the same as {@link llc.berserkr.cache.util.DataUtils#bytesToInt(byte[], int)}
+     */
+    static int getInt(ByteBuffer data, int index) {
+        return  (data.get(index)     & 0xFF)
+             | ((data.get(index + 1) & 0xFF) << 8)
+             | ((data.get(index + 2) & 0xFF) << 16)
+             | ((data.get(index + 3) & 0xFF) << 24);
+    }
+
+    private static char getChar(ByteBuffer data, int index) {
+        return (char) (((data.get(index) & 0xFF) << 8) | (data.get(index + 1) & 0xFF));
+    }
+
+    /**
+     * 32 bit FNV-1a
+     */
+    static int fingerprint(byte [] key) {
+
+        int hash = FNV_OFFSET_BASIS;
+
+        for(final byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+
+    }
+
+}
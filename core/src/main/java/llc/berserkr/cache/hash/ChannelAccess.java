@@ -0,0 +1,237 @@
+package llc.berserkr.cache.hash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link IoBackend#CHANNEL}, one {@link FileChannel} shared by every thread with positional reads and writes.
+ *
+ * A FileChannel is closed for everyone when a thread blocked in it is interrupted, so when the channel turns up
+ * closed it's opened again. The interrupted thread still gets its exception, anyone else retries on the new one.
+ */
+class ChannelAccess extends FileAccess {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelAccess.class);
+
+    private final File file;
+    private final String mode;
+
+    private volatile FileChannel channel;
+
+    ChannelAccess(final File file, final StorageOptions options) {
+
+        super(options);
+
+        this.file = file;
+        this.mode = options.getDurability().getAccessMode(); //rws channels write through the same as rws files
+
+        try {
+            this.channel = openChannel();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("couldn't open " + file, e);
+        }
+
+    }
+
+    @Override
+    public int read(long position, byte [] bytes, int offset, int length) throws IOException {
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+
+        while(true) {
+
+            final FileChannel current = channel;
+
+            try {
+                return current.read(buffer, position);
+            }
+            catch (ClosedByInterruptException e) {
+                reopen(current);
+                throw e;
+            }
+            catch (ClosedChannelException e) {
+                reopen(current);
+            }
+
+        }
+
+    }
+
+    @Override
+    public void write(long position, byte [] bytes, int offset, int length) throws IOException {
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+
+        while(buffer.hasRemaining()) {
+
+            final FileChannel current = channel;
+
+            try {
+                current.write(buffer, position + buffer.position() - offset);
+            }
+            catch (ClosedByInterruptException e) {
+                reopen(current);
+                throw e;
+            }
+            catch (ClosedChannelException e) {
+                reopen(current);
+            }
+
+        }
+
+    }
+
+    /**
+     * Nothing is retried if the channel is closed part way, bytes already taken from the source would be lost.
+     */
+    @Override
+    public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+
+        final FileChannel current = channel;
+
+        try {
+            return transferFrom(current, source, position, count);
+        }
+        catch (ClosedChannelException e) {
+
+            if(!current.isOpen()) { //it might have been the source that was closed
+                reopen(current);
+            }
+
+            throw e;
+
+        }
+
+    }
+
+    /**
+     * Not retried either, the target may already have some of it.
+     */
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+
+        final FileChannel current = channel;
+
+        try {
+            return transferTo(current, position, count, target);
+        }
+        catch (ClosedChannelException e) {
+
+            if(!current.isOpen()) { //or it was the target
+                reopen(current);
+            }
+
+            throw e;
+
+        }
+
+    }
+
+    @Override
+    public long length() throws IOException {
+
+        while(true) {
+
+            final FileChannel current = channel;
+
+            try {
+                return current.size();
+            }
+            catch (ClosedByInterruptException e) {
+                reopen(current);
+                throw e;
+            }
+            catch (ClosedChannelException e) {
+                reopen(current);
+            }
+
+        }
+
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+
+        while(true) {
+
+            final FileChannel current = channel;
+
+            try {
+
+                if(length < current.size()) {
+                    current.truncate(length);
+                }
+                else if(length > current.size()) {
+                    //grows the same as RandomAccessFile.setLength, the gap reads as zeros
+                    current.write(ByteBuffer.wrap(new byte[1]), length - 1);
+                }
+
+                return;
+
+            }
+            catch (ClosedByInterruptException e) {
+                reopen(current);
+                throw e;
+            }
+            catch (ClosedChannelException e) {
+                reopen(current);
+            }
+
+        }
+
+    }
+
+    @Override
+    protected void force() throws IOException {
+
+        while(true) {
+
+            final FileChannel current = channel;
+
+            try {
+                current.force(false);
+                return;
+            }
+            catch (ClosedByInterruptException e) {
+                reopen(current);
+                throw e;
+            }
+            catch (ClosedChannelException e) {
+                reopen(current);
+            }
+
+        }
+
+    }
+
+    /**
+     * replaces the channel if nobody has already
+     */
+    private synchronized void reopen(FileChannel closed) throws IOException {
+
+        if(channel != closed) {
+            return;
+        }
+
+        logger.debug("channel to " + file + " was closed by an interrupt, opening it again");
+
+        channel = openChannel();
+
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return new RandomAccessFile(file, mode).getChannel(); //closing the channel closes the file
+    }
+
+}
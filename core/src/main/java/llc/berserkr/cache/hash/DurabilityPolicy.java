@@ -0,0 +1,62 @@
+package llc.berserkr.cache.hash;
+
+/**
+ * How hard the storage files push writes to the disk.
+ *
+ * The transaction area of the segment file is what makes a crash recoverable, each policy says when
+ * the writes in and around a transaction are guaranteed to be on the device.
+ */
+public enum DurabilityPolicy {
+
+    /**
+     * every write is synchronous ("rws"), this is how the cache has always worked.
+     */
+    SYNC_EVERY_WRITE("rws"),
+
+    /**
+     * writes go through the OS, the files are forced after a transaction is started (write ahead),
+     * before it's cleared (data is down) and after it's cleared. A put costs a few fsyncs instead of one
+     * per write and a power loss is recovered the same as with SYNC_EVERY_WRITE.
+     */
+    SYNC_ON_TRANSACTION_END("rw"),
+
+    /**
+     * same sync points as SYNC_ON_TRANSACTION_END but transactions running at the same time share their
+     * flushes. Each sync waits for a batch flush that covers it (see {@link StorageOptions#withGroupCommit(long, int)}),
+     * so N concurrent puts cost about one fsync per sync point instead of one each. Recovery is the same as
+     * SYNC_ON_TRANSACTION_END, a put just returns a little later under load.
+     */
+    GROUP_COMMIT("rw"),
+
+    /**
+     * writes go through the OS and the files are forced on an interval by a background thread. A process
+     * crash is always recoverable, a power loss can lose (or tear) whatever was written since the last sync.
+     */
+    PERIODIC_FSYNC("rw"),
+
+    /**
+     * nothing is ever forced, the OS decides. A process crash is recoverable, a power loss may not be.
+     */
+    OS_BUFFERED("rw");
+
+    private final String accessMode;
+
+    DurabilityPolicy(String accessMode) {
+        this.accessMode = accessMode;
+    }
+
+    /**
+     * @return the RandomAccessFile mode writers should be opened with
+     */
+    public String getAccessMode() {
+        return accessMode;
+    }
+
+    /**
+     * @return true if ordering on the device matters enough that write ahead records have to be forced
+     */
+    public boolean isCrashOrdered() {
+        return this == SYNC_EVERY_WRITE || this == SYNC_ON_TRANSACTION_END || this == GROUP_COMMIT;
+    }
+
+}
@@ -0,0 +1,320 @@
+package llc.berserkr.cache.hash;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Positional reads and writes of one file from any thread, plus the syncing the durability policy asks for.
+ * Nothing here keeps a file position, every call says where it reads or writes, so a stream over part of the file
+ * can stay open while the same thread reads somewhere else.
+ *
+ * {@link #open(File, StorageOptions)} picks the implementation from {@link StorageOptions#getIoBackend()}.
+ */
+public abstract class FileAccess implements Flushable {
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final DurabilityPolicy durability;
+    private final GroupCommit groupCommit;
+
+    //flushed ahead of this file by each sync, for side files whose records have to be down first
+    private final List<Flushable> flushFirst = new CopyOnWriteArrayList<>();
+
+    protected FileAccess(final StorageOptions options) {
+
+        this.durability = options.getDurability();
+
+        if(durability == DurabilityPolicy.PERIODIC_FSYNC) {
+            PeriodicSync.register(this, options.getSyncIntervalMillis());
+        }
+
+        if(durability == DurabilityPolicy.GROUP_COMMIT) {
+            groupCommit = new GroupCommit(this, options.getGroupCommitDelayMicros(), options.getGroupCommitBatch());
+        }
+        else {
+            groupCommit = null;
+        }
+
+    }
+
+    /**
+     * @return access to the file with the configured {@link IoBackend}
+     */
+    public static FileAccess open(final File file, final StorageOptions options) {
+
+        switch (options.getIoBackend()) {
+            case CHANNEL:
+                return new ChannelAccess(file, options);
+            default:
+                return new LocalRandomAccess(file, options);
+        }
+
+    }
+
+    /**
+     * Reads up to length bytes starting at position.
+     *
+     * @return bytes read, -1 if position is at or past the end of the file
+     */
+    public abstract int read(long position, byte [] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Writes all of length bytes starting at position, the file grows if it has to.
+     */
+    public abstract void write(long position, byte [] bytes, int offset, int length) throws IOException;
+
+    public abstract long length() throws IOException;
+
+    public abstract void setLength(long length) throws IOException;
+
+    /**
+     * forces what's been written to this file down to the device
+     */
+    protected abstract void force() throws IOException;
+
+    public void write(long position, byte [] bytes) throws IOException {
+        write(position, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Copies up to count bytes from source into the file starting at position. Backends with a {@link FileChannel}
+     * to the file hand it to {@link FileChannel#transferFrom}, from another FileChannel that doesn't go through the
+     * heap. The file has to already reach position.
+     *
+     * @return bytes copied, less than count only if the source ran out
+     */
+    public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+        return copyFrom(source, position, count);
+    }
+
+    /**
+     * copies through a buffer with positional writes
+     */
+    protected final long copyFrom(ReadableByteChannel source, long position, long count) throws IOException {
+
+        if(count <= 0) {
+            return 0;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, TRANSFER_BUFFER_SIZE));
+
+        long total = 0;
+
+        while(total < count) {
+
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - total));
+
+            final int read = source.read(buffer);
+
+            if(read < 0) {
+                break;
+            }
+
+            write(position + total, buffer.array(), 0, read);
+
+            total += read;
+
+        }
+
+        return total;
+
+    }
+
+    /**
+     * {@link FileChannel#transferFrom} until count is copied. It stops early when the source has nothing to give
+     * right now or has run out, the rest is copied through a buffer which tells the two apart.
+     */
+    protected final long transferFrom(FileChannel target, ReadableByteChannel source, long position, long count) throws IOException {
+
+        long total = 0;
+
+        while(total < count) {
+
+            final long transferred = target.transferFrom(source, position + total, count - total);
+
+            if(transferred <= 0) {
+                return total + copyFrom(source, position + total, count - total);
+            }
+
+            total += transferred;
+
+        }
+
+        return total;
+
+    }
+
+    /**
+     * Copies up to count bytes of the file starting at position into target. Backends with a {@link FileChannel}
+     * to the file hand it to {@link FileChannel#transferTo}, to a socket or another file that's sendfile and the
+     * bytes never come into the heap. The target should be blocking, a full non-blocking one is spun on.
+     *
+     * @return bytes copied, less than count only if the file ended
+     */
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return copyTo(position, count, target);
+    }
+
+    /**
+     * copies through a buffer with positional reads
+     */
+    protected final long copyTo(long position, long count, WritableByteChannel target) throws IOException {
+
+        if(count <= 0) {
+            return 0;
+        }
+
+        final byte [] bytes = new byte[(int) Math.min(count, TRANSFER_BUFFER_SIZE)];
+
+        long total = 0;
+
+        while(total < count) {
+
+            final int read = read(position + total, bytes, 0, (int) Math.min(bytes.length, count - total));
+
+            if(read < 0) {
+                break;
+            }
+
+            writeFully(target, ByteBuffer.wrap(bytes, 0, read));
+
+            total += read;
+
+        }
+
+        return total;
+
+    }
+
+    /**
+     * {@link FileChannel#transferTo} until count is copied. It stops early at the end of the file or when the
+     * target can't take anything right now, the rest is copied through a buffer which tells the two apart.
+     */
+    static long transferTo(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+
+        long total = 0;
+
+        while(total < count) {
+
+            final long transferred = source.transferTo(position + total, count - total, target);
+
+            if(transferred > 0) {
+                total += transferred;
+                continue;
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count - total, TRANSFER_BUFFER_SIZE));
+
+            final int read = source.read(buffer, position + total);
+
+            if(read < 0) {
+                break;
+            }
+
+            buffer.flip();
+
+            writeFully(target, buffer);
+
+            total += read;
+
+        }
+
+        return total;
+
+    }
+
+    private static void writeFully(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+
+        while(buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+
+    }
+
+    /**
+     * Reads exactly length bytes starting at position.
+     *
+     * @throws EOFException if the file ends first
+     */
+    public void readFully(long position, byte [] bytes, int offset, int length) throws IOException {
+
+        int total = 0;
+
+        while(total < length) {
+
+            final int read = read(position + total, bytes, offset + total, length - total);
+
+            if(read < 0) {
+                throw new EOFException("end of file at " + (position + total));
+            }
+
+            total += read;
+
+        }
+
+    }
+
+    public void readFully(long position, byte [] bytes) throws IOException {
+        readFully(position, bytes, 0, bytes.length);
+    }
+
+    public DurabilityPolicy getDurability() {
+        return durability;
+    }
+
+    /**
+     * Has a side file flushed before this one every time this one is synced.
+     *
+     * @param flushable
+     */
+    public void flushFirst(Flushable flushable) {
+        flushFirst.add(flushable);
+    }
+
+    /**
+     * Forces everything written to the file (by any thread) down to the device.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+
+        for(final Flushable flushable : flushFirst) {
+            flushable.flush();
+        }
+
+        force();
+
+    }
+
+    /**
+     * Called at the points a transaction needs it's writes on the device, only does anything with
+     * {@link DurabilityPolicy#SYNC_ON_TRANSACTION_END} and {@link DurabilityPolicy#GROUP_COMMIT}. The other
+     * policies are either already synchronous or don't make the guarantee.
+     *
+     * @throws IOException
+     */
+    public void syncTransaction() throws IOException {
+
+        switch (durability) {
+            case SYNC_ON_TRANSACTION_END:
+                flush();
+                break;
+            case GROUP_COMMIT:
+                groupCommit.sync(); //returns once a batch flush covering our writes is done
+                break;
+            default:
+                break;
+        }
+
+    }
+
+}
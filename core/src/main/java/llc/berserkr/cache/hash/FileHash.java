@@ -8,11 +8,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
-import static llc.berserkr.cache.util.DataUtils.bytesToLong;
-import static llc.berserkr.cache.util.DataUtils.longToByteArray;
-
 
 /**
  * 
@@ -22,81 +20,67 @@ import static llc.berserkr.cache.util.DataUtils.longToByteArray;
  * Some of this class was derived from: https://code.google.com/p/jdbm2/ 
  *
  * **/
-public class FileHash {
+public class FileHash implements SegmentCompactor.Compactable {
     
     private static final Logger logger = LoggerFactory.getLogger(FileHash.class);
 
-    private final static int BUCKET_SIZE = 8;
-    
-    private final int hashSize;
-    private final File file;
+    private final static int BUCKET_SIZE = HashIndex.BUCKET_SIZE;
 
     private final Map<Long, CacheLocks> hashLocks;
 
-    private final SegmentedBytesDataManager blobManager;
-    private final LocalRandomAccess localAccess;
+    private final HashDataManager<byte [], byte []> blobManager;
+    private final HashIndex hashIndex;
+    private final LinearHashing<byte []> linearHashing;
+    private final KeyHasher keyHasher;
+    private final SegmentCompactor compactor;
+
+    //compaction steps and clear don't overlap, a bucket moved while the segment file is cleared would be lost
+    private final Object compactionLock = new Object();
 
     public FileHash(
         final File file,
         final File dataFile,
         final int hashSize
     ) {
+        this(file, dataFile, hashSize, StorageOptions.defaults());
+    }
 
-        hashLocks = new HashMap<>(hashSize);
-        this.blobManager = new SegmentedBytesDataManager(dataFile);
-        
-        this.hashSize = hashSize;
-        
-        if(file.isDirectory()) {
-            throw new RuntimeException("hash file location must not be a directory");
-        }
+    public FileHash(
+        final File file,
+        final File dataFile,
+        final int hashSize,
+        final StorageOptions options
+    ) {
 
-        this.file = file;
-        this.localAccess = new LocalRandomAccess(file);
+        hashLocks = new HashMap<>(hashSize);
 
-        //if the file doesn't exist, initialize an empty hash of the desired size
-        if(!file.exists()) {
-            initFile();
+        if(options.getStorageEngine() == StorageEngine.LOG) {
+            this.blobManager = new LogBytesDataManager(dataFile, options);
         }
-    }
+        else {
+            this.blobManager = new SegmentedBytesDataManager(dataFile, options);
+        }
+        
+        final boolean existing = file.length() > 0;
 
-    private void initFile() {
+        this.hashIndex = HashIndexFactory.create(file, hashSize, options);
 
         try {
-
-            final OutputStream output = new FileOutputStream(file);
-
-            try {
-
-                final byte [] bytes = new byte [1024];
-
-                Arrays.fill(bytes, (byte)-1);
-
-                final int max = hashSize * BUCKET_SIZE;
-
-                for(int i = 0; i < max; i += 1024) {
-                    output.write(bytes);
-                }
-
-                output.flush();
-
-            }
-            finally {
-                output.close();
-            }
-
+            this.linearHashing = new LinearHashing<>(
+                new File(file.getPath() + ".meta"), hashIndex, blobManager, hashSize, existing, options, this::getLock
+            );
         }
-        catch (FileNotFoundException e) {
-
-            logger.error("Failed to establish file hash", e);
-            throw new RuntimeException("failed to establish file hash", e);
-
+        catch (ReadFailure | WriteFailure e) {
+            throw new RuntimeException("failed to open hash index " + file, e);
         }
-        catch (IOException e) {
 
-            logger.error("Failed to establish file hash 2", e);
-            throw new RuntimeException("failed to establish file hash 2", e);
+        this.keyHasher = linearHashing.getKeyHasher();
+
+        //the log engine compacts itself
+        this.compactor = new SegmentCompactor(options);
 
+        if(blobManager instanceof SegmentedBytesDataManager) {
+            compactor.start(this);
         }
 
     }
@@ -124,32 +108,27 @@ public class FileHash {
       final byte [] blob
     ) throws ReadFailure, WriteFailure {
         
-        final long limitedHash = Math.abs(hashCode(key)) % hashSize; //limit the hash size to our hash
-      
-        long hashedIndex = limitedHash * (BUCKET_SIZE); //multiply by bucket size so we know index.
+        final long hash = keyHasher.hash(key);
+
+        long hashedIndex = linearHashing.getBucketOffset(hash);
              
         try {
 
-            final RandomAccessFile randomRead = localAccess.getReader();
-            final RandomAccessFile randomWrite = localAccess.getWriter();
-
-            final CacheLocks lock = getLock(hashedIndex);
+            CacheLocks lock = getLock(hashedIndex);
 
             try {
 
                 lock.getLock(CacheLocks.LockType.WRITER);
 
-               final byte [] currentKeyIn = new byte[BUCKET_SIZE];
-               randomRead.seek(hashedIndex);
-
-               //read in key at this hash location.
-               final int read = randomRead.read(currentKeyIn); //read in the current value
-
-               if(read <= 0) { //file was too short, empty values weren't filled in
-                   throw new RuntimeException("hash was not initialized properly");
-               }
+                //if the index grew while we waited the key may have been split into a new bucket, follow it
+                while(hashedIndex != linearHashing.getBucketOffset(hash)) {
+                    lock.releaseLock(CacheLocks.LockType.WRITER);
+                    hashedIndex = linearHashing.getBucketOffset(hash);
+                    lock = getLock(hashedIndex);
+                    lock.getLock(CacheLocks.LockType.WRITER);
+                }
 
-               final long blobIndex = bytesToLong(currentKeyIn);
+               final long blobIndex = hashIndex.getPointer(hashedIndex);
 
                final Set<Pair<byte [], byte []>> toWrite = new HashSet<>();
 
@@ -188,11 +167,12 @@ public class FileHash {
 
                if(blobIndexAfterSet != blobIndex) {
 
-                   final byte[] bytesIndex = longToByteArray(blobIndexAfterSet);
+                   hashIndex.setPointer(hashedIndex, blobIndexAfterSet);
 
-                   randomWrite.seek(hashedIndex);
-                   randomWrite.write(bytesIndex);
+               }
 
+               if(remove == null) {
+                   linearHashing.added(); //new key
                }
 
             } catch (InterruptedException e) {
@@ -200,8 +180,6 @@ public class FileHash {
             } finally {
 
                 lock.releaseLock(CacheLocks.LockType.WRITER);
-                localAccess.giveReader(randomRead);
-                localAccess.giveWriter(randomWrite);
 
             }
             
@@ -224,55 +202,32 @@ public class FileHash {
       final byte [] key
     ) throws ReadFailure {
       
-        final int limitedHash = Math.abs(hashCode(key)) % hashSize; //limit the hash to our hash size
-    
-        int hashedIndex = limitedHash * (BUCKET_SIZE); //determine byte index
+        final long hash = keyHasher.hash(key);
 
-        final RandomAccessFile randomRead = localAccess.getReader();
+        long hashedIndex = linearHashing.getBucketOffset(hash);
 
-        final CacheLocks lock = getLock(hashedIndex);
+        CacheLocks lock = getLock(hashedIndex);
 
         try {
 
             lock.getLock(CacheLocks.LockType.READER);
-            final byte [] currentKeyIn = new byte[BUCKET_SIZE];
-            randomRead.seek(hashedIndex);
-
-            //read in key at this hash location.
-            final int read = randomRead.read(currentKeyIn);
 
-            if(read <= 0) { //file should have been initialized to hash size
-                throw new RuntimeException("hash was not initialized properly");
+            //if the index grew while we waited the key may have been split into a new bucket, follow it
+            while(hashedIndex != linearHashing.getBucketOffset(hash)) {
+                lock.releaseLock(CacheLocks.LockType.READER);
+                hashedIndex = linearHashing.getBucketOffset(hash);
+                lock = getLock(hashedIndex);
+                lock.getLock(CacheLocks.LockType.READER);
             }
 
-            //convert the values read into an index
-            long blobIndex = bytesToLong(currentKeyIn);
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
 
             byte [] returnVal = null;
 
             if(blobIndex >= 0) {
 
-                //if there is values on this hash
-                final Set<Pair<byte [], byte []>> blobs = blobManager.getBlobsAt(blobIndex);
-
-                if(blobs == null) { //data corrupt lets remove our reference.
-                    throw new ReadFailure("there should have been blobs at blobIndex");
-                }
-                else {
-
-                    for(Pair<byte [], byte []> blob : blobs) {
-
-                        if(equals(blob.getOne(), key)) {
-
-                            //return the value mapped to this key
-                            returnVal = blob.getTwo();
-                            break;
-
-                        }
-
-                    }
-
-                }
+                //if there is values on this hash scan the bucket for our key, only its value is copied
+                returnVal = blobManager.getValue(blobIndex, key);
 
             }
             //else the returnval will be null
@@ -292,37 +247,111 @@ public class FileHash {
             throw new ReadFailure("failed to read interrupted", e);
         } finally {
             lock.releaseLock(CacheLocks.LockType.READER);
-            localAccess.giveReader(randomRead);
         }
         
     }
 
+    /**
+     * Looks the key up without copying the value, the bucket's read lock is held until the lease is closed. With
+     * {@link StorageOptions#withMappedSegments(boolean)} the value is a view of the mapped segment file so it can be
+     * handed straight to a channel or decoder.
+     *
+     * Puts, removes and splits of the bucket wait for the lease, close leases before {@link #clear()}.
+     *
+     * @param key
+     * @return the leased value or null if the key isn't there
+     * @throws ReadFailure
+     */
+    public ValueLease lease(
+      final byte [] key
+    ) throws ReadFailure {
+
+        final long hash = keyHasher.hash(key);
+
+        long hashedIndex = linearHashing.getBucketOffset(hash);
+
+        CacheLocks lock = getLock(hashedIndex);
+
+        boolean leased = false;
+
+        try {
+
+            lock.getLock(CacheLocks.LockType.READER);
+
+            //if the index grew while we waited the key may have been split into a new bucket, follow it
+            while(hashedIndex != linearHashing.getBucketOffset(hash)) {
+                lock.releaseLock(CacheLocks.LockType.READER);
+                hashedIndex = linearHashing.getBucketOffset(hash);
+                lock = getLock(hashedIndex);
+                lock.getLock(CacheLocks.LockType.READER);
+            }
+
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
+
+            if(blobIndex < 0) {
+                return null;
+            }
+
+            final ByteBuffer value;
+
+            if(blobManager instanceof SegmentedBytesDataManager) {
+                value = ((SegmentedBytesDataManager) blobManager).getValueBuffer(blobIndex, key);
+            }
+            else {
+
+                //the log engine copies the value out, there's nothing mapped to lend
+                final byte [] copy = blobManager.getValue(blobIndex, key);
+
+                value = copy == null ? null : ByteBuffer.wrap(copy).asReadOnlyBuffer();
+
+            }
+
+            if(value == null) {
+                return null;
+            }
+
+            leased = true;
+
+            return new ValueLease(value, lock);
+
+        }
+        catch (IOException e) {
+
+            logger.error("io exception in fileHash lease", e);
+            throw new ReadFailure("failed hash blob", e);
+
+        } catch (InterruptedException e) {
+            throw new ReadFailure("failed to read interrupted", e);
+        } finally {
+
+            if(!leased) {
+                lock.releaseLock(CacheLocks.LockType.READER);
+            }
+
+        }
+
+    }
+
     public void remove(byte [] key) throws ReadFailure, WriteFailure {
                 
-        final long limitedHash = Math.abs(hashCode(key)) % hashSize; //limit the hash size
-        
-        long hashedIndex = limitedHash * (BUCKET_SIZE);
+        final long hash = keyHasher.hash(key);
 
-        final RandomAccessFile randomRead = localAccess.getReader();
-        final RandomAccessFile randomWrite = localAccess.getWriter();
+        long hashedIndex = linearHashing.getBucketOffset(hash);
 
-        final CacheLocks lock = getLock(hashedIndex);
+        CacheLocks lock = getLock(hashedIndex);
 
         try {
             lock.getLock(CacheLocks.LockType.WRITER);
 
-            final byte[] currentKeyIn = new byte[BUCKET_SIZE];
-            randomRead.seek(hashedIndex);
-
-            //read in key at this hash location.
-            final int read = randomRead.read(currentKeyIn);
-
-            if (read <= 0) {
-                throw new RuntimeException("hash was not initialized properly");
+            //if the index grew while we waited the key may have been split into a new bucket, follow it
+            while(hashedIndex != linearHashing.getBucketOffset(hash)) {
+                lock.releaseLock(CacheLocks.LockType.WRITER);
+                hashedIndex = linearHashing.getBucketOffset(hash);
+                lock = getLock(hashedIndex);
+                lock.getLock(CacheLocks.LockType.WRITER);
             }
 
-            //convert to an index
-            long blobIndex = bytesToLong(currentKeyIn);
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
 
             //if there is a value on this hash, retrieve its value
             if (blobIndex >= 0) {
@@ -333,10 +362,7 @@ public class FileHash {
 
                 if (blobs == null) { //data corrupt lets remove our reference.
 
-                    final byte[] bytesIndex = longToByteArray(-1L);
-
-                    randomWrite.seek(hashedIndex);
-                    randomWrite.write(bytesIndex);
+                    hashIndex.setPointer(hashedIndex, -1L);
 
                 } else {
 
@@ -356,6 +382,8 @@ public class FileHash {
 
                 if (removing != null) {
 
+                    linearHashing.removed();
+
                     //save the blobs after removing the value mapped to our key
                     blobs.remove(removing);
 
@@ -365,19 +393,13 @@ public class FileHash {
 
                         //if blobs is empty, remove the hash as well.
 
-                        final byte[] bytesIndex = longToByteArray(-1L);
-
-                        randomWrite.seek(hashedIndex);
-                        randomWrite.write(bytesIndex);
+                        hashIndex.setPointer(hashedIndex, -1L);
 
                     } else {
 
                         final long newAddress = blobManager.setBlobs(blobIndex, blobs);
 
-                        final byte[] bytesIndex = longToByteArray(newAddress);
-
-                        randomWrite.seek(hashedIndex);
-                        randomWrite.write(bytesIndex);
+                        hashIndex.setPointer(hashedIndex, newAddress);
 
                     }
 
@@ -402,17 +424,11 @@ public class FileHash {
 
             lock.releaseLock(CacheLocks.LockType.WRITER);
 
-            localAccess.giveReader(randomRead);
-            localAccess.giveWriter(randomWrite);
-
         }
                 
     }
     
-    private void delete(int hashedIndex) throws ReadFailure, WriteFailure {
-
-        final RandomAccessFile randomRead = localAccess.getReader();
-        final RandomAccessFile randomWrite = localAccess.getWriter();
+    private void delete(long hashedIndex) throws ReadFailure, WriteFailure {
 
         final CacheLocks lock = getLock(hashedIndex);
 
@@ -420,18 +436,7 @@ public class FileHash {
 
             lock.getLock(CacheLocks.LockType.WRITER);
 
-            final byte[] currentKeyIn = new byte[BUCKET_SIZE];
-            randomRead.seek(hashedIndex);
-
-            //read in key at this hash location.
-            final int read = randomRead.read(currentKeyIn);
-
-            if (read <= 0) {
-                throw new RuntimeException("hash was not initialized properly");
-            }
-
-            //convert to an index
-            long blobIndex = bytesToLong(currentKeyIn);
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
 
             //if there is a value on this hash, retrieve its value
             if (blobIndex >= 0) {
@@ -440,10 +445,7 @@ public class FileHash {
 
                 //if blobs is empty, remove the hash as well.
 
-                final byte[] bytesIndex = longToByteArray(-1L);
-
-                randomWrite.seek(hashedIndex);
-                randomWrite.write(bytesIndex);
+                hashIndex.setPointer(hashedIndex, -1L);
 
             }
           
@@ -462,39 +464,172 @@ public class FileHash {
             throw new WriteFailure("failed to write interrupted", e);
         } finally {
             lock.releaseLock(CacheLocks.LockType.WRITER);
-            localAccess.giveReader(randomRead);
-            localAccess.giveWriter(randomWrite);
         }
 
     }
 
     public void clear() throws ReadFailure, WriteFailure {
+
+        synchronized (compactionLock) {
+
+            //TODO make bulk delete
+            //no splitting while the buckets are emptied, the index goes back to its initial size after
+            final long buckets = linearHashing.beginClear();
+
+            try {
+                for (long i = 0; i < buckets; i++) {
+                    delete(i * (BUCKET_SIZE));
+                }
+            }
+            catch (Exception e) {
+
+                try {
+                    hashIndex.clear();
+                }
+                catch (Exception e2) {
+                    logger.error("Failed to clear hash index", e2);
+                }
+
+            }
+            finally {
+                linearHashing.endClear();
+            }
+
+            blobManager.clear();
+
+        }
         
-        //TODO make bulk delete
-        try {
-            for (int i = 0; i < hashSize; i++) {
-                delete(i * (BUCKET_SIZE));
+    }
+
+    /**
+     * Moves buckets into free segments nearer the front of the segment file, last segment first, then truncates
+     * the free space left at the end. Only runs if more of the file is free than
+     * {@link StorageOptions#withSegmentCompaction(double, long)} allows and is throttled to its rate. A bucket is
+     * locked while it's moved, everything else carries on.
+     *
+     * Runs in the background when segment compaction is turned on, does nothing with {@link StorageEngine#LOG}.
+     *
+     * @return bytes the segment file shrank by
+     */
+    @Override
+    public long compact() throws ReadFailure, WriteFailure {
+
+        if(!(blobManager instanceof SegmentedBytesDataManager)) {
+            return 0;
+        }
+
+        final SegmentedFile segmentedFile = ((SegmentedBytesDataManager) blobManager).getSegmentedFile();
+
+        synchronized (compactor) { //one pass at a time
+
+            if(!compactor.needsCompaction(segmentedFile)) {
+                return 0;
             }
+
+            compactor.startPass();
+
+            final List<long []> buckets;
+
+            try {
+                buckets = SegmentCompactor.bucketsByPointer(hashIndex, linearHashing.getBucketCount());
+            }
+            catch (IOException e) {
+                throw new ReadFailure("failed to read hash index " + e.getMessage(), e);
+            }
+
+            for(final long [] bucket : buckets) {
+
+                final int moved = moveBucket(segmentedFile, bucket[0], bucket[1]);
+
+                if(moved > 0) {
+                    compactor.throttle(moved);
+                }
+
+            }
+
+            return segmentedFile.truncateFreeTail();
+
         }
-        catch (Exception e) {
 
-            SegmentedFile.delete(file.getAbsolutePath());
+    }
+
+    /**
+     * @return bytes copied, 0 if the bucket didn't move
+     */
+    private int moveBucket(SegmentedFile segmentedFile, long hashedIndex, long blobIndex) throws ReadFailure, WriteFailure {
+
+        synchronized (compactionLock) {
+
+            final CacheLocks lock = getLock(hashedIndex);
 
             try {
-                initFile();
+
+                lock.getLock(CacheLocks.LockType.WRITER);
+
+                //it was written, split or cleared since we looked
+                if(hashedIndex >= linearHashing.getBucketCount() * BUCKET_SIZE || hashIndex.getPointer(hashedIndex) != blobIndex) {
+                    return 0;
+                }
+
+                final long moved = segmentedFile.relocate(blobIndex);
+
+                if(moved < 0) {
+                    return 0;
+                }
+
+                hashIndex.setPointer(hashedIndex, moved);
+
+                blobManager.eraseBlobs(blobIndex);
+
+                return segmentedFile.getSegmentLength(moved);
+
             }
-            catch (Exception e2) {
-                logger.error("Failed to init file", e2);
+            catch (IOException e) {
+                throw new WriteFailure("failed to move bucket " + hashedIndex + " " + e.getMessage(), e);
+            }
+            catch (InterruptedException e) {
+                throw new WriteFailure("interrupted moving bucket " + hashedIndex, e);
+            }
+            finally {
+                lock.releaseLock(CacheLocks.LockType.WRITER);
             }
 
         }
-        
-        blobManager.clear();
-        
+
     }
 
+    /**
+     * @return buckets in the hash index right now, grows in the background as entries are added
+     */
+    public long getBucketCount() {
+        return linearHashing.getBucketCount();
+    }
+
+    /**
+     * Reads every bucket to see how evenly keys are spread, a well distributed hash has most buckets near the
+     * average and few long collision sets.
+     *
+     * @return number of buckets by entries in them, [0] is empty buckets, [n] buckets with n entries
+     * @throws ReadFailure
+     */
+    public long [] getOccupancyHistogram() throws ReadFailure {
+        return linearHashing.getOccupancyHistogram();
+    }
+
+    /**
+     * @return the hash function buckets are addressed with
+     */
+    public KeyHasher getKeyHasher() {
+        return keyHasher;
+    }
+
+    /**
+     * @deprecated buckets are addressed with the {@link KeyHasher} from {@link StorageOptions#withKeyHasher(KeyHasher)},
+     * overriding this doesn't change where keys go
+     */
+    @Deprecated
     public int hashCode(byte[] bytes) {
-        return Arrays.hashCode(bytes);
+        return (int) keyHasher.hash(bytes);
     }
 
     public boolean equals(byte[] key1, byte[] key2) {
@@ -0,0 +1,694 @@
+package llc.berserkr.cache.hash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps track of the free segments of a {@link SegmentedFile} so allocation never has to walk the
+ * linked list of segment headers.
+ *
+ * In memory the free extents are kept three ways
+ *
+ * by address - used to find neighbours and to clean up extents that got swallowed by a merge
+ * by size - best fit lookup (ceiling) for a single segment
+ * by run - maximal runs of physically contiguous free segments, indexed by their usable size, so
+ *          a fragmented allocation can find segments to merge with a single ceiling lookup
+ *
+ * All three are tree maps so allocation, split and merge are O(log n) on the number of free segments.
+ * Allocation takes segments out of the index in one call, so whoever gets a segment owns it and the
+ * segment file doesn't have to hold a lock while it checks and writes the segment.
+ *
+ * On disk the index is a sidecar journal next to the segment file.
+ *
+ * [magic 4][version 4] then records of [type 1][a 8][b 8][crc 4]
+ *
+ * FREE(address, size) - segment became free (written after the segment header says FREE)
+ * USED(address) - segment is no longer free (forced to disk BEFORE the segment header changes)
+ * END(tail, end) - address of the last segment and the length of the segment file (forced)
+ *
+ * Because USED records are written ahead of the segment state changing the journal can only ever
+ * miss free space, never hand out space that is in use. A missing END (or one that doesn't
+ * match the length of the segment file) means the sidecar can't be trusted and the segment file is
+ * scanned once to rebuild it. The journal is compacted into a snapshot once it grows past the live
+ * entry count.
+ *
+ * Forcing records is skipped when the durability policy doesn't promise ordering on the device, those
+ * policies get the journal synced with the rest of the files. Group commit skips it too, the journal is flushed
+ * ahead of the segment file by each batch and free entries are checked against the segment header before use.
+ */
+class FreeSpaceIndex implements Flushable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FreeSpaceIndex.class);
+
+    private static final int MAGIC = 0x46534931; //FSI1
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte FREE_RECORD = 1;
+    private static final byte USED_RECORD = 2;
+    private static final byte END_RECORD = 3;
+
+    private static final int RECORD_SIZE = 1 + 8 + 8 + 4;
+
+    //journal is rewritten when it has this many more records than live entries
+    private static final int MIN_COMPACT_RECORDS = 4096;
+
+    //size of the segment header (size, state, fill) between two contiguous payloads
+    private static final int META_SIZE = SegmentedFile.SEGMENT_LENGTH_BYTES_COUNT + 1 + SegmentedFile.SEGMENT_LENGTH_BYTES_COUNT;
+
+    private final File journalFile;
+    private final boolean forceRecords;
+
+    private final TreeMap<Long, Integer> freeByAddress = new TreeMap<>();
+    private final TreeMap<Integer, LinkedHashSet<Long>> freeBySize = new TreeMap<>();
+
+    private final TreeMap<Long, Long> runs = new TreeMap<>(); //run start -> run end (exclusive)
+    private final TreeMap<Long, LinkedHashSet<Long>> runsByUsable = new TreeMap<>();
+
+    private long tail;
+    private long end;
+
+    private boolean trusted;
+    private long recordCount;
+
+    private RandomAccessFile journal;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Loads the journal if there is one. {@link #isTrusted(long)} says if what got loaded lines up
+     * with the segment file.
+     *
+     * @param journalFile - sidecar file the index persists to
+     * @param startOffset - first segment address of the segment file
+     * @param forceRecords - force USED and END records to the device as they are written
+     */
+    FreeSpaceIndex(final File journalFile, final long startOffset, final boolean forceRecords) {
+
+        this.journalFile = journalFile;
+        this.forceRecords = forceRecords;
+        this.tail = startOffset;
+        this.end = startOffset;
+
+        try {
+            load();
+        }
+        catch (IOException e) {
+            logger.warn("free space index couldn't be loaded, it will be rebuilt " + journalFile, e);
+            resetMemory(startOffset, startOffset);
+            trusted = false;
+        }
+
+    }
+
+    /**
+     * @param segmentFileLength - current length of the segment file
+     * @return true if the loaded journal describes a segment file of this length
+     */
+    synchronized boolean isTrusted(long segmentFileLength) {
+        return trusted && end == segmentFileLength;
+    }
+
+    /**
+     * @return true if the journal had a valid end record, the segment file may still have data past it
+     */
+    synchronized boolean hasEnd() {
+        return trusted;
+    }
+
+    synchronized long getTail() {
+        return tail;
+    }
+
+    synchronized long getEnd() {
+        return end;
+    }
+
+    synchronized int getFreeCount() {
+        return freeByAddress.size();
+    }
+
+    synchronized long getFreeBytes() {
+
+        long total = 0;
+
+        for(final int size : freeByAddress.values()) {
+            total += size;
+        }
+
+        return total;
+    }
+
+    synchronized boolean isFree(long address) {
+        return freeByAddress.containsKey(address);
+    }
+
+    synchronized Integer getFreeSize(long address) {
+        return freeByAddress.get(address);
+    }
+
+    /**
+     * Takes the smallest free segment that fits out of the index, recording it USED, so only one caller can
+     * ever be handed it.
+     *
+     * @param lengthRequired
+     * @return the address and size the index had for it, null if there isn't one big enough
+     */
+    synchronized Map.Entry<Long, Integer> takeBestFit(int lengthRequired) throws IOException {
+
+        final Map.Entry<Integer, LinkedHashSet<Long>> entry = freeBySize.ceilingEntry(lengthRequired);
+
+        if(entry == null) {
+            return null;
+        }
+
+        final long address = entry.getValue().iterator().next();
+        final int size = entry.getKey();
+
+        used(address);
+
+        return new AbstractMap.SimpleImmutableEntry<>(address, size);
+
+    }
+
+    /**
+     * Takes the free segment nearest the start of the file that fits and is below an address out of the index,
+     * recording it USED. Used to move segments toward the front of the file.
+     *
+     * @param lengthRequired
+     * @param before - the segment has to start below this
+     * @param maxScan - free segments looked at before giving up, the index is locked while we look
+     * @return the address and size the index had for it, null if there isn't one
+     */
+    synchronized Map.Entry<Long, Integer> takeFirstFit(int lengthRequired, long before, int maxScan) throws IOException {
+
+        int scanned = 0;
+
+        for(final Map.Entry<Long, Integer> free : freeByAddress.headMap(before, false).entrySet()) {
+
+            if(free.getValue() >= lengthRequired) {
+
+                final long address = free.getKey();
+                final int size = free.getValue();
+
+                used(address);
+
+                return new AbstractMap.SimpleImmutableEntry<>(address, size);
+
+            }
+
+            if(++scanned >= maxScan) {
+                break;
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Takes the last free segment out of the index, recording it USED, if it runs right up to the given end.
+     *
+     * @param end - where the segment has to end
+     * @return the address and size the index had for it, null if the segment ending there isn't free
+     */
+    synchronized Map.Entry<Long, Integer> takeLast(long end) throws IOException {
+
+        final Map.Entry<Long, Integer> last = freeByAddress.lastEntry();
+
+        if(last == null || last.getKey() + META_SIZE + last.getValue() != end) {
+            return null;
+        }
+
+        used(last.getKey());
+
+        return new AbstractMap.SimpleImmutableEntry<>(last.getKey(), last.getValue());
+
+    }
+
+    /**
+     * @return address of the last free segment below the address, -1 if there isn't one
+     */
+    synchronized long lowerFree(long address) {
+
+        final Long lower = freeByAddress.lowerKey(address);
+
+        return lower == null ? -1 : lower;
+
+    }
+
+    /**
+     * Takes a run of contiguous free segments that are big enough when merged out of the index, recording
+     * each USED.
+     *
+     * @param lengthRequired
+     * @return address to size of the segments to merge in address order, null if there isn't a run big enough
+     */
+    synchronized TreeMap<Long, Integer> takeRun(int lengthRequired) throws IOException {
+
+        final Map.Entry<Long, LinkedHashSet<Long>> entry = runsByUsable.ceilingEntry((long) lengthRequired);
+
+        if(entry == null) {
+            return null;
+        }
+
+        final long runStart = entry.getValue().iterator().next();
+        final long runEnd = runs.get(runStart);
+
+        final TreeMap<Long, Integer> returnVal = new TreeMap<>();
+
+        long total = 0;
+
+        for(final Map.Entry<Long, Integer> free : freeByAddress.subMap(runStart, true, runEnd, false).entrySet()) {
+
+            returnVal.put(free.getKey(), free.getValue());
+            total += free.getValue();
+
+            if(total + (long) (returnVal.size() - 1) * META_SIZE >= lengthRequired) {
+                break;
+            }
+
+        }
+
+        if(total + (long) (returnVal.size() - 1) * META_SIZE < lengthRequired) {
+            throw new IllegalStateException("run at " + runStart + " is smaller than it's index says");
+        }
+
+        for(final long address : returnVal.keySet()) {
+            used(address);
+        }
+
+        return returnVal;
+
+    }
+
+    /**
+     * Records that the segment is free. Call after the segment header is FREE.
+     *
+     * @param address
+     * @param size
+     */
+    synchronized void free(long address, int size) throws IOException {
+
+        freeMemory(address, size);
+
+        append(FREE_RECORD, address, size, false);
+
+        final long extentEnd = address + META_SIZE + size;
+
+        if(trusted && (extentEnd > end || (tail > address && tail < extentEnd))) {
+            //something was recovered onto the end of the file or swallowed the last segment
+            setEnd(address, Math.max(end, extentEnd));
+        }
+
+    }
+
+    /**
+     * Records that the segment is no longer free. Call before the segment header stops being FREE.
+     *
+     * @param address
+     */
+    synchronized void used(long address) throws IOException {
+
+        if(freeByAddress.containsKey(address)) {
+
+            removeMemory(address);
+
+            append(USED_RECORD, address, 0, true);
+
+        }
+
+    }
+
+    /**
+     * Records a new last segment.
+     *
+     * @param tail - address of the last segment
+     * @param end - length of the segment file
+     */
+    synchronized void setEnd(long tail, long end) throws IOException {
+
+        this.tail = tail;
+        this.end = end;
+        this.trusted = true;
+
+        append(END_RECORD, tail, end, true);
+
+        if(recordCount > Math.max(MIN_COMPACT_RECORDS, freeByAddress.size() * 2L)) {
+            compact();
+        }
+
+    }
+
+    /**
+     * Throws away everything and records a fresh index.
+     *
+     * @param tail - address of the last segment
+     * @param end - length of the segment file
+     * @param free - the free segments, address to size
+     */
+    synchronized void reset(long tail, long end, Map<Long, Integer> free) throws IOException {
+
+        resetMemory(tail, end);
+
+        for(final Map.Entry<Long, Integer> entry : free.entrySet()) {
+            addMemory(entry.getKey(), entry.getValue());
+        }
+
+        trusted = true;
+
+        compact();
+
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+
+        if(journal != null) {
+            journal.getChannel().force(false);
+        }
+
+    }
+
+    synchronized void close() {
+
+        try {
+            if(journal != null) {
+                journal.close();
+            }
+        }
+        catch (IOException e) {
+            logger.warn("failed to close " + journalFile, e);
+        }
+        finally {
+            journal = null;
+        }
+
+    }
+
+    private void resetMemory(long tail, long end) {
+
+        freeByAddress.clear();
+        freeBySize.clear();
+        runs.clear();
+        runsByUsable.clear();
+
+        this.tail = tail;
+        this.end = end;
+
+    }
+
+    private void freeMemory(long address, int size) {
+
+        final long extentEnd = address + META_SIZE + size;
+
+        //anything overlapping this extent was swallowed by it (merge recovery), it isn't a segment anymore
+        final Map.Entry<Long, Integer> before = freeByAddress.lowerEntry(address);
+
+        if(before != null && before.getKey() + META_SIZE + before.getValue() > address) {
+            removeMemory(before.getKey());
+        }
+
+        for(final long swallowed : new ArrayList<>(freeByAddress.subMap(address, true, extentEnd, false).keySet())) {
+            removeMemory(swallowed);
+        }
+
+        addMemory(address, size);
+
+    }
+
+    private void addMemory(long address, int size) {
+
+        freeByAddress.put(address, size);
+        freeBySize.computeIfAbsent(size, k -> new LinkedHashSet<>()).add(address);
+
+        //join the runs on either side
+        long runStart = address;
+        long runEnd = address + META_SIZE + size;
+
+        final Map.Entry<Long, Long> before = runs.floorEntry(address);
+
+        if(before != null && before.getValue() == address) {
+            removeRun(before.getKey());
+            runStart = before.getKey();
+        }
+
+        final Long after = runs.get(runEnd);
+
+        if(after != null) {
+            removeRun(runEnd);
+            runEnd = after;
+        }
+
+        addRun(runStart, runEnd);
+
+    }
+
+    private void removeMemory(long address) {
+
+        final Integer size = freeByAddress.remove(address);
+
+        if(size == null) {
+            return;
+        }
+
+        final LinkedHashSet<Long> sized = freeBySize.get(size);
+
+        sized.remove(address);
+
+        if(sized.isEmpty()) {
+            freeBySize.remove(size);
+        }
+
+        //split the run this segment was part of
+        final Map.Entry<Long, Long> run = runs.floorEntry(address);
+
+        if(run == null || run.getValue() <= address) {
+            throw new IllegalStateException("free segment " + address + " isn't in a run");
+        }
+
+        final long runStart = run.getKey();
+        final long runEnd = run.getValue();
+        final long extentEnd = address + META_SIZE + size;
+
+        removeRun(runStart);
+
+        if(runStart < address) {
+            addRun(runStart, address);
+        }
+
+        if(extentEnd < runEnd) {
+            addRun(extentEnd, runEnd);
+        }
+
+    }
+
+    private void addRun(long start, long runEnd) {
+        runs.put(start, runEnd);
+        runsByUsable.computeIfAbsent(runEnd - start - META_SIZE, k -> new LinkedHashSet<>()).add(start);
+    }
+
+    private void removeRun(long start) {
+
+        final Long runEnd = runs.remove(start);
+
+        if(runEnd == null) {
+            return;
+        }
+
+        final long usable = runEnd - start - META_SIZE;
+        final LinkedHashSet<Long> starts = runsByUsable.get(usable);
+
+        starts.remove(start);
+
+        if(starts.isEmpty()) {
+            runsByUsable.remove(usable);
+        }
+
+    }
+
+    /************************ JOURNAL ***************************/
+
+    private void load() throws IOException {
+
+        trusted = false;
+
+        if(!journalFile.exists() || journalFile.length() < HEADER_SIZE) {
+            return;
+        }
+
+        try(final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warn("unknown free space index format " + journalFile);
+                return;
+            }
+
+            final byte[] bytes = new byte[RECORD_SIZE];
+            long valid = HEADER_SIZE;
+
+            while(true) {
+
+                try {
+                    in.readFully(bytes);
+                }
+                catch (EOFException e) {
+                    break; //a torn record at the end is just dropped
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+                final byte type = buffer.get();
+                final long a = buffer.getLong();
+                final long b = buffer.getLong();
+                final int checksum = buffer.getInt();
+
+                crc.reset();
+                crc.update(bytes, 0, RECORD_SIZE - 4);
+
+                if((int) crc.getValue() != checksum) {
+                    logger.warn("free space index has a bad record at " + valid + " truncating there " + journalFile);
+                    break;
+                }
+
+                switch (type) {
+                    case FREE_RECORD: {
+                        freeMemory(a, (int) b);
+                        break;
+                    }
+                    case USED_RECORD: {
+                        removeMemory(a);
+                        break;
+                    }
+                    case END_RECORD: {
+                        tail = a;
+                        end = b;
+                        trusted = true;
+                        break;
+                    }
+                    default: {
+                        throw new IOException("unknown record type " + type);
+                    }
+                }
+
+                valid += RECORD_SIZE;
+                recordCount++;
+
+            }
+
+            if(valid != journalFile.length()) {
+                try(final RandomAccessFile truncate = new RandomAccessFile(journalFile, "rw")) {
+                    truncate.setLength(valid);
+                }
+            }
+
+        }
+
+    }
+
+    private void append(byte type, long a, long b, boolean force) throws IOException {
+
+        if(journal == null) {
+            openJournal();
+        }
+
+        record.clear();
+        record.put(type);
+        record.putLong(a);
+        record.putLong(b);
+
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+
+        record.putInt((int) crc.getValue());
+
+        journal.seek(journal.length());
+        journal.write(record.array(), 0, RECORD_SIZE);
+
+        if(force && forceRecords) {
+            journal.getChannel().force(false);
+        }
+
+        recordCount++;
+
+    }
+
+    private void openJournal() throws IOException {
+
+        if(!journalFile.exists() || journalFile.length() < HEADER_SIZE) {
+            compact(); //writes a header and whatever we have in memory
+            return;
+        }
+
+        journal = new RandomAccessFile(journalFile, "rw");
+
+    }
+
+    /**
+     * writes a snapshot of the index to a temp file and moves it over the journal
+     */
+    private void compact() throws IOException {
+
+        close();
+
+        final File temp = new File(journalFile.getPath() + ".tmp");
+
+        final ByteBuffer snapshot = ByteBuffer.allocate(HEADER_SIZE + RECORD_SIZE * (freeByAddress.size() + 1));
+
+        snapshot.putInt(MAGIC);
+        snapshot.putInt(VERSION);
+
+        recordCount = 0;
+
+        for(final Map.Entry<Long, Integer> entry : freeByAddress.entrySet()) {
+            snapshot.put(toRecord(FREE_RECORD, entry.getKey(), entry.getValue()));
+            recordCount++;
+        }
+
+        if(trusted) {
+            snapshot.put(toRecord(END_RECORD, tail, end));
+            recordCount++;
+        }
+
+        try(final RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+
+            out.setLength(0);
+            out.write(snapshot.array(), 0, snapshot.position());
+            out.getChannel().force(true);
+
+        }
+
+        Files.move(temp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journal = new RandomAccessFile(journalFile, "rw");
+
+    }
+
+    private byte[] toRecord(byte type, long a, long b) {
+
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.put(type);
+        buffer.putLong(a);
+        buffer.putLong(b);
+
+        crc.reset();
+        crc.update(buffer.array(), 0, RECORD_SIZE - 4);
+
+        buffer.putInt((int) crc.getValue());
+
+        return buffer.array();
+
+    }
+
+}
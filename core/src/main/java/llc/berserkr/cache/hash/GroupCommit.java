@@ -0,0 +1,145 @@
+package llc.berserkr.cache.hash;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches sync requests from concurrent transactions into a single flush for
+ * {@link DurabilityPolicy#GROUP_COMMIT}.
+ *
+ * Every caller takes a ticket after it's done writing. The first caller to find no flush running becomes the
+ * leader, everyone else waits. The leader takes every ticket handed out so far as its batch, flushes once and
+ * wakes the followers it covered. Tickets taken while a flush is running go into the next batch, so N threads
+ * syncing at the same time cost about one flush instead of N.
+ *
+ * If the last batch had more than one ticket in it there is concurrent work around, so the leader waits up to
+ * the max delay for the batch to fill to the max batch size before flushing. A single writer never waits.
+ */
+class GroupCommit {
+
+    private final Flushable target;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+
+    private long requested; //last ticket handed out
+    private long durable; //every ticket up to this one has been flushed
+    private boolean flushing;
+    private long lastBatch;
+
+    private long flushCount;
+
+    /**
+     * @param target - what gets flushed for each batch
+     * @param maxDelayMicros - how long a leader will wait for a batch to fill
+     * @param maxBatch - flush as soon as this many requests are waiting
+     */
+    GroupCommit(final Flushable target, final long maxDelayMicros, final int maxBatch) {
+
+        this.target = target;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.maxBatch = maxBatch;
+
+    }
+
+    /**
+     * Returns once everything the calling thread wrote before calling it has been flushed.
+     *
+     * @throws IOException - if the flush covering this request failed
+     */
+    void sync() throws IOException {
+
+        final long batchEnd;
+
+        synchronized (this) {
+
+            final long ticket = ++requested;
+
+            notifyAll(); //a leader filling a batch may be able to go now
+
+            while(true) {
+
+                if(durable >= ticket) {
+                    return; //someone else's flush covered us
+                }
+
+                if(!flushing) {
+                    break; //our turn to lead
+                }
+
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting on group commit");
+                }
+
+            }
+
+            flushing = true;
+
+            if(lastBatch > 1 && maxDelayNanos > 0) {
+
+                final long deadline = System.nanoTime() + maxDelayNanos;
+
+                try {
+
+                    long remaining;
+
+                    while(requested - durable < maxBatch && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); //stop filling, still have to flush what we've got
+                }
+
+            }
+
+            batchEnd = requested;
+
+        }
+
+        boolean flushed = false;
+
+        try {
+            target.flush();
+            flushed = true;
+        }
+        finally {
+
+            synchronized (this) {
+
+                if(flushed) {
+                    lastBatch = batchEnd - durable;
+                    durable = batchEnd;
+                    flushCount++;
+                }
+
+                flushing = false;
+                notifyAll(); //covered followers return, the rest pick a new leader
+
+            }
+
+        }
+
+    }
+
+    /**
+     * @return how many flushes have been done, each one covers a batch of requests
+     */
+    synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return how many sync requests have been made
+     */
+    synchronized long getRequestCount() {
+        return requested;
+    }
+
+}
@@ -4,12 +4,36 @@ import llc.berserkr.cache.data.Pair;
 import llc.berserkr.cache.exception.ReadFailure;
 import llc.berserkr.cache.exception.WriteFailure;
 
+import java.util.Objects;
 import java.util.Set;
 
 public interface HashDataManager<Key, Value> {
    
     Set<Pair<Key, Value>> getBlobsAt(final long blobIndex) throws ReadFailure;
 
+    /**
+     * Looks up one key in the bucket at blobIndex, managers that can scan a bucket without decoding it override this.
+     *
+     * @return the value or null if the key isn't in the bucket
+     */
+    default Value getValue(final long blobIndex, final Key key) throws ReadFailure {
+
+        final Set<Pair<Key, Value>> blobs = getBlobsAt(blobIndex);
+
+        if(blobs == null) {
+            return null;
+        }
+
+        for(final Pair<Key, Value> blob : blobs) {
+            if(Objects.deepEquals(blob.getOne(), key)) {
+                return blob.getTwo();
+            }
+        }
+
+        return null;
+
+    }
+
     long setBlobs(final long blobIndex, final Set<Pair<Key, Value>> blobs) throws WriteFailure, ReadFailure;
    
     void eraseBlobs(final long blobIndex) throws WriteFailure, ReadFailure;
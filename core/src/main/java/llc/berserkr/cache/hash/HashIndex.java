@@ -0,0 +1,55 @@
+package llc.berserkr.cache.hash;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * The bucket table of a file hash. Each bucket is an 8 byte little endian pointer into the data file, -1 when
+ * the bucket is empty. Callers hold the bucket's lock, the index itself doesn't lock.
+ *
+ * Created with {@link HashIndexFactory}.
+ */
+public interface HashIndex extends Flushable {
+
+    int BUCKET_SIZE = 8;
+
+    long EMPTY = -1L;
+
+    /**
+     * @param bucketOffset - byte offset of the bucket (bucket number * {@link #BUCKET_SIZE})
+     * @return the pointer stored in the bucket, negative if it's empty
+     * @throws IOException
+     */
+    long getPointer(long bucketOffset) throws IOException;
+
+    /**
+     * Stores a pointer. Setting the pointer is what commits a put, so it's synced to the device the same way the
+     * end of a transaction is for the durability policy.
+     *
+     * @param bucketOffset - byte offset of the bucket
+     * @param pointer - address in the data file or {@link #EMPTY}
+     * @throws IOException
+     */
+    void setPointer(long bucketOffset, long pointer) throws IOException;
+
+    /**
+     * @return buckets the index file has room for
+     */
+    long getCapacity();
+
+    /**
+     * Grows the index file so it has room for at least this many buckets, new buckets are empty.
+     *
+     * @param buckets
+     * @throws IOException
+     */
+    void ensureCapacity(long buckets) throws IOException;
+
+    /**
+     * empties every bucket
+     *
+     * @throws IOException
+     */
+    void clear() throws IOException;
+
+}
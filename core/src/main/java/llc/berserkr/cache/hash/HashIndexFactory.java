@@ -0,0 +1,90 @@
+package llc.berserkr.cache.hash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Factory for opening the {@link HashIndex} of a file hash. Uses a memory mapped index when
+ * {@link StorageOptions#isMappedIndex()} is set, seek and read otherwise.
+ */
+public class HashIndexFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashIndexFactory.class);
+
+    private HashIndexFactory() {}
+
+    /**
+     * Opens the index, if the file doesn't exist it's created with every bucket empty.
+     *
+     * @param file - hash index file
+     * @param hashSize - number of buckets
+     * @param options - mapped or not and how writes are synced
+     */
+    public static HashIndex create(final File file, final int hashSize, final StorageOptions options) {
+
+        if(file.isDirectory()) {
+            throw new RuntimeException("hash file location must not be a directory");
+        }
+
+        //if the file doesn't exist, initialize an empty hash of the desired size
+        if(!file.exists()) {
+            initFile(file, hashSize);
+        }
+
+        try {
+
+            final HashIndex index;
+
+            if(options.isMappedIndex()) {
+                index = new MappedHashIndex(file, options);
+            }
+            else {
+                index = new RandomAccessHashIndex(file, options);
+            }
+
+            //a file that's there but short (created empty by someone else) gets the empty buckets it's missing
+            index.ensureCapacity(hashSize);
+
+            return index;
+
+        }
+        catch (IOException e) {
+            logger.error("Failed to open file hash", e);
+            throw new RuntimeException("failed to open file hash", e);
+        }
+
+    }
+
+    private static void initFile(final File file, final int hashSize) {
+
+        try(final OutputStream output = new FileOutputStream(file)) {
+
+            final byte [] bytes = new byte [1024];
+
+            Arrays.fill(bytes, (byte)-1);
+
+            final long max = (long) hashSize * HashIndex.BUCKET_SIZE;
+
+            for(long i = 0; i < max; i += bytes.length) {
+                output.write(bytes, 0, (int) Math.min(bytes.length, max - i));
+            }
+
+            output.flush();
+
+        }
+        catch (IOException e) {
+
+            logger.error("Failed to establish file hash", e);
+            throw new RuntimeException("failed to establish file hash", e);
+
+        }
+
+    }
+
+}
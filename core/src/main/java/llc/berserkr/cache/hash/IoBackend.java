@@ -0,0 +1,21 @@
+package llc.berserkr.cache.hash;
+
+/**
+ * How the segment files and the hash index are read and written, see {@link StorageOptions#withIoBackend(IoBackend)}.
+ */
+public enum IoBackend {
+
+    /**
+     * a {@link java.io.RandomAccessFile} reader and writer per thread per file, every access is a seek then a read or write.
+     * This is how the cache has always worked.
+     */
+    RANDOM_ACCESS,
+
+    /**
+     * one {@link java.nio.channels.FileChannel} per file shared by every thread, reads and writes are positional so
+     * there's no seek and no handle per thread. Works the same from virtual threads and big thread pools without
+     * opening a file descriptor for each thread.
+     */
+    CHANNEL
+
+}
@@ -0,0 +1,23 @@
+package llc.berserkr.cache.hash;
+
+/**
+ * Hash function a file hash addresses its buckets with. The table uses the low 63 bits, a good function spreads
+ * keys over those bits evenly so collision sets stay short.
+ *
+ * The name is recorded in the hash index sidecar, a hash has to be opened with the function it was written with.
+ * See {@link KeyHashers} for the built in ones.
+ */
+public interface KeyHasher {
+
+    /**
+     * @param key
+     * @return 64 bit hash, the same key always has to give the same hash
+     */
+    long hash(byte [] key);
+
+    /**
+     * @return name recorded with the index, unique per function
+     */
+    String getName();
+
+}
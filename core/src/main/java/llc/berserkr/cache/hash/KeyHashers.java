@@ -0,0 +1,39 @@
+package llc.berserkr.cache.hash;
+
+/**
+ * The built in {@link KeyHasher}s.
+ *
+ * ARRAYS - Arrays.hashCode, what hashes were addressed with before the hash function could be picked. Clusters on
+ * structured keys (urls, uuids, counters) and only has 31 bits. Indexes without a sidecar are opened with it.
+ * MURMUR3 - low 64 bits of MurmurHash3 x64 128
+ * XXHASH64 - xxHash64, the default for new indexes
+ */
+public class KeyHashers {
+
+    public static final KeyHasher ARRAYS = new ArraysKeyHasher();
+    public static final KeyHasher MURMUR3 = new Murmur3KeyHasher();
+    public static final KeyHasher XXHASH64 = new XxHash64KeyHasher();
+
+    public static final KeyHasher DEFAULT = XXHASH64;
+
+    private KeyHashers() {}
+
+    /**
+     * @param name - {@link KeyHasher#getName()}
+     * @return the built in hasher with that name, null if there isn't one
+     */
+    public static KeyHasher forName(String name) {
+
+        for(final KeyHasher hasher : new KeyHasher [] {ARRAYS, MURMUR3, XXHASH64}) {
+
+            if(hasher.getName().equals(name)) {
+                return hasher;
+            }
+
+        }
+
+        return null;
+
+    }
+
+}
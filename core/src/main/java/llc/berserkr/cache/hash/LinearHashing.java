@@ -0,0 +1,809 @@
+package llc.berserkr.cache.hash;
+
+import llc.berserkr.cache.data.Pair;
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Grows the bucket table of a file hash with linear hashing so buckets don't turn into big collision sets as
+ * keys are added.
+ *
+ * The table starts with the hash size N buckets. Buckets are split one at a time in order, the split pointer S
+ * says which is next. Splitting S moves the keys that belong in S + N * 2^level to that bucket, once S gets to
+ * N * 2^level the level goes up and S starts over at 0. A key's bucket is
+ *
+ * b = h % (N * 2^level), if b < S then b = h % (N * 2^(level + 1))
+ *
+ * where h is the low 63 bits of the {@link KeyHasher} hash, so at level 0 with nothing split this is the same
+ * addressing the hash has always used. When N is a power of two the modulo is a mask.
+ *
+ * Splits run on a background thread when the entry count goes over max load factor * buckets. A split only locks
+ * the bucket being split and the one it's split into, everything else is read and written as usual. Operations
+ * check the bucket they locked is still where their key goes and go again if it was split while they waited.
+ *
+ * Progress is in a sidecar next to the hash index (index file + ".meta"), written with a temp file and an atomic move
+ * BEFORE a split is published.
+ *
+ * [magic 4][version 4][initial size 8][level 4][split 8][count 8][hasher name length 2][hasher name][crc 4]
+ *
+ * Version 1 sidecars don't have the hasher, they were written with {@link KeyHashers#ARRAYS}. So are indexes
+ * without a sidecar at all.
+ *
+ * Buckets past the end of the table are always empty, except while one is being split into. So if the bucket
+ * after the end has a pointer when the file is opened a split was interrupted, it's redone from the union of both
+ * buckets.
+ *
+ * @param <V> - value type stored with each key in the bucket sets
+ */
+class LinearHashing<V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinearHashing.class);
+
+    private static final int MAGIC = 0x4c484d31; //LHM1
+    private static final int VERSION = 2;
+    private static final int VERSION_1 = 1;
+    private static final int META_SIZE_V1 = 4 + 4 + 8 + 4 + 8 + 8 + 4;
+
+    private static final int BUCKET_SIZE = HashIndex.BUCKET_SIZE;
+
+    //count is persisted when it drifts this far from what's on disk, it only decides when to split
+    private static final long MIN_COUNT_DRIFT = 64;
+
+    private static final ExecutorService resizer;
+
+    static {
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                final Thread thread = new Thread(runnable, "file-cache-index-resize");
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+
+        executor.allowCoreThreadTimeOut(true);
+
+        resizer = executor;
+
+    }
+
+    private final File metaFile;
+    private final HashIndex index;
+    private final HashDataManager<byte [], V> manager;
+    private final KeyHasher keyHasher;
+    private final LongFunction<CacheLocks> locks;
+    private final double maxLoadFactor;
+    private final boolean forceMeta;
+
+    private volatile State state;
+
+    private final AtomicLong count = new AtomicLong();
+    private volatile long persistedCount;
+    private volatile boolean countUnknown;
+
+    //held while splitting or clearing, never by gets and puts
+    private final ReentrantLock resizeLock = new ReentrantLock();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Loads the sidecar and finishes a split that was interrupted by a crash.
+     *
+     * @param metaFile - sidecar progress is persisted to
+     * @param index - bucket table
+     * @param manager - reads and writes the bucket sets
+     * @param initialSize - buckets the table starts with (ignored if the sidecar says otherwise)
+     * @param existing - the index file was there before it was opened, without a sidecar its entries get counted
+     * @param options - max load factor, key hasher, power of two sizing and durability
+     * @param locks - the hash's bucket locks by bucket offset
+     */
+    LinearHashing(
+        final File metaFile,
+        final HashIndex index,
+        final HashDataManager<byte [], V> manager,
+        final int initialSize,
+        final boolean existing,
+        final StorageOptions options,
+        final LongFunction<CacheLocks> locks
+    ) throws ReadFailure, WriteFailure {
+
+        this.metaFile = metaFile;
+        this.index = index;
+        this.manager = manager;
+        this.locks = locks;
+        this.maxLoadFactor = options.getMaxLoadFactor();
+        this.forceMeta = options.getDurability().isCrashOrdered();
+
+        final String persistedHasher = load();
+
+        if(persistedHasher == null) {
+
+            if(existing) {
+
+                //a hash from before resizing (or a lost sidecar), entries have to be counted before we know to split
+                state = new State(initialSize, 0, 0);
+                countUnknown = true;
+
+                //it was written before the hasher could be picked, anything else would address its keys in the wrong buckets
+                if(options.getKeyHasher() != null && !options.getKeyHasher().getName().equals(KeyHashers.ARRAYS.getName())) {
+                    throw new ReadFailure("hash index has no sidecar so it was written with key hasher " + KeyHashers.ARRAYS.getName() + " not " + options.getKeyHasher().getName() + " " + metaFile);
+                }
+
+                keyHasher = KeyHashers.ARRAYS;
+
+            }
+            else {
+
+                //a new index is empty, counting it would count the first puts twice
+                state = new State(options.isPowerOfTwoIndex() ? powerOfTwo(initialSize) : initialSize, 0, 0);
+
+                keyHasher = options.getKeyHasher() == null ? KeyHashers.DEFAULT : options.getKeyHasher();
+
+                //the hasher has to be recorded before anything is put with it
+                persist(state);
+
+            }
+
+        }
+        else {
+
+            if(options.getKeyHasher() == null) {
+
+                keyHasher = KeyHashers.forName(persistedHasher);
+
+                if(keyHasher == null) {
+                    throw new ReadFailure("hash index was written with key hasher " + persistedHasher + ", it has to be configured to open it " + metaFile);
+                }
+
+            }
+            else if(!options.getKeyHasher().getName().equals(persistedHasher)) {
+                throw new ReadFailure("hash index was written with key hasher " + persistedHasher + " not " + options.getKeyHasher().getName() + " " + metaFile);
+            }
+            else {
+                keyHasher = options.getKeyHasher();
+            }
+
+            if(state.initial != initialSize) {
+                logger.info("hash index was created with " + state.initial + " buckets, using that over " + initialSize);
+            }
+
+        }
+
+        try {
+
+            //the table can be bigger than the hash size the index file was created with
+            index.ensureCapacity(state.buckets());
+
+            final long next = state.buckets();
+
+            if(next < index.getCapacity() && index.getPointer(next * BUCKET_SIZE) >= 0) {
+
+                logger.warn("hash index split of bucket " + state.split + " was interrupted, finishing it " + metaFile);
+
+                resizeLock.lock();
+
+                try {
+                    split();
+                }
+                finally {
+                    resizeLock.unlock();
+                }
+
+            }
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("failed to recover hash index split " + e.getMessage(), e);
+        }
+
+        if(countUnknown && maxLoadFactor > 0) {
+            schedule();
+        }
+
+    }
+
+    /**
+     * @return the hash function keys are addressed with
+     */
+    KeyHasher getKeyHasher() {
+        return keyHasher;
+    }
+
+    /**
+     * @param hash - {@link KeyHasher} hash of the key
+     * @return byte offset of the bucket the key is in right now
+     */
+    long getBucketOffset(long hash) {
+        return state.bucket(hash & Long.MAX_VALUE) * BUCKET_SIZE;
+    }
+
+    /**
+     * @return buckets in the table
+     */
+    long getBucketCount() {
+        return state.buckets();
+    }
+
+    /**
+     * @return entries in the table, an estimate until a hash from before resizing is counted
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * a key that wasn't there was put
+     */
+    void added() {
+
+        final long current = count.incrementAndGet();
+
+        if(needsSplit(current) || drifted(current)) {
+            schedule();
+        }
+
+    }
+
+    /**
+     * a key that was there was removed
+     */
+    void removed() {
+
+        final long current = count.decrementAndGet();
+
+        if(drifted(current)) {
+            schedule();
+        }
+
+    }
+
+    /**
+     * Stops splitting for a clear. Every bucket below the returned count has to be emptied before
+     * {@link #endClear()} puts the table back to its initial size.
+     *
+     * @return buckets in the table
+     */
+    long beginClear() {
+        resizeLock.lock();
+        return state.buckets();
+    }
+
+    void endClear() throws WriteFailure {
+
+        try {
+
+            state = new State(state.initial, 0, 0);
+            count.set(0);
+            countUnknown = false;
+
+            persist(state);
+
+        }
+        finally {
+            resizeLock.unlock();
+        }
+
+    }
+
+    private boolean needsSplit(long current) {
+        return maxLoadFactor > 0 && !countUnknown && current > maxLoadFactor * state.buckets();
+    }
+
+    private boolean drifted(long current) {
+        return Math.abs(current - persistedCount) > Math.max(MIN_COUNT_DRIFT, state.buckets() / 16);
+    }
+
+    private void schedule() {
+
+        if(scheduled.compareAndSet(false, true)) {
+            resizer.execute(this::resize);
+        }
+
+    }
+
+    private void resize() {
+
+        try {
+
+            resizeLock.lock();
+
+            try {
+
+                if(countUnknown) {
+                    countEntries();
+                }
+
+                while(needsSplit(count.get())) {
+                    split();
+                }
+
+                if(count.get() != persistedCount) {
+                    persist(state);
+                }
+
+            }
+            finally {
+                resizeLock.unlock();
+            }
+
+        }
+        catch (Exception e) {
+            logger.error("failed to resize hash index " + metaFile, e);
+        }
+        finally {
+            scheduled.set(false);
+        }
+
+        //something could have been added between the last check and clearing the flag
+        if(needsSplit(count.get())) {
+            schedule();
+        }
+
+    }
+
+    /**
+     * reads the size of every bucket set, gets and puts carry on while it runs so it's close, not exact
+     */
+    private void countEntries() throws IOException, ReadFailure, InterruptedException {
+
+        final long buckets = state.buckets();
+
+        long counted = 0;
+
+        for(long i = 0; i < buckets; i++) {
+
+            final long offset = i * BUCKET_SIZE;
+            final CacheLocks lock = locks.apply(offset);
+
+            lock.getLock(CacheLocks.LockType.READER);
+
+            try {
+
+                final long pointer = index.getPointer(offset);
+
+                if(pointer >= 0) {
+
+                    final Set<Pair<byte [], V>> blobs = manager.getBlobsAt(pointer);
+
+                    if(blobs != null) {
+                        counted += blobs.size();
+                    }
+
+                }
+
+            }
+            finally {
+                lock.releaseLock(CacheLocks.LockType.READER);
+            }
+
+        }
+
+        count.addAndGet(counted);
+        countUnknown = false;
+
+    }
+
+    /**
+     * Reads the size of every bucket set. Splitting waits until it's done, gets and puts carry on so it's a close
+     * picture, not an exact one.
+     *
+     * @return number of buckets by entries in them, [0] is empty buckets, [n] buckets with n entries
+     */
+    long [] getOccupancyHistogram() throws ReadFailure {
+
+        resizeLock.lock();
+
+        try {
+
+            long [] histogram = new long[8];
+
+            final long buckets = state.buckets();
+
+            for(long i = 0; i < buckets; i++) {
+
+                final long offset = i * BUCKET_SIZE;
+                final CacheLocks lock = locks.apply(offset);
+
+                lock.getLock(CacheLocks.LockType.READER);
+
+                try {
+
+                    final long pointer = index.getPointer(offset);
+
+                    int entries = 0;
+
+                    if(pointer >= 0) {
+
+                        final Set<Pair<byte [], V>> blobs = manager.getBlobsAt(pointer);
+
+                        if(blobs != null) {
+                            entries = blobs.size();
+                        }
+
+                    }
+
+                    if(entries >= histogram.length) {
+                        histogram = Arrays.copyOf(histogram, Math.max(entries + 1, histogram.length * 2));
+                    }
+
+                    histogram[entries]++;
+
+                }
+                finally {
+                    lock.releaseLock(CacheLocks.LockType.READER);
+                }
+
+            }
+
+            int length = histogram.length;
+
+            while(length > 1 && histogram[length - 1] == 0) {
+                length--;
+            }
+
+            return Arrays.copyOf(histogram, length);
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("failed to read hash index " + e.getMessage(), e);
+        }
+        catch (InterruptedException e) {
+            throw new ReadFailure("interrupted reading hash index", e);
+        }
+        finally {
+            resizeLock.unlock();
+        }
+
+    }
+
+    /**
+     * Splits the bucket at the split pointer. Called holding the resize lock.
+     */
+    private void split() throws IOException, ReadFailure, WriteFailure {
+
+        final State current = state;
+        final State next = current.next();
+
+        final long from = current.split;
+        final long to = current.buckets();
+
+        //grow a level at a time so the index file isn't extended for every split
+        index.ensureCapacity(current.initial << (current.level + 1));
+
+        final CacheLocks fromLock = locks.apply(from * BUCKET_SIZE);
+        final CacheLocks toLock = locks.apply(to * BUCKET_SIZE);
+
+        try {
+
+            fromLock.getLock(CacheLocks.LockType.WRITER);
+
+            try {
+
+                toLock.getLock(CacheLocks.LockType.WRITER);
+
+                try {
+
+                    move(from, to, next);
+
+                    //progress has to be down before anything is put where the new addressing says
+                    persist(next);
+
+                    state = next;
+
+                }
+                finally {
+                    toLock.releaseLock(CacheLocks.LockType.WRITER);
+                }
+
+            }
+            finally {
+                fromLock.releaseLock(CacheLocks.LockType.WRITER);
+            }
+
+        }
+        catch (InterruptedException e) {
+            throw new WriteFailure("interrupted splitting bucket " + from, e);
+        }
+
+    }
+
+    /**
+     * Moves what belongs in the new bucket out of the one being split. The new bucket is written first so the
+     * keys are always in at least one of them, a crash part way is finished by doing the same thing again.
+     */
+    private void move(final long from, final long to, final State next) throws IOException, ReadFailure, WriteFailure {
+
+        final long fromPointer = index.getPointer(from * BUCKET_SIZE);
+        final long toPointer = index.getPointer(to * BUCKET_SIZE);
+
+        //after a crash the new bucket may already have some of the keys, they're the same entries
+        final Map<ByteBuffer, Pair<byte [], V>> entries = new HashMap<>();
+
+        for(final long pointer : new long [] {toPointer, fromPointer}) {
+
+            if(pointer < 0) {
+                continue;
+            }
+
+            final Set<Pair<byte [], V>> blobs = manager.getBlobsAt(pointer);
+
+            if(blobs == null) {
+                logger.warn("bucket set missing at " + pointer + " while splitting " + metaFile);
+                continue;
+            }
+
+            for(final Pair<byte [], V> blob : blobs) {
+                entries.putIfAbsent(ByteBuffer.wrap(blob.getOne()), blob);
+            }
+
+        }
+
+        final Set<Pair<byte [], V>> stay = new HashSet<>();
+        final Set<Pair<byte [], V>> go = new HashSet<>();
+
+        for(final Pair<byte [], V> entry : entries.values()) {
+
+            if(next.bucket(keyHasher.hash(entry.getOne()) & Long.MAX_VALUE) == to) {
+                go.add(entry);
+            }
+            else {
+                stay.add(entry);
+            }
+
+        }
+
+        writeBucket(to, toPointer, go);
+        writeBucket(from, fromPointer, stay);
+
+    }
+
+    private void writeBucket(long bucket, long pointer, Set<Pair<byte [], V>> blobs) throws IOException, ReadFailure, WriteFailure {
+
+        final long offset = bucket * BUCKET_SIZE;
+
+        if(blobs.isEmpty()) {
+
+            if(pointer >= 0) {
+                index.setPointer(offset, HashIndex.EMPTY);
+                manager.eraseBlobs(pointer);
+            }
+
+            return;
+
+        }
+
+        final long newPointer = manager.setBlobs(pointer, blobs);
+
+        if(newPointer != pointer) {
+            index.setPointer(offset, newPointer);
+        }
+
+    }
+
+    /**
+     * @return name of the key hasher the sidecar was written with, null if there's no usable sidecar
+     */
+    private String load() {
+
+        if(!metaFile.exists()) {
+            return null;
+        }
+
+        try {
+
+            final byte [] bytes = Files.readAllBytes(metaFile.toPath());
+
+            if(bytes.length < META_SIZE_V1) {
+                logger.warn("hash index sidecar is the wrong size " + metaFile);
+                return null;
+            }
+
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+            final int magic = buffer.getInt();
+            final int version = buffer.getInt();
+
+            if(magic != MAGIC || (version != VERSION && version != VERSION_1)) {
+                logger.warn("unknown hash index sidecar format " + metaFile);
+                return null;
+            }
+
+            final long initial = buffer.getLong();
+            final int level = buffer.getInt();
+            final long split = buffer.getLong();
+            final long entries = buffer.getLong();
+
+            final String hasherName;
+
+            if(version == VERSION_1) {
+
+                if(bytes.length != META_SIZE_V1) {
+                    logger.warn("hash index sidecar is the wrong size " + metaFile);
+                    return null;
+                }
+
+                hasherName = KeyHashers.ARRAYS.getName();
+
+            }
+            else {
+
+                final int nameLength = buffer.getChar();
+
+                if(bytes.length != META_SIZE_V1 + 2 + nameLength) {
+                    logger.warn("hash index sidecar is the wrong size " + metaFile);
+                    return null;
+                }
+
+                final byte [] name = new byte[nameLength];
+                buffer.get(name);
+
+                hasherName = new String(name, StandardCharsets.UTF_8);
+
+            }
+
+            final int checksum = buffer.getInt();
+
+            if(checksum != checksum(bytes)) {
+                logger.warn("hash index sidecar has a bad checksum " + metaFile);
+                return null;
+            }
+
+            state = new State(initial, level, split);
+            count.set(entries);
+            persistedCount = entries;
+
+            return hasherName;
+
+        }
+        catch (IOException e) {
+            logger.warn("hash index sidecar couldn't be read " + metaFile, e);
+            return null;
+        }
+
+    }
+
+    private void persist(State toPersist) throws WriteFailure {
+
+        final long entries = count.get();
+
+        final byte [] name = keyHasher.getName().getBytes(StandardCharsets.UTF_8);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(META_SIZE_V1 + 2 + name.length);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(toPersist.initial);
+        buffer.putInt(toPersist.level);
+        buffer.putLong(toPersist.split);
+        buffer.putLong(entries);
+        buffer.putChar((char) name.length);
+        buffer.put(name);
+        buffer.putInt(checksum(buffer.array()));
+
+        final File temp = new File(metaFile.getPath() + ".tmp");
+
+        try {
+
+            try(final RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+
+                out.setLength(0);
+                out.write(buffer.array());
+
+                if(forceMeta) {
+                    out.getChannel().force(true);
+                }
+
+            }
+
+            Files.move(temp.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            persistedCount = entries;
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to persist hash index progress " + e.getMessage(), e);
+        }
+
+    }
+
+    private static int checksum(byte [] bytes) {
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(bytes, 0, bytes.length - 4);
+
+        return (int) crc.getValue();
+
+    }
+
+    private static long powerOfTwo(int size) {
+        return size <= 1 ? 1 : Long.highestOneBit(size - 1) << 1;
+    }
+
+    private static final class State {
+
+        private final long initial;
+        private final int level;
+        private final long split;
+
+        //table size - 1 at this level and the next when the table size is a power of two, -1 otherwise
+        private final long mask;
+        private final long nextMask;
+
+        private State(long initial, int level, long split) {
+
+            this.initial = initial;
+            this.level = level;
+            this.split = split;
+
+            if(Long.bitCount(initial) == 1) {
+                this.mask = (initial << level) - 1;
+                this.nextMask = (initial << (level + 1)) - 1;
+            }
+            else {
+                this.mask = -1;
+                this.nextMask = -1;
+            }
+
+        }
+
+        private long buckets() {
+            return (initial << level) + split;
+        }
+
+        private long bucket(long hash) {
+
+            if(mask >= 0) {
+
+                final long bucket = hash & mask;
+
+                return bucket < split ? hash & nextMask : bucket;
+
+            }
+
+            final long bucket = hash % (initial << level);
+
+            if(bucket < split) {
+                return hash % (initial << (level + 1));
+            }
+
+            return bucket;
+
+        }
+
+        private State next() {
+
+            if(split + 1 == initial << level) {
+                return new State(initial, level + 1, 0);
+            }
+
+            return new State(initial, level, split + 1);
+
+        }
+
+    }
+
+}
@@ -2,14 +2,32 @@ package llc.berserkr.cache.hash;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
-public class LocalRandomAccess {
+/**
+ * {@link IoBackend#RANDOM_ACCESS}, a reader and a writer per thread that seek before every read or write.
+ */
+public class LocalRandomAccess extends FileAccess {
 
     private final File file;
 
+    //any handle to the file can force it, this one is just for that so it doesn't matter which thread syncs
+    private RandomAccessFile syncHandle;
+
     public LocalRandomAccess(final File file) {
+        this(file, StorageOptions.defaults());
+    }
+
+    public LocalRandomAccess(final File file, final StorageOptions options) {
+
+        super(options);
+
         this.file = file;
+
     }
 
     public void giveReader(RandomAccessFile reader) {
@@ -45,7 +63,7 @@ public class LocalRandomAccess {
 
         if(localWriter.get() == null) {
             try {
-                localWriter.set(new RandomAccessFile(file, "rws")); //rws vs rwd doesnt seem to change much.
+                localWriter.set(new RandomAccessFile(file, getDurability().getAccessMode())); //rws vs rwd doesnt seem to change much.
             } catch (FileNotFoundException e) {
                 throw new RuntimeException("bad hash file could not write to it");
             }
@@ -54,4 +72,95 @@ public class LocalRandomAccess {
         return localWriter.get();
     }
 
+    @Override
+    public int read(long position, byte [] bytes, int offset, int length) throws IOException {
+
+        final RandomAccessFile reader = getReader();
+
+        reader.seek(position);
+
+        return reader.read(bytes, offset, length);
+
+    }
+
+    @Override
+    public void write(long position, byte [] bytes, int offset, int length) throws IOException {
+
+        final RandomAccessFile writer = getWriter();
+
+        writer.seek(position);
+        writer.write(bytes, offset, length);
+
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+
+        final RandomAccessFile writer = getWriter();
+
+        try {
+            //positional, the writer's seek position isn't moved
+            return transferFrom(writer.getChannel(), source, position, count);
+        }
+        catch (ClosedChannelException e) {
+
+            if(!writer.getChannel().isOpen()) {
+                localWriter.remove(); //an interrupt closed this thread's writer, it gets a new one next time
+            }
+
+            throw e;
+
+        }
+
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+
+        final RandomAccessFile reader = getReader();
+
+        try {
+            return transferTo(reader.getChannel(), position, count, target);
+        }
+        catch (ClosedChannelException e) {
+
+            if(!reader.getChannel().isOpen()) {
+                localReader.remove();
+            }
+
+            throw e;
+
+        }
+
+    }
+
+    @Override
+    public long length() throws IOException {
+        return getReader().length();
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        getWriter().setLength(length);
+    }
+
+    @Override
+    protected void force() throws IOException {
+
+        final RandomAccessFile handle;
+
+        synchronized (this) {
+
+            if(syncHandle == null) {
+                syncHandle = new RandomAccessFile(file, "rw");
+            }
+
+            handle = syncHandle;
+
+        }
+
+        handle.getChannel().force(false);
+
+    }
+
 }
@@ -0,0 +1,85 @@
+package llc.berserkr.cache.hash;
+
+import llc.berserkr.cache.data.Pair;
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the buckets of a {@link FileHash} in a {@link LogStore}, see {@link StorageEngine#LOG}. Buckets are
+ * serialized the same as {@link SegmentedBytesDataManager} does, the blob index is the bucket's handle in the log.
+ */
+public class LogBytesDataManager implements HashDataManager<byte [], byte []> {
+
+    private final LogStore logStore;
+
+    public LogBytesDataManager(File logFile) {
+        this(logFile, StorageOptions.defaults());
+    }
+
+    public LogBytesDataManager(File logFile, StorageOptions options) {
+        this.logStore = new LogStore(logFile, options);
+    }
+
+    @Override
+    public Set<Pair<byte[], byte[]>> getBlobsAt(long blobIndex) throws ReadFailure {
+
+        final byte [] bucket = logStore.read(blobIndex);
+
+        if(bucket == null) {
+            return new HashSet<>();
+        }
+
+        return SegmentedBytesDataManager.getSegmentPairs(bucket);
+
+    }
+
+    /**
+     * Looks up one key in the bucket, the bucket is read into a per thread buffer and only the value is copied out.
+     */
+    @Override
+    public byte [] getValue(long blobIndex, byte [] key) throws ReadFailure {
+
+        final SegmentBuffer buffer = SegmentBuffer.local();
+
+        try {
+
+            if(!logStore.read(blobIndex, buffer)) {
+                return null;
+            }
+
+            return SegmentedBytesDataManager.findValue(buffer.getData(), buffer.getLength(), key);
+
+        }
+        finally {
+            buffer.release();
+        }
+
+    }
+
+    /**
+     * @return the same handle when the bucket already had one, it's rewritten without moving
+     */
+    @Override
+    public long setBlobs(long blobIndex, Set<Pair<byte[], byte[]>> blobs) throws WriteFailure, ReadFailure {
+        return logStore.put(blobIndex, SegmentedBytesDataManager.getPairData(blobs));
+    }
+
+    @Override
+    public void eraseBlobs(long blobIndex) throws WriteFailure, ReadFailure {
+        logStore.erase(blobIndex);
+    }
+
+    @Override
+    public void clear() throws WriteFailure, ReadFailure {
+        logStore.clear();
+    }
+
+    LogStore getLogStore() {
+        return logStore;
+    }
+
+}
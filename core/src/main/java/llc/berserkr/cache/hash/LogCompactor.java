@@ -0,0 +1,32 @@
+package llc.berserkr.cache.hash;
+
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background compaction of {@link LogStore}s on the {@link BackgroundTasks} threads, stores are only weakly held so a
+ * cache that goes away stops being compacted.
+ */
+class LogCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogCompactor.class);
+
+    static void register(final LogStore store, final long intervalMillis) {
+
+        BackgroundTasks.scheduleWeakly(store, intervalMillis, logStore -> {
+
+            try {
+                //every file that's below the ratio, one at a time so puts get the append lock in between
+                while(logStore.compact());
+            }
+            catch (WriteFailure | ReadFailure | RuntimeException e) {
+                logger.error("log compaction failed", e);
+            }
+
+        });
+
+    }
+
+}
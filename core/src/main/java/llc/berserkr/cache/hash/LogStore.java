@@ -0,0 +1,1507 @@
+package llc.berserkr.cache.hash;
+
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append only storage of values by handle, the log structured alternative to {@link SegmentedFile}
+ * ({@link StorageEngine#LOG}).
+ *
+ * Every put appends a record to the active log file, nothing is written in place so there is no splitting, merging
+ * or fragmentation and a put is one sequential write. Once the active file is {@link StorageOptions#getLogFileSize()}
+ * it's sealed and a new one is started. Files are root + "." + id + ".log".
+ *
+ * file [magic 4][version 4] then records of [type 1][handle 8][sequence 8][length 4][crc 4][payload length]
+ *
+ * The hash index doesn't point into the files, it holds a handle and the store keeps where the latest record of each
+ * handle is (file id and offset packed into a long). Updating a value keeps its handle so the hash index isn't
+ * written at all, and compaction moving a record only changes the table.
+ *
+ * The table isn't persisted, it's rebuilt on open from the record headers and the record with the highest sequence for
+ * a handle wins. Only the active file is ever appended to so only the last file can end in a torn record, its records
+ * are crc checked on open and it's cut at the first one that doesn't check out.
+ *
+ * Each file counts its live bytes. Sealed files whose live ratio drops below
+ * {@link StorageOptions#getLogCompactionRatio()} are compacted in the background, their live records are copied to the
+ * active file (with the sequence they had) and the file is deleted once nothing is reading from it.
+ *
+ * A crash between a new handle's record going down and the hash index pointing at it leaves that record unreachable
+ * until it's cleared, same as a segment of {@link SegmentedFile} bound right before a crash.
+ */
+public class LogStore implements Flushable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogStore.class);
+
+    private static final int MAGIC = 0x4C4F4731; //LOG1
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    static final int RECORD_HEADER_SIZE = 1 + 8 + 8 + 4 + 4;
+
+    private static final byte PUT_RECORD = 1;
+    private static final byte DELETE_RECORD = 2;
+
+    //location [unused 1][deleted 1][file id 22][offset 40]
+    private static final long NONE = -1L;
+    private static final long DELETED = 1L << 62;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final int MAX_FILE_ID = (1 << 22) - 1;
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    //how much of a streamed value is held in memory before the rest is spooled to a file
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
+    private static final String SPOOL_SUFFIX = ".spool";
+
+    private final File root;
+    private final DurabilityPolicy durability;
+    private final GroupCommit groupCommit;
+    private final long maxFileSize;
+    private final double compactionRatio;
+
+    private final Map<Integer, LogFile> files = new ConcurrentHashMap<>();
+
+    //held while anything is appended, every change to where a handle lives happens under it
+    private final Object appendLock = new Object();
+
+    //held to read or change the table, never while doing I/O
+    private final Object tableLock = new Object();
+
+    private LogFile active;
+    private int nextFileId;
+    private long sequence;
+
+    private long [] locations = new long[0];
+    private int [] sizes = new int[0];
+    private int handleCount;
+
+    private int [] freeHandles = new int[0];
+    private int freeCount;
+
+    private final Set<LogFile> dirty = ConcurrentHashMap.newKeySet();
+
+    public LogStore(final File root) {
+        this(root, StorageOptions.defaults());
+    }
+
+    /**
+     * @param root - log files are made next to this, root + "." + id + ".log"
+     * @param options - durability, file size and compaction
+     */
+    public LogStore(final File root, final StorageOptions options) {
+
+        this.root = root;
+        this.durability = options.getDurability();
+        this.maxFileSize = options.getLogFileSize();
+        this.compactionRatio = options.getLogCompactionRatio();
+
+        if(root.getAbsoluteFile().getParentFile() != null) {
+            root.getAbsoluteFile().getParentFile().mkdirs();
+        }
+
+        try {
+            load();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("couldn't open log files for " + root, e);
+        }
+
+        if(durability == DurabilityPolicy.PERIODIC_FSYNC) {
+            PeriodicSync.register(this, options.getSyncIntervalMillis());
+        }
+
+        if(durability == DurabilityPolicy.GROUP_COMMIT) {
+            groupCommit = new GroupCommit(this, options.getGroupCommitDelayMicros(), options.getGroupCommitBatch());
+        }
+        else {
+            groupCommit = null;
+        }
+
+        if(compactionRatio > 0) {
+            LogCompactor.register(this, options.getLogCompactionIntervalMillis());
+        }
+
+    }
+
+    /**
+     * Writes a value, replacing what the handle had.
+     *
+     * @param handle - handle to replace, negative for a new one
+     * @param value
+     * @return the handle the value is under
+     */
+    public long put(long handle, byte [] value) throws WriteFailure {
+        return put(handle, value, value.length);
+    }
+
+    private long put(long handle, byte [] value, int length) throws WriteFailure {
+
+        final LogFile written;
+        final int h;
+
+        try {
+
+            synchronized (appendLock) {
+
+                h = handleFor(handle);
+
+                final long location = append(PUT_RECORD, h, nextSequence(), value, length);
+
+                written = active;
+
+                setLocation(h, location, RECORD_HEADER_SIZE + length);
+
+            }
+
+            sync(written);
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to append to log " + root + " " + e.getMessage(), e);
+        }
+
+        return h;
+
+    }
+
+    /**
+     * Writes a value from a stream, replacing what the handle had. The length doesn't need to be known up front.
+     *
+     * The stream is read before the append lock is taken so a slow source doesn't hold up the other writers. Up to
+     * a megabyte is kept in memory, anything bigger is spooled to a file next to the logs and copied in from there.
+     *
+     * @param handle - handle to replace, negative for a new one
+     * @param value
+     * @return the handle the value is under
+     */
+    public long put(long handle, InputStream value) throws WriteFailure {
+
+        byte [] buffer = new byte[COPY_BUFFER_SIZE];
+        int length = 0;
+
+        File spool = null;
+
+        try {
+
+            try {
+
+                while(true) {
+
+                    if(length == buffer.length) {
+
+                        if(length == STREAM_BUFFER_SIZE) {
+                            spool = spool(buffer, value);
+                            break;
+                        }
+
+                        buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, STREAM_BUFFER_SIZE));
+
+                    }
+
+                    final int read = value.read(buffer, length, buffer.length - length);
+
+                    if(read < 0) {
+                        break;
+                    }
+
+                    length += read;
+
+                }
+
+            }
+            finally {
+                value.close();
+            }
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to read the value for log " + root + " " + e.getMessage(), e);
+        }
+
+        if(spool == null) {
+            return put(handle, buffer, length);
+        }
+
+        try {
+            return putSpooled(handle, new FileInputStream(spool));
+        }
+        catch (FileNotFoundException e) {
+            throw new WriteFailure("lost the spooled value for log " + root + " " + e.getMessage(), e);
+        }
+        finally {
+
+            if(!spool.delete()) {
+                logger.warn("couldn't delete spooled value " + spool);
+            }
+
+        }
+
+    }
+
+    /**
+     * copies what's been read and the rest of the stream to a file so nothing is read from the caller under the lock
+     */
+    private File spool(byte [] read, InputStream rest) throws IOException {
+
+        final File spool = File.createTempFile(root.getName() + ".", SPOOL_SUFFIX, root.getAbsoluteFile().getParentFile());
+
+        try (final OutputStream out = new FileOutputStream(spool)) {
+
+            out.write(read);
+
+            final byte [] buffer = new byte[COPY_BUFFER_SIZE];
+
+            int count;
+
+            while((count = rest.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+
+        }
+        catch (IOException e) {
+            spool.delete();
+            throw e;
+        }
+
+        return spool;
+
+    }
+
+    private long putSpooled(long handle, InputStream value) throws WriteFailure {
+
+        final LogFile written;
+        final int h;
+
+        try {
+
+            synchronized (appendLock) {
+
+                h = handleFor(handle);
+
+                final long location;
+
+                try {
+                    location = appendStream(h, nextSequence(), value);
+                }
+                catch (IOException e) {
+
+                    //nothing was written under a new handle, it goes back
+                    if(handle < 0) {
+                        synchronized (tableLock) {
+                            pushFreeHandle(h);
+                        }
+                    }
+
+                    throw e;
+
+                }
+
+                written = active;
+
+                setLocation(h, location, (int) (active.length - offset(location)));
+
+            }
+
+            sync(written);
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to append to log " + root + " " + e.getMessage(), e);
+        }
+
+        return h;
+
+    }
+
+    /**
+     * Drops the value, the handle can be given out again.
+     */
+    public void erase(long handle) throws WriteFailure {
+
+        if(handle < 0) {
+            return;
+        }
+
+        final LogFile written;
+
+        try {
+
+            synchronized (appendLock) {
+
+                final int h = (int) handle;
+
+                synchronized (tableLock) {
+                    if(h >= handleCount || locations[h] == NONE || (locations[h] & DELETED) != 0) {
+                        return; //nothing there
+                    }
+                }
+
+                //the delete record stops older records of the handle coming back when the table is rebuilt
+                final long location = append(DELETE_RECORD, h, nextSequence(), new byte[0], 0);
+
+                written = active;
+
+                setLocation(h, location | DELETED, RECORD_HEADER_SIZE);
+
+                synchronized (tableLock) {
+                    pushFreeHandle(h);
+                }
+
+            }
+
+            sync(written);
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to append to log " + root + " " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * @return the value, null if the handle doesn't have one
+     */
+    public byte [] read(long handle) throws ReadFailure {
+
+        final SegmentBuffer buffer = SegmentBuffer.local();
+
+        try {
+
+            if(!read(handle, buffer)) {
+                return null;
+            }
+
+            return Arrays.copyOf(buffer.getData(), buffer.getLength());
+
+        }
+        finally {
+            buffer.release();
+        }
+
+    }
+
+    /**
+     * Reads the value into the buffer.
+     *
+     * @return false if the handle doesn't have a value
+     */
+    boolean read(long handle, SegmentBuffer buffer) throws ReadFailure {
+
+        final long [] location = new long[1];
+        final LogFile file = acquire(handle, location);
+
+        if(file == null) {
+            return false;
+        }
+
+        try {
+
+            final int length = readLength(file, offset(location[0]), handle);
+
+            final byte [] data = buffer.ensureCapacity(length);
+
+            readFully(file.channel, ByteBuffer.wrap(data, 0, length), offset(location[0]) + RECORD_HEADER_SIZE);
+
+            buffer.setLength(length);
+
+            return true;
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("failed to read log " + file.file + " " + e.getMessage(), e);
+        }
+        finally {
+            file.release();
+        }
+
+    }
+
+    /**
+     * @return a stream of the value, null if the handle doesn't have one. The file it's in isn't deleted by
+     * compaction until the stream is read to the end or closed.
+     */
+    public InputStream openStream(long handle) throws ReadFailure {
+
+        final long [] location = new long[1];
+        final LogFile file = acquire(handle, location);
+
+        if(file == null) {
+            return null;
+        }
+
+        final int length;
+
+        try {
+            length = readLength(file, offset(location[0]), handle);
+        }
+        catch (IOException e) {
+            file.release();
+            throw new ReadFailure("failed to read log " + file.file + " " + e.getMessage(), e);
+        }
+
+        final long start = offset(location[0]) + RECORD_HEADER_SIZE;
+
+        return new InputStream() {
+
+            private long position = start;
+            private final long end = start + length;
+            private boolean released;
+
+            @Override
+            public int read() throws IOException {
+
+                final byte [] one = new byte[1];
+
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+
+            }
+
+            @Override
+            public int read(byte [] b, int off, int len) throws IOException {
+
+                if(released) {
+                    return -1;
+                }
+
+                if(position >= end) {
+                    close();
+                    return -1;
+                }
+
+                final int toRead = (int) Math.min(len, end - position);
+                final int read = file.channel.read(ByteBuffer.wrap(b, off, toRead), position);
+
+                if(read < 0) {
+                    close();
+                    return -1;
+                }
+
+                position += read;
+
+                return read;
+
+            }
+
+            @Override
+            public int available() {
+                return released ? 0 : (int) Math.min(Integer.MAX_VALUE, end - position);
+            }
+
+            @Override
+            public synchronized void close() {
+
+                if(!released) {
+                    released = true;
+                    file.release();
+                }
+
+            }
+
+        };
+
+    }
+
+    /**
+     * Sends part of a value to target with FileChannel.transferTo, the file it's in isn't deleted by compaction
+     * until it's done.
+     *
+     * @param offset - into the value, past the end sends nothing
+     * @param count - most bytes to send
+     * @return bytes sent, -1 if the handle doesn't have a value
+     */
+    public long transferTo(long handle, long offset, long count, WritableByteChannel target) throws ReadFailure {
+
+        final long [] location = new long[1];
+        final LogFile file = acquire(handle, location);
+
+        if(file == null) {
+            return -1;
+        }
+
+        try {
+
+            final int length = readLength(file, offset(location[0]), handle);
+
+            final long start = Math.min(offset, length);
+            final long toSend = Math.min(count, length - start);
+
+            final long sent = FileAccess.transferTo(file.channel, offset(location[0]) + RECORD_HEADER_SIZE + start, toSend, target);
+
+            if(sent < toSend) {
+                throw new EOFException("log " + file.file + " ended inside handle " + handle);
+            }
+
+            return sent;
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("failed to transfer from log " + file.file + " " + e.getMessage(), e);
+        }
+        finally {
+            file.release();
+        }
+
+    }
+
+    /**
+     * Throws everything away.
+     */
+    public void clear() throws WriteFailure {
+
+        try {
+
+            synchronized (appendLock) {
+
+                synchronized (tableLock) {
+
+                    for(final LogFile file : new ArrayList<>(files.values())) {
+                        files.remove(file.id);
+                        dirty.remove(file);
+                        file.retire();
+                    }
+
+                    locations = new long[0];
+                    sizes = new int[0];
+                    handleCount = 0;
+                    freeCount = 0;
+
+                }
+
+                active = newFile();
+
+            }
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to clear log " + root + " " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Compacts the sealed file with the lowest live ratio if it's under {@link StorageOptions#getLogCompactionRatio()}.
+     *
+     * @return true if a file was compacted
+     */
+    public boolean compact() throws WriteFailure, ReadFailure {
+
+        final LogFile candidate = findCompactionCandidate();
+
+        if(candidate == null) {
+            return false;
+        }
+
+        compact(candidate);
+
+        return true;
+
+    }
+
+    /**
+     * @return log files on disk right now
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * @return bytes of records that are still the latest for their handle
+     */
+    public long getLiveBytes() {
+
+        long live = 0;
+
+        for(final LogFile file : files.values()) {
+            live += file.live.get();
+        }
+
+        return live;
+
+    }
+
+    /**
+     * @return bytes of all the log files
+     */
+    public long getTotalBytes() {
+
+        long total = 0;
+
+        for(final LogFile file : files.values()) {
+            total += file.length;
+        }
+
+        return total;
+
+    }
+
+    /**
+     * @return handles with a value
+     */
+    public int size() {
+
+        synchronized (tableLock) {
+
+            int size = 0;
+
+            for(int i = 0; i < handleCount; i++) {
+                if(locations[i] != NONE && (locations[i] & DELETED) == 0) {
+                    size++;
+                }
+            }
+
+            return size;
+
+        }
+
+    }
+
+    /**
+     * Forces every file written to since the last flush.
+     */
+    @Override
+    public void flush() throws IOException {
+
+        for(final LogFile file : new ArrayList<>(dirty)) {
+
+            dirty.remove(file);
+
+            if(file.acquire()) {
+                try {
+                    file.channel.force(false);
+                }
+                finally {
+                    file.release();
+                }
+            }
+
+        }
+
+    }
+
+    /************************ COMPACTION ***************************/
+
+    private LogFile findCompactionCandidate() {
+
+        if(compactionRatio <= 0) {
+            return null;
+        }
+
+        LogFile best = null;
+        double bestRatio = compactionRatio;
+
+        synchronized (appendLock) {
+
+            for(final LogFile file : files.values()) {
+
+                if(file == active || file.length <= FILE_HEADER_SIZE) {
+                    continue;
+                }
+
+                final double ratio = (double) file.live.get() / (file.length - FILE_HEADER_SIZE);
+
+                if(ratio < bestRatio) {
+                    best = file;
+                    bestRatio = ratio;
+                }
+
+            }
+
+            if(best != null && !best.acquire()) {
+                best = null;
+            }
+
+        }
+
+        return best;
+
+    }
+
+    /**
+     * Copies the live records out of a sealed file and deletes it. Records are read outside the append lock and only
+     * copied if the handle still points at them once we have it, a put that got in first wins.
+     *
+     * @param file - acquired by the caller, released here
+     */
+    private void compact(final LogFile file) throws WriteFailure, ReadFailure {
+
+        long copied = 0;
+
+        try {
+
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            long position = FILE_HEADER_SIZE;
+
+            while(position + RECORD_HEADER_SIZE <= file.length) {
+
+                header.clear();
+                readFully(file.channel, header, position);
+                header.flip();
+
+                final byte type = header.get();
+                final int handle = (int) header.getLong();
+                final long recordSequence = header.getLong();
+                final int length = header.getInt();
+
+                final long location = location(file.id, position);
+                final long recordEnd = position + RECORD_HEADER_SIZE + length;
+
+                if(isCurrent(handle, location, type)) {
+
+                    final byte [] payload = new byte[length];
+                    readFully(file.channel, ByteBuffer.wrap(payload), position + RECORD_HEADER_SIZE);
+
+                    synchronized (appendLock) {
+
+                        //a put or erase could have got in while we were reading
+                        if(isCurrent(handle, location, type)) {
+
+                            final long moved = append(type, handle, recordSequence, payload, length);
+
+                            setLocation(handle, type == DELETE_RECORD ? moved | DELETED : moved, RECORD_HEADER_SIZE + length);
+
+                            copied += RECORD_HEADER_SIZE + length;
+
+                        }
+
+                    }
+
+                }
+
+                position = recordEnd;
+
+            }
+
+            //the copies have to be down before the only other copy goes away
+            flushAll();
+
+            synchronized (appendLock) {
+                files.remove(file.id);
+                dirty.remove(file);
+            }
+
+            file.retire();
+
+            logger.debug("compacted log " + file.file + " copied " + copied + " of " + file.length + " bytes");
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to compact log " + file.file + " " + e.getMessage(), e);
+        }
+        finally {
+            file.release();
+        }
+
+    }
+
+    private boolean isCurrent(int handle, long location, byte type) {
+
+        synchronized (tableLock) {
+
+            if(handle < 0 || handle >= handleCount) {
+                return false;
+            }
+
+            return locations[handle] == (type == DELETE_RECORD ? location | DELETED : location);
+
+        }
+
+    }
+
+    private void flushAll() throws IOException {
+
+        for(final LogFile file : new ArrayList<>(files.values())) {
+
+            if(file.acquire()) {
+                try {
+                    file.channel.force(false);
+                }
+                finally {
+                    file.release();
+                }
+            }
+
+        }
+
+    }
+
+    /************************ APPENDING ***************************/
+
+    /**
+     * appends a whole record to the active file, call holding the append lock
+     *
+     * @return location of the record
+     */
+    private long append(byte type, int handle, long recordSequence, byte [] payload, int length) throws IOException {
+
+        roll();
+
+        final long position = active.length;
+
+        final ByteBuffer header = recordHeader(type, handle, recordSequence, length, crc(type, handle, recordSequence, payload, length));
+
+        writeFully(active.channel, header, position);
+        writeFully(active.channel, ByteBuffer.wrap(payload, 0, length), position + RECORD_HEADER_SIZE);
+
+        active.length = position + RECORD_HEADER_SIZE + length;
+        dirty.add(active);
+
+        return location(active.id, position);
+
+    }
+
+    /**
+     * appends a record copying the payload from a stream, the header goes in last once the length and crc are known
+     */
+    private long appendStream(int handle, long recordSequence, InputStream value) throws IOException {
+
+        roll();
+
+        final long position = active.length;
+
+        final CRC32 crc = new CRC32();
+        final byte [] buffer = new byte[COPY_BUFFER_SIZE];
+
+        long length = 0;
+
+        try {
+
+            while(true) {
+
+                final int read = value.read(buffer);
+
+                if(read < 0) {
+                    break;
+                }
+
+                if(read == 0) {
+                    continue;
+                }
+
+                crc.update(buffer, 0, read);
+                writeFully(active.channel, ByteBuffer.wrap(buffer, 0, read), position + RECORD_HEADER_SIZE + length);
+
+                length += read;
+
+                if(length > Integer.MAX_VALUE) {
+                    throw new IOException("value is too big for a log record");
+                }
+
+            }
+
+        }
+        finally {
+            value.close();
+        }
+
+        updateHeaderCrc(crc, PUT_RECORD, handle, recordSequence, (int) length);
+
+        writeFully(active.channel, recordHeader(PUT_RECORD, handle, recordSequence, (int) length, (int) crc.getValue()), position);
+
+        active.length = position + RECORD_HEADER_SIZE + length;
+        dirty.add(active);
+
+        return location(active.id, position);
+
+    }
+
+    /**
+     * seals the active file and starts another if it's full
+     */
+    private void roll() throws IOException {
+
+        if(active.length < maxFileSize || active.length <= FILE_HEADER_SIZE) {
+            return;
+        }
+
+        final LogFile sealed = active;
+
+        //whatever the policy, everything in a sealed file is down before anything goes in the next one
+        sealed.channel.force(false);
+        dirty.remove(sealed);
+
+        active = newFile();
+
+    }
+
+    private LogFile newFile() throws IOException {
+
+        if(nextFileId > MAX_FILE_ID) {
+            throw new IOException("out of log file ids for " + root);
+        }
+
+        final LogFile file = new LogFile(nextFileId++, this.root, durability);
+
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+
+        file.channel.truncate(0);
+        writeFully(file.channel, header, 0);
+        file.length = FILE_HEADER_SIZE;
+
+        files.put(file.id, file);
+
+        return file;
+
+    }
+
+    private long nextSequence() {
+        return sequence++;
+    }
+
+    private void sync(LogFile written) throws IOException {
+
+        switch (durability) {
+            case SYNC_ON_TRANSACTION_END:
+                if(written.acquire()) {
+                    try {
+                        written.channel.force(false);
+                    }
+                    finally {
+                        written.release();
+                    }
+                }
+                break;
+            case GROUP_COMMIT:
+                groupCommit.sync();
+                break;
+            default:
+                break;
+        }
+
+    }
+
+    /************************ TABLE ***************************/
+
+    /**
+     * @return the handle to write, a new one if handle is negative. call holding the append lock
+     */
+    private int handleFor(long handle) {
+
+        synchronized (tableLock) {
+
+            if(handle >= 0) {
+
+                if(handle > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("not a log handle " + handle);
+                }
+
+                ensureHandles((int) handle + 1);
+
+                final long location = locations[(int) handle];
+
+                //a handle that was erased and is being written again isn't free any more
+                for(int i = 0; (location == NONE || (location & DELETED) != 0) && i < freeCount; i++) {
+                    if(freeHandles[i] == handle) {
+                        freeHandles[i] = freeHandles[--freeCount];
+                        break;
+                    }
+                }
+
+                return (int) handle;
+
+            }
+
+            if(freeCount > 0) {
+                return freeHandles[--freeCount];
+            }
+
+            ensureHandles(handleCount + 1);
+
+            return handleCount - 1;
+
+        }
+
+    }
+
+    /**
+     * points the handle at a new record, the bytes of the record it had stop being live
+     */
+    private void setLocation(int handle, long location, int size) {
+
+        synchronized (tableLock) {
+
+            ensureHandles(handle + 1);
+
+            final long previous = locations[handle];
+
+            if(previous != NONE) {
+
+                final LogFile file = files.get(fileId(previous));
+
+                if(file != null) {
+                    file.live.addAndGet(-sizes[handle]);
+                }
+
+            }
+
+            locations[handle] = location;
+            sizes[handle] = size;
+
+            final LogFile file = files.get(fileId(location));
+
+            if(file != null) {
+                file.live.addAndGet(size);
+            }
+
+        }
+
+    }
+
+    private void ensureHandles(int count) {
+
+        if(count > locations.length) {
+
+            final int capacity = Math.max(count, Math.max(16, locations.length * 2));
+            final int oldLength = locations.length;
+
+            locations = Arrays.copyOf(locations, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+
+            Arrays.fill(locations, oldLength, capacity, NONE);
+
+        }
+
+        handleCount = Math.max(handleCount, count);
+
+    }
+
+    private void pushFreeHandle(int handle) {
+
+        if(freeCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, Math.max(16, freeHandles.length * 2));
+        }
+
+        freeHandles[freeCount++] = handle;
+
+    }
+
+    /**
+     * @return the file the handle's value is in, acquired so it can't be deleted while it's read. null if there isn't one
+     */
+    private LogFile acquire(long handle, long [] locationOut) {
+
+        if(handle < 0) {
+            return null;
+        }
+
+        synchronized (tableLock) {
+
+            if(handle >= handleCount) {
+                return null;
+            }
+
+            final long location = locations[(int) handle];
+
+            if(location == NONE || (location & DELETED) != 0) {
+                return null;
+            }
+
+            final LogFile file = files.get(fileId(location));
+
+            //compaction moves the handle before it drops the file so this can't fail while we hold the table
+            if(file == null || !file.acquire()) {
+                return null;
+            }
+
+            locationOut[0] = location;
+
+            return file;
+
+        }
+
+    }
+
+    private int readLength(LogFile file, long position, long handle) throws IOException {
+
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        readFully(file.channel, header, position);
+        header.flip();
+
+        header.get();
+
+        if(header.getLong() != handle) {
+            throw new IOException("record at " + position + " isn't handle " + handle);
+        }
+
+        header.getLong();
+
+        return header.getInt();
+
+    }
+
+    /************************ LOADING ***************************/
+
+    private void load() throws IOException {
+
+        final File directory = root.getAbsoluteFile().getParentFile();
+        final String prefix = root.getName() + ".";
+
+        final TreeMap<Integer, File> found = new TreeMap<>();
+
+        final File [] listed = directory.listFiles();
+
+        if(listed != null) {
+
+            for(final File file : listed) {
+
+                final String name = file.getName();
+
+                if(name.startsWith(prefix) && name.endsWith(SPOOL_SUFFIX)) {
+                    file.delete(); //a put that didn't finish
+                    continue;
+                }
+
+                if(name.startsWith(prefix) && name.endsWith(".log")) {
+                    try {
+                        found.put(Integer.parseInt(name.substring(prefix.length(), name.length() - 4)), file);
+                    }
+                    catch (NumberFormatException e) {
+                        //not one of ours
+                    }
+                }
+
+            }
+
+        }
+
+        long [] sequences = new long[0];
+
+        for(final Map.Entry<Integer, File> entry : found.entrySet()) {
+
+            final LogFile file = new LogFile(entry.getKey(), root, durability);
+
+            nextFileId = Math.max(nextFileId, file.id + 1);
+
+            if(!hasHeader(file)) {
+                logger.warn("dropping log file without a header " + file.file);
+                file.retire();
+                continue;
+            }
+
+            files.put(file.id, file);
+
+            //only the last file was being appended to, it's the only one that can be torn
+            final boolean check = entry.getKey().equals(found.lastKey());
+
+            sequences = scan(file, check, sequences);
+
+        }
+
+        for(int i = 0; i < handleCount; i++) {
+
+            if(locations[i] == NONE || (locations[i] & DELETED) != 0) {
+                pushFreeHandle(i);
+            }
+
+            if(locations[i] != NONE) {
+
+                final LogFile file = files.get(fileId(locations[i]));
+
+                if(file != null) {
+                    file.live.addAndGet(sizes[i]);
+                }
+
+            }
+
+        }
+
+        final LogFile last = found.isEmpty() ? null : files.get(found.lastKey());
+
+        if(last != null && last.length < maxFileSize) {
+            active = last;
+        }
+        else {
+            active = newFile();
+        }
+
+    }
+
+    private boolean hasHeader(LogFile file) throws IOException {
+
+        if(file.channel.size() < FILE_HEADER_SIZE) {
+            return false;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        readFully(file.channel, header, 0);
+        header.flip();
+
+        return header.getInt() == MAGIC && header.getInt() == VERSION;
+
+    }
+
+    /**
+     * reads the record headers of a file into the table
+     *
+     * @param check - crc check every record and cut the file at the first bad one
+     * @return sequence of the record each handle points at
+     */
+    private long [] scan(LogFile file, boolean check, long [] sequences) throws IOException {
+
+        final long size = file.channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        long position = FILE_HEADER_SIZE;
+
+        while(position + RECORD_HEADER_SIZE <= size) {
+
+            header.clear();
+            readFully(file.channel, header, position);
+            header.flip();
+
+            final byte type = header.get();
+            final long handle = header.getLong();
+            final long recordSequence = header.getLong();
+            final int length = header.getInt();
+            final int crc = header.getInt();
+
+            final boolean plausible = (type == PUT_RECORD || type == DELETE_RECORD) && handle >= 0 && handle < Integer.MAX_VALUE
+                && length >= 0 && position + RECORD_HEADER_SIZE + length <= size;
+
+            if(!plausible || (check && !checkCrc(file, position, type, (int) handle, recordSequence, length, crc))) {
+
+                if(!check) {
+                    throw new IOException("corrupt record at " + position + " in sealed log " + file.file);
+                }
+
+                logger.warn("cutting torn record at " + position + " off " + file.file);
+                file.channel.truncate(position);
+
+                break;
+
+            }
+
+            final int h = (int) handle;
+
+            ensureHandles(h + 1);
+
+            if(sequences.length < locations.length) {
+                final int oldLength = sequences.length;
+                sequences = Arrays.copyOf(sequences, locations.length);
+                Arrays.fill(sequences, oldLength, sequences.length, -1);
+            }
+
+            if(recordSequence > sequences[h]) {
+
+                sequences[h] = recordSequence;
+
+                final long location = location(file.id, position);
+
+                locations[h] = type == DELETE_RECORD ? location | DELETED : location;
+                sizes[h] = RECORD_HEADER_SIZE + length;
+
+            }
+
+            sequence = Math.max(sequence, recordSequence + 1);
+
+            position += RECORD_HEADER_SIZE + length;
+
+        }
+
+        file.length = Math.min(position, size);
+
+        return sequences;
+
+    }
+
+    private boolean checkCrc(LogFile file, long position, byte type, int handle, long recordSequence, int length, int expected) throws IOException {
+
+        final CRC32 crc = new CRC32();
+        final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+
+        long read = 0;
+
+        while(read < length) {
+
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - read));
+
+            readFully(file.channel, buffer, position + RECORD_HEADER_SIZE + read);
+
+            crc.update(buffer.array(), 0, buffer.limit());
+            read += buffer.limit();
+
+        }
+
+        updateHeaderCrc(crc, type, handle, recordSequence, length);
+
+        return (int) crc.getValue() == expected;
+
+    }
+
+    /************************ FORMAT ***************************/
+
+    /**
+     * crc of the payload then the type, handle, sequence and length
+     */
+    private static int crc(byte type, int handle, long recordSequence, byte [] payload, int length) {
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(payload, 0, length);
+
+        updateHeaderCrc(crc, type, handle, recordSequence, length);
+
+        return (int) crc.getValue();
+
+    }
+
+    private static void updateHeaderCrc(CRC32 crc, byte type, int handle, long recordSequence, int length) {
+
+        final ByteBuffer fields = ByteBuffer.allocate(RECORD_HEADER_SIZE - 4).order(ByteOrder.LITTLE_ENDIAN);
+
+        fields.put(type);
+        fields.putLong(handle);
+        fields.putLong(recordSequence);
+        fields.putInt(length);
+
+        crc.update(fields.array(), 0, fields.position());
+
+    }
+
+    private static ByteBuffer recordHeader(byte type, int handle, long recordSequence, int length, int crc) {
+
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.put(type);
+        header.putLong(handle);
+        header.putLong(recordSequence);
+        header.putInt(length);
+        header.putInt(crc);
+        header.flip();
+
+        return header;
+
+    }
+
+    private static long location(int fileId, long offset) {
+        return ((long) fileId << OFFSET_BITS) | offset;
+    }
+
+    private static int fileId(long location) {
+        return (int) ((location & ~DELETED) >>> OFFSET_BITS);
+    }
+
+    private static long offset(long location) {
+        return location & OFFSET_MASK;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        while(buffer.hasRemaining()) {
+
+            final int read = channel.read(buffer, position);
+
+            if(read < 0) {
+                throw new EOFException("log ended at " + position);
+            }
+
+            position += read;
+
+        }
+
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+    }
+
+    /**
+     * One log file. Readers and compaction hold a reference while they use it, the store holds one until the file
+     * is retired and the file is closed and deleted when the last one goes.
+     */
+    private static final class LogFile {
+
+        private final int id;
+        private final File file;
+        private final RandomAccessFile random;
+        private final FileChannel channel;
+
+        private final AtomicLong live = new AtomicLong();
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private volatile long length;
+        private boolean retired;
+
+        private LogFile(int id, File root, DurabilityPolicy durability) throws IOException {
+
+            this.id = id;
+            this.file = new File(root.getPath() + "." + id + ".log");
+            this.random = new RandomAccessFile(file, durability.getAccessMode());
+            this.channel = random.getChannel();
+
+        }
+
+        private boolean acquire() {
+
+            while(true) {
+
+                final int current = references.get();
+
+                if(current == 0) {
+                    return false;
+                }
+
+                if(references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+
+            }
+
+        }
+
+        private void release() {
+
+            if(references.decrementAndGet() == 0) {
+
+                try {
+                    random.close();
+                }
+                catch (IOException e) {
+                    logger.warn("couldn't close log " + file, e);
+                }
+
+                if(!file.delete()) {
+                    logger.warn("couldn't delete log " + file);
+                }
+
+            }
+
+        }
+
+        private synchronized void retire() {
+
+            if(!retired) {
+                retired = true;
+                release();
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package llc.berserkr.cache.hash;
+
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Keeps the values of a {@link StreamingFileHash} in a {@link LogStore}, see {@link StorageEngine#LOG}. A value is
+ * streamed straight into the log, it doesn't need a segment sized for it or a chain of them like
+ * {@link SegmentedStreamingDataManager}.
+ */
+public class LogStreamingDataManager implements SingleValueHashDataManager<byte [], InputStream> {
+
+    private final LogStore logStore;
+
+    public LogStreamingDataManager(File logFile) {
+        this(logFile, StorageOptions.defaults());
+    }
+
+    public LogStreamingDataManager(File logFile, StorageOptions options) {
+        this.logStore = new LogStore(logFile, options);
+    }
+
+    @Override
+    public InputStream getBlobsAt(long blobIndex) throws ReadFailure {
+        return logStore.openStream(blobIndex);
+    }
+
+    /**
+     * @return bytes sent, -1 if there's no value at blobIndex, see {@link LogStore#transferTo(long, long, long, WritableByteChannel)}
+     */
+    public long transferTo(long blobIndex, long offset, long count, WritableByteChannel target) throws ReadFailure {
+        return logStore.transferTo(blobIndex, offset, count, target);
+    }
+
+    @Override
+    public long setBlobs(long blobIndex, InputStream value) throws WriteFailure, ReadFailure {
+        return logStore.put(blobIndex, value);
+    }
+
+    @Override
+    public void eraseBlobs(long blobIndex) throws WriteFailure, ReadFailure {
+        logStore.erase(blobIndex);
+    }
+
+    @Override
+    public void clear() throws WriteFailure, ReadFailure {
+        logStore.clear();
+    }
+
+}
@@ -0,0 +1,79 @@
+package llc.berserkr.cache.hash;
+
+import llc.berserkr.cache.data.Pair;
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the buckets of a {@link StreamingFileHash} in a {@link LogStore}, see {@link StorageEngine#LOG}. Buckets are
+ * serialized the same as {@link BlobsSegmentedStreamingHashDataManager} does, the blob index is the bucket's handle
+ * in the log and the values in it are handles in the data log.
+ */
+public class LogStreamingHashDataManager implements HashDataManager<byte [], Long> {
+
+    private final LogStore logStore;
+
+    public LogStreamingHashDataManager(File logFile) {
+        this(logFile, StorageOptions.defaults());
+    }
+
+    public LogStreamingHashDataManager(File logFile, StorageOptions options) {
+        this.logStore = new LogStore(logFile, options);
+    }
+
+    @Override
+    public Set<Pair<byte[], Long>> getBlobsAt(long blobIndex) throws ReadFailure {
+
+        final byte [] bucket = logStore.read(blobIndex);
+
+        if(bucket == null) {
+            return new HashSet<>();
+        }
+
+        return BlobsSegmentedStreamingHashDataManager.getSegmentPairs(bucket);
+
+    }
+
+    @Override
+    public Long getValue(long blobIndex, byte [] key) throws ReadFailure {
+
+        final SegmentBuffer buffer = SegmentBuffer.local();
+
+        try {
+
+            if(!logStore.read(blobIndex, buffer)) {
+                return null;
+            }
+
+            return BlobsSegmentedStreamingHashDataManager.findPointer(buffer.getData(), buffer.getLength(), key);
+
+        }
+        finally {
+            buffer.release();
+        }
+
+    }
+
+    /**
+     * @return the same handle when the bucket already had one, it's rewritten without moving
+     */
+    @Override
+    public long setBlobs(long blobIndex, Set<Pair<byte[], Long>> blobs) throws WriteFailure, ReadFailure {
+        return logStore.put(blobIndex, BlobsSegmentedStreamingHashDataManager.getPairData(blobs));
+    }
+
+    @Override
+    public void eraseBlobs(long blobIndex) throws WriteFailure, ReadFailure {
+        logStore.erase(blobIndex);
+    }
+
+    @Override
+    public void clear() throws WriteFailure, ReadFailure {
+        logStore.clear();
+    }
+
+}
@@ -0,0 +1,179 @@
+package llc.berserkr.cache.hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Hash index mapped into memory, resolving a bucket is a load from the mapping instead of a seek and a read.
+ *
+ * The file is mapped in regions of up to 1GB (a bucket never straddles two regions), growing the index fills the
+ * new part of the file with empty buckets and maps it. Writes land in the page cache and are forced according to
+ * the durability policy.
+ *
+ * SYNC_EVERY_WRITE / SYNC_ON_TRANSACTION_END - the 8 bytes of the bucket are forced as they're set
+ * GROUP_COMMIT - concurrent sets share one force of the mapping
+ * PERIODIC_FSYNC - the mapping is forced on the sync interval
+ * OS_BUFFERED - never forced
+ */
+class MappedHashIndex implements HashIndex {
+
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+
+    private final File file;
+
+    //replaced when the index grows, the old buffers stay valid so readers holding them are fine
+    private volatile MappedByteBuffer [] regions;
+    private volatile long length;
+
+    private final DurabilityPolicy durability;
+    private final GroupCommit groupCommit;
+
+    MappedHashIndex(final File file, final StorageOptions options) throws IOException {
+
+        this.file = file;
+        this.durability = options.getDurability();
+
+        map(file.length() - file.length() % BUCKET_SIZE);
+
+        if(durability == DurabilityPolicy.PERIODIC_FSYNC) {
+            PeriodicSync.register(this, options.getSyncIntervalMillis());
+        }
+
+        if(durability == DurabilityPolicy.GROUP_COMMIT) {
+            groupCommit = new GroupCommit(this, options.getGroupCommitDelayMicros(), options.getGroupCommitBatch());
+        }
+        else {
+            groupCommit = null;
+        }
+
+    }
+
+    @Override
+    public long getCapacity() {
+        return length / BUCKET_SIZE;
+    }
+
+    @Override
+    public synchronized void ensureCapacity(long buckets) throws IOException {
+
+        final long required = buckets * BUCKET_SIZE;
+
+        if(required <= length) {
+            return;
+        }
+
+        try(final RandomAccessFile randomAccess = new RandomAccessFile(file, "rw")) {
+
+            //mapping past the end would grow the file with zeros, and zero is a pointer
+            final byte [] bytes = new byte [1024];
+
+            Arrays.fill(bytes, (byte)-1);
+
+            randomAccess.seek(length);
+
+            for(long i = length; i < required; i += bytes.length) {
+                randomAccess.write(bytes, 0, (int) Math.min(bytes.length, required - i));
+            }
+
+            if(durability.isCrashOrdered()) {
+                randomAccess.getChannel().force(false);
+            }
+
+        }
+
+        map(required);
+
+    }
+
+    @Override
+    public long getPointer(long bucketOffset) {
+        return regions[(int) (bucketOffset >>> REGION_SHIFT)].getLong((int) (bucketOffset & REGION_MASK));
+    }
+
+    @Override
+    public void setPointer(long bucketOffset, long pointer) throws IOException {
+
+        final MappedByteBuffer region = regions[(int) (bucketOffset >>> REGION_SHIFT)];
+        final int index = (int) (bucketOffset & REGION_MASK);
+
+        region.putLong(index, pointer);
+
+        switch (durability) {
+            case SYNC_EVERY_WRITE:
+            case SYNC_ON_TRANSACTION_END:
+                region.force(index, BUCKET_SIZE);
+                break;
+            case GROUP_COMMIT:
+                groupCommit.sync();
+                break;
+            default:
+                break;
+        }
+
+    }
+
+    @Override
+    public void clear() {
+
+        for(final MappedByteBuffer region : regions) {
+
+            for(int i = 0; i < region.capacity(); i += BUCKET_SIZE) {
+                region.putLong(i, EMPTY);
+            }
+
+            if(durability.isCrashOrdered()) {
+                region.force();
+            }
+
+        }
+
+    }
+
+    private void map(long newLength) throws IOException {
+
+        final MappedByteBuffer [] old = regions;
+        final MappedByteBuffer [] mapped = new MappedByteBuffer[(int) ((newLength + REGION_MASK) >>> REGION_SHIFT)];
+
+        try(final RandomAccessFile randomAccess = new RandomAccessFile(file, "rw")) {
+
+            final FileChannel channel = randomAccess.getChannel();
+
+            for(int i = 0; i < mapped.length; i++) {
+
+                final long start = (long) i << REGION_SHIFT;
+                final long size = Math.min(REGION_MASK + 1, newLength - start);
+
+                if(old != null && i < old.length && old[i].capacity() == size) {
+                    mapped[i] = old[i]; //full regions don't change
+                    continue;
+                }
+
+                //the mapping stays valid after the channel is closed
+                mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+                mapped[i].order(ByteOrder.LITTLE_ENDIAN);
+
+            }
+
+        }
+
+        regions = mapped;
+        length = newLength;
+
+    }
+
+    @Override
+    public void flush() {
+
+        for(final MappedByteBuffer region : regions) {
+            region.force();
+        }
+
+    }
+
+}
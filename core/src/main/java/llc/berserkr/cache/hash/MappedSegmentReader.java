@@ -0,0 +1,135 @@
+package llc.berserkr.cache.hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read only mapping of a segment file, see {@link StorageOptions#withMappedSegments(boolean)}.
+ *
+ * The file is mapped in regions of up to 1GB. The last region only covers the file as far as it went when it was
+ * mapped, reading past that maps it again up to the length the file is now. Segments don't line up with regions,
+ * anything that straddles two of them isn't handed out as a slice and the caller reads it the normal way.
+ *
+ * Truncating the file drops the mapping past the new end. A slice already handed out can't be taken back and
+ * reading the part of it that was cut off fails with an InternalError, only free segments are ever cut off so
+ * nothing should be reading them.
+ */
+class MappedSegmentReader {
+
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+    private static final long REGION_MASK = REGION_SIZE - 1;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final File file;
+
+    //replaced when the file grows or shrinks, the old buffers stay valid so readers holding them are fine
+    private volatile MappedByteBuffer [] regions = new MappedByteBuffer[0];
+
+    MappedSegmentReader(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return a read only little endian view of length bytes at position, null if they straddle two regions or go
+     * past the end of the file
+     */
+    ByteBuffer slice(long position, int length) throws IOException {
+
+        if(length == 0) {
+            return EMPTY;
+        }
+
+        final int region = (int) (position >>> REGION_SHIFT);
+
+        if(((position + length - 1) >>> REGION_SHIFT) != region) {
+            return null;
+        }
+
+        final int offset = (int) (position & REGION_MASK);
+
+        MappedByteBuffer [] current = regions;
+
+        if(!covers(current, region, offset + length)) {
+
+            current = remap();
+
+            if(!covers(current, region, offset + length)) {
+                return null;
+            }
+
+        }
+
+        //slice(index, length) is newer than the Android versions we support
+        final ByteBuffer view = current[region].duplicate();
+
+        view.position(offset);
+        view.limit(offset + length);
+
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+    }
+
+    /**
+     * Drops the mapping past length, call after the file has been cut.
+     */
+    synchronized void truncate(long length) {
+
+        final MappedByteBuffer [] current = regions;
+
+        //whole regions below the new end stay, the one it cuts is mapped again when it's next read
+        final int keep = (int) Math.min(current.length, length >>> REGION_SHIFT);
+
+        regions = Arrays.copyOf(current, keep);
+
+    }
+
+    private static boolean covers(MappedByteBuffer [] current, int region, int end) {
+        return region < current.length && end <= current[region].capacity();
+    }
+
+    /**
+     * maps the file up to the length it is now, regions that are already whole are kept
+     */
+    private synchronized MappedByteBuffer [] remap() throws IOException {
+
+        final MappedByteBuffer [] old = regions;
+
+        try(final RandomAccessFile randomAccess = new RandomAccessFile(file, "r")) {
+
+            final FileChannel channel = randomAccess.getChannel();
+            final long length = channel.size();
+
+            final MappedByteBuffer [] mapped = new MappedByteBuffer[(int) ((length + REGION_MASK) >>> REGION_SHIFT)];
+
+            for(int i = 0; i < mapped.length; i++) {
+
+                final long start = (long) i << REGION_SHIFT;
+                final long size = Math.min(REGION_SIZE, length - start);
+
+                if(i < old.length && old[i].capacity() == size) {
+                    mapped[i] = old[i]; //already mapped as far as the file goes
+                    continue;
+                }
+
+                //the mapping stays valid after the channel is closed
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+
+            }
+
+            regions = mapped;
+
+            return mapped;
+
+        }
+
+    }
+
+}
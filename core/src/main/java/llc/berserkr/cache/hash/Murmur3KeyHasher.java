@@ -0,0 +1,115 @@
+package llc.berserkr.cache.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * MurmurHash3 x64 128 with seed 0, the low 64 bits (h1) are the hash.
+ */
+class Murmur3KeyHasher implements KeyHasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    @Override
+    @SuppressWarnings("fallthrough")
+    public long hash(byte[] key) {
+
+        final int length = key.length;
+        final int blocks = length / 16;
+
+        final ByteBuffer words = ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN);
+
+        long h1 = 0;
+        long h2 = 0;
+
+        for(int i = 0; i < blocks; i++) {
+
+            long k1 = words.getLong(i * 16);
+            long k2 = words.getLong(i * 16 + 8);
+
+            h1 ^= mixK1(k1);
+
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+
+        }
+
+        final int tail = blocks * 16;
+
+        long k1 = 0;
+        long k2 = 0;
+
+        switch (length & 15) {
+            case 15: k2 ^= (long) (key[tail + 14] & 0xFF) << 48;
+            case 14: k2 ^= (long) (key[tail + 13] & 0xFF) << 40;
+            case 13: k2 ^= (long) (key[tail + 12] & 0xFF) << 32;
+            case 12: k2 ^= (long) (key[tail + 11] & 0xFF) << 24;
+            case 11: k2 ^= (long) (key[tail + 10] & 0xFF) << 16;
+            case 10: k2 ^= (long) (key[tail + 9] & 0xFF) << 8;
+            case 9:
+                k2 ^= key[tail + 8] & 0xFF;
+                h2 ^= mixK2(k2);
+            case 8: k1 ^= (long) (key[tail + 7] & 0xFF) << 56;
+            case 7: k1 ^= (long) (key[tail + 6] & 0xFF) << 48;
+            case 6: k1 ^= (long) (key[tail + 5] & 0xFF) << 40;
+            case 5: k1 ^= (long) (key[tail + 4] & 0xFF) << 32;
+            case 4: k1 ^= (long) (key[tail + 3] & 0xFF) << 24;
+            case 3: k1 ^= (long) (key[tail + 2] & 0xFF) << 16;
+            case 2: k1 ^= (long) (key[tail + 1] & 0xFF) << 8;
+            case 1:
+                k1 ^= key[tail] & 0xFF;
+                h1 ^= mixK1(k1);
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+
+        h1 += h2;
+
+        return h1;
+
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public String getName() {
+        return "murmur3";
+    }
+
+}
@@ -0,0 +1,32 @@
+package llc.berserkr.cache.hash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Background flushing for {@link DurabilityPolicy#PERIODIC_FSYNC} on the {@link BackgroundTasks} threads, files are
+ * only weakly held so a cache that goes away stops being synced.
+ */
+class PeriodicSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeriodicSync.class);
+
+    static void register(final Flushable toSync, final long intervalMillis) {
+
+        BackgroundTasks.scheduleWeakly(toSync, intervalMillis, flushable -> {
+
+            try {
+                flushable.flush();
+            }
+            catch (IOException e) {
+                logger.error("periodic sync failed", e);
+            }
+
+        });
+
+    }
+
+}
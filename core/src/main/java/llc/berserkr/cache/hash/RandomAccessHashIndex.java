@@ -0,0 +1,101 @@
+package llc.berserkr.cache.hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static llc.berserkr.cache.util.DataUtils.bytesToLong;
+import static llc.berserkr.cache.util.DataUtils.longToByteArray;
+
+/**
+ * Hash index read and written with an 8 byte positional read/write per bucket, this is how the hash has always
+ * worked.
+ */
+class RandomAccessHashIndex implements HashIndex {
+
+    private volatile long length;
+    private final FileAccess fileAccess;
+
+    RandomAccessHashIndex(final File file, final StorageOptions options) {
+
+        //older files were created a kilobyte at a time so there can be room past the hash size
+        this.length = file.length() - file.length() % BUCKET_SIZE;
+        this.fileAccess = FileAccess.open(file, options);
+
+    }
+
+    @Override
+    public long getCapacity() {
+        return length / BUCKET_SIZE;
+    }
+
+    @Override
+    public synchronized void ensureCapacity(long buckets) throws IOException {
+
+        final long required = buckets * BUCKET_SIZE;
+
+        if(required <= length) {
+            return;
+        }
+
+        writeEmpty(length, required - length);
+
+        //new buckets have to be there before anything points into them
+        fileAccess.syncTransaction();
+
+        length = required;
+
+    }
+
+    @Override
+    public long getPointer(long bucketOffset) throws IOException {
+
+        final byte [] currentKeyIn = new byte[BUCKET_SIZE];
+
+        //read in key at this hash location.
+        final int read = fileAccess.read(bucketOffset, currentKeyIn, 0, BUCKET_SIZE);
+
+        if(read <= 0) { //file was too short, empty values weren't filled in
+            throw new RuntimeException("hash was not initialized properly");
+        }
+
+        return bytesToLong(currentKeyIn);
+
+    }
+
+    @Override
+    public void setPointer(long bucketOffset, long pointer) throws IOException {
+
+        fileAccess.write(bucketOffset, longToByteArray(pointer));
+
+        fileAccess.syncTransaction();
+
+    }
+
+    @Override
+    public void clear() throws IOException {
+
+        writeEmpty(0, length);
+
+        fileAccess.syncTransaction();
+
+    }
+
+    @Override
+    public void flush() throws IOException {
+        fileAccess.flush();
+    }
+
+    private void writeEmpty(long position, long bytesToWrite) throws IOException {
+
+        final byte [] bytes = new byte [1024];
+
+        Arrays.fill(bytes, (byte)-1);
+
+        for(long i = 0; i < bytesToWrite; i += bytes.length) {
+            fileAccess.write(position + i, bytes, 0, (int) Math.min(bytes.length, bytesToWrite - i));
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package llc.berserkr.cache.hash;
+
+/**
+ * Reusable buffer a segment is read into so a lookup can scan the bucket where it lies instead of building
+ * a copy of every pair in it. One per thread, see {@link #local()}.
+ */
+final class SegmentBuffer {
+
+    private static final int INITIAL_SIZE = 4096;
+
+    //a thread that read a huge bucket once shouldn't hold on to that much memory forever
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<SegmentBuffer> buffers = ThreadLocal.withInitial(SegmentBuffer::new);
+
+    private byte [] data = new byte[INITIAL_SIZE];
+    private int length;
+
+    private SegmentBuffer() {}
+
+    static SegmentBuffer local() {
+        return buffers.get();
+    }
+
+    /**
+     * @param size - bytes needed
+     * @return an array of at least size bytes, previous content isn't kept
+     */
+    byte [] ensureCapacity(int size) {
+
+        if(data.length < size) {
+            data = new byte[Math.max(size, data.length * 2)];
+        }
+
+        return data;
+
+    }
+
+    byte [] getData() {
+        return data;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    /**
+     * done with the content, drops an oversized array
+     */
+    void release() {
+
+        length = 0;
+
+        if(data.length > MAX_RETAINED_SIZE) {
+            data = new byte[INITIAL_SIZE];
+        }
+
+    }
+
+}
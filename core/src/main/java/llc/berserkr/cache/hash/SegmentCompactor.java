@@ -0,0 +1,157 @@
+package llc.berserkr.cache.hash;
+
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background compaction of the segment files under a {@link FileHash} or {@link StreamingFileHash}, see
+ * {@link StorageOptions#withSegmentCompaction(double, long)}.
+ *
+ * The hashes do the moving since only they know what points at a segment and which lock covers it, this decides when
+ * a file is worth compacting and throttles the copying. It runs on the {@link BackgroundTasks} threads, hashes are only
+ * weakly held so a cache that goes away stops being compacted.
+ */
+class SegmentCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentCompactor.class);
+
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Something with segment files to compact.
+     */
+    interface Compactable {
+
+        /**
+         * @return bytes the files shrank by
+         */
+        long compact() throws ReadFailure, WriteFailure;
+
+    }
+
+    private final double maxFreeRatio;
+    private final long maxBytesPerSecond;
+
+    //only ever used by one pass at a time, passes are serialized by the hash
+    private long passStart;
+    private long moved;
+
+    SegmentCompactor(StorageOptions options) {
+        this.maxFreeRatio = options.getSegmentCompactionRatio();
+        this.maxBytesPerSecond = options.getSegmentCompactionBytesPerSecond();
+    }
+
+    /**
+     * Compacts the target in the background if compaction is turned on.
+     */
+    void start(final Compactable target) {
+
+        if(maxFreeRatio <= 0) {
+            return;
+        }
+
+        BackgroundTasks.scheduleWeakly(target, CHECK_INTERVAL_MILLIS, compactable -> {
+
+            try {
+
+                final long reclaimed = compactable.compact();
+
+                if(reclaimed > 0) {
+                    logger.debug("segment compaction reclaimed " + reclaimed + " bytes");
+                }
+
+            }
+            catch (ReadFailure | WriteFailure | RuntimeException e) {
+                logger.error("segment compaction failed", e);
+            }
+
+        });
+
+    }
+
+    /**
+     * @return true if more of the file is free than the configured ratio
+     */
+    boolean needsCompaction(SegmentedFile segmentedFile) {
+
+        final long length = segmentedFile.getLength();
+
+        if(length <= 0) {
+            return false;
+        }
+
+        final long free = segmentedFile.getFreeBytes();
+
+        return free > 0 && (double) free / length > maxFreeRatio;
+
+    }
+
+    /**
+     * Starts the throttle over for a pass.
+     */
+    void startPass() {
+        passStart = System.nanoTime();
+        moved = 0;
+    }
+
+    /**
+     * Counts bytes copied and sleeps off whatever the pass is ahead of the configured rate. Call without holding locks.
+     */
+    void throttle(long bytes) {
+
+        if(maxBytesPerSecond <= 0) {
+            return;
+        }
+
+        moved += bytes;
+
+        final long due = passStart + moved * 1_000_000_000L / maxBytesPerSecond;
+        final long wait = due - System.nanoTime();
+
+        if(wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    /**
+     * Snapshot of where every bucket points, furthest into the file first so the segments at the end move first.
+     *
+     * @param buckets - buckets in the index
+     * @return [bucket offset, pointer] pairs
+     */
+    static List<long []> bucketsByPointer(HashIndex hashIndex, long buckets) throws IOException {
+
+        final List<long []> returnVal = new ArrayList<>();
+
+        for(long i = 0; i < buckets; i++) {
+
+            final long offset = i * HashIndex.BUCKET_SIZE;
+            final long pointer = hashIndex.getPointer(offset);
+
+            if(pointer >= 0) {
+                returnVal.add(new long [] {offset, pointer});
+            }
+
+        }
+
+        returnVal.sort(Comparator.comparingLong((long [] bucket) -> bucket[1]).reversed());
+
+        return returnVal;
+
+    }
+
+}
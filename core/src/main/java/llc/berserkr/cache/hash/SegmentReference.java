@@ -0,0 +1,429 @@
+package llc.berserkr.cache.hash;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Memory cache of the state and size of segments in a {@link SegmentedFile} by address.
+ *
+ * Every read and write of a segment goes through here, so it's split into stripes by address that each have their
+ * own lock. Reads are optimistic (a {@link StampedLock} stamp checked after the read) and only take the read lock
+ * if a write to the same stripe got in the way, so gets on different keys don't wait on each other.
+ *
+ * Each stripe is an open addressing table (linear probing, removes shift entries back instead of leaving
+ * tombstones) over two primitive arrays, the address in one and the state and size packed into a long in the
+ * other. Nothing is boxed, 16 bytes a slot with the tables between 3/8 and 3/4 full, so 21 to 43 bytes a segment.
+ * Boxed hash maps of state and size were well over 100.
+ *
+ * packed value [unused 22 bits][has size 1][has state 1][state 8][size 32]
+ */
+public final class SegmentReference {
+
+    /**
+     * size returned for a segment that isn't in the reference
+     */
+    public static final int UNKNOWN_SIZE = -1;
+
+    private static final int STRIPE_SHIFT = 6;
+    private static final int STRIPES = 1 << STRIPE_SHIFT;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    //addresses are never negative
+    private static final long EMPTY = -1L;
+
+    private static final long HAS_STATE = 1L << 40;
+    private static final long HAS_SIZE = 1L << 41;
+    private static final long STATE_MASK = 0xFFL << 32;
+    private static final long SIZE_MASK = 0xFFFFFFFFL;
+
+    private final Stripe [] stripes = new Stripe[STRIPES];
+
+    public SegmentReference() {
+
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+
+    }
+
+    public void setSegmentType(long address, byte type) {
+
+        final long hash = hash(address);
+
+        stripeFor(hash).update(address, hash, ~STATE_MASK, HAS_STATE | ((type & 0xFFL) << 32));
+
+    }
+
+    public void setSegmentSize(long address, int size) {
+
+        final long hash = hash(address);
+
+        stripeFor(hash).update(address, hash, ~SIZE_MASK, HAS_SIZE | (size & SIZE_MASK));
+
+    }
+
+    public void remove(long address) {
+
+        final long hash = hash(address);
+
+        stripeFor(hash).remove(address, hash);
+
+    }
+
+    public void clear() {
+
+        for(final Stripe stripe : stripes) {
+            stripe.clear();
+        }
+
+    }
+
+    /**
+     * @return the segment state, null if it isn't known
+     */
+    public Byte getSegmentType(long address) {
+
+        final long hash = hash(address);
+        final long value = stripeFor(hash).get(address, hash);
+
+        if((value & HAS_STATE) == 0) {
+            return null;
+        }
+
+        return (byte) (value >>> 32); //Byte.valueOf is cached, this doesn't allocate
+
+    }
+
+    /**
+     * @return the segment size, {@link #UNKNOWN_SIZE} if it isn't known
+     */
+    public int getSegmentSize(long address) {
+
+        final long hash = hash(address);
+        final long value = stripeFor(hash).get(address, hash);
+
+        if((value & HAS_SIZE) == 0) {
+            return UNKNOWN_SIZE;
+        }
+
+        return (int) value;
+
+    }
+
+    /**
+     * @return segments with a state or size
+     */
+    public int size() {
+
+        int size = 0;
+
+        for(final Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+
+        return size;
+
+    }
+
+    /**
+     * @return bytes of heap the reference takes up
+     */
+    public long getFootprintBytes() {
+
+        //this object and the stripe array
+        long bytes = 16 + 16 + (long) STRIPES * 4;
+
+        for(final Stripe stripe : stripes) {
+            bytes += stripe.getFootprintBytes();
+        }
+
+        return bytes;
+
+    }
+
+    private Stripe stripeFor(long hash) {
+        //the table slot comes from the low bits, the stripe from the high ones
+        return stripes[(int) (hash >>> (Long.SIZE - STRIPE_SHIFT))];
+    }
+
+    private static long hash(long address) {
+
+        //segment addresses are spread unevenly and share low bits, mix them
+        long hash = address * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 29;
+
+        return hash * 0xBF58476D1CE4E5B9L;
+
+    }
+
+    private static final class Stripe {
+
+        private final StampedLock lock = new StampedLock();
+
+        private long [] addresses;
+        private long [] values;
+        private int mask;
+        private int count;
+
+        private Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        /**
+         * @return the packed value, 0 (nothing known) if the address isn't here
+         */
+        private long get(long address, long hash) {
+
+            final long stamp = lock.tryOptimisticRead();
+
+            if(stamp != 0) {
+
+                //copy the fields, a writer can replace or shift them under us. the stamp says if it did
+                final long [] addresses = this.addresses;
+                final long [] values = this.values;
+                final int mask = this.mask;
+
+                final long value = probe(addresses, values, mask, address, hash);
+
+                if(lock.validate(stamp)) {
+                    return value;
+                }
+
+            }
+
+            final long readStamp = lock.readLock();
+
+            try {
+                return probe(addresses, values, mask, address, hash);
+            }
+            finally {
+                lock.unlockRead(readStamp);
+            }
+
+        }
+
+        private void update(long address, long hash, long keep, long set) {
+
+            final long stamp = lock.writeLock();
+
+            try {
+
+                final int slot = slotFor(address, hash);
+
+                values[slot] = (values[slot] & keep) | set;
+
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+
+        }
+
+        private void remove(long address, long hash) {
+
+            final long stamp = lock.writeLock();
+
+            try {
+
+                int hole = find(address, hash);
+
+                if(hole < 0) {
+                    return;
+                }
+
+                //shift back anything after the hole that probed past it so lookups don't stop short
+                int i = (hole + 1) & mask;
+
+                while(addresses[i] != EMPTY) {
+
+                    final int ideal = (int) hash(addresses[i]) & mask;
+
+                    if(((i - ideal) & mask) >= ((i - hole) & mask)) {
+
+                        addresses[hole] = addresses[i];
+                        values[hole] = values[i];
+
+                        hole = i;
+
+                    }
+
+                    i = (i + 1) & mask;
+
+                }
+
+                addresses[hole] = EMPTY;
+                values[hole] = 0;
+
+                count--;
+
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+
+        }
+
+        private void clear() {
+
+            final long stamp = lock.writeLock();
+
+            try {
+                allocate(INITIAL_CAPACITY);
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+
+        }
+
+        private int size() {
+
+            final long stamp = lock.readLock();
+
+            try {
+                return count;
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+
+        }
+
+        private long getFootprintBytes() {
+
+            final long stamp = lock.readLock();
+
+            try {
+                //the two arrays and their headers, this object and its lock
+                return (long) addresses.length * Long.BYTES + (long) values.length * Long.BYTES + 2 * 16 + 32 + 32;
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+
+        }
+
+        /**
+         * Works on whatever arrays it's handed, an optimistic read can hand it a mix of old and new ones so it
+         * never trusts the mask to fit and never probes more than the whole table.
+         */
+        private static long probe(long [] addresses, long [] values, int mask, long address, long hash) {
+
+            if(mask >= addresses.length || mask >= values.length) {
+                return 0;
+            }
+
+            int slot = (int) hash & mask;
+
+            for(int probed = 0; probed <= mask; probed++) {
+
+                final long current = addresses[slot];
+
+                if(current == address) {
+                    return values[slot];
+                }
+
+                if(current == EMPTY) {
+                    return 0;
+                }
+
+                slot = (slot + 1) & mask;
+
+            }
+
+            return 0;
+
+        }
+
+        private int slotFor(long address, long hash) {
+
+            int slot = (int) hash & mask;
+
+            while(addresses[slot] != EMPTY) {
+
+                if(addresses[slot] == address) {
+                    return slot;
+                }
+
+                slot = (slot + 1) & mask;
+
+            }
+
+            if(count + 1 > (addresses.length >>> 2) * 3) {
+                grow();
+                return slotFor(address, hash);
+            }
+
+            addresses[slot] = address;
+            values[slot] = 0;
+
+            count++;
+
+            return slot;
+
+        }
+
+        private int find(long address, long hash) {
+
+            int slot = (int) hash & mask;
+
+            while(addresses[slot] != EMPTY) {
+
+                if(addresses[slot] == address) {
+                    return slot;
+                }
+
+                slot = (slot + 1) & mask;
+
+            }
+
+            return -1;
+
+        }
+
+        private void grow() {
+
+            final long [] oldAddresses = addresses;
+            final long [] oldValues = values;
+
+            allocate(oldAddresses.length * 2);
+
+            for(int i = 0; i < oldAddresses.length; i++) {
+
+                if(oldAddresses[i] == EMPTY) {
+                    continue;
+                }
+
+                int slot = (int) hash(oldAddresses[i]) & mask;
+
+                while(addresses[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+
+                addresses[slot] = oldAddresses[i];
+                values[slot] = oldValues[i];
+
+                count++;
+
+            }
+
+        }
+
+        private void allocate(int capacity) {
+
+            final long [] newAddresses = new long[capacity];
+
+            Arrays.fill(newAddresses, EMPTY);
+
+            //an optimistic reader can see any of these out of step, probe() copes with that
+            values = new long[capacity];
+            addresses = newAddresses;
+            mask = capacity - 1;
+            count = 0;
+
+        }
+
+    }
+
+}
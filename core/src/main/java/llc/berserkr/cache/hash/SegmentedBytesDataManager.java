@@ -6,9 +6,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import static llc.berserkr.cache.hash.SegmentedTransactions.*;
@@ -27,19 +27,75 @@ public class SegmentedBytesDataManager implements HashDataManager<byte [], byte
     private final SegmentedFile segmentedFile;
 
     public SegmentedBytesDataManager(File segmentFile) {
-        this.segmentedFile = new SegmentedFile(segmentFile);
+        this(segmentFile, StorageOptions.defaults());
+    }
+
+    public SegmentedBytesDataManager(File segmentFile, StorageOptions options) {
+        this.segmentedFile = new SegmentedFile(segmentFile, options);
     }
 
     public Set<Pair<byte[], byte[]>> getBlobsAt(long blobIndex) throws ReadFailure {
 
-        final byte[] segment;
+        return getSegmentPairs(segmentedFile.readSegmentBytes(blobIndex));
+    }
+
+    /**
+     * Looks up one key in the bucket at blobIndex. The segment is read into a per thread buffer and scanned where
+     * it lies, only the matching value is copied out so a miss leaves no garbage no matter how full the bucket is.
+     *
+     * @param blobIndex - address of the bucket segment
+     * @param key
+     * @return the value or null if the key isn't in the bucket
+     * @throws ReadFailure
+     */
+    @Override
+    public byte [] getValue(long blobIndex, byte [] key) throws ReadFailure {
+
+        final SegmentBuffer buffer = SegmentBuffer.local();
+
         try {
-            segment = convertInputStreamToBytes(segmentedFile.readSegment(blobIndex));
-        } catch (IOException e) {
-            throw new ReadFailure("failed", e);
+
+            if(!segmentedFile.readSegment(blobIndex, buffer)) {
+                return null;
+            }
+
+            return findValue(buffer.getData(), buffer.getLength(), key);
+
+        }
+        finally {
+            buffer.release();
+        }
+
+    }
+
+    /**
+     * Looks up one key in the bucket at blobIndex without copying its value. With mapped segments (see
+     * {@link StorageOptions#withMappedSegments(boolean)}) the value is a view of the mapping, otherwise of the
+     * bucket read into the heap. Either way it's only good while the bucket can't be written.
+     *
+     * @param blobIndex - address of the bucket segment
+     * @param key
+     * @return a read only view of the value or null if the key isn't in the bucket
+     * @throws ReadFailure
+     */
+    ByteBuffer getValueBuffer(long blobIndex, byte [] key) throws ReadFailure {
+
+        final ByteBuffer segment = segmentedFile.readSegmentBuffer(blobIndex);
+
+        if(segment == null) {
+            return null;
         }
 
-        return getSegmentPairs(segment);
+        final int entry = BucketFormat.find(segment, key);
+
+        if(entry < 0) {
+            return null;
+        }
+
+        final int valueStart = entry + 8 + key.length;
+
+        return segment.slice(valueStart, entry + 8 + BucketFormat.getInt(segment, entry) - valueStart);
+
     }
 
     public long setBlobs(long blobIndex, Set<Pair<byte[], byte[]>> blobs) throws WriteFailure, ReadFailure {
@@ -133,19 +189,14 @@ public class SegmentedBytesDataManager implements HashDataManager<byte [], byte
 
             final long transAddress = startAddTransaction(segmentedFile, pairData.length);
 
-            try(final InputStream is = new ByteArrayInputStream(pairData)) {
-                //no free segments, add to the end of the segment file
-                final long address = segmentedFile.writeToEnd(is);
-
-                segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
+            //no free segments, add to the end of the segment file
+            final long address = segmentedFile.writeToEnd(pairData, transAddress);
 
-                endTransactions(segmentedFile, transAddress);
+            segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
 
+            endTransactions(segmentedFile, transAddress);
 
-                return address;
-            } catch (IOException ex) {
-                throw new WriteFailure("failed to write ", ex);
-            }
+            return address;
         }
 
     }
@@ -165,23 +216,15 @@ public class SegmentedBytesDataManager implements HashDataManager<byte [], byte
 
     public static byte [] getPairData(Set<Pair<byte [], byte []>> pairsIn) {
 
-        final List<Pair<byte [], byte []>> pairs = new ArrayList<>(pairsIn);//ordered
-
-        char count = (char) pairs.size();
-
         try {
 
             final ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-            out.write(charToBytes(count));
-
-            for(int i = 0; i < count; i++) {
+            BucketFormat.writeHeader(out, pairsIn.size());
 
-                final Pair<byte [], byte []> pair = pairs.get(i);
+            for(final Pair<byte [], byte []> pair : pairsIn) {
 
-                out.write(intToByteArray(pair.getOne().length + pair.getTwo().length));
-                out.write(intToByteArray(pair.getOne().length));
-                out.write(pair.getOne());
+                BucketFormat.writeEntryHeader(out, pair.getOne(), pair.getTwo().length);
                 out.write(pair.getTwo());
 
             }
@@ -194,6 +237,28 @@ public class SegmentedBytesDataManager implements HashDataManager<byte [], byte
 
     }
 
+    /**
+     * Scans serialized pair data (see {@link #getPairData(Set)}) for a key without decoding the other pairs.
+     *
+     * @param data
+     * @param length - bytes of data that are filled
+     * @param key
+     * @return a copy of the value mapped to key, null if it isn't there
+     */
+    public static byte [] findValue(byte [] data, int length, byte [] key) {
+
+        final int entry = BucketFormat.find(data, length, key);
+
+        if(entry < 0) {
+            return null;
+        }
+
+        final int valueStart = entry + 8 + key.length;
+
+        return Arrays.copyOfRange(data, valueStart, entry + 8 + bytesToInt(data, entry));
+
+    }
+
     public static Set<Pair<byte [], byte []>> getSegmentPairs(byte [] data) {
 
         final Set<Pair<byte [], byte []>> pairs = new HashSet<>();
@@ -202,12 +267,17 @@ public class SegmentedBytesDataManager implements HashDataManager<byte [], byte
             return pairs;
         }
 
-        char count = bytesToChar(data, 0);
+        final boolean fingerprinted = BucketFormat.isFingerprinted(data, data.length);
+        final int count = BucketFormat.getCount(data, fingerprinted);
 
-        int dataBase = 2;
+        int dataBase = BucketFormat.getEntriesStart(fingerprinted);
 
         for(int i = 0; i < count; i++) {
 
+            if(fingerprinted) {
+                dataBase += BucketFormat.FINGERPRINT_SIZE;
+            }
+
             final int pairLength = bytesToInt(data, dataBase);
             final int keyLength = bytesToInt(data, dataBase + 4);
 
@@ -226,4 +296,8 @@ public class SegmentedBytesDataManager implements HashDataManager<byte [], byte
 
     }
 
+    SegmentedFile getSegmentedFile() {
+        return segmentedFile;
+    }
+
 }
@@ -5,8 +5,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static llc.berserkr.cache.util.DataUtils.*;
 
@@ -17,25 +19,47 @@ public class SegmentedFile {
     //size of the buffer used to write files //TODO make configurable
     private static final int WRITE_BUFFER_SIZE = 8192;
 
+    //free segments looked at for a relocation before giving up, allocation waits while the index is searched
+    private static final int MAX_RELOCATION_SCAN = 1024;
+
     //bytes at the beginning of each segment to construct into an int for the segment length
     public static final int SEGMENT_LENGTH_BYTES_COUNT = 4;
     private static final int START_OFFSET = 1024; //leave 1024 bytes for use of transactions
 
+    //size, state and fill size that come before every payload
+    private static final int SEGMENT_META_SIZE = SEGMENT_LENGTH_BYTES_COUNT + 1 + SEGMENT_LENGTH_BYTES_COUNT;
+
     //byte range -128 to 127
     public static final byte FREE_STATE = -128;
     public static final byte BOUND_STATE = -127;
     public static final byte TRANSITIONAL_STATE = -126;
 
+    //a value too big to hold in memory is written as it arrives into a chain of segments, the head is what's pointed
+    //at and every segment in the chain starts with the address of the next one (-1 in the last)
+    public static final byte CHAINED_STATE = -122;
+    public static final byte LINKED_STATE = -121;
+
     public static final byte WRITING_TRANSACTION = -125;
     public static final byte MERGE_TRANSACTION = -124;
     public static final byte ADD_END_TRANSACTION = -123;
+    public static final byte CHAIN_TRANSACTION = -120;
+
+    //payload of a chain segment before its data, the next link and for the head the length of the whole value
+    public static final int LINK_HEADER_SIZE = 8;
+    public static final int CHAIN_HEADER_SIZE = LINK_HEADER_SIZE + 8;
 
     private final File root;
     private final SegmentReference reference = new SegmentReference();
 
-    private final LocalRandomAccess localAccess;
+    private final FileAccess fileAccess;
 
-    private volatile long lastKnownAddress = START_OFFSET;
+    //bound segments are read out of this when reads are mapped, null otherwise
+    private final MappedSegmentReader mapped;
+    private final FreeSpaceIndex freeSpace;
+    private final TransactionJournal transactions;
+
+    //held while the end of the file moves, appends only hold it for the header
+    private final Object endLock = new Object();
 
     /**
      *
@@ -47,14 +71,30 @@ public class SegmentedFile {
      * File format is such
      * [x, ... 1024][[x,x,x,x][x][x,x,x,x][x*n] * count of entries] 1024 transaction bytes (reserved), segmentSize(4bytes), type(1byte), fillSize(4bytes), payload(segmentSize bytes)
      *
-     * TODO memory cache has an O^n issue that affect performance some when a lot of segments exist (really only matters at like 10k+ keys)
-     * TODO write the memory cache of addresses and state in C, would probably double the performance of this sytem because that's the bottle neck.
+     * A value streamed in without a length can be a chain of segments instead of one (see {@link #writeLink}). The
+     * head is {@link #CHAINED_STATE} with a payload of next(8bytes), value length(8bytes), data and the rest are
+     * {@link #LINKED_STATE} with next(8bytes), data. {@link #readSegment(long)} streams the whole chain.
+     *
+     * Free segments are tracked by a {@link FreeSpaceIndex} persisted next to the segment file (root + ".free")
+     * so finding, splitting and merging free space doesn't require walking the segments. If the index is missing
+     * or doesn't line up with the segment file it is rebuilt with a single walk when the file is opened.
      *
      * @param root
      */
     public SegmentedFile(
         final File root
     ) {
+        this(root, StorageOptions.defaults());
+    }
+
+    /**
+     * @param root
+     * @param options - durability of the writes and the transaction area
+     */
+    public SegmentedFile(
+        final File root,
+        final StorageOptions options
+    ) {
 
         this.root = root;
 
@@ -76,26 +116,64 @@ public class SegmentedFile {
             throw new IllegalStateException("there's an issue with file for segments", e);
         }
 
-        localAccess = new LocalRandomAccess(root);
+        fileAccess = FileAccess.open(root, options);
+        mapped = options.isMappedSegments() ? new MappedSegmentReader(root) : null;
 
         try {
 
-            final RandomAccessFile writer = localAccess.getWriter();
-
-            if(writer.length() < START_OFFSET) {
-                writer.seek(0);
-                writer.write(new byte[START_OFFSET]);
+            if(fileAccess.length() < START_OFFSET) {
+                fileAccess.write(0, new byte[START_OFFSET]);
             }
 
-            localAccess.giveWriter(writer);
-
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
+        final DurabilityPolicy durability = options.getDurability();
+
+        //group commit doesn't force each journal record, the batch flush does the journal before the segment file.
+        //anything the journal has as free is checked on disk before it's handed out.
+        freeSpace = new FreeSpaceIndex(
+            new File(root.getPath() + ".free"),
+            START_OFFSET,
+            durability.isCrashOrdered() && durability != DurabilityPolicy.GROUP_COMMIT
+        );
+
+        if(durability == DurabilityPolicy.PERIODIC_FSYNC) {
+            PeriodicSync.register(freeSpace, options.getSyncIntervalMillis());
+        }
+
+        if(durability == DurabilityPolicy.GROUP_COMMIT) {
+            fileAccess.flushFirst(freeSpace);
+        }
+
+        //the transaction records are write ahead, any sync of the segment file does them first
+        transactions = new TransactionJournal(
+            new File(root.getPath() + ".txn"),
+            options.getTransactionSlots(),
+            durability
+        );
+
+        fileAccess.flushFirst(transactions);
+
         //this doesn't need synchronization locks yet because nothing it's in the constructor
         validateData();
 
+        try {
+
+            final long length = fileAccess.length();
+
+            if(!freeSpace.isTrusted(length)) {
+                logger.info("rebuilding free space index for " + root);
+                rebuildFreeSpace();
+            }
+
+        } catch (IOException e) {
+            throw new IllegalStateException("couldn't read the segment file " + root, e);
+        } catch (ReadFailure | WriteFailure e) {
+            throw new IllegalStateException("couldn't rebuild the free space index for " + root, e);
+        }
+
     }
 
     /**
@@ -105,66 +183,120 @@ public class SegmentedFile {
 
         try {
 
+            //transactions from before they had their own journal are in the first kilobyte of the segment file
             for(long segmentAddress = 0; segmentAddress < START_OFFSET; segmentAddress += SEGMENT_LENGTH_BYTES_COUNT) {
 
-                final byte[] transactionBytes = readTransactionalBytes(segmentAddress);
+                if(reverseTransaction(readTransactionalBytes(segmentAddress))) {
+                    clearLegacyTransaction(segmentAddress);
+                }
+
+            }
 
-                switch (transactionBytes[0]) {
-                    case WRITING_TRANSACTION: {
+            for(final Map.Entry<Long, byte []> open : transactions.getOpen().entrySet()) {
 
-                        if(transactionBytes[9] == WRITING_TRANSACTION) { //if the end one isn't set we didn't complete transaction start
+                reverseTransaction(open.getValue());
 
-                            long address = bytesToLong(transactionBytes, 1);
+                clearTransaction(open.getKey());
 
-                            writeState(address, FREE_STATE);
-                        }
+            }
 
-                        clearTransaction(segmentAddress);
-                        break;
-                    }
-                    case MERGE_TRANSACTION: {
+        }
+        catch (ReadFailure | IOException e) {
+            throw new IllegalStateException("couldn't validate data cache file is corrupt maybe", e);
+        } catch (WriteFailure e) {
+            throw new IllegalStateException("couldn't revert bad state data cache file is corrupt maybe", e);
+        }
+
+    }
 
-                        if(transactionBytes[13] == MERGE_TRANSACTION) { //if the end one isn't set we didn't complete transaction start
+    /**
+     * reverses or finishes the transaction the record describes
+     *
+     * @return true if it was a transaction record
+     */
+    private boolean reverseTransaction(byte [] transactionBytes) throws ReadFailure, WriteFailure {
 
-                            long address = bytesToLong(transactionBytes, 1);
+        switch (transactionBytes[0]) {
+            case WRITING_TRANSACTION: {
 
-                            int length = bytesToInt(transactionBytes, 9);
+                if(transactionBytes[9] == WRITING_TRANSACTION) { //if the end one isn't set we didn't complete transaction start
 
-                            writeState(address, FREE_STATE);
-                            write(address, new byte[length]);
-                            setSegmentSize(address, length);
-                            writeState(address, FREE_STATE);
+                    long address = bytesToLong(transactionBytes, 1);
 
-                        }
-                        clearTransaction(segmentAddress);
-                        break;
+                    writeState(address, FREE_STATE);
+                }
+
+                return true;
+            }
+            case MERGE_TRANSACTION: {
+
+                if(transactionBytes[13] == MERGE_TRANSACTION) { //if the end one isn't set we didn't complete transaction start
+
+                    long address = bytesToLong(transactionBytes, 1);
+
+                    int length = bytesToInt(transactionBytes, 9);
+
+                    writeState(address, FREE_STATE);
+                    write(address, new byte[length]);
+                    setSegmentSize(address, length);
+                    writeState(address, FREE_STATE);
+
+                }
+                return true;
+            }
+            case ADD_END_TRANSACTION: {
+
+                if(transactionBytes[ADD_END_ADDRESS_OFFSET + ADD_END_ADDRESS_SIZE - 1] == ADD_END_TRANSACTION) {
+
+                    //the segment was reserved and its header is down, the payload may not be so just free it
+                    final long address = bytesToLong(transactionBytes, ADD_END_ADDRESS_OFFSET);
+
+                    writeState(address, FREE_STATE);
+
+                }
+                else if(transactionBytes[5] == ADD_END_TRANSACTION) { //if the end one isn't set we didn't complete transaction start
+                    int length = bytesToInt(transactionBytes, 1);
+
+                    final long endAddress;
+
+                    if(freeSpace.hasEnd()) {
+                        //anything past the last end we recorded is the torn add, cut it off so the list stays walkable
+                        endAddress = truncateToEnd();
+                    }
+                    else {
+                        endAddress = this.findEnd();
                     }
-                    case ADD_END_TRANSACTION: {
 
-                        if(transactionBytes[5] == ADD_END_TRANSACTION) { //if the end one isn't set we didn't complete transaction start
-                            int length = bytesToInt(transactionBytes, 1);
+                    setSegmentSize(endAddress, length);
+                    write(endAddress, new byte[length]);
+                    writeState(endAddress, FREE_STATE);
+
+                }
 
-                            long endAddress = this.findEnd();
+                return true;
 
-                            writeState(endAddress, FREE_STATE);
-                            write(endAddress, new byte[length]);
-                            writeState(endAddress, FREE_STATE);
+            }
+            case CHAIN_TRANSACTION: {
 
-                        }
+                if(transactionBytes[9] == CHAIN_TRANSACTION) { //if the end one isn't set we didn't complete transaction start
 
-                        clearTransaction(segmentAddress);
+                    final long head = bytesToLong(transactionBytes, 1);
 
+                    //the chain was being written or freed, whatever of it is left goes. a free head means the
+                    //free got as far as the disk, the links go before it
+                    if(readSegmentState(head) != FREE_STATE) {
+                        freeChain(head);
                     }
 
                 }
+
+                return true;
+
             }
 
         }
-        catch (ReadFailure e) {
-            throw new IllegalStateException("couldn't validate data cache file is corrupt maybe", e);
-        } catch (WriteFailure e) {
-            throw new IllegalStateException("couldn't revert bad state data cache file is corrupt maybe", e);
-        }
+
+        return false;
 
     }
 
@@ -178,15 +310,31 @@ public class SegmentedFile {
      * @throws WriteFailure
      */
     public void write(long address, byte[] segment) throws ReadFailure, WriteFailure {
+        write(address, segment, segment.length);
+    }
 
-        final RandomAccessFile writeRandom = localAccess.getWriter();
+    /**
+     * Writes the first length bytes of segment to the segment at the address.
+     *
+     * @param address - beginning address of segment
+     * @param segment - data to be filled into segment
+     * @param length - bytes of segment that are filled
+     * @throws ReadFailure
+     * @throws WriteFailure
+     */
+    public void write(long address, byte[] segment, int length) throws ReadFailure, WriteFailure {
 
         try {
 
-            writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT); //seek to the state byte of the new segment that doesn't exist yet
-            writeRandom.write(new byte[]{TRANSITIONAL_STATE}); //note the caller needs to finalize the state
-            writeRandom.write(intToByteArray(segment.length));//write the fill size
-            writeRandom.write(segment); //write the payload
+            freeSpace.used(address); //segment is about to be transitional, no longer free
+
+            final byte [] stateAndFill = new byte[1 + SEGMENT_LENGTH_BYTES_COUNT];
+
+            stateAndFill[0] = TRANSITIONAL_STATE; //note the caller needs to finalize the state
+            System.arraycopy(intToByteArray(length), 0, stateAndFill, 1, SEGMENT_LENGTH_BYTES_COUNT); //the fill size
+
+            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT, stateAndFill); //the state byte of the segment
+            fileAccess.write(address + SEGMENT_META_SIZE, segment, 0, length); //the payload
 
             reference.setSegmentType(address, TRANSITIONAL_STATE);
 
@@ -194,9 +342,6 @@ public class SegmentedFile {
         catch (IOException e) {
             throw new WriteFailure("failed to write " + e.getMessage());
         }
-        finally {
-            localAccess.giveWriter(writeRandom);
-        }
     }
 
 
@@ -211,47 +356,98 @@ public class SegmentedFile {
      */
     public void write(long address, InputStream segment) throws ReadFailure, WriteFailure {
 
-        final RandomAccessFile writeRandom = localAccess.getWriter();
-
         try {
 
-            writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT); //seek to the state byte of the new segment that doesn't exist yet
-            writeRandom.write(new byte[]{TRANSITIONAL_STATE}); //note the caller needs to finalize the state
-            writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT + 1 + SEGMENT_LENGTH_BYTES_COUNT);
+            freeSpace.used(address); //segment is about to be transitional, no longer free
 
-            final byte [] buffer = new byte[WRITE_BUFFER_SIZE];
-            int totalRead = 0;
+            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT, new byte[]{TRANSITIONAL_STATE}); //note the caller needs to finalize the state
 
-            while(true) {
+            final int totalRead = copy(segment, address + SEGMENT_META_SIZE);
 
-                final int read = segment.read(buffer);
+            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT + 1, intToByteArray(totalRead));//write the fill size
 
-                if(read > 0) {
-                    totalRead += read;
-                    writeRandom.write(buffer, 0, read);
-                }
-                else {
-                    break;
-                }
+            reference.setSegmentType(address, TRANSITIONAL_STATE);
 
-            }
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Writes length bytes from the source to the segment at the address, see
+     * {@link FileAccess#transferFrom(ReadableByteChannel, long, long)}.
+     *
+     * @param address - beginning address of segment, with room for length
+     * @param segment - data to be filled into segment
+     * @param length - bytes taken from segment
+     * @throws ReadFailure
+     * @throws WriteFailure - also if the source ends before length, the segment is left transitional
+     */
+    public void write(long address, ReadableByteChannel segment, int length) throws ReadFailure, WriteFailure {
+
+        final long transferred;
+
+        try {
+
+            freeSpace.used(address); //segment is about to be transitional, no longer free
 
-            writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT + 1);
+            final byte [] stateAndFill = new byte[1 + SEGMENT_LENGTH_BYTES_COUNT];
 
-            writeRandom.write(intToByteArray(totalRead));//write the fill size
+            stateAndFill[0] = TRANSITIONAL_STATE; //note the caller needs to finalize the state
+            System.arraycopy(intToByteArray(length), 0, stateAndFill, 1, SEGMENT_LENGTH_BYTES_COUNT); //the fill size
+
+            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT, stateAndFill);
 
             reference.setSegmentType(address, TRANSITIONAL_STATE);
 
+            final long payload = address + SEGMENT_META_SIZE;
+
+            //a channel transfer doesn't write past the end of the file, a segment just reserved at the end can be
+            if(length > 0 && fileAccess.length() < payload + length) {
+                fileAccess.write(payload + length - 1, new byte[1]);
+            }
 
+            transferred = fileAccess.transferFrom(segment, payload, length);
 
         }
         catch (IOException e) {
-            throw new WriteFailure("failed to write " + e.getMessage());
+            throw new WriteFailure("failed to write " + e.getMessage(), e);
+        }
+
+        if(transferred < length) {
+            throw new WriteFailure("source ended after " + transferred + " of " + length + " bytes");
         }
-        finally {
-            localAccess.giveWriter(writeRandom);
+
+    }
+
+    /**
+     * copies the stream into the file starting at position
+     *
+     * @return bytes copied
+     */
+    private int copy(InputStream segment, long position) throws IOException {
+
+        final byte [] buffer = new byte[WRITE_BUFFER_SIZE];
+        int totalRead = 0;
+
+        while(true) {
+
+            final int read = segment.read(buffer);
+
+            if(read > 0) {
+                fileAccess.write(position + totalRead, buffer, 0, read);
+                totalRead += read;
+            }
+            else {
+                break;
+            }
+
         }
 
+        return totalRead;
+
     }
 
     /**
@@ -264,35 +460,194 @@ public class SegmentedFile {
      */
     public void writeState(long address, byte state) throws WriteFailure, ReadFailure {
 
-        final RandomAccessFile writeRandom = localAccess.getWriter();
+        if(state != FREE_STATE) {
+            try {
+                //the index has to forget the segment before it stops being free on disk
+                freeSpace.used(address);
+            } catch (IOException e) {
+                throw new WriteFailure("failed to update free space index " + e.getMessage(), e);
+            }
+        }
+
+        writeStateByte(address, state);
+
+        if(state == FREE_STATE) {
+            try {
+                freeSpace.free(address, getSegmentLength(address));
+            } catch (IOException e) {
+                throw new WriteFailure("failed to update free space index " + e.getMessage(), e);
+            }
+        }
+
+    }
+
+    private void writeStateByte(long address, byte state) throws WriteFailure, ReadFailure {
 
         try {
+            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT, new byte[]{state});
+            reference.setSegmentType(address, state);
+        }
+        catch (IOException e) {
+            throw new WriteFailure("unknown write error " + e.getMessage(), e);
+        }
 
-            writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT);
+    }
 
-            try {
-                writeRandom.write(new byte[]{state});
-                reference.setSegmentType(address, state);
+    /**
+     * Writes one segment of a chain, the next link's address first then the data. The segment stays transitional,
+     * bind it with {@link #LINKED_STATE} once it's written. The head is bound as a link too until the whole value is
+     * down, then it gets the value length ({@link #writeChainLength(long, long)}) and {@link #CHAINED_STATE}.
+     *
+     * Links are claimed before the one pointing at them is written, so a chain can always be walked from the head
+     * as far as it got. Freeing it is {@link #freeChain(long)}.
+     *
+     * @param address - a transitional segment with room for the link header and length bytes
+     * @param head - true for the first segment, it has room for the value length as well
+     * @param next - the next link, -1 if this is the last one
+     * @param data - data to be filled into segment
+     * @param length - bytes of data that are filled
+     * @throws ReadFailure
+     * @throws WriteFailure
+     */
+    public void writeLink(long address, boolean head, long next, byte [] data, int length) throws ReadFailure, WriteFailure {
+
+        final int linkHeaderSize = head ? CHAIN_HEADER_SIZE : LINK_HEADER_SIZE;
+
+        try {
+
+            freeSpace.used(address); //segment is about to be transitional, no longer free
+
+            //state, fill and the link header in one write, the value length in the head is filled in at the end
+            final byte [] header = new byte[1 + SEGMENT_LENGTH_BYTES_COUNT + linkHeaderSize];
+
+            header[0] = TRANSITIONAL_STATE;
+            System.arraycopy(intToByteArray(linkHeaderSize + length), 0, header, 1, SEGMENT_LENGTH_BYTES_COUNT);
+            System.arraycopy(longToByteArray(next), 0, header, 1 + SEGMENT_LENGTH_BYTES_COUNT, LINK_HEADER_SIZE);
+
+            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT, header);
+            fileAccess.write(address + SEGMENT_META_SIZE + linkHeaderSize, data, 0, length);
+
+            reference.setSegmentType(address, TRANSITIONAL_STATE);
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Sets the length of the whole value in the head of a chain.
+     */
+    public void writeChainLength(long head, long length) throws WriteFailure {
+
+        try {
+            fileAccess.write(head + SEGMENT_META_SIZE + LINK_HEADER_SIZE, longToByteArray(length));
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Frees a chain, or as much of one as was written. The caller has to hold a {@link #CHAIN_TRANSACTION} for the
+     * head, see {@link SegmentedTransactions#startChainTransaction(SegmentedFile, long)}.
+     *
+     * The links are only marked free on disk until the head is, they don't go into the free space index before
+     * that so nothing can take one and write over the chain while a crash could still have it walked again.
+     *
+     * @param head - first segment of the chain
+     * @throws ReadFailure
+     * @throws WriteFailure
+     */
+    public void freeChain(long head) throws ReadFailure, WriteFailure {
+
+        try {
+
+            final Map<Long, Integer> links = getLinks(head);
+
+            for(final long link : links.keySet()) {
+                writeStateByte(link, FREE_STATE);
             }
-            catch (IOException e) {
-                throw new WriteFailure("unknown write error " + e.getMessage(), e);
+
+            //the links are free on disk before the head stops pointing at them
+            fileAccess.syncTransaction();
+
+            writeState(head, FREE_STATE);
+
+            for(final Map.Entry<Long, Integer> link : links.entrySet()) {
+                freeSpace.free(link.getKey(), link.getValue());
             }
 
-        } catch (FileNotFoundException e) {
-            throw new ReadFailure("file not found: " + root, e);
-        } catch (IOException e) {
-            throw new ReadFailure("unknown read error " + e.getMessage(), e);
         }
-        finally {
-            localAccess.giveWriter(writeRandom);
+        catch (IOException e) {
+            throw new WriteFailure("failed to free chain " + head + " " + e.getMessage(), e);
         }
+
     }
 
-    public synchronized long findEnd() throws ReadFailure { //this doesn't need to be synchronized since it only happens at construction but I'm adding a lock in case it moves later.
+    /**
+     * walks a chain from the head
+     *
+     * @return address to size of every segment in the chain after the head, in order
+     */
+    private Map<Long, Integer> getLinks(long head) throws IOException {
+
+        final Map<Long, Integer> links = new LinkedHashMap<>();
+
+        final long length = fileAccess.length();
+
+        final byte [] header = new byte[SEGMENT_META_SIZE];
+        final byte [] next = new byte[LINK_HEADER_SIZE];
+
+        long address = head;
+
+        while(true) {
+
+            fileAccess.readFully(address, header);
+
+            final byte state = header[SEGMENT_LENGTH_BYTES_COUNT];
+            final int segmentLength = bytesToInt(header, 0);
+
+            reference.setSegmentType(address, state);
+            reference.setSegmentSize(address, segmentLength);
+
+            if(address != head) {
+
+                if(state != LINKED_STATE && state != TRANSITIONAL_STATE && state != FREE_STATE) {
+                    break; //not part of this chain, nothing should ever point here
+                }
+
+                links.put(address, segmentLength);
+
+            }
+
+            //a transitional segment was claimed but its next may not be down yet, it's as far as the chain got.
+            //a free one was freed on disk by a free that didn't get to the head
+            if(state != CHAINED_STATE && state != LINKED_STATE && state != FREE_STATE) {
+                break;
+            }
 
-        long address = lastKnownAddress; //shortcut to the last address if we already know it
+            fileAccess.readFully(address + SEGMENT_META_SIZE, next);
 
-        final RandomAccessFile readRandom = localAccess.getReader();
+            final long nextAddress = bytesToLong(next);
+
+            if(nextAddress < START_OFFSET || nextAddress + SEGMENT_META_SIZE > length || nextAddress == head || links.containsKey(nextAddress)) {
+                break;
+            }
+
+            address = nextAddress;
+
+        }
+
+        return links;
+
+    }
+
+    public synchronized long findEnd() throws ReadFailure { //this doesn't need to be synchronized since it only happens at construction but I'm adding a lock in case it moves later.
+
+        long address = freeSpace.getTail(); //shortcut to the last address if we already know it
 
         try {
 
@@ -300,14 +655,12 @@ public class SegmentedFile {
 
                 //this only ever really runs through once the first time, then we know the last address
                 //it's a forward linked list so there's no way to go from the back to the front reliably
-                readRandom.seek(address);
-
                 final byte[] segmentSize = new byte[SEGMENT_LENGTH_BYTES_COUNT + 1];
 
                 try {
 
                     //read in the segment size, this blows an EOF if we are at the end
-                    readRandom.readFully(segmentSize, 0, segmentSize.length);
+                    fileAccess.readFully(address, segmentSize);
 
                     //didn't blow up so lets process the info for this segment and cache it.
                     final int segmentLength = bytesToInt(new byte [] {segmentSize[0],  segmentSize[1], segmentSize[2], segmentSize[3]});
@@ -331,542 +684,1167 @@ public class SegmentedFile {
             logger.error("failed to read " + e.getMessage(), e);
             throw new ReadFailure("failed to read " + e.getMessage(), e);
         }
-        finally {
-            localAccess.giveReader(readRandom);
-        }
     }
 
     /**
      * This method finds the last segment address which isn't allocated yet,
      * assigns it a size and transitional state and puts the data provided into it.
      *
+     * The length isn't known until the stream runs out so this holds the end of the file the whole time,
+     * use {@link #writeToEnd(byte[], long)} when the data is already in memory.
+     *
      * @param segment
      * @return
      * @throws WriteFailure
      * @throws ReadFailure
      */
-    public synchronized long writeToEnd(final InputStream segment) throws WriteFailure, ReadFailure {
+    public long writeToEnd(final InputStream segment) throws WriteFailure, ReadFailure {
 
-        long address = lastKnownAddress; //shortcut to the last address if we already know it
+        synchronized (endLock) {
 
-        final RandomAccessFile readRandom = localAccess.getReader();
-        final RandomAccessFile writeRandom = localAccess.getWriter();
+            long address = freeSpace.getTail(); //shortcut to the last address if we already know it
 
-        try {
-            while (true) {
+            try {
+                while (true) {
 
-                //this only ever really runs through once the first time, then we know the last address
-                //it's a forward linked list though so there's no way to go from the back to the front
-                readRandom.seek(address);
+                    //this only ever really runs through once the first time, then we know the last address
+                    //it's a forward linked list though so there's no way to go from the back to the front
+                    final byte[] segmentSize = new byte[SEGMENT_LENGTH_BYTES_COUNT + 1];
 
-                final byte[] segmentSize = new byte[SEGMENT_LENGTH_BYTES_COUNT + 1];
+                    try {
 
-                try {
+                        //read in the segment size, this blows an EOF if we are at the end
+                        fileAccess.readFully(address, segmentSize);
 
-                    //read in the segment size, this blows an EOF if we are at the end
-                    readRandom.readFully(segmentSize, 0, segmentSize.length);
+                        //didn't blow up so lets process the info for this segment and cache it.
+                        final int segmentLength = bytesToInt(new byte [] {segmentSize[0],  segmentSize[1], segmentSize[2], segmentSize[3]});
 
-                    //didn't blow up so lets process the info for this segment and cache it.
-                    final int segmentLength = bytesToInt(new byte [] {segmentSize[0],  segmentSize[1], segmentSize[2], segmentSize[3]});
+                        final byte type = segmentSize[4]; //reading the state just to cache it
 
-                    final byte type = segmentSize[4]; //reading the state just to cache it
+                        reference.setSegmentType(address, type);
+                        reference.setSegmentSize(address, segmentLength);
 
-                    reference.setSegmentType(address, type);
-                    reference.setSegmentSize(address, segmentLength);
+                        address += segmentLength + SEGMENT_LENGTH_BYTES_COUNT + 1 + SEGMENT_LENGTH_BYTES_COUNT ;
 
-                    address += segmentLength + SEGMENT_LENGTH_BYTES_COUNT + 1 + SEGMENT_LENGTH_BYTES_COUNT ;
+                    }
+                    catch (EOFException e) {
 
-                }
-                catch (EOFException e) {
+                        //once we reach the end of the file we add a segment to it.
+                        try {
+                            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT, new byte[]{TRANSITIONAL_STATE}); //write the state first
 
-                    //once we reach the end of the file we add a segment to it.
-                    try {
-                        writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT); //seek to the state byte of the new segment that doesn't exist yet
-                        writeRandom.write(new byte[]{TRANSITIONAL_STATE}); //write the state first
-                        writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT + 1 + /*fill length*/SEGMENT_LENGTH_BYTES_COUNT);
+                            final int totalRead = copy(segment, address + SEGMENT_META_SIZE);
 
-                        final byte [] buffer = new byte[WRITE_BUFFER_SIZE];
-                        int totalRead = 0;
+                            fileAccess.write(address, intToByteArray(totalRead));
+                            fileAccess.write(address + SEGMENT_LENGTH_BYTES_COUNT + 1, intToByteArray(totalRead)); //data fill is same size as the segment since its a new segment
 
-                        while(true) {
+                            reference.setSegmentType(address, TRANSITIONAL_STATE);
+                            reference.setSegmentSize(address, totalRead);
 
-                            final int read = segment.read(buffer);
+                            freeSpace.setEnd(address, address + SEGMENT_META_SIZE + totalRead);
 
-                            if(read > 0) {
-                                totalRead += read;
+                            return address; //return it in transitional state
+                        }
+                        catch (IOException we) { //seperating the try/catch to send a write failure here
+                            throw new WriteFailure("failed to write " + we.getMessage(), we);
+                        }
+
+                    }
+
+                }
+            } catch (FileNotFoundException e) {
+                throw new IllegalStateException("failed to read because some deleted the file " + e.getMessage());
+            } catch (IOException e) {
+                logger.error("failed to read " + e.getMessage(), e);
+                throw new ReadFailure("failed to read " + e.getMessage(), e);
+            }
+        }
+
+    }
+
+    /**
+     * Adds a segment to the end of the file and puts the data provided into it, returning it in transitional state.
+     *
+     * Only the header is written holding the end of the file (the bump of the end address), the payload is copied
+     * after the end is released so appends from different threads write in parallel. Headers still go down in
+     * address order so the segments stay a walkable list.
+     *
+     * The address is recorded in the add transaction before the end is released, if we crash before the
+     * payload is done {@link #validateData()} frees the reserved segment instead of adding another one.
+     *
+     * @param segment - data to be filled into segment
+     * @param transactionAddress - the add transaction covering this, from {@link SegmentedTransactions#startAddTransaction(SegmentedFile, int)}
+     * @return
+     * @throws WriteFailure
+     * @throws ReadFailure
+     */
+    public long writeToEnd(final byte [] segment, final long transactionAddress) throws WriteFailure, ReadFailure {
+        return writeToEnd(segment, segment.length, transactionAddress);
+    }
+
+    /**
+     * {@link #writeToEnd(byte[], long)} with the first length bytes of segment.
+     */
+    public long writeToEnd(final byte [] segment, final int length, final long transactionAddress) throws WriteFailure, ReadFailure {
+
+        final long address = reserveEnd(length, transactionAddress);
+
+        try {
+            fileAccess.write(address + SEGMENT_META_SIZE, segment, 0, length);
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write " + e.getMessage(), e);
+        }
+
+        return address; //return it in transitional state
+
+    }
+
+    /**
+     * Adds a transitional segment of length to the end of the file without writing its payload, the header is down
+     * and the address recorded in the add transaction when this returns. The file isn't any longer until something
+     * is written into the payload.
+     *
+     * @param length - payload size of the segment
+     * @param transactionAddress - the add transaction covering this, from {@link SegmentedTransactions#startAddTransaction(SegmentedFile, int)}
+     * @return address of the segment
+     * @throws WriteFailure
+     * @throws ReadFailure
+     */
+    public long reserveEnd(final int length, final long transactionAddress) throws WriteFailure, ReadFailure {
+
+        try {
+
+            final long address;
+
+            synchronized (endLock) {
+
+                address = freeSpace.getEnd();
+
+                final byte [] header = new byte[SEGMENT_META_SIZE];
+
+                System.arraycopy(intToByteArray(length), 0, header, 0, SEGMENT_LENGTH_BYTES_COUNT);
+                header[SEGMENT_LENGTH_BYTES_COUNT] = TRANSITIONAL_STATE;
+                System.arraycopy(intToByteArray(length), 0, header, SEGMENT_LENGTH_BYTES_COUNT + 1, SEGMENT_LENGTH_BYTES_COUNT); //fill is the segment size since its a new segment
+
+                fileAccess.write(address, header);
+
+                reference.setSegmentType(address, TRANSITIONAL_STATE);
+                reference.setSegmentSize(address, length);
+
+                recordAddAddress(transactionAddress, address);
+
+                freeSpace.setEnd(address, address + SEGMENT_META_SIZE + length);
+
+            }
+
+            //the reservation has to be down before the payload goes in
+            fileAccess.syncTransaction();
+
+            return address;
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * writes the address an add transaction reserved after its length [ADD_END][length 4][ADD_END][address 8][ADD_END]
+     */
+    private void recordAddAddress(long transactionAddress, long address) throws IOException {
+
+        final byte [] record = new byte[ADD_END_ADDRESS_SIZE];
+
+        System.arraycopy(longToByteArray(address), 0, record, 0, 8);
+        record[8] = ADD_END_TRANSACTION;
 
-                                writeRandom.write(buffer, 0, read);
-                            }
-                            else {
-                                break;
-                            }
+        transactions.write(transactionAddress, ADD_END_ADDRESS_OFFSET, record);
+
+    }
+
+    /**
+     * Finds a free segment to use from the free space index.
+     *
+     * this should be the ONLY place that the state goes from FREE to TRANSITIONAL (besides validate data).
+     * It isn't synchronized, the index hands each free segment to one caller only ({@link FreeSpaceIndex#takeBestFit(int)})
+     * so puts allocating at the same time only wait on each other for that lookup, not for the disk reads and writes.
+     *
+     * The smallest free segment that fits is used, if it's more than twice what's needed it gets split
+     * in half and the other half goes back in the index. If no single segment fits but a run of
+     * contiguous free segments does the run is handed back for merging.
+     *
+     * @param lengthRequired - size in bytes we need the segment to be
+     * @return
+     * @throws ReadFailure
+     * @throws OutOfSpaceException - thrown if nothing free is big enough
+     * @throws SpaceFragementedException - thrown if we find a framented group of segments that can be used by merging them
+     */
+    public long getFreeSegment(final int lengthRequired) throws ReadFailure, OutOfSpaceException, SpaceFragementedException, WriteFailure {
+
+        //this is the only method we should be writting transitional except for validate data.
+
+        try {
+
+            while(true) {
+
+                final Map.Entry<Long, Integer> bestFit = freeSpace.takeBestFit(lengthRequired);
+
+                if(bestFit != null) {
+
+                    if(!claim(bestFit.getKey(), bestFit.getValue(), lengthRequired)) {
+                        continue; //index was stale, it's been dropped so try the next one
+                    }
 
+                    return bestFit.getKey();
+
+                }
+
+                final TreeMap<Long, Integer> freeSegments = freeSpace.takeRun(lengthRequired);
+
+                if(freeSegments == null) {
+                    //throw out of space so we can add to the end in another call
+                    throw new OutOfSpaceException("out of free or fractured segments");
+                }
+
+                int freeSegmentsTotalSize = 0;
+                boolean stale = false;
+
+                for(final Map.Entry<Long, Integer> free : freeSegments.entrySet()) {
+
+                    if(!isFreeOnDisk(free.getKey(), free.getValue())) {
+                        stale = true;
+                    }
+
+                    freeSegmentsTotalSize += free.getValue();
+
+                }
+
+                if(stale) {
+                    //put back the good ones and try again
+                    for(final long address : freeSegments.keySet()) {
+                        if(isFreeOnDisk(address, reference.getSegmentSize(address))) {
+                            freeSpace.free(address, reference.getSegmentSize(address));
                         }
+                    }
+                    continue;
+                }
 
-                        writeRandom.seek(address);
-                        writeRandom.write(intToByteArray(totalRead));
-                        writeRandom.seek(address + SEGMENT_LENGTH_BYTES_COUNT + 1);
-                        writeRandom.write(intToByteArray(totalRead)); //data fill is same size as the segment since its a new segment
+                final long first = freeSegments.firstKey();
+                final int accumulatedMetaSize = (freeSegments.size() - 1 /* first item we keep meta data*/) * SEGMENT_META_SIZE;
 
-                        reference.setSegmentType(address, TRANSITIONAL_STATE);
-                        reference.setSegmentSize(address, totalRead);
+                for(final long address : freeSegments.tailMap(first, false).keySet()) {
 
-                        this.lastKnownAddress = address;
+                    reference.remove(address); //these stop being segments once merged
 
-                        return address; //return it in transitional state
+                    synchronized (endLock) { //an append can move the tail while we look at it
+                        if(address == freeSpace.getTail()) {
+                            //the last segment got merged into the first, that's the last segment now
+                            freeSpace.setEnd(first, freeSpace.getEnd());
+                        }
                     }
-                    catch (IOException we) { //seperating the try/catch to send a write failure here
-                        throw new WriteFailure("failed to write " + e.getMessage());
+                }
+
+                writeStateByte(first, TRANSITIONAL_STATE);
+                //throw exception with the info on the fragmented segments for merge.
+                throw new SpaceFragementedException(first, freeSegmentsTotalSize + accumulatedMetaSize);
+
+            }
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to update free space index " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Makes a segment taken out of the free space index transitional, splitting it if it's much bigger than needed.
+     *
+     * @return false if the segment wasn't free on disk, the index was stale
+     */
+    private boolean claim(long address, int segmentLength, int lengthRequired) throws WriteFailure, ReadFailure, IOException {
+
+        if(!isFreeOnDisk(address, segmentLength)) {
+            return false;
+        }
+
+        writeStateByte(address, TRANSITIONAL_STATE);
+
+        if(segmentLength > lengthRequired * 2) {//TODO make split size configurable.
+            split(address, segmentLength);
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Copies a bound segment into a free segment nearer the start of the file so the end of the file can be
+     * truncated (see {@link #truncateFreeTail()}). The copy is written under a transaction and bound, the segment
+     * it was copied from is left as it was.
+     *
+     * The caller has to hold whatever stops the segment from being written or freed while it's copied, and point
+     * everything at the new address before freeing the old one. The head of a chain is copied into one bound
+     * segment, the chain is freed with {@link #freeChain(long)}.
+     *
+     * @param address - a bound segment
+     * @return address of the copy, -1 if nothing free below the segment fits it
+     */
+    public long relocate(long address) throws ReadFailure, WriteFailure {
+
+        try(final InputStream segment = readSegment(address)) {
+
+            if(segment == null) {
+                return -1;
+            }
+
+            //a chain is copied into one segment if it fits in one
+            if(segment instanceof ChainInputStream && ((ChainInputStream) segment).getRemaining() > Integer.MAX_VALUE) {
+                return -1;
+            }
+
+            final long target = claimBefore(address, segment.available());
+
+            if(target < 0) {
+                return -1;
+            }
+
+            final long transAddress = SegmentedTransactions.startWritingTransaction(this, target);
+
+            write(target, segment);
+            writeState(target, BOUND_STATE);
+
+            SegmentedTransactions.endTransactions(this, transAddress);
+
+            return target;
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("failed to read segment " + address + " " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * claims the first free segment before the address that fits
+     *
+     * @return the claimed segment, -1 if nothing fits
+     */
+    private long claimBefore(long address, int length) throws ReadFailure, WriteFailure {
+
+        try {
+
+            while(true) {
+
+                final Map.Entry<Long, Integer> free = freeSpace.takeFirstFit(length, address, MAX_RELOCATION_SCAN);
+
+                if(free == null) {
+                    return -1;
+                }
+
+                if(claim(free.getKey(), free.getValue(), length)) {
+                    return free.getKey();
+                }
+
+            }
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to update free space index " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Cuts the free segments at the end of the file off.
+     *
+     * @return bytes the file shrank by
+     */
+    public long truncateFreeTail() throws ReadFailure, WriteFailure {
+
+        try {
+
+            synchronized (endLock) {
+
+                final long end = freeSpace.getEnd();
+
+                long newEnd = end;
+
+                while(true) {
+
+                    final Map.Entry<Long, Integer> last = freeSpace.takeLast(newEnd);
+
+                    if(last == null || !isFreeOnDisk(last.getKey(), last.getValue())) {
+                        break; //a stale entry is dropped from the index either way
                     }
 
+                    reference.remove(last.getKey());
+                    newEnd = last.getKey();
+
                 }
 
+                if(newEnd == end) {
+                    return 0;
+                }
+
+                //the tail is only where appends start walking, any segment before the end will do and a free
+                //one is the nearest we know of without walking
+                final long lowerFree = freeSpace.lowerFree(newEnd);
+                final long tail = lowerFree >= 0 ? lowerFree : START_OFFSET;
+
+                //the new end goes down first, if we crash before the file is cut it doesn't match and gets rebuilt
+                freeSpace.setEnd(tail, newEnd);
+
+                setFileLength(newEnd);
+
+                return end - newEnd;
+
             }
-        } catch (FileNotFoundException e) {
-            throw new IllegalStateException("failed to read because some deleted the file " + e.getMessage());
-        } catch (IOException e) {
-            logger.error("failed to read " + e.getMessage(), e);
-            throw new ReadFailure("failed to read " + e.getMessage(), e);
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to truncate " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Splits a transitional segment in half, the back half is written as a free segment and goes into the index.
+     *
+     * The back half header is written inside the payload of the segment before the segment is shrunk, so if
+     * we crash part way the segment is still one well formed segment.
+     */
+    private void split(long address, int segmentLength) throws WriteFailure, ReadFailure, IOException {
+
+        final int split1 = segmentLength / 2;
+        final int split2 = segmentLength - split1 - SEGMENT_META_SIZE;
+
+        if(split2 <= 0) {
+            return; //nothing worth splitting off
+        }
+
+        final long splitAddress = address + SEGMENT_META_SIZE + split1;
+
+        final byte [] header = new byte[SEGMENT_META_SIZE];
+
+        System.arraycopy(intToByteArray(split2), 0, header, 0, SEGMENT_LENGTH_BYTES_COUNT);
+        header[SEGMENT_LENGTH_BYTES_COUNT] = FREE_STATE;
+
+        fileAccess.write(splitAddress, header);
+
+        reference.setSegmentType(splitAddress, FREE_STATE);
+        reference.setSegmentSize(splitAddress, split2);
+
+        setSegmentSize(address, split1);
+
+        freeSpace.free(splitAddress, split2);
+
+    }
+
+    /**
+     * checks the segment header agrees with the index before we hand a segment out
+     */
+    private boolean isFreeOnDisk(long address, int segmentLength) throws ReadFailure {
+
+        if(segmentLength < 0 || address < START_OFFSET || address + SEGMENT_META_SIZE > freeSpace.getEnd()) {
+            return false;
+        }
+
+        return readSegmentState(address) == FREE_STATE && segmentLength == reference.getSegmentSize(address);
+
+    }
+
+    /**
+     * Assigns the segments size
+     *
+     * @param address
+     * @param segmentSize
+     * @throws WriteFailure
+     * @throws ReadFailure
+     */
+    public void setSegmentSize(long address, int segmentSize) throws WriteFailure, ReadFailure {
+
+        try {
+
+            fileAccess.write(address, intToByteArray(segmentSize));
+
+            reference.setSegmentSize(address, segmentSize);
+
+            if(freeSpace.isFree(address)) { //keep the index size in line with the header
+                freeSpace.free(address, segmentSize);
+            }
+
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Reads the data in bytes from the segment
+     *
+     * @param address
+     * @return
+     * @throws ReadFailure
+     */
+    public InputStream readSegment(long address) throws ReadFailure {
+
+        try {
+
+            if(mapped != null) {
+
+                final ByteBuffer view = readMapped(address);
+
+                if(view == NOT_BOUND) {
+                    return null;
+                }
+
+                if(view != null) {
+                    return new BufferInputStream(view);
+                }
+
+            }
+
+            //read in the size, fill size and type
+            final byte [] toRead =  new byte[SEGMENT_LENGTH_BYTES_COUNT + 1 +  SEGMENT_LENGTH_BYTES_COUNT];
+
+            fileAccess.readFully(address, toRead);
+
+            final byte segmentState = toRead[4];
+
+            final int segmentLength = bytesToInt(new byte[] {toRead[0], toRead[1], toRead[2], toRead[3]});//segmentSize);
+            final int segmentFillLength = bytesToInt(new byte[] {toRead[5], toRead[6], toRead[7], toRead[8]});//bytesToInt(segmentFillSize);
+
+            reference.setSegmentType(address, segmentState);
+            reference.setSegmentSize(address, segmentLength);
+
+            if(segmentState == CHAINED_STATE) {
+                return new ChainInputStream(address, segmentFillLength);
+            }
+
+            //check to make sure the segment is bound otherwise there's nothing to read
+            if(segmentState == BOUND_STATE) {
+
+                //the stream keeps its own position, other reads can go on while it's open
+                final long payload = address + SEGMENT_META_SIZE;
+
+                return new InputStream() {
+
+                    int readFromAvailable = 0;
+
+                    @Override
+                    public int available() {
+                        return segmentFillLength - readFromAvailable;
+                    }
+
+                    @Override
+                    public int read() throws IOException {
+
+                        final byte [] single = new byte[1];
+
+                        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+
+                        final int available = available();
+
+                        if (available <= 0) {
+                            return -1;
+                        }
+
+                        if (available < len) {
+                            len = available;
+                        }
+
+                        final int readThisTime = fileAccess.read(payload + readFromAvailable, b, off, len);
+
+                        if(readThisTime < 0) {
+                            throw new EOFException("segment " + address + " ends past the end of the file");
+                        }
+
+                        readFromAvailable += readThisTime;
+
+                        return readThisTime;
+
+                    }
+                };
+
+            }
+            else {
+                return null;
+            }
+
+        }
+        catch (FileNotFoundException e) {
+            throw new ReadFailure("file not found: " + root, e);
+        }
+        catch (IOException e) {
+            throw new ReadFailure("unknown read error " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Sends part of the data in a bound segment or a chain to target with {@link FileAccess#transferTo}, the bytes
+     * go from the file to the channel without being read into the heap. The caller has to hold whatever stops the
+     * segment from being rewritten or freed until this returns.
+     *
+     * @param address
+     * @param offset - into the value, past the end sends nothing
+     * @param count - most bytes to send, whatever is left of the value if it's shorter
+     * @param target
+     * @return bytes sent, -1 if the segment isn't bound or the head of a chain
+     * @throws ReadFailure - also if the target failed, some of the range may have been sent
+     */
+    public long transferSegment(long address, long offset, long count, WritableByteChannel target) throws ReadFailure {
+
+        try {
+
+            final byte [] header = new byte[SEGMENT_META_SIZE + CHAIN_HEADER_SIZE];
+
+            fileAccess.readFully(address, header, 0, SEGMENT_META_SIZE);
+
+            final byte segmentState = header[SEGMENT_LENGTH_BYTES_COUNT];
+            final int segmentFillLength = bytesToInt(header, SEGMENT_LENGTH_BYTES_COUNT + 1);
+
+            reference.setSegmentType(address, segmentState);
+            reference.setSegmentSize(address, bytesToInt(header, 0));
+
+            if(segmentState == BOUND_STATE) {
+
+                final long start = Math.min(offset, segmentFillLength);
+                final long length = Math.min(count, segmentFillLength - start);
+
+                return transferFully(address + SEGMENT_META_SIZE + start, length, target);
+
+            }
+
+            if(segmentState != CHAINED_STATE) {
+                return -1;
+            }
+
+            fileAccess.readFully(address + SEGMENT_META_SIZE, header, SEGMENT_META_SIZE, CHAIN_HEADER_SIZE);
+
+            long next = bytesToLong(header, SEGMENT_META_SIZE);
+            final long total = bytesToLong(header, SEGMENT_META_SIZE + LINK_HEADER_SIZE);
+
+            long remaining = Math.min(count, total - Math.min(offset, total)); //to send
+            long skip = offset; //of the links before the range
+
+            long position = address + SEGMENT_META_SIZE + CHAIN_HEADER_SIZE;
+            long linkLength = segmentFillLength - CHAIN_HEADER_SIZE;
+
+            long sent = 0;
+
+            while(remaining > 0) {
+
+                if(skip < linkLength) {
+
+                    final long length = Math.min(remaining, linkLength - skip);
+
+                    sent += transferFully(position + skip, length, target);
+                    remaining -= length;
+                    skip = 0;
+
+                }
+                else {
+                    skip -= linkLength;
+                }
+
+                if(remaining <= 0) {
+                    break;
+                }
+
+                if(next < 0) {
+                    throw new EOFException("chain ended " + remaining + " bytes before the value did");
+                }
+
+                fileAccess.readFully(next, header, 0, SEGMENT_META_SIZE + LINK_HEADER_SIZE);
+
+                if(header[SEGMENT_LENGTH_BYTES_COUNT] != LINKED_STATE) {
+                    throw new IOException("segment " + next + " isn't a link of a chain");
+                }
+
+                linkLength = bytesToInt(header, SEGMENT_LENGTH_BYTES_COUNT + 1) - LINK_HEADER_SIZE;
+                position = next + SEGMENT_META_SIZE + LINK_HEADER_SIZE;
+                next = bytesToLong(header, SEGMENT_META_SIZE);
+
+            }
+
+            return sent;
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("failed to transfer segment " + address + " " + e.getMessage(), e);
         }
-        finally {
-            localAccess.giveReader(readRandom);
-            localAccess.giveWriter(writeRandom);
+
+    }
+
+    private long transferFully(long position, long length, WritableByteChannel target) throws IOException {
+
+        final long sent = fileAccess.transferTo(position, length, target);
+
+        if(sent < length) {
+            throw new EOFException("segment data at " + position + " ends past the end of the file");
         }
+
+        return sent;
+
     }
 
     /**
-     * Searches the segmented file for a free segment to use.
+     * Reads the data of a segment into a reusable buffer, nothing is allocated unless the buffer has to grow.
      *
-     * it is important this method has a synchonized lock and should be the ONLY
-     * place that the state goes from FREE to TRANSITIONAL (besides validate data)
+     * @param address
+     * @param buffer - filled with the segment data, length is set to the fill size
+     * @return false if the segment isn't bound, there's nothing to read
+     * @throws ReadFailure
+     */
+    boolean readSegment(long address, SegmentBuffer buffer) throws ReadFailure {
+
+        try {
+
+            if(mapped != null) {
+
+                final ByteBuffer view = readMapped(address);
+
+                if(view == NOT_BOUND) {
+                    buffer.setLength(0);
+                    return false;
+                }
+
+                if(view != null) {
+
+                    final int segmentFillLength = view.remaining();
+
+                    view.get(buffer.ensureCapacity(segmentFillLength), 0, segmentFillLength);
+                    buffer.setLength(segmentFillLength);
+
+                    return true;
+
+                }
+
+            }
+
+            //read in the size, fill size and type
+            final byte [] header = buffer.ensureCapacity(SEGMENT_META_SIZE);
+
+            fileAccess.readFully(address, header, 0, SEGMENT_META_SIZE);
+
+            if(header[SEGMENT_LENGTH_BYTES_COUNT] != BOUND_STATE) {
+                buffer.setLength(0);
+                return false;
+            }
+
+            final int segmentFillLength = bytesToInt(header, SEGMENT_LENGTH_BYTES_COUNT + 1);
+
+            fileAccess.readFully(address + SEGMENT_META_SIZE, buffer.ensureCapacity(segmentFillLength), 0, segmentFillLength);
+            buffer.setLength(segmentFillLength);
+
+            return true;
+
+        }
+        catch (FileNotFoundException e) {
+            throw new ReadFailure("file not found: " + root, e);
+        }
+        catch (IOException e) {
+            throw new ReadFailure("unknown read error " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Reads the data of a bound segment as a read only buffer. When segments are mapped (see
+     * {@link StorageOptions#withMappedSegments(boolean)}) it's a view of the mapping and nothing is copied or read
+     * with a system call. The view reads whatever is in the segment when it's read, so the caller has to hold
+     * whatever stops the segment from being rewritten or freed until it's done with it. Otherwise the data is read
+     * into a new array.
      *
+     * @param address
+     * @return the data from position 0 to the fill size, null if the segment isn't bound
+     * @throws ReadFailure
+     */
+    public ByteBuffer readSegmentBuffer(long address) throws ReadFailure {
+
+        try {
+
+            if(mapped != null) {
+
+                final ByteBuffer view = readMapped(address);
+
+                if(view == NOT_BOUND) {
+                    return null;
+                }
+
+                if(view != null) {
+                    return view;
+                }
+
+            }
+
+            final byte [] data = readUnmapped(address);
+
+            return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("unknown read error " + e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Reads the data of a bound segment into an array the size of the fill, copied once.
      *
-     * @param lengthRequired - size in bytes we need the segment to be
-     * @return
+     * @param address
+     * @return the data or null if the segment isn't bound
      * @throws ReadFailure
-     * @throws OutOfSpaceException - thrown if we reach the last item and still can't find anything
-     * @throws NeedsSplitException - thrown if we reach the last item and still can't find anything
-     * @throws SpaceFragementedException - thrown if we reach a framented group of segments that can be used by merging them
      */
-    public synchronized long getFreeSegment(final int lengthRequired) throws ReadFailure, OutOfSpaceException, NeedsSplitException, SpaceFragementedException, WriteFailure {
+    public byte [] readSegmentBytes(long address) throws ReadFailure {
 
-        //this is the only method we should be writting transitional except for validate data.
+        try {
 
-        //check cache for one we already know of
-        final Long foundEarly = reference.getSuitableSegment(lengthRequired);
+            if(mapped != null) {
 
-        //return it if we know about it
-        if(foundEarly != null) {
+                final ByteBuffer view = readMapped(address);
 
-            writeState(foundEarly, TRANSITIONAL_STATE);
-            return foundEarly;
-        }
+                if(view == NOT_BOUND) {
+                    return null;
+                }
 
-        //used to keep track of continuous free segments so we can merge them
-        final List<Long> freeSegments = new ArrayList<>();
-        int freeSegmentsTotalSize = 0;
+                if(view != null) {
 
-        try {
+                    final byte [] data = new byte[view.remaining()];
 
-            //start looking from beginning
-            long address = START_OFFSET;
+                    view.get(data);
 
-            while (true) { //keep looking till we find a free segment
+                    return data;
 
-                final int segmentLength;
-                Byte segmentState = reference.getSegmentType(address);
+                }
 
-                {
-                    //if we already know the segment state check it conditionally
-                    switch(segmentState) {
-                        case BOUND_STATE:
-                        case TRANSITIONAL_STATE: {
-                            //segment isnt free so it can't be used
-                            segmentLength = 0;
-                            break;
-                        }
-                        case FREE_STATE: {
+            }
+
+            return readUnmapped(address);
+
+        }
+        catch (IOException e) {
+            throw new ReadFailure("unknown read error " + e.getMessage(), e);
+        }
 
-                            //segment is free and cached so check the length
-                            final Integer lengthTemp = reference.getSegmentSize(address);
+    }
 
-                            if(lengthTemp != null) {
-                                segmentLength = lengthTemp;
-                                break;
-                            }
-                            //else fall through
+    //returned by readMapped for a segment that isn't bound, null means the mapping couldn't be used
+    private static final ByteBuffer NOT_BOUND = ByteBuffer.allocate(0);
 
+    /**
+     * @return a view of the payload of a bound segment, {@link #NOT_BOUND} if it isn't bound or null if the
+     * segment isn't in one mapped region and has to be read from the file
+     */
+    private ByteBuffer readMapped(long address) throws IOException {
 
-                        }
-                        case null :
-                        default: {
-
-                            final RandomAccessFile readRandom = localAccess.getReader();
-
-                            try {
-                                //go to the next address since we didn't have it cached
-                                readRandom.seek(address);
-
-                                //read in segment length and type
-                                final byte[] segmentSize = new byte[SEGMENT_LENGTH_BYTES_COUNT + 1];
-
-                                try {
-                                    //read in the size of this segment
-                                    readRandom.readFully(segmentSize, 0, segmentSize.length);
-                                } catch (EOFException e) {
-                                    //throw out of space so we can add to the end in another call
-                                    throw new OutOfSpaceException("out of free or fractured segments");
-                                }
-
-                                segmentState = segmentSize[4];//random.readByte();
-                                segmentLength = bytesToInt(new byte[]{segmentSize[0], segmentSize[1], segmentSize[2], segmentSize[3]});
-
-                                //cache the size and state
-                                reference.setSegmentSize(address, segmentLength);
-                                reference.setSegmentType(address, segmentState);
-                                break;
-                            }
-                            finally {
-                                localAccess.giveReader(readRandom);
-                            }
-                        }
+        final ByteBuffer header = mapped.slice(address, SEGMENT_META_SIZE);
 
-                    }
+        if(header == null) {
+            return null;
+        }
 
-                }
+        final int segmentLength = header.getInt(0);
+        final byte segmentState = header.get(SEGMENT_LENGTH_BYTES_COUNT);
 
-                //free segment lets see if it fits
-                if(segmentState == FREE_STATE) { //we have to synchronize this method on reads because we change this state
+        reference.setSegmentType(address, segmentState);
+        reference.setSegmentSize(address, segmentLength);
 
-                    if(segmentLength > lengthRequired * 2) {//TODO make split size configurable.
-                        writeState(address, TRANSITIONAL_STATE); //TODO if we crash right now this is gone, needs cleanup in validate
-                        throw new NeedsSplitException(address, segmentLength);
-                    }
-                    else if(segmentLength >= lengthRequired) {
-                        //if this segment is big enough and free return the address
-                        writeState(address, TRANSITIONAL_STATE);
-                        return address;
-                    }
-                    else {
+        if(segmentState == CHAINED_STATE) {
+            return null; //chains are read a link at a time from the file
+        }
+
+        if(segmentState != BOUND_STATE) {
+            return NOT_BOUND;
+        }
 
-                        //if the section is free add it to our record of segments we visited that are free
-                        freeSegments.add(address);
-                        freeSegmentsTotalSize += segmentLength;
+        return mapped.slice(address + SEGMENT_META_SIZE, header.getInt(SEGMENT_LENGTH_BYTES_COUNT + 1));
 
-                        final int accumulatedMetaSize =
-                            ((freeSegments.size() - 1 /* first item we keep meta data*/) * (SEGMENT_LENGTH_BYTES_COUNT + 1 + SEGMENT_LENGTH_BYTES_COUNT));
+    }
 
-                        if((freeSegmentsTotalSize + accumulatedMetaSize) >= lengthRequired) {
+    /**
+     * @return the payload of a bound segment read from the file, null if it isn't bound
+     */
+    private byte [] readUnmapped(long address) throws IOException {
 
-                            //remove the items we are merging from the cache, if the calling body cancels the merge the cache can be rebuilt
-                            for(int i = 1; i < freeSegments.size(); i++) {
+        final byte [] header = new byte[SEGMENT_META_SIZE];
 
-                                final int oldSize = reference.getSegmentSize(freeSegments.get(i));
+        fileAccess.readFully(address, header);
 
-                                reference.setSegmentType(freeSegments.get(i), null);
+        final byte segmentState = header[SEGMENT_LENGTH_BYTES_COUNT];
 
-                                //if the user cancels merging i think this will make the segment invisible until the app restarts
-                                //i dont really care though because that probably never happens and it will eventually recover the segments
-                                reference.setSegmentSize(freeSegments.get(i), 0, oldSize);
+        reference.setSegmentType(address, segmentState);
+        reference.setSegmentSize(address, bytesToInt(header, 0));
 
-                            }
+        if(segmentState != BOUND_STATE) {
+            return null;
+        }
 
-                            writeState(freeSegments.get(0), TRANSITIONAL_STATE);
-                            //throw exception with the info on the fragmented segments for merge.
-                            throw new SpaceFragementedException(freeSegments.get(0), freeSegmentsTotalSize + accumulatedMetaSize);
-                        }
-                    }
+        final byte [] data = new byte[bytesToInt(header, SEGMENT_LENGTH_BYTES_COUNT + 1)];
 
-                }
-                else {
+        fileAccess.readFully(address + SEGMENT_META_SIZE, data);
 
-                    //not a continuous section of free segments clear out the record we are keeping and start over
-                    freeSegments.clear();
-                    freeSegmentsTotalSize = 0;
+        return data;
 
-                }
+    }
 
-                //this segment isnt eligible go to the next one
-                address += segmentLength + SEGMENT_LENGTH_BYTES_COUNT + 1 + SEGMENT_LENGTH_BYTES_COUNT;
+    /**
+     * stream over a mapped segment
+     */
+    private static class BufferInputStream extends InputStream {
 
-            }
+        private final ByteBuffer buffer;
 
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
         }
-        catch (FileNotFoundException e) {
-            throw new IllegalArgumentException("something is wrong with the file ", e);
+
+        @Override
+        public int available() {
+            return buffer.remaining();
         }
-        catch (IOException e) {
-            throw new ReadFailure("failed to read file" + e.getMessage(), e);
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
         }
 
-    }
+        @Override
+        public int read(byte[] b, int off, int len) {
 
-    /**
-     * Assigns the segments size
-     *
-     * @param address
-     * @param segmentSize
-     * @throws WriteFailure
-     * @throws ReadFailure
-     */
-    public void setSegmentSize(long address, int segmentSize) throws WriteFailure, ReadFailure {
+            if(len == 0) {
+                return 0;
+            }
 
-        final RandomAccessFile writeRandom = localAccess.getWriter();
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
 
-        try {
+            final int readThisTime = Math.min(len, buffer.remaining());
 
-            writeRandom.seek(address); //seek to the state byte of the new segment that doesn't exist yet
-            writeRandom.write(intToByteArray(segmentSize));
+            buffer.get(b, off, readThisTime);
 
-            reference.setSegmentSize(address, segmentSize);
+            return readThisTime;
 
         }
-        catch (IOException e) {
-            throw new WriteFailure("failed to write " + e.getMessage());
-        }
-        finally {
-            localAccess.giveWriter(writeRandom);
+
+        @Override
+        public long skip(long n) {
+
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+
+            buffer.position(buffer.position() + skipped);
+
+            return skipped;
+
         }
 
     }
 
     /**
-     * Reads the data in bytes from the segment
-     *
-     * @param address
-     * @return
-     * @throws ReadFailure
+     * stream over a chain, each link is read when the one before it runs out
      */
-    public InputStream readSegment(long address) throws ReadFailure {
-
-        try {
+    private class ChainInputStream extends InputStream {
 
-            final RandomAccessFile readRandom = localAccess.getReader();
+        private long remaining; //of the whole value
+        private long position; //in the file
+        private int linkRemaining;
+        private long next;
 
-            readRandom.seek(address);
+        ChainInputStream(long head, int fill) throws IOException {
 
-            //read in the size, fill size and type
-            final byte [] toRead =  new byte[SEGMENT_LENGTH_BYTES_COUNT + 1 +  SEGMENT_LENGTH_BYTES_COUNT];
-
-            readRandom.readFully(toRead, 0, toRead.length);
-
-            final byte segmentState = toRead[4];
+            final byte [] header = new byte[CHAIN_HEADER_SIZE];
 
-            final int segmentLength = bytesToInt(new byte[] {toRead[0], toRead[1], toRead[2], toRead[3]});//segmentSize);
-            final int segmentFillLength = bytesToInt(new byte[] {toRead[5], toRead[6], toRead[7], toRead[8]});//bytesToInt(segmentFillSize);
+            fileAccess.readFully(head + SEGMENT_META_SIZE, header);
 
-            reference.setSegmentType(address, segmentState);
-            reference.setSegmentSize(address, segmentLength);
+            this.next = bytesToLong(header, 0);
+            this.remaining = bytesToLong(header, LINK_HEADER_SIZE);
+            this.position = head + SEGMENT_META_SIZE + CHAIN_HEADER_SIZE;
+            this.linkRemaining = fill - CHAIN_HEADER_SIZE;
 
-            //check to make sure the segment is bound otherwise there's nothing to read
-            if(segmentState == BOUND_STATE) {
+        }
 
-                return new InputStream() {
+        long getRemaining() {
+            return remaining;
+        }
 
-                    int readFromAvailable = 0;
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
 
-                    @Override
-                    public int available() {
-                        return segmentFillLength - readFromAvailable;
-                    }
+        @Override
+        public int read() throws IOException {
 
-                    RandomAccessFile access = readRandom;
+            final byte [] single = new byte[1];
 
-                    @Override
-                    public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
 
-                        if(available() > 0) {
+        }
 
-                            readFromAvailable++;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
 
-                            return access.read();
-                        }
-                        else {
-                            return -1;
-                        }
-                    }
+            if(len == 0) {
+                return 0;
+            }
 
-                    @Override
-                    public int read(byte[] b, int off, int len) throws IOException {
+            if(remaining <= 0) {
+                return -1;
+            }
 
-                        final int available = available();
+            while(linkRemaining <= 0) {
+                nextLink();
+            }
 
-                        if (available <= 0) {
-                            return -1;
-                        }
+            final int readThisTime = fileAccess.read(position, b, off, (int) Math.min(len, Math.min(linkRemaining, remaining)));
 
-                        if (available < len) {
-                            len = available;
-                        }
+            if(readThisTime < 0) {
+                throw new EOFException("link at " + position + " ends past the end of the file");
+            }
 
-                        final int readThisTime = access.read(b, off, len);
-                        readFromAvailable += readThisTime;
+            position += readThisTime;
+            linkRemaining -= readThisTime;
+            remaining -= readThisTime;
 
-                        return readThisTime;
+            return readThisTime;
 
-                    }
+        }
 
-                    @Override
-                    public void close() throws IOException {
-                        super.close();
+        private void nextLink() throws IOException {
 
-                        this.access = null;
+            if(next < 0) {
+                throw new EOFException("chain ended " + remaining + " bytes before the value did");
+            }
 
-                        localAccess.giveReader(readRandom);
+            final byte [] header = new byte[SEGMENT_META_SIZE + LINK_HEADER_SIZE];
 
-                    }
-                };
+            fileAccess.readFully(next, header);
 
-            }
-            else {
-                return null;
+            if(header[SEGMENT_LENGTH_BYTES_COUNT] != LINKED_STATE) {
+                throw new IOException("segment " + next + " isn't a link of a chain");
             }
 
-        }
-        catch (FileNotFoundException e) {
-            throw new ReadFailure("file not found: " + root, e);
-        }
-        catch (IOException e) {
-            throw new ReadFailure("unknown read error " + e.getMessage(), e);
+            linkRemaining = bytesToInt(header, SEGMENT_LENGTH_BYTES_COUNT + 1) - LINK_HEADER_SIZE;
+            position = next + SEGMENT_META_SIZE + LINK_HEADER_SIZE;
+            next = bytesToLong(header, SEGMENT_META_SIZE);
+
         }
 
     }
 
     private static final int TRANSACTION_SEGMENT_SIZE = 24;
 
-    private final Map<Long, Object> transactionLocks = new ConcurrentHashMap<>();
-
-    {
-        for(long i = 0; i < START_OFFSET; i += TRANSACTION_SEGMENT_SIZE) {
-            transactionLocks.put(i, new Object());
-        }
-    }
+    //where an add transaction keeps the address it reserved, after [ADD_END][length 4][ADD_END]
+    private static final int ADD_END_ADDRESS_OFFSET = 6;
+    private static final int ADD_END_ADDRESS_SIZE = 8 + 1;
 
+    /**
+     * Ends a transaction, the slot in the journal is zeroed and can be used by the next one.
+     *
+     * @param address - slot address from {@link #writeTransactionalBytes(byte[])}
+     */
     public void clearTransaction(long address) throws WriteFailure, ReadFailure {
 
-        if(address > START_OFFSET -  TRANSACTION_SEGMENT_SIZE) {
-            throw new IllegalArgumentException("toWrite must be less than 1024 bytes");
-        }
-
-        final RandomAccessFile writeRandom = localAccess.getWriter();
-
         try {
 
-            writeRandom.seek(address); //seek to the state byte of the new segment that doesn't exist yet
-
-            final byte [] segment = new byte[TRANSACTION_SEGMENT_SIZE];
-//            Arrays.fill(segment, (byte) 0); //fill it with zeros
+            //everything the transaction covered has to be down before the record of it goes away
+            fileAccess.syncTransaction();
 
-            synchronized (transactionLocks.get(address)) {
-                writeRandom.write(segment, 0, segment.length);
+            transactions.end(address);
 
-                transactionLocks.get(address).notifyAll(); //release everyone waiting to check all items
-            }
+            //and the clear has to be down before anything points at what it committed
+            fileAccess.syncTransaction();
 
         }
         catch (IOException e) {
             logger.error("Failed ", e);
             throw new WriteFailure("failed to write " + e.getMessage());
         }
-        finally {
-            localAccess.giveWriter(writeRandom);
-        }
 
     }
+
     /**
-     * //TODO make a reader/writer that's just for the transactions
-     *
-     * //TODO store the last address in the transaction space maybe. Needs to have a transaction of it's own to avoid corruption
-     * this may adversly affect the performance of scanning through the items and mapping them
-     * @param toWrite
-     * @throws WriteFailure
-     * @throws ReadFailure
+     * zeroes a transaction left in the segment file by a version that kept them there
      */
-    public long writeTransactionalBytes(byte [] toWrite) throws WriteFailure, ReadFailure {
-
-        if(toWrite.length > START_OFFSET) {
-            throw new IllegalArgumentException("toWrite must be less than 1024 bytes");
-        }
-
-//        if(toWrite.length == 0) {
-//
-//            final byte[] temp = new byte[START_OFFSET];
-//
-//            Arrays.fill(temp, (byte) 0); //fill it with zeros
-//
-//            System.arraycopy(toWrite, 0, temp, 0, toWrite.length);
-//
-//            toWrite = temp;
-//
-//        }
-
-        final RandomAccessFile writeRandom = localAccess.getWriter();
+    private void clearLegacyTransaction(long address) throws WriteFailure {
 
         try {
 
-            long current = 0;
-
-            while(true) {
-
-                writeRandom.seek(current); //seek to the state byte of the new segment that doesn't exist yet
+            fileAccess.syncTransaction();
 
-                final byte segmentType;// = new byte[TRANSACTION_SEGMENT_SIZE];
+            fileAccess.write(address, new byte[TRANSACTION_SEGMENT_SIZE]);
 
-                synchronized (transactionLocks.get(current)) {
+            fileAccess.syncTransaction();
 
-                    segmentType = writeRandom.readByte();
-
-                    //if used go to the next segment
-                    switch (segmentType) {
-                        case WRITING_TRANSACTION:
-                        case ADD_END_TRANSACTION:
-                        case MERGE_TRANSACTION:
-                            //segment is in use, skip it
-                            current += TRANSACTION_SEGMENT_SIZE;
-                            break;
-                        default:
-                            writeRandom.seek(current);
-                            writeRandom.write(toWrite, 0, toWrite.length);
-                            return current;
-                    }
+        }
+        catch (IOException e) {
+            throw new WriteFailure("failed to write " + e.getMessage(), e);
+        }
 
-                }
+    }
 
-                if(current >= START_OFFSET - TRANSACTION_SEGMENT_SIZE) {
-                    current = 0;
+    /**
+     * Starts a transaction, the record goes into a free slot of the transaction journal and is on the device
+     * (as far as the durability policy promises) before this returns. Blocks while every slot is in use, see
+     * {@link StorageOptions#withTransactionSlots(int)}.
+     *
+     * @param toWrite - the record, see {@link SegmentedTransactions}
+     * @return the slot address to end the transaction with
+     * @throws WriteFailure
+     * @throws ReadFailure
+     */
+    public long writeTransactionalBytes(byte [] toWrite) throws WriteFailure, ReadFailure {
 
-                    synchronized (transactionLocks.get(current)) {
-                        writeRandom.seek(current);
-                        final byte firstByte = writeRandom.readByte();
+        if(toWrite.length > TransactionJournal.SLOT_SIZE) {
+            throw new IllegalArgumentException("toWrite must be at most " + TransactionJournal.SLOT_SIZE + " bytes");
+        }
 
-                        if(firstByte != 0) {
-                            transactionLocks.get(current).wait();
-                        }
+        try {
 
-                    }
+            final long slot = transactions.begin(toWrite);
 
-                }
+            //write ahead, the record has to be down before anything it covers is written
+            fileAccess.syncTransaction();
 
-            }
+            return slot;
 
         }
-        catch (IOException | InterruptedException e) {
-            logger.error("Failed ", e);
-            throw new WriteFailure("failed to write " + e.getMessage());
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WriteFailure("interrupted waiting for a transaction slot", e);
         }
-        finally {
-            localAccess.giveWriter(writeRandom);
+        catch (IOException e) {
+            throw new WriteFailure("failed to write transaction " + e.getMessage(), e);
         }
 
     }
 
-    public byte[] readTransactionalBytes(long address) throws ReadFailure {
+    /**
+     * @return transactions that can be started without waiting right now
+     */
+    public int getFreeTransactionSlots() {
+        return transactions.getFreeSlots();
+    }
 
-        final RandomAccessFile readRandom = localAccess.getReader();
+    /**
+     * reads a transaction left in the first kilobyte of the segment file by a version that kept them there
+     */
+    public byte[] readTransactionalBytes(long address) throws ReadFailure {
 
         try {
 
-            if(readRandom.length() < address + TRANSACTION_SEGMENT_SIZE) { //return nulls if the file isn't big enough
+            if(fileAccess.length() < address + TRANSACTION_SEGMENT_SIZE) { //return nulls if the file isn't big enough
 
                 final byte[] returnVal = new byte[TRANSACTION_SEGMENT_SIZE];
                 Arrays.fill(returnVal, (byte) 0);
@@ -875,12 +1853,10 @@ public class SegmentedFile {
 
             }
 
-            readRandom.seek(address);
-
             //read in the size, fill size and type
             final byte [] toRead =  new byte[TRANSACTION_SEGMENT_SIZE];
 
-            readRandom.readFully(toRead, 0, toRead.length);
+            fileAccess.readFully(address, toRead);
 
             return toRead;
 
@@ -891,9 +1867,6 @@ public class SegmentedFile {
         catch (IOException e) {
             throw new ReadFailure("unknown read error " + e.getMessage(), e);
         }
-        finally {
-            localAccess.giveReader(readRandom);
-        }
 
     }
 
@@ -905,16 +1878,12 @@ public class SegmentedFile {
      */
     public byte readSegmentState(long address) throws ReadFailure {
 
-        final RandomAccessFile readRandom = localAccess.getReader();
-
         try {
 
-            readRandom.seek(address);
-
             //read in the size, fill size and type
             final byte [] toRead =  new byte[SEGMENT_LENGTH_BYTES_COUNT + 1 +  SEGMENT_LENGTH_BYTES_COUNT];
 
-            readRandom.readFully(toRead, 0, toRead.length);
+            fileAccess.readFully(address, toRead);
 
             final byte segmentState = toRead[4];
 
@@ -932,22 +1901,16 @@ public class SegmentedFile {
         catch (IOException e) {
             throw new ReadFailure("unknown read error " + e.getMessage(), e);
         }
-        finally {
-            localAccess.giveReader(readRandom);
-        }
 
     }
 
     public int getSegmentLength(long address) throws ReadFailure {
 
-        final RandomAccessFile readRandom = localAccess.getReader();
-
         try {
 
             final byte [] intBytes = new byte[SEGMENT_LENGTH_BYTES_COUNT];
 
-            readRandom.seek(address); //seek to the state byte of the new segment that doesn't exist yet
-            readRandom.readFully(intBytes);
+            fileAccess.readFully(address, intBytes);
 
             final int segmentSize = bytesToInt(intBytes);
 
@@ -959,114 +1922,124 @@ public class SegmentedFile {
         catch (IOException e) {
             throw new ReadFailure("failed to write " + e.getMessage());
         }
-        finally {
-            localAccess.giveReader(readRandom);
-        }
 
     }
 
     /**
-     * Class that holds memory cache to all the segment info
+     * Walks every segment and rebuilds the free space index from the headers. This is only done when
+     * the index is missing or doesn't line up with the segment file.
      */
-    private static class SegmentReference {
+    private synchronized void rebuildFreeSpace() throws ReadFailure, WriteFailure {
 
-        private final Map<Long, Byte> segmentTypes = new HashMap<>();
-        private final TreeMap<Integer, Set<Long>> segmentBySize = new TreeMap<>(); //could use a tree structure here maybe
-        private final Map<Long, Integer> segmentSizes = new HashMap<>();
-
-        public synchronized void setSegmentType(long address, Byte type) {
-            this.segmentTypes.put(address, type);
-        }
+        final Map<Long, Integer> free = new HashMap<>();
 
-        private synchronized Long getSuitableSegment(int segmentLength) {
+        long address = START_OFFSET;
+        long tail = START_OFFSET;
 
-            Map.Entry<Integer, Set<Long>> entry;
+        try {
 
-            while(true) {
+            final long length = fileAccess.length();
+            final byte[] segmentSize = new byte[SEGMENT_LENGTH_BYTES_COUNT + 1];
 
-                entry = segmentBySize.ceilingEntry(segmentLength);
+            while (address + segmentSize.length <= length) {
 
-                if(entry != null) {
+                fileAccess.readFully(address, segmentSize);
 
-                    if(entry.getKey() < segmentLength) {
-                        throw new IllegalStateException();
-                    }
+                final int segmentLength = bytesToInt(segmentSize, 0);
+                final byte type = segmentSize[4];
 
-                    for(final long address : entry.getValue()) {
-                        //if we found a free entry that fits return it
-                        if(segmentTypes.get(address) == FREE_STATE) {
-                            //TODO this is sucking down the cpu but I'm not sure how to deal with it without adding a lot of complication.
-                            return  address;
-                        }
-                    }
+                reference.setSegmentType(address, type);
+                reference.setSegmentSize(address, segmentLength);
 
-                }
-                else {
-                    return null;
+                if(type == FREE_STATE) {
+                    free.put(address, segmentLength);
                 }
 
-                //go bigger and try again.
-                segmentLength = entry.getKey() + 1;
+                tail = address;
+                address += segmentLength + SEGMENT_META_SIZE;
 
             }
 
-        }
-
-        public synchronized void setSegmentSize(long address, int size) {
-
-            segmentSizes.put(address, size);
-
-            Set<Long> addresses = segmentBySize.get(size);
-            if(addresses == null) {
-                addresses = new HashSet<>();
-                segmentBySize.put(size, addresses);
+            if(address != length) {
+                //the last segment was torn, pad it out so the list stays walkable
+                setFileLength(Math.max(address, START_OFFSET));
             }
 
-            addresses.add(address);
+            freeSpace.reset(tail, Math.max(address, START_OFFSET), free);
 
+        } catch (FileNotFoundException e) {
+            throw new IllegalStateException("failed to read because some deleted the file " + e.getMessage());
+        } catch (IOException e) {
+            throw new WriteFailure("failed to rebuild free space index " + e.getMessage(), e);
         }
 
-        public synchronized void setSegmentSize(long address, int newSize, int oldSize) {
+    }
 
-            {
+    /**
+     * drops anything past the last end recorded in the free space index
+     *
+     * @return the end address
+     */
+    private synchronized long truncateToEnd() throws WriteFailure {
 
-                Set<Long> addresses = segmentBySize.get(oldSize);
+        final long end = freeSpace.getEnd();
 
-                if (addresses == null) {
-                    addresses = new HashSet<>();
-                    segmentBySize.put(newSize, addresses);
-                }
+        try {
+            setFileLength(end);
+        } catch (IOException e) {
+            throw new WriteFailure("failed to truncate " + e.getMessage(), e);
+        }
 
-                addresses.remove(address);
+        return end;
 
-            }
+    }
 
-            if(newSize > 0) {
+    /**
+     * sets the length of the file, the mapping of anything cut off is dropped
+     */
+    private void setFileLength(long length) throws IOException {
 
-                segmentSizes.put(address, newSize);
+        fileAccess.setLength(length);
 
-                Set<Long> addresses = segmentBySize.get(newSize);
-                if (addresses == null) {
-                    addresses = new HashSet<>();
-                    segmentBySize.put(newSize, addresses);
-                }
+        if(mapped != null) {
+            mapped.truncate(length);
+        }
 
-                addresses.add(address);
+    }
 
-            }
-            else {
-                segmentSizes.remove(address);
-            }
+    /**
+     * @return length of the segment file
+     */
+    public long getLength() {
+        return freeSpace.getEnd();
+    }
 
-        }
+    /**
+     * @return the number of free segments the index knows about
+     */
+    public int getFreeSegmentCount() {
+        return freeSpace.getFreeCount();
+    }
 
-        public synchronized Byte getSegmentType(long address) {
-            return segmentTypes.get(address);
-        }
+    /**
+     * @return the number of free payload bytes the index knows about
+     */
+    public long getFreeBytes() {
+        return freeSpace.getFreeBytes();
+    }
 
-        public synchronized Integer getSegmentSize(long address) {
-            return segmentSizes.get(address);
-        }
+    /**
+     * @return bytes of heap the in memory segment state and size cache takes up
+     */
+    public long getSegmentReferenceFootprint() {
+        return reference.getFootprintBytes();
+    }
+
+    /**
+     * @return segments the in memory cache has a state or size for
+     */
+    public int getReferencedSegmentCount() {
+        return reference.size();
     }
 
     /************************ UTILITY METHODS ***************************/
@@ -1134,14 +2107,21 @@ public class SegmentedFile {
         }
     }
 
-    public void clear() throws ReadFailure, WriteFailure {
+    public synchronized void clear() throws ReadFailure, WriteFailure {
 
 
         try {
 
-            final RandomAccessFile writer = localAccess.getWriter();
+            synchronized (endLock) {
+
+                setFileLength(START_OFFSET);
+
+                reference.clear();
+
+                freeSpace.reset(START_OFFSET, START_OFFSET, Collections.emptyMap());
+
+            }
 
-            writer.setLength(START_OFFSET);
         } catch (FileNotFoundException e) {
             throw new ReadFailure("file doesn't exist", e);
         } catch (IOException e) {
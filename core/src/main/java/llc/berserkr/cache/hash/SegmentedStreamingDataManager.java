@@ -1,47 +1,49 @@
 package llc.berserkr.cache.hash;
 
-import llc.berserkr.cache.data.FIFOByteFileBuffer;
-import llc.berserkr.cache.data.RandomAccessFileWriter;
 import llc.berserkr.cache.exception.*;
+import llc.berserkr.cache.util.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import static llc.berserkr.cache.hash.SegmentedTransactions.*;
-import static llc.berserkr.cache.util.DataUtils.copyAndCount;
 
 /**
  * This class manages putting hashed items into the segmented file.
  *
  * It also maintains the transaction lifecycle of reads/and writes.
  *
+ * A value is read into memory a link at a time ({@link #LINK_SIZE}), if it all fits in one it's written as one
+ * segment like it always was. Anything bigger is written into a chain of segments as it's read (see
+ * {@link SegmentedFile#writeLink(long, boolean, long, byte[], int)}) so it's only written once and never spooled.
+ *
  */
 public class SegmentedStreamingDataManager implements SingleValueHashDataManager<byte [], InputStream> {
 
     private static final Logger logger = LoggerFactory.getLogger(SegmentedStreamingDataManager.class);
 
-    private final SegmentedFile segmentedFile;
-    private final ThreadLocal<FIFOByteFileBuffer> fifo;
-
-    public SegmentedStreamingDataManager(File segmentFile, File tempDirectory) {
-
-        tempDirectory.mkdirs();
-        final File tempFile = new File(tempDirectory, UUID.randomUUID().toString());
+    //bytes of a value held in memory at a time, a value up to this is one segment and anything bigger is chained
+    static final int LINK_SIZE = 64 * 1024;
 
-        if(!tempDirectory.isDirectory() || !tempDirectory.exists()) {
-            throw new IllegalArgumentException("temp directory is bad");
-        }
+    private final SegmentedFile segmentedFile;
 
-        this.fifo = ThreadLocal.withInitial(() -> {
-            try { //TODO make this memory size configurable
-                return new FIFOByteFileBuffer(50_000, new RandomAccessFileWriter(tempFile));
-            } catch (LinearStreamException e) {
-                throw new IllegalArgumentException("temp directory is bad2");
-            }
-        });
+    //the link being written and the one read after it
+    private final ThreadLocal<byte [][]> links = ThreadLocal.withInitial(() -> new byte [][] {new byte[LINK_SIZE], new byte[LINK_SIZE]});
 
-        this.segmentedFile = new SegmentedFile(segmentFile);
+    public SegmentedStreamingDataManager(File segmentFile, File tempDirectory) {
+        this(segmentFile, tempDirectory, StorageOptions.defaults());
+    }
 
+    /**
+     * @param segmentFile
+     * @param tempDirectory - not used anymore, values aren't spooled to a temp file
+     * @param options
+     */
+    public SegmentedStreamingDataManager(File segmentFile, File tempDirectory, StorageOptions options) {
+        this.segmentedFile = new SegmentedFile(segmentFile, options);
     }
 
     @Override
@@ -49,25 +51,37 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
         return segmentedFile.readSegment(blobIndex);
     }
 
+    /**
+     * @return bytes sent, -1 if there's no value at blobIndex, see {@link SegmentedFile#transferSegment(long, long, long, WritableByteChannel)}
+     */
+    public long transferTo(long blobIndex, long offset, long count, WritableByteChannel target) throws ReadFailure {
+        return segmentedFile.transferSegment(blobIndex, offset, count, target);
+    }
+
     @Override
     public long setBlobs(long blobIndex, InputStream blobs) throws WriteFailure, ReadFailure {
 
-        //We have to know the size of the data written in order to assign it to a segmented item
-        //to do this we write it to temporary file then read it back and write it into the segment.
-        //I don't think there's any other way to do this, this ultimately is a big limitation of the
-        //streaming cache vs one doing it all in byte arrays. That's why we have the option for both.
-        //
-        //this could be overcome by adding a segment linking functionality to the SegmentedStreamingFile
-        //It would require a link to the next segment if this inputstreams write causes it to
-        //overflow a segment it's written to. This is the only way to know the segment length after
-        //writting it from a stream.
-        final int length;
+        final byte [][] buffers = links.get();
 
         try {
 
-            final OutputStream os = fifo.get().getOutputStream();
+            final int length = fill(blobs, buffers[0]);
+
+            //we only know it's bigger than a link once there's something after the first one
+            final int nextLength = length == LINK_SIZE ? fill(blobs, buffers[1]) : 0;
+
+            if(nextLength == 0) {
+                return writeSegment(blobIndex, buffers[0], length);
+            }
+
+            final long head = writeChain(blobs, buffers, length, nextLength);
 
-            length = copyAndCount(blobs, os);
+            //the old value goes once the new one is down, if the stream fails part way it's still there
+            if(blobIndex >= 0) {
+                eraseBlobs(blobIndex);
+            }
+
+            return head;
 
         } catch (IOException e) {
             throw new WriteFailure("failed", e);
@@ -79,15 +93,74 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
             }
         }
 
+    }
+
+    /**
+     * Puts a value whose length is known up front. It goes straight into one segment of that length, nothing is held
+     * in memory and a {@link java.nio.channels.FileChannel} source is copied with FileChannel.transferFrom. The old
+     * value goes once the new one is down so a source that fails part way leaves it where it was.
+     *
+     * A value too big for one segment is chained the same as a stream is.
+     *
+     * @param blobIndex - the old value, -1 if there isn't one
+     * @param source - exactly length bytes are read from it, it isn't closed
+     * @param length - bytes in the value
+     * @return address of the new value
+     * @throws WriteFailure - also if the source ends before length
+     * @throws ReadFailure
+     */
+    public long setBlobs(long blobIndex, ReadableByteChannel source, long length) throws WriteFailure, ReadFailure {
+
+        if(length < 0) {
+            throw new IllegalArgumentException("length must not be negative " + length);
+        }
+
+        if(length > Integer.MAX_VALUE) { //segment lengths are ints
+            return setBlobs(blobIndex, new BoundedInputStream(Channels.newInputStream(source), length));
+        }
+
+        final long address = claim((int) length);
+
+        final long transAddress = startWritingTransaction(segmentedFile, address);
+
+        try {
+            segmentedFile.write(address, source, (int) length);
+        }
+        catch (WriteFailure e) {
+
+            segmentedFile.writeState(address, SegmentedFile.FREE_STATE);
+
+            endTransactions(segmentedFile, transAddress);
+
+            throw e;
+
+        }
+
+        segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
+
+        endTransactions(segmentedFile, transAddress);
+
+        if(blobIndex >= 0) {
+            eraseBlobs(blobIndex);
+        }
+
+        return address;
+
+    }
+
+    /**
+     * writes a value that fits in one link into one segment
+     */
+    private long writeSegment(long blobIndex, byte [] data, int length) throws WriteFailure, ReadFailure {
+
         try {
 
             final long free;
 
             if(blobIndex >= 0) {
 
-                int currentLength = segmentedFile.getSegmentLength(blobIndex);
-
-                if(length <= currentLength) {
+                //a chain can't be written over with one segment, its links would be lost
+                if(segmentedFile.readSegmentState(blobIndex) != SegmentedFile.CHAINED_STATE && length <= segmentedFile.getSegmentLength(blobIndex)) {
 
                     //we can re-use the segment we were already in
                     free = blobIndex;
@@ -95,12 +168,8 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
                 }
                 else {
 
-                    long transArress = startWritingTransaction(segmentedFile, blobIndex);
-
                     //delete the previous item
-                    segmentedFile.writeState(blobIndex, SegmentedFile.FREE_STATE);
-
-                    endTransactions(segmentedFile, transArress);
+                    eraseBlobs(blobIndex);
 
                     //find a free segment and write the data into it.
                     free = segmentedFile.getFreeSegment(length);
@@ -114,7 +183,7 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
 
             final long transAddress = startWritingTransaction(segmentedFile, free);
 
-            segmentedFile.write(free, fifo.get().getInputStream());
+            segmentedFile.write(free, data, length);
 
             segmentedFile.writeState(free, SegmentedFile.BOUND_STATE);
 
@@ -146,7 +215,7 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
 
             segmentedFile.setSegmentSize(address, split1);
 
-            segmentedFile.write(address, fifo.get().getInputStream());
+            segmentedFile.write(address, data, length);
 
             segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
 
@@ -160,7 +229,7 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
 
             segmentedFile.setSegmentSize(e.getAddress(), e.getSegmentSize());
 
-            segmentedFile.write(e.getAddress(), fifo.get().getInputStream());
+            segmentedFile.write(e.getAddress(), data, length);
 
             segmentedFile.writeState(e.getAddress(), SegmentedFile.BOUND_STATE);
 
@@ -172,26 +241,154 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
 
             final long transAddress = startAddTransaction(segmentedFile, length);
 
-            try {
+            //no free segments, add to the end of the segment file
+            final long address = segmentedFile.writeToEnd(data, length, transAddress);
+
+            segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
+
+            endTransactions(segmentedFile, transAddress);
+
+            return address;
+
+        }
+
+    }
+
+    /**
+     * Writes a value bigger than a link into a chain as it's read. The next link is claimed before the one pointing
+     * at it is written so the chain transaction can free all of it if we crash, or if the stream fails.
+     *
+     * @param buffers - the first link is in [0], the second in [1]
+     * @return the head of the chain
+     */
+    private long writeChain(InputStream blobs, byte [][] buffers, int length, int nextLength) throws IOException, WriteFailure, ReadFailure {
+
+        final long head = claim(SegmentedFile.CHAIN_HEADER_SIZE + length);
+
+        final long transAddress = startChainTransaction(segmentedFile, head);
+
+        try {
+
+            long address = head;
+            long total = 0;
+            int current = 0;
 
-                //no free segments, add to the end of the segment file
-                final long address = segmentedFile.writeToEnd(fifo.get().getInputStream());
+            while(true) {
 
-                segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
+                final long next = nextLength > 0 ? claim(SegmentedFile.LINK_HEADER_SIZE + nextLength) : -1;
+
+                segmentedFile.writeLink(address, address == head, next, buffers[current], length);
+                segmentedFile.writeState(address, SegmentedFile.LINKED_STATE);
+
+                total += length;
+
+                if(next < 0) {
+                    break;
+                }
+
+                address = next;
+                length = nextLength;
+                current = 1 - current;
+
+                //the buffer the link just written came from takes the one after the next
+                nextLength = fill(blobs, buffers[1 - current]);
 
-                return address;
             }
-            finally {
-                endTransactions(segmentedFile, transAddress);
+
+            segmentedFile.writeChainLength(head, total);
+            segmentedFile.writeState(head, SegmentedFile.CHAINED_STATE);
+
+        }
+        catch (IOException | WriteFailure | ReadFailure e) {
+
+            segmentedFile.freeChain(head);
+
+            endTransactions(segmentedFile, transAddress);
+
+            throw e;
+
+        }
+
+        endTransactions(segmentedFile, transAddress);
+
+        return head;
+
+    }
+
+    /**
+     * @return a transitional segment with room for length bytes
+     */
+    private long claim(int length) throws WriteFailure, ReadFailure {
+
+        try {
+            return segmentedFile.getFreeSegment(length);
+        }
+        catch (final SpaceFragementedException e) {
+
+            //the merge is done as soon as the size is down, the segment is transitional after that
+            final long transAddress = startMergeTransaction(segmentedFile, e.getAddress(), e.getSegmentSize());
+
+            segmentedFile.setSegmentSize(e.getAddress(), e.getSegmentSize());
+
+            endTransactions(segmentedFile, transAddress);
+
+            return e.getAddress();
+
+        }
+        catch (OutOfSpaceException e) {
+
+            final long transAddress = startAddTransaction(segmentedFile, length);
+
+            final long address = segmentedFile.reserveEnd(length, transAddress);
+
+            endTransactions(segmentedFile, transAddress);
+
+            return address;
+
+        }
+
+    }
+
+    /**
+     * reads until the buffer is full or the stream ends
+     *
+     * @return bytes read
+     */
+    private static int fill(InputStream in, byte [] buffer) throws IOException {
+
+        int filled = 0;
+
+        while(filled < buffer.length) {
+
+            final int read = in.read(buffer, filled, buffer.length - filled);
+
+            if(read < 0) {
+                break;
             }
 
+            filled += read;
+
         }
 
+        return filled;
+
     }
 
     @Override
     public void eraseBlobs(long blobIndex) throws WriteFailure, ReadFailure {
 
+        if(segmentedFile.readSegmentState(blobIndex) == SegmentedFile.CHAINED_STATE) {
+
+            final long transAddress = startChainTransaction(segmentedFile, blobIndex);
+
+            segmentedFile.freeChain(blobIndex);
+
+            endTransactions(segmentedFile, transAddress);
+
+            return;
+
+        }
+
         final long transAddress = startWritingTransaction(segmentedFile, blobIndex);
 
         //delete the previous item
@@ -206,4 +403,8 @@ public class SegmentedStreamingDataManager implements SingleValueHashDataManager
         segmentedFile.clear();
     }
 
+    SegmentedFile getSegmentedFile() {
+        return segmentedFile;
+    }
+
 }
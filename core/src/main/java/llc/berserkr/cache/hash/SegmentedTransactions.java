@@ -48,6 +48,36 @@ public class SegmentedTransactions {
 
     }
 
+    /**
+     * sets a chain transaction, the head is stored so if we crash the chain can be walked from it and freed
+     *
+     * @param segmentedFile
+     * @param head - first segment of the chain, see {@link SegmentedFile#writeLink(long, boolean, long, byte[], int)}
+     * @throws ReadFailure
+     * @throws WriteFailure
+     */
+    public static long startChainTransaction(SegmentedFile segmentedFile, long head) throws ReadFailure, WriteFailure {
+
+        final byte[] addressBytes = longToByteArray(head);
+        final byte [] chainTransaction = new byte[] {
+            SegmentedFile.CHAIN_TRANSACTION, //reversal frees whatever of the chain was written
+            addressBytes[0],
+            addressBytes[1],
+            addressBytes[2],
+            addressBytes[3],
+            addressBytes[4],
+            addressBytes[5],
+            addressBytes[6],
+            addressBytes[7],
+            SegmentedFile.CHAIN_TRANSACTION //end item is set as well so we know it wrote everything in between
+        };
+
+        return segmentedFile.writeTransactionalBytes(
+            chainTransaction
+        );
+
+    }
+
     /**
      * start add transaction, store length so we can finish adding it to the end if we crash
      *
@@ -66,7 +96,8 @@ public class SegmentedTransactions {
             lengthBytes[1],
             lengthBytes[2],
             lengthBytes[3],
-            SegmentedFile.ADD_END_TRANSACTION    //end item is set as well so we know it wrote everything in between
+            SegmentedFile.ADD_END_TRANSACTION,    //end item is set as well so we know it wrote everything in between
+            0, 0, 0, 0, 0, 0, 0, 0, 0 //room for the address the add reserves, see SegmentedFile.writeToEnd(byte[], long)
         };
 
         return segmentedFile.writeTransactionalBytes(
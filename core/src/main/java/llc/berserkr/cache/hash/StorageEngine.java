@@ -0,0 +1,21 @@
+package llc.berserkr.cache.hash;
+
+/**
+ * Where the buckets and values of a file hash are kept, see {@link StorageOptions#withStorageEngine(StorageEngine)}.
+ */
+public enum StorageEngine {
+
+    /**
+     * a {@link SegmentedFile}, values are written in place into free segments and the hash index points at the
+     * segment. This is how the cache has always stored things.
+     */
+    SEGMENTED,
+
+    /**
+     * a {@link LogStore}, every write is appended to a rolling log file and dead records are compacted away in the
+     * background. Writes never seek or split segments, reads cost the same and the files take more space until
+     * they're compacted.
+     */
+    LOG
+
+}
@@ -0,0 +1,364 @@
+package llc.berserkr.cache.hash;
+
+/**
+ * Tuning for the file backed storage (hash index, segment files). Immutable, start from {@link #defaults()}
+ * and change what you need.
+ *
+ * StorageOptions options = StorageOptions.defaults().withDurability(DurabilityPolicy.SYNC_ON_TRANSACTION_END);
+ */
+public class StorageOptions {
+
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 1000;
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+    public static final double DEFAULT_MAX_LOAD_FACTOR = 2.0;
+    public static final int DEFAULT_TRANSACTION_SLOTS = 1024;
+    public static final long DEFAULT_LOG_FILE_SIZE = 64L * 1024 * 1024;
+    public static final double DEFAULT_LOG_COMPACTION_RATIO = 0.5;
+    public static final long DEFAULT_LOG_COMPACTION_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_SEGMENT_COMPACTION_BYTES_PER_SECOND = 16L * 1024 * 1024;
+
+    private static final StorageOptions DEFAULTS = new StorageOptions(
+        DurabilityPolicy.SYNC_EVERY_WRITE,
+        DEFAULT_SYNC_INTERVAL_MILLIS,
+        DEFAULT_GROUP_COMMIT_DELAY_MICROS,
+        DEFAULT_GROUP_COMMIT_BATCH,
+        false,
+        DEFAULT_MAX_LOAD_FACTOR,
+        null,
+        false,
+        DEFAULT_TRANSACTION_SLOTS,
+        StorageEngine.SEGMENTED,
+        DEFAULT_LOG_FILE_SIZE,
+        DEFAULT_LOG_COMPACTION_RATIO,
+        DEFAULT_LOG_COMPACTION_INTERVAL_MILLIS,
+        0,
+        DEFAULT_SEGMENT_COMPACTION_BYTES_PER_SECOND,
+        IoBackend.RANDOM_ACCESS,
+        false
+    );
+
+    private final DurabilityPolicy durability;
+    private final long syncIntervalMillis;
+    private final long groupCommitDelayMicros;
+    private final int groupCommitBatch;
+    private final boolean mappedIndex;
+    private final double maxLoadFactor;
+    private final KeyHasher keyHasher;
+    private final boolean powerOfTwoIndex;
+    private final int transactionSlots;
+    private final StorageEngine storageEngine;
+    private final long logFileSize;
+    private final double logCompactionRatio;
+    private final long logCompactionIntervalMillis;
+    private final double segmentCompactionRatio;
+    private final long segmentCompactionBytesPerSecond;
+    private final IoBackend ioBackend;
+    private final boolean mappedSegments;
+
+    private StorageOptions(
+        final DurabilityPolicy durability,
+        final long syncIntervalMillis,
+        final long groupCommitDelayMicros,
+        final int groupCommitBatch,
+        final boolean mappedIndex,
+        final double maxLoadFactor,
+        final KeyHasher keyHasher,
+        final boolean powerOfTwoIndex,
+        final int transactionSlots,
+        final StorageEngine storageEngine,
+        final long logFileSize,
+        final double logCompactionRatio,
+        final long logCompactionIntervalMillis,
+        final double segmentCompactionRatio,
+        final long segmentCompactionBytesPerSecond,
+        final IoBackend ioBackend,
+        final boolean mappedSegments
+    ) {
+
+        if(durability == null) {
+            throw new IllegalArgumentException("durability must not be null");
+        }
+
+        if(syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("sync interval must be positive " + syncIntervalMillis);
+        }
+
+        if(groupCommitDelayMicros < 0) {
+            throw new IllegalArgumentException("group commit delay must not be negative " + groupCommitDelayMicros);
+        }
+
+        if(maxLoadFactor < 0 || Double.isNaN(maxLoadFactor)) {
+            throw new IllegalArgumentException("max load factor must not be negative " + maxLoadFactor);
+        }
+
+        if(groupCommitBatch <= 0) {
+            throw new IllegalArgumentException("group commit batch must be positive " + groupCommitBatch);
+        }
+
+        if(transactionSlots <= 0) {
+            throw new IllegalArgumentException("transaction slots must be positive " + transactionSlots);
+        }
+
+        if(storageEngine == null) {
+            throw new IllegalArgumentException("storage engine must not be null");
+        }
+
+        if(logFileSize <= 0) {
+            throw new IllegalArgumentException("log file size must be positive " + logFileSize);
+        }
+
+        if(logCompactionRatio < 0 || logCompactionRatio > 1 || Double.isNaN(logCompactionRatio)) {
+            throw new IllegalArgumentException("log compaction ratio must be between 0 and 1 " + logCompactionRatio);
+        }
+
+        if(logCompactionIntervalMillis <= 0) {
+            throw new IllegalArgumentException("log compaction interval must be positive " + logCompactionIntervalMillis);
+        }
+
+        if(segmentCompactionRatio < 0 || segmentCompactionRatio >= 1 || Double.isNaN(segmentCompactionRatio)) {
+            throw new IllegalArgumentException("segment compaction ratio must be at least 0 and below 1 " + segmentCompactionRatio);
+        }
+
+        if(ioBackend == null) {
+            throw new IllegalArgumentException("io backend must not be null");
+        }
+
+        this.durability = durability;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.groupCommitDelayMicros = groupCommitDelayMicros;
+        this.groupCommitBatch = groupCommitBatch;
+        this.mappedIndex = mappedIndex;
+        this.maxLoadFactor = maxLoadFactor;
+        this.keyHasher = keyHasher;
+        this.powerOfTwoIndex = powerOfTwoIndex;
+        this.transactionSlots = transactionSlots;
+        this.storageEngine = storageEngine;
+        this.logFileSize = logFileSize;
+        this.logCompactionRatio = logCompactionRatio;
+        this.logCompactionIntervalMillis = logCompactionIntervalMillis;
+        this.segmentCompactionRatio = segmentCompactionRatio;
+        this.segmentCompactionBytesPerSecond = segmentCompactionBytesPerSecond;
+        this.ioBackend = ioBackend;
+        this.mappedSegments = mappedSegments;
+
+    }
+
+    /**
+     * @return the options the cache has always run with, every write synchronous
+     */
+    public static StorageOptions defaults() {
+        return DEFAULTS;
+    }
+
+    public StorageOptions withDurability(DurabilityPolicy durability) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * @param syncIntervalMillis - how often files are forced with {@link DurabilityPolicy#PERIODIC_FSYNC}
+     */
+    public StorageOptions withSyncInterval(long syncIntervalMillis) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Flush window for {@link DurabilityPolicy#GROUP_COMMIT}. When transactions are running concurrently the
+     * thread doing a flush waits up to maxDelayMicros for maxBatch sync requests to pile up before flushing.
+     * A 0 delay only batches whatever queued up behind the previous flush.
+     *
+     * @param maxDelayMicros - longest a flush is held back to grow the batch
+     * @param maxBatch - flush right away once this many requests are waiting
+     */
+    public StorageOptions withGroupCommit(long maxDelayMicros, int maxBatch) {
+        return new StorageOptions(durability, syncIntervalMillis, maxDelayMicros, maxBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Maps the whole hash index into memory so finding a bucket is a memory load instead of a seek and a read.
+     * Bucket writes are forced to match the durability policy.
+     *
+     * @param mappedIndex - true to map the hash index
+     */
+    public StorageOptions withMappedIndex(boolean mappedIndex) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * The hash index grows a bucket at a time in the background once it has more than this many entries per
+     * bucket, 0 keeps the index at the size it was created with.
+     *
+     * @param maxLoadFactor - average entries per bucket before the index grows
+     */
+    public StorageOptions withMaxLoadFactor(double maxLoadFactor) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Hash function for keys of a new hash index. An existing index keeps the function it was written with
+     * (recorded in its sidecar), opening it with a different one fails. Null, the default, uses
+     * {@link KeyHashers#DEFAULT} for new indexes and whatever an existing one was written with.
+     *
+     * @param keyHasher - see {@link KeyHashers}
+     */
+    public StorageOptions withKeyHasher(KeyHasher keyHasher) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Rounds the size of a new hash index up to a power of two so a bucket is found with a mask instead of a
+     * division. The index keeps growing in powers of two, existing indexes keep the size they were created with.
+     *
+     * @param powerOfTwoIndex - true to round the hash size up
+     */
+    public StorageOptions withPowerOfTwoIndex(boolean powerOfTwoIndex) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Size of the transaction journal next to each segment file, how many writes can be in flight at once before
+     * the next one waits for a slot. An existing journal is resized on open once what was in it is replayed.
+     *
+     * @param transactionSlots - transactions that can be open at the same time
+     */
+    public StorageOptions withTransactionSlots(int transactionSlots) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Where buckets and values are kept, see {@link StorageEngine}. Switching engines doesn't carry over what was
+     * stored with the other one.
+     *
+     * @param storageEngine - {@link StorageEngine#SEGMENTED} by default
+     */
+    public StorageOptions withStorageEngine(StorageEngine storageEngine) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Size a {@link LogStore} file grows to before it's sealed and a new one is started. Smaller files are
+     * compacted sooner and in smaller pieces, bigger ones mean fewer files.
+     *
+     * @param logFileSize - bytes
+     */
+    public StorageOptions withLogFileSize(long logFileSize) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * A sealed {@link LogStore} file is compacted in the background once less than minLiveRatio of it is still live.
+     * 0 never compacts.
+     *
+     * @param minLiveRatio - live bytes over file bytes, 0 to 1
+     * @param intervalMillis - how often files are checked
+     */
+    public StorageOptions withLogCompaction(double minLiveRatio, long intervalMillis) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, minLiveRatio, intervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Moves segments toward the front of the segment files in the background and truncates the free space left at
+     * the end, once more than maxFreeRatio of a segment file is free. Each bucket is moved under its write lock,
+     * the copying is throttled to maxBytesPerSecond so it doesn't starve the cache's own reads and writes.
+     * 0, the default, never compacts in the background. {@link FileHash#compact()} and
+     * {@link StreamingFileHash#compact()} can be called either way.
+     *
+     * @param maxFreeRatio - free bytes over file bytes, at least 0 and below 1
+     * @param maxBytesPerSecond - copy rate, 0 or less for no limit
+     */
+    public StorageOptions withSegmentCompaction(double maxFreeRatio, long maxBytesPerSecond) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, maxFreeRatio, maxBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * How the segment files and hash index are read and written, see {@link IoBackend}. The files are the same
+     * either way, this can be changed between runs.
+     *
+     * @param ioBackend - {@link IoBackend#RANDOM_ACCESS} by default
+     */
+    public StorageOptions withIoBackend(IoBackend ioBackend) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    /**
+     * Reads bound segments out of a read only mapping of the segment file instead of with a read call, a segment
+     * that's in the page cache is read without a system call. Writes still go through the {@link IoBackend}.
+     *
+     * @param mappedSegments - true to map the segment files for reading
+     */
+    public StorageOptions withMappedSegments(boolean mappedSegments) {
+        return new StorageOptions(durability, syncIntervalMillis, groupCommitDelayMicros, groupCommitBatch, mappedIndex, maxLoadFactor, keyHasher, powerOfTwoIndex, transactionSlots, storageEngine, logFileSize, logCompactionRatio, logCompactionIntervalMillis, segmentCompactionRatio, segmentCompactionBytesPerSecond, ioBackend, mappedSegments);
+    }
+
+    public DurabilityPolicy getDurability() {
+        return durability;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public long getGroupCommitDelayMicros() {
+        return groupCommitDelayMicros;
+    }
+
+    public int getGroupCommitBatch() {
+        return groupCommitBatch;
+    }
+
+    public boolean isMappedIndex() {
+        return mappedIndex;
+    }
+
+    public double getMaxLoadFactor() {
+        return maxLoadFactor;
+    }
+
+    /**
+     * @return the configured hash function, null if it's up to the index
+     */
+    public KeyHasher getKeyHasher() {
+        return keyHasher;
+    }
+
+    public boolean isPowerOfTwoIndex() {
+        return powerOfTwoIndex;
+    }
+
+    public int getTransactionSlots() {
+        return transactionSlots;
+    }
+
+    public StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    public long getLogFileSize() {
+        return logFileSize;
+    }
+
+    public double getLogCompactionRatio() {
+        return logCompactionRatio;
+    }
+
+    public long getLogCompactionIntervalMillis() {
+        return logCompactionIntervalMillis;
+    }
+
+    public double getSegmentCompactionRatio() {
+        return segmentCompactionRatio;
+    }
+
+    public long getSegmentCompactionBytesPerSecond() {
+        return segmentCompactionBytesPerSecond;
+    }
+
+    public IoBackend getIoBackend() {
+        return ioBackend;
+    }
+
+    public boolean isMappedSegments() {
+        return mappedSegments;
+    }
+
+}
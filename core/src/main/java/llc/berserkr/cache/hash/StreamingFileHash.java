@@ -4,17 +4,18 @@ package llc.berserkr.cache.hash;
 import llc.berserkr.cache.data.Pair;
 import llc.berserkr.cache.exception.ReadFailure;
 import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.util.BoundedInputStream;
 import llc.berserkr.cache.util.WrappingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static llc.berserkr.cache.util.DataUtils.bytesToLong;
-import static llc.berserkr.cache.util.DataUtils.longToByteArray;
-
 
 /**
  * 
@@ -24,20 +25,23 @@ import static llc.berserkr.cache.util.DataUtils.longToByteArray;
  * Some of this class was derived from: https://code.google.com/p/jdbm2/ 
  *
  * **/
-public class StreamingFileHash {
+public class StreamingFileHash implements SegmentCompactor.Compactable {
 
     private static final Logger logger = LoggerFactory.getLogger(StreamingFileHash.class);
 
-    private final static int BUCKET_SIZE = 8;
-
-    private final int hashSize;
-    private final File file;
+    private final static int BUCKET_SIZE = HashIndex.BUCKET_SIZE;
 
     private final Map<Long, CacheLocks> hashLocks = new ConcurrentHashMap<>();
 
-    private final BlobsSegmentedStreamingHashDataManager blobManager;
-    private final SegmentedStreamingDataManager dataManager;
-    private final LocalRandomAccess localAccess;
+    private final HashDataManager<byte [], Long> blobManager;
+    private final SingleValueHashDataManager<byte [], InputStream> dataManager;
+    private final HashIndex hashIndex;
+    private final LinearHashing<Long> linearHashing;
+    private final KeyHasher keyHasher;
+    private final SegmentCompactor compactor;
+
+    //compaction steps and clear don't overlap, a segment moved while the files are cleared would be lost
+    private final Object compactionLock = new Object();
 
     public StreamingFileHash(
         final File file,
@@ -46,62 +50,47 @@ public class StreamingFileHash {
         final File tempDirectory,
         final int hashSize
     ) {
-        
-        this.hashSize = hashSize;
-        
-        if(file.isDirectory()) {
-            throw new RuntimeException("hash file location must not be a directory");
-        }
+        this(file, blobFile, dataFile, tempDirectory, hashSize, StorageOptions.defaults());
+    }
 
-        this.blobManager = new BlobsSegmentedStreamingHashDataManager(blobFile);
-        this.dataManager = new SegmentedStreamingDataManager(dataFile, tempDirectory);
-        this.file = file;
-        this.localAccess = new LocalRandomAccess(file);
+    public StreamingFileHash(
+        final File file,
+        final File blobFile,
+        final File dataFile,
+        final File tempDirectory,
+        final int hashSize,
+        final StorageOptions options
+    ) {
 
-        //if the file doesn't exist, initialize an empty hash of the desired size
-        if(!file.exists()) {
-            initFile();
+        if(options.getStorageEngine() == StorageEngine.LOG) {
+            this.blobManager = new LogStreamingHashDataManager(blobFile, options);
+            this.dataManager = new LogStreamingDataManager(dataFile, options);
+        }
+        else {
+            this.blobManager = new BlobsSegmentedStreamingHashDataManager(blobFile, options);
+            this.dataManager = new SegmentedStreamingDataManager(dataFile, tempDirectory, options);
         }
 
-    }
+        final boolean existing = file.length() > 0;
 
-    private void initFile() {
+        this.hashIndex = HashIndexFactory.create(file, hashSize, options);
 
         try {
-
-            final OutputStream output = new FileOutputStream(file);
-
-            try {
-
-                final byte [] bytes = new byte [1024];
-
-                Arrays.fill(bytes, (byte)-1);
-
-                final int max = hashSize * BUCKET_SIZE;
-
-                for(int i = 0; i < max; i += 1024) {
-                    output.write(bytes);
-                }
-
-                output.flush();
-
-            }
-            finally {
-                output.close();
-            }
-
+            this.linearHashing = new LinearHashing<>(
+                new File(file.getPath() + ".meta"), hashIndex, blobManager, hashSize, existing, options, this::getLock
+            );
         }
-        catch (FileNotFoundException e) {
-
-            logger.error("Failed to establish file hash", e);
-            throw new RuntimeException("failed to establish file hash", e);
-
+        catch (ReadFailure | WriteFailure e) {
+            throw new RuntimeException("failed to open hash index " + file, e);
         }
-        catch (IOException e) {
 
-            logger.error("Failed to establish file hash 2", e);
-            throw new RuntimeException("failed to establish file hash 2", e);
+        this.keyHasher = linearHashing.getKeyHasher();
+
+        //the log engine compacts itself
+        this.compactor = new SegmentCompactor(options);
 
+        if(blobManager instanceof BlobsSegmentedStreamingHashDataManager) {
+            compactor.start(this);
         }
 
     }
@@ -128,32 +117,66 @@ public class StreamingFileHash {
       final byte [] key,
       final InputStream blob
     ) throws ReadFailure, WriteFailure {
-        
-        final long limitedHash = Math.abs(hashCode(key)) % hashSize; //limit the hash size to our hash
-      
-        long hashedIndex = limitedHash * (BUCKET_SIZE); //multiply by bucket size so we know index.
+        put(key, oldAddress -> dataManager.setBlobs(oldAddress, blob));
+    }
+
+    /**
+     * Puts a value whose length is known up front, from a file or a response with a content length. The segment is
+     * allocated at that length and the value copied straight into it, from a {@link java.nio.channels.FileChannel}
+     * with FileChannel.transferFrom. With {@link StorageEngine#LOG} it's streamed into the log the same as any put.
+     *
+     * @param key
+     * @param source - exactly length bytes are read from it, it isn't closed
+     * @param length - bytes in the value
+     * @throws WriteFailure - also if the source ends before length, the old value is still there
+     */
+    public void put(
+      final byte [] key,
+      final ReadableByteChannel source,
+      final long length
+    ) throws ReadFailure, WriteFailure {
+
+        if(dataManager instanceof SegmentedStreamingDataManager) {
+            put(key, oldAddress -> ((SegmentedStreamingDataManager) dataManager).setBlobs(oldAddress, source, length));
+        }
+        else {
+            put(key, oldAddress -> dataManager.setBlobs(oldAddress, new BoundedInputStream(Channels.newInputStream(source), length)));
+        }
+
+    }
+
+    /**
+     * writes a value into the data file, replacing the one at oldAddress (-1 if there isn't one)
+     */
+    private interface ValueWriter {
+        long write(long oldAddress) throws ReadFailure, WriteFailure;
+    }
+
+    private void put(
+      final byte [] key,
+      final ValueWriter writer
+    ) throws ReadFailure, WriteFailure {
+
+        final long hash = keyHasher.hash(key);
+
+        long hashedIndex = linearHashing.getBucketOffset(hash);
              
         try {
 
-           final RandomAccessFile randomRead = localAccess.getReader();
-           final RandomAccessFile randomWrite = localAccess.getWriter();
-
-           final CacheLocks lock = getLock(hashedIndex);
+           CacheLocks lock = getLock(hashedIndex);
 
            try {
                lock.getLock(CacheLocks.LockType.WRITER);
 
-               final byte[] currentKeyIn = new byte[BUCKET_SIZE];
-               randomRead.seek(hashedIndex);
-
-               //read in key at this hash location.
-               final int read = randomRead.read(currentKeyIn); //read in the current value
-
-               if (read <= 0) { //file was too short, empty values weren't filled in
-                   throw new RuntimeException("hash was not initialized properly");
+               //if the index grew while we waited the key may have been split into a new bucket, follow it
+               while(hashedIndex != linearHashing.getBucketOffset(hash)) {
+                   lock.releaseLock(CacheLocks.LockType.WRITER);
+                   hashedIndex = linearHashing.getBucketOffset(hash);
+                   lock = getLock(hashedIndex);
+                   lock.getLock(CacheLocks.LockType.WRITER);
                }
 
-               final long blobIndex = bytesToLong(currentKeyIn);
+               final long blobIndex = hashIndex.getPointer(hashedIndex);
 
                final Set<Pair<byte[], Long>> toWrite = new HashSet<>();
 
@@ -189,7 +212,7 @@ public class StreamingFileHash {
                } else {
                    oldAddress = -1;
                }
-               final long newAddress = dataManager.setBlobs(oldAddress, blob);
+               final long newAddress = writer.write(oldAddress);
 
                //then add it to the bucket again
                toWrite.add(
@@ -201,11 +224,12 @@ public class StreamingFileHash {
 
                if (blobIndexAfterSet != blobIndex) {
 
-                   final byte[] bytesIndex = longToByteArray(blobIndexAfterSet);
+                   hashIndex.setPointer(hashedIndex, blobIndexAfterSet);
 
-                   randomWrite.seek(hashedIndex);
-                   randomWrite.write(bytesIndex);
+               }
 
+               if(remove == null) {
+                   linearHashing.added(); //new key
                }
            } catch (InterruptedException e) {
                throw new WriteFailure("interrupted", e);
@@ -213,9 +237,6 @@ public class StreamingFileHash {
 
                lock.releaseLock(CacheLocks.LockType.WRITER);
 
-               localAccess.giveReader(randomRead);
-               localAccess.giveWriter(randomWrite);
-
            }
             
         }
@@ -237,59 +258,32 @@ public class StreamingFileHash {
       final byte [] key
     ) throws ReadFailure, WriteFailure {
       
-        final int limitedHash = Math.abs(hashCode(key)) % hashSize; //limit the hash to our hash size
-    
-        int hashedIndex = limitedHash * (BUCKET_SIZE); //determine byte index
+        final long hash = keyHasher.hash(key);
 
-        final RandomAccessFile randomRead = localAccess.getReader();
+        long hashedIndex = linearHashing.getBucketOffset(hash);
 
-        final CacheLocks lock = getLock(hashedIndex);
+        CacheLocks lock = getLock(hashedIndex);
 
         try {
 
             lock.getLock(CacheLocks.LockType.READER);
 
-            final byte[] currentKeyIn = new byte[BUCKET_SIZE];
-            randomRead.seek(hashedIndex);
-
-            //read in key at this hash location.
-            final int read = randomRead.read(currentKeyIn);
-
-            if (read <= 0) {
+            //if the index grew while we waited the key may have been split into a new bucket, follow it
+            while(hashedIndex != linearHashing.getBucketOffset(hash)) {
                 lock.releaseLock(CacheLocks.LockType.READER);
-                //file should have been initialized to hash size
-                throw new RuntimeException("hash was not initialized properly");
+                hashedIndex = linearHashing.getBucketOffset(hash);
+                lock = getLock(hashedIndex);
+                lock.getLock(CacheLocks.LockType.READER);
             }
 
-            //convert the values read into an index
-            long blobIndex = bytesToLong(currentKeyIn);
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
 
             Long returnVal = null;
 
             if (blobIndex >= 0) {
 
-                //if there is values on this hash
-                final Set<Pair<byte[], Long>> blobs = blobManager.getBlobsAt(blobIndex);
-
-                if (blobs == null) {
-                    lock.releaseLock(CacheLocks.LockType.READER);
-                    //data corrupt lets remove our reference.
-                    throw new ReadFailure("there should have been blobs at blobIndex");
-                } else {
-
-                    for (Pair<byte[], Long> blob : blobs) {
-
-                        if (equals(blob.getOne(), key)) {
-
-                            //return the value mapped to this key
-                            returnVal = blob.getTwo();
-                            break;
-
-                        }
-
-                    }
-
-                }
+                //if there is values on this hash scan the bucket for our key
+                returnVal = blobManager.getValue(blobIndex, key);
 
             }
 
@@ -298,9 +292,11 @@ public class StreamingFileHash {
                 return null;
             }
 
+            final CacheLocks bucketLock = lock;
+
             return new WrappingInputStream(dataManager.getBlobsAt(returnVal)) {
 
-                private CacheLocks myLock = lock;
+                private CacheLocks myLock = bucketLock;
 
                 private synchronized void giveLockOnce() {
 
@@ -308,7 +304,7 @@ public class StreamingFileHash {
                         return;
                     }
 
-                    lock.releaseLock(CacheLocks.LockType.READER);
+                    bucketLock.releaseLock(CacheLocks.LockType.READER);
 
                     myLock = null;
 
@@ -342,39 +338,110 @@ public class StreamingFileHash {
 
         } catch (InterruptedException e) {
             throw new ReadFailure("failed to read interrupted", e);
-        } finally {
-            localAccess.giveReader(randomRead);
         }
         
     }
 
-    public void remove(byte [] key) throws ReadFailure, WriteFailure {
+    /**
+     * Sends a value to target without reading it into the heap, see {@link #transferTo(byte[], long, long, WritableByteChannel)}.
+     */
+    public long transferTo(
+      final byte [] key,
+      final WritableByteChannel target
+    ) throws ReadFailure {
+        return transferTo(key, 0, Long.MAX_VALUE, target);
+    }
 
-        final long limitedHash = Math.abs(hashCode(key)) % hashSize; //limit the hash size
-        
-        final long hashedIndex = limitedHash * (BUCKET_SIZE);
+    /**
+     * Sends part of a value straight from the file to target with FileChannel.transferTo, to a socket on linux
+     * that's sendfile. The bucket's read lock is held until it's all been sent so the value can't be overwritten
+     * or moved under it, writers to the bucket wait on a slow target. The target should be blocking.
+     *
+     * @param key
+     * @param offset - into the value, past the end sends nothing
+     * @param count - most bytes to send, whatever is left of the value if it's shorter
+     * @param target - isn't closed
+     * @return bytes sent, -1 if the key isn't there
+     * @throws ReadFailure - also if the target failed, some of the range may have been sent
+     */
+    public long transferTo(
+      final byte [] key,
+      final long offset,
+      final long count,
+      final WritableByteChannel target
+    ) throws ReadFailure {
 
-        final CacheLocks lock = getLock(hashedIndex);
+        if(offset < 0 || count < 0) {
+            throw new IllegalArgumentException("invalid range " + offset + " " + count);
+        }
+
+        final long hash = keyHasher.hash(key);
+
+        long hashedIndex = linearHashing.getBucketOffset(hash);
 
-        final RandomAccessFile randomRead = localAccess.getReader();
-        final RandomAccessFile randomWrite = localAccess.getWriter();
+        CacheLocks lock = getLock(hashedIndex);
 
         try {
 
-            lock.getLock(CacheLocks.LockType.WRITER);
+            lock.getLock(CacheLocks.LockType.READER);
 
-            final byte[] currentKeyIn = new byte[BUCKET_SIZE];
-            randomRead.seek(hashedIndex);
+            //if the index grew while we waited the key may have been split into a new bucket, follow it
+            while(hashedIndex != linearHashing.getBucketOffset(hash)) {
+                lock.releaseLock(CacheLocks.LockType.READER);
+                hashedIndex = linearHashing.getBucketOffset(hash);
+                lock = getLock(hashedIndex);
+                lock.getLock(CacheLocks.LockType.READER);
+            }
+
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
+
+            if (blobIndex < 0) {
+                return -1;
+            }
 
-            //read in key at this hash location.
-            final int read = randomRead.read(currentKeyIn);
+            final Long valueIndex = blobManager.getValue(blobIndex, key);
 
-            if (read <= 0) {
-                throw new RuntimeException("hash was not initialized properly");
+            if (valueIndex == null) {
+                return -1;
             }
 
-            //convert to an index
-            final long blobIndex = bytesToLong(currentKeyIn);
+            if(dataManager instanceof SegmentedStreamingDataManager) {
+                return ((SegmentedStreamingDataManager) dataManager).transferTo(valueIndex, offset, count, target);
+            }
+
+            return ((LogStreamingDataManager) dataManager).transferTo(valueIndex, offset, count, target);
+
+        } catch (IOException e) {
+            throw new ReadFailure("failed hash blob", e);
+        } catch (InterruptedException e) {
+            throw new ReadFailure("failed to read interrupted", e);
+        } finally {
+            lock.releaseLock(CacheLocks.LockType.READER);
+        }
+
+    }
+
+    public void remove(byte [] key) throws ReadFailure, WriteFailure {
+
+        final long hash = keyHasher.hash(key);
+
+        long hashedIndex = linearHashing.getBucketOffset(hash);
+
+        CacheLocks lock = getLock(hashedIndex);
+
+        try {
+
+            lock.getLock(CacheLocks.LockType.WRITER);
+
+            //if the index grew while we waited the key may have been split into a new bucket, follow it
+            while(hashedIndex != linearHashing.getBucketOffset(hash)) {
+                lock.releaseLock(CacheLocks.LockType.WRITER);
+                hashedIndex = linearHashing.getBucketOffset(hash);
+                lock = getLock(hashedIndex);
+                lock.getLock(CacheLocks.LockType.WRITER);
+            }
+
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
 
             //if there is a value on this hash, retrieve its value
             if (blobIndex >= 0) {
@@ -385,10 +452,7 @@ public class StreamingFileHash {
 
                 if (blobs == null) { //data corrupt lets remove our reference.
 
-                    final byte[] bytesIndex = longToByteArray(-1L);
-
-                    randomWrite.seek(hashedIndex);
-                    randomWrite.write(bytesIndex);
+                    hashIndex.setPointer(hashedIndex, -1L);
 
                 } else {
 
@@ -408,6 +472,8 @@ public class StreamingFileHash {
 
                 if (removing != null) {
 
+                    linearHashing.removed();
+
                     //save the blobs after removing the value mapped to our key
                     blobs.remove(removing);
 
@@ -417,22 +483,19 @@ public class StreamingFileHash {
 
                         //if blobs is empty, remove the hash as well.
 
-                        final byte[] bytesIndex = longToByteArray(-1L);
-
-                        randomWrite.seek(hashedIndex);
-                        randomWrite.write(bytesIndex);
+                        hashIndex.setPointer(hashedIndex, -1L);
 
                     } else {
 
                         final long newAddress = blobManager.setBlobs(blobIndex, blobs);
 
-                        final byte[] bytesIndex = longToByteArray(newAddress);
-
-                        randomWrite.seek(hashedIndex);
-                        randomWrite.write(bytesIndex);
+                        hashIndex.setPointer(hashedIndex, newAddress);
 
                     }
 
+                    //nothing points at the value anymore, its segment can be reused (and compacted away)
+                    dataManager.eraseBlobs(removing.getTwo());
+
                 }
 
             }
@@ -451,35 +514,19 @@ public class StreamingFileHash {
         } finally {
 
             lock.releaseLock(CacheLocks.LockType.WRITER);
-            localAccess.giveReader(randomRead);
-            localAccess.giveWriter(randomWrite);
 
         }
                 
     }
 
-    private void delete(int hashedIndex) throws ReadFailure, WriteFailure {
-
-        final RandomAccessFile randomRead = localAccess.getReader();
-        final RandomAccessFile randomWrite = localAccess.getWriter();
+    private void delete(long hashedIndex) throws ReadFailure, WriteFailure {
 
         final CacheLocks lock = getLock(hashedIndex);
 
         try {
 
             lock.getLock(CacheLocks.LockType.WRITER);
-            final byte[] currentKeyIn = new byte[BUCKET_SIZE];
-            randomRead.seek(hashedIndex);
-
-            //read in key at this hash location.
-            final int read = randomRead.read(currentKeyIn);
-
-            if (read <= 0) {
-                throw new RuntimeException("hash was not initialized properly");
-            }
-
-            //convert to an index
-            long blobIndex = bytesToLong(currentKeyIn);
+            final long blobIndex = hashIndex.getPointer(hashedIndex);
 
             //if there is a value on this hash, retrieve its value
             if (blobIndex >= 0) {
@@ -495,10 +542,7 @@ public class StreamingFileHash {
 
                 //if blobs is empty, remove the hash as well.
 
-                final byte[] bytesIndex = longToByteArray(-1L);
-
-                randomWrite.seek(hashedIndex);
-                randomWrite.write(bytesIndex);
+                hashIndex.setPointer(hashedIndex, -1L);
 
             }
 
@@ -518,39 +562,319 @@ public class StreamingFileHash {
 
             lock.releaseLock(CacheLocks.LockType.WRITER);
 
-            localAccess.giveReader(randomRead);
-            localAccess.giveWriter(randomWrite);
-
         }
 
     }
 
     public void clear() throws ReadFailure, WriteFailure {
 
-        try {
-            for (int i = 0; i < hashSize; i++) {
-                delete(i * (BUCKET_SIZE));
+        synchronized (compactionLock) {
+
+            //no splitting while the buckets are emptied, the index goes back to its initial size after
+            final long buckets = linearHashing.beginClear();
+
+            try {
+                for (long i = 0; i < buckets; i++) {
+                    delete(i * (BUCKET_SIZE));
+                }
             }
+            catch (Exception e) {
+
+                try {
+                    hashIndex.clear();
+                }
+                catch (Exception e2) {
+                    logger.error("Failed to clear hash index", e2);
+                }
+
+            }
+            finally {
+                linearHashing.endClear();
+            }
+
+            blobManager.clear();
+
+        }
+        
+    }
+
+    /**
+     * Moves buckets and then values into free segments nearer the front of their segment files, last segment
+     * first, then truncates the free space left at the end of each. A file is only compacted if more of it is free
+     * than {@link StorageOptions#withSegmentCompaction(double, long)} allows and the copying is throttled to its
+     * rate. The bucket a segment belongs to is locked while it's moved, everything else carries on.
+     *
+     * Runs in the background when segment compaction is turned on, does nothing with {@link StorageEngine#LOG}.
+     *
+     * @return bytes the segment files shrank by
+     */
+    @Override
+    public long compact() throws ReadFailure, WriteFailure {
+
+        if(!(blobManager instanceof BlobsSegmentedStreamingHashDataManager) || !(dataManager instanceof SegmentedStreamingDataManager)) {
+            return 0;
         }
-        catch (Exception e) {
 
-            SegmentedFile.delete(file.getAbsolutePath());
+        final SegmentedFile blobFile = ((BlobsSegmentedStreamingHashDataManager) blobManager).getSegmentedFile();
+        final SegmentedFile dataFile = ((SegmentedStreamingDataManager) dataManager).getSegmentedFile();
+
+        synchronized (compactor) { //one pass at a time
+
+            final boolean compactBlobs = compactor.needsCompaction(blobFile);
+            final boolean compactData = compactor.needsCompaction(dataFile);
+
+            if(!compactBlobs && !compactData) {
+                return 0;
+            }
+
+            compactor.startPass();
+
+            final List<long []> buckets;
 
             try {
-                initFile();
+                buckets = SegmentCompactor.bucketsByPointer(hashIndex, linearHashing.getBucketCount());
+            }
+            catch (IOException e) {
+                throw new ReadFailure("failed to read hash index " + e.getMessage(), e);
+            }
+
+            long reclaimed = 0;
+
+            if(compactBlobs) {
+
+                for(final long [] bucket : buckets) {
+
+                    final int moved = moveBucket(blobFile, bucket[0], bucket[1]);
+
+                    if(moved > 0) {
+                        compactor.throttle(moved);
+                    }
+
+                }
+
+                reclaimed += blobFile.truncateFreeTail();
+
             }
-            catch (Exception e2) {
-                logger.error("Failed to init file", e2);
+
+            if(compactData) {
+
+                for(final long [] value : valuesByPointer(buckets)) {
+
+                    final int moved = moveValue(dataFile, value[0], value[1]);
+
+                    if(moved > 0) {
+                        compactor.throttle(moved);
+                    }
+
+                }
+
+                reclaimed += dataFile.truncateFreeTail();
+
             }
 
+            return reclaimed;
+
         }
-        
-        blobManager.clear();
-        
+
+    }
+
+    /**
+     * @return [bucket offset, value pointer] of every value in the buckets, furthest into the data file first
+     */
+    private List<long []> valuesByPointer(List<long []> buckets) throws ReadFailure {
+
+        final List<long []> returnVal = new ArrayList<>();
+
+        for(final long [] bucket : buckets) {
+
+            final CacheLocks lock = getLock(bucket[0]);
+
+            try {
+
+                lock.getLock(CacheLocks.LockType.READER);
+
+                final long blobIndex = hashIndex.getPointer(bucket[0]);
+
+                if(blobIndex < 0) {
+                    continue;
+                }
+
+                for(final Pair<byte[], Long> blob : blobManager.getBlobsAt(blobIndex)) {
+                    returnVal.add(new long [] {bucket[0], blob.getTwo()});
+                }
+
+            }
+            catch (IOException e) {
+                throw new ReadFailure("failed to read hash index " + e.getMessage(), e);
+            }
+            catch (InterruptedException e) {
+                throw new ReadFailure("interrupted reading bucket " + bucket[0], e);
+            }
+            finally {
+                lock.releaseLock(CacheLocks.LockType.READER);
+            }
+
+        }
+
+        returnVal.sort(Comparator.comparingLong((long [] value) -> value[1]).reversed());
+
+        return returnVal;
+
+    }
+
+    /**
+     * @return bytes copied, 0 if the bucket didn't move
+     */
+    private int moveBucket(SegmentedFile blobFile, long hashedIndex, long blobIndex) throws ReadFailure, WriteFailure {
+
+        synchronized (compactionLock) {
+
+            final CacheLocks lock = getLock(hashedIndex);
+
+            try {
+
+                lock.getLock(CacheLocks.LockType.WRITER);
+
+                //it was written, split or cleared since we looked
+                if(hashedIndex >= linearHashing.getBucketCount() * BUCKET_SIZE || hashIndex.getPointer(hashedIndex) != blobIndex) {
+                    return 0;
+                }
+
+                final long moved = blobFile.relocate(blobIndex);
+
+                if(moved < 0) {
+                    return 0;
+                }
+
+                hashIndex.setPointer(hashedIndex, moved);
+
+                blobManager.eraseBlobs(blobIndex);
+
+                return blobFile.getSegmentLength(moved);
+
+            }
+            catch (IOException e) {
+                throw new WriteFailure("failed to move bucket " + hashedIndex + " " + e.getMessage(), e);
+            }
+            catch (InterruptedException e) {
+                throw new WriteFailure("interrupted moving bucket " + hashedIndex, e);
+            }
+            finally {
+                lock.releaseLock(CacheLocks.LockType.WRITER);
+            }
+
+        }
+
     }
 
+    /**
+     * Moves one value and points its bucket entry at the new segment.
+     *
+     * @return bytes copied, 0 if the value didn't move
+     */
+    private int moveValue(SegmentedFile dataFile, long hashedIndex, long valueIndex) throws ReadFailure, WriteFailure {
+
+        synchronized (compactionLock) {
+
+            final CacheLocks lock = getLock(hashedIndex);
+
+            try {
+
+                lock.getLock(CacheLocks.LockType.WRITER);
+
+                if(hashedIndex >= linearHashing.getBucketCount() * BUCKET_SIZE) {
+                    return 0;
+                }
+
+                final long blobIndex = hashIndex.getPointer(hashedIndex);
+
+                if(blobIndex < 0) {
+                    return 0;
+                }
+
+                final Set<Pair<byte[], Long>> blobs = blobManager.getBlobsAt(blobIndex);
+
+                Pair<byte[], Long> entry = null;
+
+                for(final Pair<byte[], Long> blob : blobs) {
+                    if(blob.getTwo() == valueIndex) {
+                        entry = blob;
+                        break;
+                    }
+                }
+
+                //it was overwritten or removed since we looked
+                if(entry == null) {
+                    return 0;
+                }
+
+                final long moved = dataFile.relocate(valueIndex);
+
+                if(moved < 0) {
+                    return 0;
+                }
+
+                blobs.remove(entry);
+                blobs.add(new Pair<>(entry.getOne(), moved));
+
+                //same keys and pointer sizes, the bucket is rewritten where it is
+                final long blobIndexAfterSet = blobManager.setBlobs(blobIndex, blobs);
+
+                if(blobIndexAfterSet != blobIndex) {
+                    hashIndex.setPointer(hashedIndex, blobIndexAfterSet);
+                }
+
+                dataManager.eraseBlobs(valueIndex);
+
+                return dataFile.getSegmentLength(moved);
+
+            }
+            catch (IOException e) {
+                throw new WriteFailure("failed to move value in bucket " + hashedIndex + " " + e.getMessage(), e);
+            }
+            catch (InterruptedException e) {
+                throw new WriteFailure("interrupted moving value in bucket " + hashedIndex, e);
+            }
+            finally {
+                lock.releaseLock(CacheLocks.LockType.WRITER);
+            }
+
+        }
+
+    }
+
+    /**
+     * @return buckets in the hash index right now, grows in the background as entries are added
+     */
+    public long getBucketCount() {
+        return linearHashing.getBucketCount();
+    }
+
+    /**
+     * Reads every bucket to see how evenly keys are spread, a well distributed hash has most buckets near the
+     * average and few long collision sets.
+     *
+     * @return number of buckets by entries in them, [0] is empty buckets, [n] buckets with n entries
+     * @throws ReadFailure
+     */
+    public long [] getOccupancyHistogram() throws ReadFailure {
+        return linearHashing.getOccupancyHistogram();
+    }
+
+    /**
+     * @return the hash function buckets are addressed with
+     */
+    public KeyHasher getKeyHasher() {
+        return keyHasher;
+    }
+
+    /**
+     * @deprecated buckets are addressed with the {@link KeyHasher} from {@link StorageOptions#withKeyHasher(KeyHasher)},
+     * overriding this doesn't change where keys go
+     */
+    @Deprecated
     public int hashCode(byte[] bytes) {
-        return Arrays.hashCode(bytes);
+        return (int) keyHasher.hash(bytes);
     }
 
     public boolean equals(byte[] key1, byte[] key2) {
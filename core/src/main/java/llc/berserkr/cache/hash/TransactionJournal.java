@@ -0,0 +1,345 @@
+package llc.berserkr.cache.hash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Write ahead records of the transactions running against a {@link SegmentedFile}, kept in a sidecar next to the
+ * segment file (root + ".txn") so the number of transactions in flight isn't limited by the kilobyte reserved at the
+ * front of the segment file.
+ *
+ * [magic 4][version 4] then fixed slots of {@link #SLOT_SIZE} bytes
+ *
+ * A transaction takes a slot, writes its record (see {@link SegmentedTransactions}) and zeroes the slot when it's
+ * done, so any slot that isn't zero when the journal is opened was in flight when we stopped and is handed to
+ * {@link SegmentedFile#validateData()} to reverse or finish.
+ *
+ * Free slots are a bitmap of longs claimed with compare and set. A semaphore holds a permit for every free slot
+ * so taking one never has to spin over a full bitmap, when they're all in use the caller blocks until one is
+ * given back.
+ */
+class TransactionJournal implements Flushable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionJournal.class);
+
+    static final int SLOT_SIZE = 24;
+
+    private static final int MAGIC = 0x54584A31; //TXJ1
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte [] EMPTY_SLOT = new byte[SLOT_SIZE];
+
+    private final File file;
+    private final int slots;
+
+    private final RandomAccessFile random;
+    private final FileChannel channel;
+
+    private final AtomicLongArray used;
+    private final Semaphore free;
+
+    //slots that weren't zero when the journal was opened, slot address to record
+    private final TreeMap<Long, byte []> open = new TreeMap<>();
+
+    /**
+     * @param file - sidecar the journal lives in
+     * @param slots - transactions that can be in flight at once
+     * @param durability - the journal is opened the same way as the segment file
+     */
+    TransactionJournal(final File file, final int slots, final DurabilityPolicy durability) {
+
+        if(slots <= 0) {
+            throw new IllegalArgumentException("transaction slots must be positive " + slots);
+        }
+
+        this.file = file;
+        this.slots = slots;
+
+        this.used = new AtomicLongArray((slots + Long.SIZE - 1) / Long.SIZE);
+        this.free = new Semaphore(slots);
+
+        try {
+
+            random = new RandomAccessFile(file, durability.getAccessMode());
+            channel = random.getChannel();
+
+            load();
+
+            //open slots stay taken until they're replayed and ended
+            for(final long address : open.keySet()) {
+
+                final int slot = slotIndex(address);
+
+                if(slot < slots) {
+                    used.getAndUpdate(slot / Long.SIZE, bits -> bits | (1L << (slot % Long.SIZE)));
+                    free.tryAcquire();
+                }
+
+            }
+
+            //slots open from a bigger journal stay until they're ended, everything new fits in the configured slots
+            final long length = open.isEmpty() ? slotAddress(slots) : Math.max(slotAddress(slots), open.lastKey() + SLOT_SIZE);
+
+            random.setLength(length);
+
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("couldn't open the transaction journal " + file, e);
+        }
+
+    }
+
+    /**
+     * @return slot address to record of every slot in the journal that isn't zero
+     */
+    Map<Long, byte []> getOpen() throws IOException {
+        return readOpen();
+    }
+
+    /**
+     * Takes a free slot and writes the record into it, blocks while every slot is in use.
+     *
+     * @param record - at most {@link #SLOT_SIZE} bytes
+     * @return the slot address
+     */
+    long begin(byte [] record) throws IOException, InterruptedException {
+
+        if(record.length > SLOT_SIZE) {
+            throw new IllegalArgumentException("transaction record must be at most " + SLOT_SIZE + " bytes");
+        }
+
+        free.acquire();
+
+        final long address = slotAddress(claim());
+
+        write(address, 0, record);
+
+        return address;
+
+    }
+
+    /**
+     * Writes part of a record in a slot that's already been taken
+     */
+    void write(long address, int offset, byte [] bytes) throws IOException {
+
+        checkAddress(address);
+
+        if(offset < 0 || offset + bytes.length > SLOT_SIZE) {
+            throw new IllegalArgumentException("write doesn't fit in the slot " + offset + " " + bytes.length);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = address + offset;
+
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+    }
+
+    /**
+     * Zeroes the slot and gives it back.
+     */
+    void end(long address) throws IOException {
+
+        write(address, 0, EMPTY_SLOT);
+
+        synchronized (open) {
+            open.remove(address);
+        }
+
+        final int slot = slotIndex(address);
+
+        if(slot >= slots) {
+            return; //left over from a bigger journal, it was never one of ours to give back
+        }
+
+        final int word = slot / Long.SIZE;
+        final long bit = 1L << (slot % Long.SIZE);
+
+        //ending a slot twice mustn't hand out a permit that isn't backed by a slot
+        if((used.getAndUpdate(word, bits -> bits & ~bit) & bit) != 0) {
+            free.release();
+        }
+
+    }
+
+    /**
+     * @return slots that are free right now
+     */
+    int getFreeSlots() {
+        return free.availablePermits();
+    }
+
+    int getSlots() {
+        return slots;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    void close() {
+
+        try {
+            random.close();
+        }
+        catch (IOException e) {
+            logger.warn("couldn't close transaction journal " + file, e);
+        }
+
+    }
+
+    /**
+     * @return a slot index that's now ours, there has to be a permit held for it
+     */
+    private int claim() {
+
+        //start threads in different words so they don't all fight over the first one
+        final int words = used.length();
+        final int start = ThreadLocalRandom.current().nextInt(words);
+
+        while(true) {
+
+            for(int i = 0; i < words; i++) {
+
+                final int word = (start + i) % words;
+
+                while(true) {
+
+                    final long bits = used.get(word);
+                    final long available = ~bits & wordMask(word);
+
+                    if(available == 0) {
+                        break;
+                    }
+
+                    final long bit = Long.lowestOneBit(available);
+
+                    if(used.compareAndSet(word, bits, bits | bit)) {
+                        return word * Long.SIZE + Long.numberOfTrailingZeros(bit);
+                    }
+
+                }
+
+            }
+
+            //the permit says a slot is free, it was given back after we looked at its word
+            Thread.yield();
+
+        }
+
+    }
+
+    /**
+     * @return the bits of the word that are slots, the last word can be short
+     */
+    private long wordMask(int word) {
+
+        final int bitsInWord = Math.min(Long.SIZE, slots - word * Long.SIZE);
+
+        return bitsInWord == Long.SIZE ? -1L : (1L << bitsInWord) - 1;
+
+    }
+
+    private static int slotIndex(long address) {
+        return (int) ((address - HEADER_SIZE) / SLOT_SIZE);
+    }
+
+    private static long slotAddress(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    private void checkAddress(long address) {
+
+        //open slots from a bigger journal are still valid addresses until they're ended
+        final boolean wasOpen;
+
+        synchronized (open) {
+            wasOpen = open.containsKey(address);
+        }
+
+        if(!wasOpen && (address < HEADER_SIZE || address >= slotAddress(slots) || (address - HEADER_SIZE) % SLOT_SIZE != 0)) {
+            throw new IllegalArgumentException("not a transaction slot " + address);
+        }
+
+    }
+
+    private void load() throws IOException {
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        if(channel.size() >= HEADER_SIZE) {
+
+            channel.read(header, 0);
+            header.flip();
+
+            if(header.getInt() == MAGIC && header.getInt() == VERSION) {
+                open.putAll(readOpen());
+                return;
+            }
+
+            logger.warn("transaction journal isn't one we can read, starting a new one " + file);
+
+        }
+
+        //new journal, the header goes down before any slot can be used
+        header.clear();
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+
+        channel.truncate(0);
+        channel.write(header, 0);
+        channel.force(true);
+
+    }
+
+    private TreeMap<Long, byte []> readOpen() throws IOException {
+
+        final TreeMap<Long, byte []> returnVal = new TreeMap<>();
+
+        final long length = channel.size();
+
+        for(long address = HEADER_SIZE; address + SLOT_SIZE <= length; address += SLOT_SIZE) {
+
+            final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+
+            while(slot.hasRemaining() && channel.read(slot, address + slot.position()) > 0);
+
+            if(!isEmpty(slot.array())) {
+                returnVal.put(address, slot.array());
+            }
+
+        }
+
+        return returnVal;
+
+    }
+
+    private static boolean isEmpty(byte [] slot) {
+
+        for(final byte b : slot) {
+            if(b != 0) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+}
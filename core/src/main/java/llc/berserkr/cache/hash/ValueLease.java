@@ -0,0 +1,58 @@
+package llc.berserkr.cache.hash;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A value handed out without copying it, see {@link FileHash#lease(byte[])}. The bucket the value is in can't be
+ * written, moved or split until the lease is closed, so the buffer stays what it was when it was looked up.
+ *
+ * The buffer mustn't be used after the lease is closed, with mapped segments it's a view of the file and could be
+ * anything by then. Close it as soon as the value has been sent on, writers to the bucket wait for it. It can be
+ * closed from a different thread than the one that took it and closing it more than once does nothing.
+ */
+public class ValueLease implements AutoCloseable {
+
+    private final ByteBuffer buffer;
+    private final CacheLocks lock;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    ValueLease(final ByteBuffer buffer, final CacheLocks lock) {
+        this.buffer = buffer;
+        this.lock = lock;
+    }
+
+    /**
+     * @return a read only view of the value, position 0 to its length
+     */
+    public ByteBuffer getBuffer() {
+
+        if(closed.get()) {
+            throw new IllegalStateException("lease was already released");
+        }
+
+        return buffer;
+
+    }
+
+    /**
+     * @return bytes in the value
+     */
+    public int getLength() {
+        return buffer.limit();
+    }
+
+    /**
+     * Releases the bucket.
+     */
+    @Override
+    public void close() {
+
+        if(closed.compareAndSet(false, true)) {
+            lock.releaseLock(CacheLocks.LockType.READER);
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package llc.berserkr.cache.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * xxHash64 with seed 0.
+ */
+class XxHash64KeyHasher implements KeyHasher {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    @Override
+    public long hash(byte[] key) {
+
+        final int length = key.length;
+
+        final ByteBuffer words = ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN);
+
+        int offset = 0;
+        long hash;
+
+        if(length >= 32) {
+
+            long v1 = P1 + P2;
+            long v2 = P2;
+            long v3 = 0;
+            long v4 = -P1;
+
+            final int limit = length - 32;
+
+            do {
+
+                v1 = round(v1, words.getLong(offset));
+                v2 = round(v2, words.getLong(offset + 8));
+                v3 = round(v3, words.getLong(offset + 16));
+                v4 = round(v4, words.getLong(offset + 24));
+
+                offset += 32;
+
+            } while(offset <= limit);
+
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+
+        }
+        else {
+            hash = P5;
+        }
+
+        hash += length;
+
+        while(offset + 8 <= length) {
+
+            hash ^= round(0, words.getLong(offset));
+            hash = Long.rotateLeft(hash, 27) * P1 + P4;
+
+            offset += 8;
+
+        }
+
+        if(offset + 4 <= length) {
+
+            hash ^= (words.getInt(offset) & 0xFFFFFFFFL) * P1;
+            hash = Long.rotateLeft(hash, 23) * P2 + P3;
+
+            offset += 4;
+
+        }
+
+        while(offset < length) {
+
+            hash ^= (key[offset] & 0xFF) * P5;
+            hash = Long.rotateLeft(hash, 11) * P1;
+
+            offset++;
+
+        }
+
+        hash ^= hash >>> 33;
+        hash *= P2;
+        hash ^= hash >>> 29;
+        hash *= P3;
+        hash ^= hash >>> 32;
+
+        return hash;
+
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+
+    @Override
+    public String getName() {
+        return "xxhash64";
+    }
+
+}
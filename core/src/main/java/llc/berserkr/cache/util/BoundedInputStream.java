@@ -0,0 +1,65 @@
+package llc.berserkr.cache.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads exactly length bytes of the wrapped stream, it ends there even if the wrapped one doesn't and throws an
+ * EOFException if the wrapped one ends first. Closing it doesn't close the wrapped stream.
+ */
+public class BoundedInputStream extends InputStream {
+
+    private final InputStream internal;
+
+    private long remaining;
+
+    public BoundedInputStream(final InputStream toWrap, final long length) {
+
+        if(toWrap == null) {
+            throw new NullPointerException("ToWrap must not be null");
+        }
+
+        this.internal = toWrap;
+        this.remaining = length;
+
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        final byte [] single = new byte[1];
+
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if(len == 0) {
+            return 0;
+        }
+
+        if(remaining <= 0) {
+            return -1;
+        }
+
+        final int read = internal.read(b, off, (int) Math.min(len, remaining));
+
+        if(read < 0) {
+            throw new EOFException("stream ended " + remaining + " bytes short");
+        }
+
+        remaining -= read;
+
+        return read;
+
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(internal.available(), remaining);
+    }
+
+}
@@ -16,7 +16,9 @@ public class SizeCountingInputStream extends WrappingInputStream {
 		
 		final int returnVal = super.read();
 		
-		totalRead ++;
+		if(returnVal >= 0) { //not the end
+			totalRead ++;
+		}
 		
 		return returnVal;
 		
@@ -27,7 +29,9 @@ public class SizeCountingInputStream extends WrappingInputStream {
 		
 		final int returnVal = super.read(b);
 		
-		totalRead += returnVal;
+		if(returnVal > 0) {
+			totalRead += returnVal;
+		}
 		
 		return returnVal;
 		
@@ -39,7 +43,9 @@ public class SizeCountingInputStream extends WrappingInputStream {
 		
 		final int returnVal = super.read(b, off, len);
 		
-		totalRead += returnVal;
+		if(returnVal > 0) {
+			totalRead += returnVal;
+		}
 		
 		return returnVal;
 		
@@ -0,0 +1,167 @@
+package compare;
+
+import llc.berserkr.cache.hash.SegmentReference;
+import llc.berserkr.cache.hash.SegmentedFile;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Read throughput of the segment reference as threads are added, striped with optimistic reads against every call
+ * going through one monitor (how the reference used to be locked).
+ */
+public class SegmentReferenceCompareTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentReferenceCompareTest.class);
+
+    private static final int SEGMENTS = 100000;
+    private static final int OPS_PER_THREAD = 1000000;
+    private static final double WRITER_RATIO = 0.01;
+
+    private static final long SEGMENT_STRIDE = 4096 + 9;
+
+    @Test
+    public void benchmarkReadScaling() throws InterruptedException {
+
+        final SegmentReference reference = new SegmentReference();
+
+        for(int i = 0; i < SEGMENTS; i++) {
+            reference.setSegmentType(address(i), SegmentedFile.BOUND_STATE);
+            reference.setSegmentSize(address(i), 4096);
+        }
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        //at least 4 threads so contention shows up on small machines too
+        final int maxThreads = Math.max(cores, 4);
+
+        final List<Integer> threadCounts = new ArrayList<>();
+
+        for(int threads = 1; threads < maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+
+        threadCounts.add(maxThreads);
+
+        //warmup
+        run(reference, 2, OPS_PER_THREAD / 10, false);
+        run(reference, 2, OPS_PER_THREAD / 10, true);
+
+        logger.info("");
+        logger.info("╔══════════════════════════════════════════════════════════════════╗");
+        logger.info("║              SEGMENT REFERENCE READ SCALING (" + String.format("%3d", cores) + " cores)           ║");
+        logger.info("╠══════════════════════════════════════════════════════════════════╣");
+        logger.info(String.format("║  %-10s %20s %20s %9s  ║", "Threads", "One monitor", "Striped", "Speedup"));
+        logger.info("╠══════════════════════════════════════════════════════════════════╣");
+
+        for(final int threads : threadCounts) {
+
+            final double monitor = run(reference, threads, OPS_PER_THREAD, true);
+            final double striped = run(reference, threads, OPS_PER_THREAD, false);
+
+            logger.info(String.format("║  %-10d %15.0f op/s %15.0f op/s %8.2fx  ║", threads, monitor, striped, striped / monitor));
+
+        }
+
+        logger.info("╚══════════════════════════════════════════════════════════════════╝");
+
+        //the writes only ever set what was there
+        for(int i = 0; i < SEGMENTS; i++) {
+            assertEquals(4096, reference.getSegmentSize(address(i)));
+            assertEquals(SegmentedFile.BOUND_STATE, (byte) reference.getSegmentType(address(i)));
+        }
+
+    }
+
+    /**
+     * @return operations a second
+     */
+    private double run(SegmentReference reference, int threads, int opsPerThread, boolean oneMonitor) throws InterruptedException {
+
+        final Object monitor = new Object();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong checksum = new AtomicLong();
+
+        for(int t = 0; t < threads; t++) {
+
+            final Thread thread = new Thread(() -> {
+
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                long sum = 0;
+
+                try {
+
+                    start.await();
+
+                    for(int op = 0; op < opsPerThread; op++) {
+
+                        final long address = address(random.nextInt(SEGMENTS));
+                        final boolean write = random.nextDouble() < WRITER_RATIO;
+
+                        if(oneMonitor) {
+                            synchronized (monitor) {
+                                sum += operate(reference, address, write);
+                            }
+                        }
+                        else {
+                            sum += operate(reference, address, write);
+                        }
+
+                    }
+
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    checksum.addAndGet(sum);
+                    done.countDown();
+                }
+
+            });
+
+            thread.setDaemon(true);
+            thread.start();
+
+        }
+
+        final long startTime = System.nanoTime();
+
+        start.countDown();
+        done.await();
+
+        final long elapsed = System.nanoTime() - startTime;
+
+        logger.debug("checksum " + checksum.get());
+
+        return (double) threads * opsPerThread * 1_000_000_000L / elapsed;
+
+    }
+
+    private static long operate(SegmentReference reference, long address, boolean write) {
+
+        if(write) {
+            reference.setSegmentSize(address, 4096);
+            return 0;
+        }
+
+        return reference.getSegmentSize(address);
+
+    }
+
+    private static long address(int segment) {
+        return 1024 + segment * SEGMENT_STRIDE;
+    }
+
+}
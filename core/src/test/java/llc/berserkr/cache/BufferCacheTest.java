@@ -0,0 +1,225 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.StorageEngine;
+import llc.berserkr.cache.hash.StorageOptions;
+import llc.berserkr.cache.hash.ValueLease;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferCacheTest {
+
+    public static File tempDir = new File("./test-files");
+    private File cacheDir;
+
+    //no background splits moving buckets around while a test holds a lease
+    private static final StorageOptions OPTIONS = StorageOptions.defaults()
+        .withDurability(DurabilityPolicy.OS_BUFFERED)
+        .withMappedSegments(true)
+        .withMaxLoadFactor(0);
+
+    @BeforeEach
+    public void setUp() {
+        deleteRoot(tempDir);
+        cacheDir = new File(tempDir, "BufferCache");
+        cacheDir.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteRoot(tempDir);
+    }
+
+    private void deleteRoot(File root) {
+        if (root.exists()) {
+            if (root.isDirectory()) {
+                File[] children = root.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        deleteRoot(child);
+                    }
+                }
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testLeaseValues() throws ResourceException {
+
+        final BufferCache cache = new BufferCache(cacheDir, 100, OPTIONS);
+
+        for(int i = 0; i < 500; i++) {
+            cache.put(key(i), ByteBuffer.wrap(("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        //direct buffer and a heap buffer that's only part of its array
+        final ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put("direct value".getBytes(StandardCharsets.UTF_8)).flip();
+
+        final ByteBuffer partial = ByteBuffer.wrap("xxpartial valuexx".getBytes(StandardCharsets.UTF_8), 2, 13);
+
+        cache.put(key(1000), direct);
+        cache.put(key(1001), partial);
+
+        assertEquals(0, direct.position());
+        assertEquals(2, partial.position());
+
+        for(int i = 0; i < 500; i++) {
+
+            try(final ValueLease lease = cache.get(key(i))) {
+
+                assertNotNull(lease);
+                assertTrue(lease.getBuffer().isReadOnly());
+                assertEquals(("value" + i).length(), lease.getLength());
+                assertEquals("value" + i, string(lease.getBuffer()));
+
+            }
+
+        }
+
+        try(final ValueLease lease = cache.get(key(1000))) {
+            assertEquals("direct value", string(lease.getBuffer()));
+        }
+
+        try(final ValueLease lease = cache.get(key(1001))) {
+            assertEquals("partial value", string(lease.getBuffer()));
+        }
+
+        assertNull(cache.get(key(2000)));
+        assertFalse(cache.exists(key(2000)));
+        assertTrue(cache.exists(key(3)));
+
+        cache.remove(key(3));
+
+        assertNull(cache.get(key(3)));
+
+        cache.clear();
+
+        assertNull(cache.get(key(4)));
+
+    }
+
+    @Test
+    public void testLeaseHoldsBucket() throws Exception {
+
+        final BufferCache cache = new BufferCache(cacheDir, 100, OPTIONS);
+
+        cache.put(key(1), ByteBuffer.wrap("first".getBytes(StandardCharsets.UTF_8)));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+
+            final ValueLease lease = cache.get(key(1));
+            final ByteBuffer leased = lease.getBuffer();
+
+            final Future<?> writer = executor.submit(() -> {
+                cache.put(key(1), ByteBuffer.wrap("second, and longer than the first".getBytes(StandardCharsets.UTF_8)));
+                return null;
+            });
+
+            //the writer waits for the lease
+            assertThrows(TimeoutException.class, () -> writer.get(300, TimeUnit.MILLISECONDS));
+            assertEquals("first", string(leased));
+
+            //closed from another thread than the one that took it
+            final CountDownLatch closed = new CountDownLatch(1);
+
+            executor.submit(() -> {
+                lease.close();
+                closed.countDown();
+            });
+
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+
+            writer.get(5, TimeUnit.SECONDS);
+
+            lease.close(); //doesn't release the lock a second time
+
+            assertThrows(IllegalStateException.class, lease::getBuffer);
+
+            try(final ValueLease second = cache.get(key(1))) {
+                assertEquals("second, and longer than the first", string(second.getBuffer()));
+            }
+
+            //if the second close had released a lock the writer would get through here
+            final ValueLease held = cache.get(key(1));
+
+            final Future<?> blocked = executor.submit(() -> {
+                cache.remove(key(1));
+                return null;
+            });
+
+            assertThrows(TimeoutException.class, () -> blocked.get(300, TimeUnit.MILLISECONDS));
+
+            held.close();
+
+            blocked.get(5, TimeUnit.SECONDS);
+
+            assertNull(cache.get(key(1)));
+
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    @Test
+    public void testUnmappedAndLog() throws ResourceException {
+
+        final BufferCache heap = new BufferCache(new File(cacheDir, "heap"), 100, OPTIONS.withMappedSegments(false));
+        final BufferCache log = new BufferCache(new File(cacheDir, "log"), 100, OPTIONS.withStorageEngine(StorageEngine.LOG));
+
+        for(int i = 0; i < 200; i++) {
+            heap.put(key(i), ByteBuffer.wrap(("value" + i).getBytes(StandardCharsets.UTF_8)));
+            log.put(key(i), ByteBuffer.wrap(("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        for(int i = 0; i < 200; i++) {
+
+            try(final ValueLease lease = heap.get(key(i))) {
+                assertEquals("value" + i, string(lease.getBuffer()));
+            }
+
+            try(final ValueLease lease = log.get(key(i))) {
+                assertEquals("value" + i, string(lease.getBuffer()));
+            }
+
+        }
+
+        assertNull(heap.get(key(500)));
+        assertNull(log.get(key(500)));
+
+    }
+
+    private static byte [] key(int i) {
+        return ("key" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+
+        final byte [] bytes = new byte[buffer.remaining()];
+
+        buffer.duplicate().get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+}
@@ -2,6 +2,8 @@ package llc.berserkr.cache;
 
 import llc.berserkr.cache.converter.*;
 import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.StorageOptions;
 import llc.berserkr.cache.util.StreamUtil;
 import llc.berserkr.cache.util.StringUtilities;
 import org.junit.jupiter.api.AfterEach;
@@ -11,11 +13,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -737,4 +744,141 @@ public class BytesFileCacheTest {
         
     }
 	
+
+    @Test
+    public void durabilityPoliciesTest() throws ResourceException {
+
+        for(final DurabilityPolicy durability : DurabilityPolicy.values()) {
+
+            final File dataFolder = new File(TEST_ROOT, "durability-" + durability);
+
+            final Map<String, String> expected = new HashMap<>();
+
+            {
+                final Cache<String, byte []> cache = new KeyConvertingCache<>(
+                    new BytesFileCache(dataFolder, durability), new ReverseConverter<>(new BytesStringConverter())
+                );
+
+                for(int i = 0; i < 200; i++) {
+
+                    final String key = "key" + i;
+                    final String value = StringUtilities.repeat(UUID.randomUUID().toString(), 1 + (i % 7));
+
+                    cache.put(key, value.getBytes());
+                    expected.put(key, value);
+
+                    if(i % 5 == 0) {
+                        cache.remove("key" + (i / 2));
+                        expected.remove("key" + (i / 2));
+                    }
+
+                }
+            }
+
+            //reopen and make sure everything made it to the files
+            final Cache<String, byte []> reopened = new KeyConvertingCache<>(
+                new BytesFileCache(dataFolder, durability), new ReverseConverter<>(new BytesStringConverter())
+            );
+
+            for(int i = 0; i < 200; i++) {
+
+                final String key = "key" + i;
+                final byte [] value = reopened.get(key);
+
+                if(expected.containsKey(key)) {
+                    assertEquals(expected.get(key), new String(value), durability + " " + key);
+                }
+                else {
+                    assertNull(value, durability + " " + key);
+                }
+
+            }
+
+        }
+
+    }
+
+    @Test
+    public void groupCommitConcurrentPutsTest() throws Exception {
+
+        final File dataFolder = new File(TEST_ROOT, "group-commit");
+
+        final StorageOptions options = StorageOptions.defaults()
+            .withDurability(DurabilityPolicy.GROUP_COMMIT)
+            .withGroupCommit(500, 16);
+
+        final int threads = 32;
+        final int perThread = 25;
+
+        {
+            final Cache<String, byte []> cache = new KeyConvertingCache<>(
+                new BytesFileCache(dataFolder, options), new ReverseConverter<>(new BytesStringConverter())
+            );
+
+            final ExecutorService pool = Executors.newFixedThreadPool(threads);
+            final List<Future<?>> futures = new ArrayList<>();
+
+            for(int t = 0; t < threads; t++) {
+
+                final int thread = t;
+
+                futures.add(pool.submit(() -> {
+
+                    for(int i = 0; i < perThread; i++) {
+
+                        final String key = "t" + thread + "-" + i;
+                        cache.put(key, StringUtilities.repeat(key, 1 + (i % 5)).getBytes());
+
+                        if(i % 4 == 0) {
+                            cache.remove("t" + thread + "-" + (i / 2));
+                        }
+
+                    }
+
+                    return null;
+
+                }));
+
+            }
+
+            for(final Future<?> future : futures) {
+                future.get(); //rethrows anything a writer hit
+            }
+
+            pool.shutdown();
+        }
+
+        //reopen, every put that returned has to be in the files
+        final Cache<String, byte []> reopened = new KeyConvertingCache<>(
+            new BytesFileCache(dataFolder, options), new ReverseConverter<>(new BytesStringConverter())
+        );
+
+        for(int t = 0; t < threads; t++) {
+
+            final Set<Integer> removed = new HashSet<>();
+
+            for(int i = 0; i < perThread; i++) {
+                if(i % 4 == 0) {
+                    removed.add(i / 2);
+                }
+            }
+
+            for(int i = 0; i < perThread; i++) {
+
+                final String key = "t" + t + "-" + i;
+                final byte [] value = reopened.get(key);
+
+                if(removed.contains(i)) {
+                    assertNull(value, key);
+                }
+                else {
+                    assertEquals(StringUtilities.repeat(key, 1 + (i % 5)), new String(value), key);
+                }
+
+            }
+
+        }
+
+    }
+
 }
@@ -2,8 +2,14 @@ package llc.berserkr.cache;
 import llc.berserkr.cache.data.Pair;
 import llc.berserkr.cache.exception.ReadFailure;
 import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.BlobsSegmentedStreamingHashDataManager;
+import llc.berserkr.cache.hash.DurabilityPolicy;
 import llc.berserkr.cache.hash.FileHash;
+import llc.berserkr.cache.hash.IoBackend;
 import llc.berserkr.cache.hash.SegmentedBytesDataManager;
+import llc.berserkr.cache.hash.StorageOptions;
+import llc.berserkr.cache.hash.StreamingFileHash;
+import llc.berserkr.cache.util.DataUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,10 +18,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -195,6 +205,209 @@ public class BytesFileHashTest {
 
     }
 
+    @Test
+    public void testMappedIndex() throws ReadFailure, WriteFailure, IOException {
+
+        final File root = new File(cacheDir, "./temp-hash-mapped");
+        final File dataFolder = new File(cacheDir, "./segmentData");
+
+        deleteRoot(root);
+        deleteRoot(dataFolder);
+
+        final int TEST_COUNT = 100;
+
+        for(final DurabilityPolicy durability : DurabilityPolicy.values()) {
+
+            final StorageOptions options = StorageOptions.defaults().withDurability(durability).withMappedIndex(true);
+
+            final FileHash hash = new FileHash(root, dataFolder, 1000, options);
+
+            for(int i = 0; i < TEST_COUNT; i++) {
+
+                hash.put(String.valueOf(i).getBytes(StandardCharsets.UTF_8), String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+
+                assertEquals(String.valueOf(i), new String(hash.get(String.valueOf(i).getBytes(StandardCharsets.UTF_8))));
+
+            }
+
+            for(int i = 0; i < TEST_COUNT; i += 2) {
+                hash.remove(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+            }
+
+            //the mapped and seek/read indexes share the file format
+            final FileHash reopened = new FileHash(root, dataFolder, 1000, StorageOptions.defaults().withDurability(durability));
+
+            for(int i = 0; i < TEST_COUNT; i++) {
+
+                final byte [] segInput = reopened.get(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+
+                if(i % 2 == 0) {
+                    assertNull(segInput, durability + " " + i);
+                }
+                else {
+                    assertEquals(String.valueOf(i), new String(segInput), durability + " " + i);
+                }
+
+            }
+
+            hash.clear();
+
+            for(int i = 0; i < TEST_COUNT; i++) {
+                assertNull(hash.get(String.valueOf(i).getBytes(StandardCharsets.UTF_8)));
+            }
+
+            checkFileEmpty(root);
+
+            deleteRoot(root);
+            deleteRoot(dataFolder);
+            new File(dataFolder.getPath() + ".free").delete();
+
+        }
+
+    }
+
+    @Test
+    public void testIndexResizing() throws Exception {
+
+        final File root = new File(cacheDir, "./temp-hash-resize");
+        final File dataFolder = new File(cacheDir, "./segmentData");
+
+        final StorageOptions options = StorageOptions.defaults().withMaxLoadFactor(2);
+
+        final FileHash hash = new FileHash(root, dataFolder, 8, options);
+
+        assertEquals(8, hash.getBucketCount());
+
+        final int threads = 8;
+        final int perThread = 250;
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        for(int t = 0; t < threads; t++) {
+
+            final int thread = t;
+
+            //buckets are being split under these
+            futures.add(pool.submit(() -> {
+
+                for(int i = 0; i < perThread; i++) {
+
+                    final byte [] key = ("key" + thread + "-" + i).getBytes(StandardCharsets.UTF_8);
+
+                    hash.put(key, key);
+                    assertArrayEquals(key, hash.get(key));
+
+                }
+
+                return null;
+
+            }));
+
+        }
+
+        for(final Future<?> future : futures) {
+            future.get();
+        }
+
+        pool.shutdown();
+
+        final long deadline = System.currentTimeMillis() + 30000;
+
+        while(hash.getBucketCount() < threads * perThread / 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(hash.getBucketCount() >= threads * perThread / 2, "index didn't grow " + hash.getBucketCount());
+
+        for(int t = 0; t < threads; t++) {
+            for(int i = 0; i < perThread; i += 2) {
+                hash.remove(("key" + t + "-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        //progress is persisted, a reopened hash addresses the same buckets
+        final FileHash reopened = new FileHash(root, dataFolder, 8, options);
+
+        assertEquals(hash.getBucketCount(), reopened.getBucketCount());
+
+        for(int t = 0; t < threads; t++) {
+            for(int i = 0; i < perThread; i++) {
+
+                final byte [] key = ("key" + t + "-" + i).getBytes(StandardCharsets.UTF_8);
+
+                if(i % 2 == 0) {
+                    assertNull(reopened.get(key));
+                }
+                else {
+                    assertArrayEquals(key, reopened.get(key));
+                }
+
+            }
+        }
+
+        reopened.clear();
+
+        assertEquals(8, reopened.getBucketCount());
+        assertNull(reopened.get("key0-1".getBytes(StandardCharsets.UTF_8)));
+
+        checkFileEmpty(root);
+
+    }
+
+    @Test
+    public void testIndexResizeRecovery() throws Exception {
+
+        final File root = new File(cacheDir, "./temp-hash-resize-recovery");
+        final File meta = new File(root.getPath() + ".meta");
+        final File dataFolder = new File(cacheDir, "./segmentData");
+
+        final StorageOptions options = StorageOptions.defaults().withMaxLoadFactor(1);
+
+        final FileHash hash = new FileHash(root, dataFolder, 4, options);
+
+        int keys = 0;
+
+        for(; keys < 64; keys++) {
+            hash.put(("key" + keys).getBytes(StandardCharsets.UTF_8), String.valueOf(keys).getBytes(StandardCharsets.UTF_8));
+        }
+
+        waitForBuckets(hash, 64);
+
+        final byte [] before = Files.readAllBytes(meta.toPath());
+
+        //one more key is over the load, one more split happens
+        for(; keys < 65; keys++) {
+            hash.put(("key" + keys).getBytes(StandardCharsets.UTF_8), String.valueOf(keys).getBytes(StandardCharsets.UTF_8));
+        }
+
+        waitForBuckets(hash, 65);
+
+        //put the progress back to before that split, like a crash after moving the keys but before persisting
+        Files.write(meta.toPath(), before);
+
+        final FileHash recovered = new FileHash(root, dataFolder, 4, options.withMaxLoadFactor(0));
+
+        assertEquals(65, recovered.getBucketCount());
+
+        for(int i = 0; i < keys; i++) {
+            assertEquals(String.valueOf(i), new String(recovered.get(("key" + i).getBytes(StandardCharsets.UTF_8))));
+        }
+
+    }
+
+    private void waitForBuckets(FileHash hash, long buckets) throws InterruptedException {
+
+        final long deadline = System.currentTimeMillis() + 30000;
+
+        while(hash.getBucketCount() < buckets && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(buckets, hash.getBucketCount());
+
+    }
+
     @Test
     public void testManagerSegCreation() {
 
@@ -231,6 +444,433 @@ public class BytesFileHashTest {
 
     }
 
+    @Test
+    public void testFindValue() {
+
+        final Set<Pair<byte [], byte []>> pairsBytes = new HashSet<>();
+
+        for(int i = 0; i < 1000; i++) {
+            pairsBytes.add(new Pair<>(("key" + i).getBytes(StandardCharsets.UTF_8), ("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        pairsBytes.add(new Pair<>("empty".getBytes(StandardCharsets.UTF_8), new byte[0]));
+
+        final byte [] pairData = SegmentedBytesDataManager.getPairData(pairsBytes);
+
+        for(int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, new String(SegmentedBytesDataManager.findValue(pairData, pairData.length, ("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+        }
+
+        assertArrayEquals(new byte[0], SegmentedBytesDataManager.findValue(pairData, pairData.length, "empty".getBytes(StandardCharsets.UTF_8)));
+
+        //a key that is a prefix of the stored keys isn't a match
+        assertNull(SegmentedBytesDataManager.findValue(pairData, pairData.length, "key".getBytes(StandardCharsets.UTF_8)));
+        assertNull(SegmentedBytesDataManager.findValue(pairData, pairData.length, "key1000".getBytes(StandardCharsets.UTF_8)));
+
+        //only the filled part of a reused buffer is looked at
+        final byte [] buffer = Arrays.copyOf(pairData, pairData.length * 2);
+
+        assertEquals("value7", new String(SegmentedBytesDataManager.findValue(buffer, pairData.length, "key7".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+        assertNull(SegmentedBytesDataManager.findValue(buffer, 0, "key7".getBytes(StandardCharsets.UTF_8)));
+        assertNull(SegmentedBytesDataManager.findValue(pairData, 10, "key7".getBytes(StandardCharsets.UTF_8)));
+
+    }
+
+    @Test
+    public void testBucketFormatVersions() throws IOException {
+
+        final Set<Pair<byte [], byte []>> pairsBytes = new HashSet<>();
+
+        for(int i = 0; i < 100; i++) {
+            pairsBytes.add(new Pair<>(("key" + i).getBytes(StandardCharsets.UTF_8), ("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        //buckets written before fingerprints, [count][[pairLength][keyLength][key][value] * count]
+        final ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+
+        legacy.write(DataUtils.charToBytes((char) pairsBytes.size()));
+
+        for(Pair<byte [], byte []> pair : pairsBytes) {
+            legacy.write(DataUtils.intToByteArray(pair.getOne().length + pair.getTwo().length));
+            legacy.write(DataUtils.intToByteArray(pair.getOne().length));
+            legacy.write(pair.getOne());
+            legacy.write(pair.getTwo());
+        }
+
+        final byte [] legacyData = legacy.toByteArray();
+
+        final Set<Pair<byte [], byte []>> restored = SegmentedBytesDataManager.getSegmentPairs(legacyData);
+
+        assertEquals(100, restored.size());
+
+        for(int i = 0; i < 100; i++) {
+            assertEquals("value" + i, new String(SegmentedBytesDataManager.findValue(legacyData, legacyData.length, ("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+        }
+
+        assertNull(SegmentedBytesDataManager.findValue(legacyData, legacyData.length, "key100".getBytes(StandardCharsets.UTF_8)));
+
+        //writing the bucket back moves it to the fingerprinted version
+        final byte [] migrated = SegmentedBytesDataManager.getPairData(restored);
+
+        assertEquals((byte) 0xFF, migrated[0]);
+        assertEquals((byte) 0xFF, migrated[1]);
+        assertEquals(2, migrated[2]);
+        assertEquals(legacyData.length + 5 + 4 * 100, migrated.length);
+
+        for(int i = 0; i < 100; i++) {
+            assertEquals("value" + i, new String(SegmentedBytesDataManager.findValue(migrated, migrated.length, ("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+        }
+
+        assertEquals(100, SegmentedBytesDataManager.getSegmentPairs(migrated).size());
+
+        //pointer buckets of the streaming hash
+        final Set<Pair<byte [], Long>> pointers = new HashSet<>();
+
+        for(int i = 0; i < 100; i++) {
+            pointers.add(new Pair<>(("key" + i).getBytes(StandardCharsets.UTF_8), (long) i * 1024));
+        }
+
+        final byte [] pointerData = BlobsSegmentedStreamingHashDataManager.getPairData(pointers);
+
+        for(int i = 0; i < 100; i++) {
+            assertEquals((long) i * 1024, BlobsSegmentedStreamingHashDataManager.findPointer(pointerData, pointerData.length, ("key" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        assertNull(BlobsSegmentedStreamingHashDataManager.findPointer(pointerData, pointerData.length, "nope".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(100, BlobsSegmentedStreamingHashDataManager.getSegmentPairs(pointerData).size());
+
+    }
+
+    @Test
+    public void testCollidingBucketGets() throws ReadFailure, WriteFailure {
+
+        final File root = new File(cacheDir, "./temp-hash-colliding");
+        final File dataFolder = new File(cacheDir, "./segmentData");
+
+        //one bucket that never splits, every key is in the same segment
+        final FileHash hash = new FileHash(root, dataFolder, 1, StorageOptions.defaults().withMaxLoadFactor(0));
+
+        for(int i = 0; i < 500; i++) {
+            hash.put(("key" + i).getBytes(StandardCharsets.UTF_8), ("value" + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        //bigger than the buffer a thread keeps
+        final byte [] large = new byte[2 * 1024 * 1024];
+        new Random(7).nextBytes(large);
+
+        hash.put("large".getBytes(StandardCharsets.UTF_8), large);
+
+        assertEquals(1, hash.getBucketCount());
+
+        for(int i = 0; i < 500; i++) {
+            assertEquals("value" + i, new String(hash.get(("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+            assertNull(hash.get(("miss" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        assertArrayEquals(large, hash.get("large".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("value3", new String(hash.get("key3".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+        hash.remove("key3".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(hash.get("key3".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("value4", new String(hash.get("key4".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+    }
+
+    @Test
+    public void testCompaction() throws ReadFailure, WriteFailure {
+
+        final File root = new File(cacheDir, "./temp-hash-compaction");
+        final File dataFolder = new File(cacheDir, "./segmentData");
+
+        final StorageOptions options = StorageOptions.defaults()
+            .withDurability(DurabilityPolicy.OS_BUFFERED)
+            .withMaxLoadFactor(0);
+
+        final File segments = new File(dataFolder.getPath());
+
+        {
+            final FileHash hash = new FileHash(root, dataFolder, 200, options);
+
+            for(int i = 0; i < 2000; i++) {
+                hash.put(("key" + i).getBytes(StandardCharsets.UTF_8), ("value" + i + " " + "x".repeat(200)).getBytes(StandardCharsets.UTF_8));
+            }
+
+            //most of the keys go, the buckets left are spread all over the file
+            for(int i = 0; i < 2000; i++) {
+                if(i % 10 != 0) {
+                    hash.remove(("key" + i).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            final long lengthBefore = segments.length();
+
+            final long reclaimed = hash.compact();
+
+            assertTrue(reclaimed > 0);
+            assertEquals(lengthBefore - reclaimed, segments.length());
+            assertTrue(segments.length() < lengthBefore / 2, segments.length() + " < " + lengthBefore / 2);
+
+            for(int i = 0; i < 2000; i += 10) {
+                assertEquals("value" + i + " " + "x".repeat(200), new String(hash.get(("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+            }
+
+            //writes carry on after
+            hash.put("key1".getBytes(StandardCharsets.UTF_8), "back".getBytes(StandardCharsets.UTF_8));
+        }
+
+        final FileHash reopened = new FileHash(root, dataFolder, 200, options);
+
+        for(int i = 0; i < 2000; i++) {
+
+            final byte [] value = reopened.get(("key" + i).getBytes(StandardCharsets.UTF_8));
+
+            if(i == 1) {
+                assertEquals("back", new String(value, StandardCharsets.UTF_8));
+            }
+            else if(i % 10 == 0) {
+                assertEquals("value" + i + " " + "x".repeat(200), new String(value, StandardCharsets.UTF_8));
+            }
+            else {
+                assertNull(value);
+            }
+
+        }
+
+    }
+
+    @Test
+    public void testStreamingCompaction() throws ReadFailure, WriteFailure, IOException {
+
+        final File root = new File(cacheDir, "./temp-hash-streaming-compaction");
+        final File blobFile = new File(cacheDir, "./blobs");
+        final File dataFile = new File(cacheDir, "./data");
+
+        final StorageOptions options = StorageOptions.defaults()
+            .withDurability(DurabilityPolicy.OS_BUFFERED)
+            .withMaxLoadFactor(0);
+
+        final StreamingFileHash hash = new StreamingFileHash(root, blobFile, dataFile, new File(cacheDir, "./temp"), 100, options);
+
+        for(int i = 0; i < 500; i++) {
+            hash.put(("key" + i).getBytes(StandardCharsets.UTF_8), new ByteArrayInputStream(("value" + i + " " + "y".repeat(1000)).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        for(int i = 0; i < 500; i++) {
+            if(i % 5 != 0) {
+                hash.remove(("key" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        final long dataBefore = dataFile.length();
+
+        assertTrue(hash.compact() > 0);
+        assertTrue(dataFile.length() < dataBefore / 2, dataFile.length() + " < " + dataBefore / 2);
+
+        for(int i = 0; i < 500; i++) {
+
+            try(final InputStream in = hash.get(("key" + i).getBytes(StandardCharsets.UTF_8))) {
+
+                if(i % 5 == 0) {
+                    assertEquals("value" + i + " " + "y".repeat(1000), new String(DataUtils.convertInputStreamToBytes(in), StandardCharsets.UTF_8));
+                }
+                else {
+                    assertNull(in);
+                }
+
+            }
+
+        }
+
+    }
+
+    @Test
+    public void testChannelBackend() throws Exception {
+
+        final File root = new File(cacheDir, "./temp-hash-channel");
+        final File dataFolder = new File(cacheDir, "./segmentData");
+
+        final StorageOptions options = StorageOptions.defaults()
+            .withDurability(DurabilityPolicy.OS_BUFFERED)
+            .withMaxLoadFactor(0) //no background splits still writing while it's reopened
+            .withIoBackend(IoBackend.CHANNEL);
+
+        {
+            final FileHash hash = new FileHash(root, dataFolder, 100, options);
+
+            try(final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+                final List<Future<?>> puts = new ArrayList<>();
+
+                for(int i = 0; i < 1000; i++) {
+
+                    final int key = i;
+
+                    puts.add(executor.submit(() -> {
+                        hash.put(("key" + key).getBytes(StandardCharsets.UTF_8), ("value" + key).getBytes(StandardCharsets.UTF_8));
+                        return null;
+                    }));
+
+                }
+
+                for(final Future<?> put : puts) {
+                    put.get();
+                }
+
+            }
+
+            for(int i = 0; i < 1000; i++) {
+                assertEquals("value" + i, new String(hash.get(("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+            }
+        }
+
+        //the files are the same as the random access ones
+        final FileHash reopened = new FileHash(root, dataFolder, 100, options.withIoBackend(IoBackend.RANDOM_ACCESS));
+
+        for(int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, new String(reopened.get(("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+        }
+
+        final StreamingFileHash streaming = new StreamingFileHash(
+            new File(cacheDir, "./temp-hash-channel-streaming"), new File(cacheDir, "./blobs"), new File(cacheDir, "./data"), new File(cacheDir, "./temp"), 100, options
+        );
+
+        for(int i = 0; i < 200; i++) {
+            streaming.put(("key" + i).getBytes(StandardCharsets.UTF_8), new ByteArrayInputStream(("value" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        for(int i = 0; i < 200; i++) {
+            try(final InputStream in = streaming.get(("key" + i).getBytes(StandardCharsets.UTF_8))) {
+                assertEquals("value" + i, new String(DataUtils.convertInputStreamToBytes(in), StandardCharsets.UTF_8));
+            }
+        }
+
+    }
+
+    @Test
+    public void testMappedSegments() throws ReadFailure, WriteFailure, IOException {
+
+        final StorageOptions options = StorageOptions.defaults()
+            .withDurability(DurabilityPolicy.OS_BUFFERED)
+            .withMappedSegments(true);
+
+        final FileHash hash = new FileHash(new File(cacheDir, "./temp-hash-mapped"), new File(cacheDir, "./segmentData"), 100, options);
+
+        final StreamingFileHash streaming = new StreamingFileHash(
+            new File(cacheDir, "./temp-hash-mapped-streaming"), new File(cacheDir, "./blobs"), new File(cacheDir, "./data"), new File(cacheDir, "./temp"), 100, options
+        );
+
+        for(int round = 0; round < 3; round++) {
+
+            //values get rewritten and grow so segments move and the files keep getting longer than the mapping
+            for(int i = 0; i < 300; i++) {
+                hash.put(("key" + i).getBytes(StandardCharsets.UTF_8), ("value" + i + " " + "x".repeat(round * 100)).getBytes(StandardCharsets.UTF_8));
+                streaming.put(("key" + i).getBytes(StandardCharsets.UTF_8), new ByteArrayInputStream(("value" + i + " " + "y".repeat(round * 100)).getBytes(StandardCharsets.UTF_8)));
+            }
+
+            for(int i = 0; i < 300; i++) {
+
+                assertEquals("value" + i + " " + "x".repeat(round * 100), new String(hash.get(("key" + i).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+                try(final InputStream in = streaming.get(("key" + i).getBytes(StandardCharsets.UTF_8))) {
+                    assertEquals("value" + i + " " + "y".repeat(round * 100), new String(DataUtils.convertInputStreamToBytes(in), StandardCharsets.UTF_8));
+                }
+
+            }
+
+        }
+
+        hash.remove("key5".getBytes(StandardCharsets.UTF_8));
+        streaming.remove("key5".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(hash.get("key5".getBytes(StandardCharsets.UTF_8)));
+        assertNull(streaming.get("key5".getBytes(StandardCharsets.UTF_8)));
+
+    }
+
+    @Test
+    public void testChainedValues() throws Exception {
+
+        //no background splits still writing while it's reopened
+        final StorageOptions options = StorageOptions.defaults()
+            .withDurability(DurabilityPolicy.OS_BUFFERED)
+            .withMaxLoadFactor(0);
+
+        final File dataFile = new File(cacheDir, "./data");
+        final File tempDirectory = new File(cacheDir, "./temp");
+
+        final StreamingFileHash hash = new StreamingFileHash(
+            new File(cacheDir, "./temp-hash-chained"), new File(cacheDir, "./blobs"), dataFile, tempDirectory, 100, options
+        );
+
+        //one segment, exactly one link, just over and well over
+        final int [] sizes = {10, 64 * 1024, 64 * 1024 + 1, 300_000, 1_500_000};
+
+        final Map<String, byte []> values = new HashMap<>();
+
+        for(int round = 0; round < 3; round++) {
+
+            for(int i = 0; i < 20; i++) {
+
+                final byte [] value = new byte[sizes[(i + round) % sizes.length]];
+                new Random(round * 100 + i).nextBytes(value);
+
+                //small reads so links are filled from more than one read
+                hash.put(("key" + i).getBytes(StandardCharsets.UTF_8), new BufferedInputStream(new ByteArrayInputStream(value), 1000));
+
+                values.put("key" + i, value);
+
+            }
+
+            for(final Map.Entry<String, byte []> entry : values.entrySet()) {
+                try(final InputStream in = hash.get(entry.getKey().getBytes(StandardCharsets.UTF_8))) {
+                    assertArrayEquals(entry.getValue(), DataUtils.convertInputStreamToBytes(in), entry.getKey());
+                }
+            }
+
+        }
+
+        //nothing was spooled
+        final String [] temp = tempDirectory.list();
+        assertTrue(temp == null || temp.length == 0);
+
+        //overwritten chains were given back and reused
+        final long total = values.values().stream().mapToLong(value -> value.length).sum();
+        assertTrue(dataFile.length() < total * 3, "data file " + dataFile.length() + " for " + total + " bytes of values");
+
+        //a stream that fails part way leaves the value that was there
+        final byte [] failing = new byte[500_000];
+
+        final InputStream broken = new SequenceInputStream(new ByteArrayInputStream(failing), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+
+        assertThrows(WriteFailure.class, () -> hash.put("key3".getBytes(StandardCharsets.UTF_8), broken));
+
+        try(final InputStream in = hash.get("key3".getBytes(StandardCharsets.UTF_8))) {
+            assertArrayEquals(values.get("key3"), DataUtils.convertInputStreamToBytes(in));
+        }
+
+        hash.remove("key4".getBytes(StandardCharsets.UTF_8));
+        values.remove("key4");
+
+        assertNull(hash.get("key4".getBytes(StandardCharsets.UTF_8)));
+
+        final StreamingFileHash reopened = new StreamingFileHash(
+            new File(cacheDir, "./temp-hash-chained"), new File(cacheDir, "./blobs"), dataFile, tempDirectory, 100, options
+        );
+
+        for(final Map.Entry<String, byte []> entry : values.entrySet()) {
+            try(final InputStream in = reopened.get(entry.getKey().getBytes(StandardCharsets.UTF_8))) {
+                assertArrayEquals(entry.getValue(), DataUtils.convertInputStreamToBytes(in), entry.getKey());
+            }
+        }
+
+    }
+
 //    private static class LoggingManager implements HashDataManager<byte [], InputStream> {
 //
 //        private final HashDataManager<String, InputStream> internal;
@@ -0,0 +1,343 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.converter.BytesStringConverter;
+import llc.berserkr.cache.converter.ReverseConverter;
+import llc.berserkr.cache.converter.SerializingConverter;
+import llc.berserkr.cache.eviction.ArcPolicy;
+import llc.berserkr.cache.eviction.ClockPolicy;
+import llc.berserkr.cache.eviction.EvictionPolicy;
+import llc.berserkr.cache.eviction.LfuPolicy;
+import llc.berserkr.cache.eviction.LruPolicy;
+import llc.berserkr.cache.eviction.SlruPolicy;
+import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.StorageOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EvictionPoliciesTest {
+
+    public static File tempDir = new File("./test-files");
+
+    private static final StorageOptions OPTIONS = StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED);
+
+    @BeforeEach
+    public void setUp() {
+        deleteRoot(tempDir);
+        tempDir.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteRoot(tempDir);
+    }
+
+    private void deleteRoot(File root) {
+        if (root.exists()) {
+            if (root.isDirectory()) {
+                File[] children = root.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        deleteRoot(child);
+                    }
+                }
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testLru() {
+
+        final LruPolicy policy = new LruPolicy();
+
+        policy.onInsert("a", 1);
+        policy.onInsert("b", 2);
+        policy.onInsert("c", 3);
+        policy.onAccess("a");
+
+        assertEquals(List.of("b"), policy.selectVictims(1));
+        assertEquals(List.of("b", "c"), policy.selectVictims(3));
+
+        //picking doesn't remove
+        assertEquals(List.of("b"), policy.selectVictims(2));
+
+        policy.onRemove("b");
+
+        assertEquals(List.of("c", "a"), policy.selectVictims(10));
+
+    }
+
+    @Test
+    public void testClock() {
+
+        final ClockPolicy policy = new ClockPolicy();
+
+        policy.onInsert("a", 1);
+        policy.onInsert("b", 1);
+        policy.onInsert("c", 1);
+        policy.onAccess("a");
+
+        //a gets its second chance
+        assertEquals(List.of("b"), policy.selectVictims(1));
+
+        policy.onRemove("b");
+
+        assertEquals(List.of("c"), policy.selectVictims(1));
+
+        policy.onRemove("c");
+
+        //goes in behind the hand, a's bit was cleared on the way past so it's next
+        policy.onInsert("d", 1);
+
+        assertEquals(List.of("a", "d"), policy.selectVictims(2));
+
+        //everything referenced, the hand goes all the way around clearing them
+        policy.onAccess("a");
+        policy.onAccess("d");
+
+        assertEquals(2, policy.selectVictims(5).size());
+
+    }
+
+    @Test
+    public void testSlru() {
+
+        final SlruPolicy policy = new SlruPolicy(10);
+
+        for(final String key : List.of("a", "b", "c", "d")) {
+            policy.onInsert(key, 1);
+        }
+
+        policy.onAccess("a");
+
+        assertTrue(policy.isProtected("a"));
+        assertFalse(policy.isProtected("b"));
+
+        //probation goes first, eldest first
+        assertEquals(List.of("b", "c", "d", "a"), policy.selectVictims(4));
+
+        //protected is 80%, past that the eldest fall back to probation
+        for(int i = 0; i < 10; i++) {
+            policy.onInsert("p" + i, 1);
+            policy.onAccess("p" + i);
+        }
+
+        assertFalse(policy.isProtected("a"));
+        assertFalse(policy.isProtected("p0"));
+        assertTrue(policy.isProtected("p9"));
+
+    }
+
+    @Test
+    public void testLfu() throws IOException {
+
+        final File folder = new File(tempDir, "lfu");
+
+        folder.mkdirs();
+
+        final LfuPolicy policy = new LfuPolicy();
+
+        policy.onInsert("a", 1);
+        policy.onInsert("b", 1);
+        policy.onInsert("c", 1);
+
+        policy.onAccess("a");
+        policy.onAccess("a");
+        policy.onAccess("c");
+
+        assertEquals(3, policy.frequency("a"));
+        assertEquals(1, policy.frequency("b"));
+
+        assertEquals(List.of("b"), policy.selectVictims(1));
+        assertEquals(List.of("b", "c"), policy.selectVictims(2));
+
+        //the same use count goes least recently used first
+        policy.onInsert("d", 1);
+
+        assertEquals(List.of("b", "d"), policy.selectVictims(2));
+
+        policy.save(folder);
+
+        final LfuPolicy loaded = new LfuPolicy();
+
+        loaded.load(folder);
+
+        for(final String key : List.of("b", "d", "c", "a")) {
+            loaded.restore(key, 1);
+        }
+
+        assertEquals(3, loaded.frequency("a"));
+        assertEquals(2, loaded.frequency("c"));
+        assertEquals(List.of("b", "d"), loaded.selectVictims(2));
+
+        //a broken state file is the same as none
+        Files.write(new File(folder, "lfu.state").toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+        final LfuPolicy empty = new LfuPolicy();
+
+        empty.load(folder);
+        empty.restore("a", 1);
+
+        assertEquals(1, empty.frequency("a"));
+
+    }
+
+    @Test
+    public void testArc() {
+
+        final ArcPolicy policy = new ArcPolicy(4);
+
+        for(final String key : List.of("a", "b", "c", "d")) {
+            policy.onInsert(key, 1);
+        }
+
+        policy.onAccess("a");
+
+        assertTrue(policy.isFrequent("a"));
+        assertFalse(policy.isFrequent("b"));
+
+        //used once goes first while the target is nothing
+        assertEquals(List.of("b"), policy.selectVictims(1));
+
+        policy.onRemove("b");
+
+        assertEquals(0, policy.getTarget());
+
+        //put again after it was evicted, the recent side was too small
+        policy.onInsert("b", 1);
+
+        assertTrue(policy.getTarget() > 0);
+        assertTrue(policy.isFrequent("b"));
+
+        //a plain remove isn't remembered
+        policy.onRemove("c");
+        policy.onInsert("c", 1);
+
+        assertFalse(policy.isFrequent("c"));
+
+    }
+
+    @Test
+    public void testScanResistance() throws IOException, ResourceException {
+
+        final List<Supplier<EvictionPolicy>> policies = List.of(
+            () -> new SlruPolicy(10),
+            LfuPolicy::new,
+            () -> new ArcPolicy(10)
+        );
+
+        for(final Supplier<EvictionPolicy> policy : policies) {
+
+            final String name = policy.get().getClass().getSimpleName();
+
+            final FilePersistedMaxCountCache<String> cache = countCache(new File(tempDir, name), policy.get(), new ArrayList<>());
+
+            for(int i = 0; i < 5; i++) {
+
+                cache.put("hot" + i, "value" + i);
+
+                for(int j = 0; j < 5; j++) {
+                    assertNotNull(cache.get("hot" + i));
+                }
+
+            }
+
+            for(int i = 0; i < 500; i++) {
+                cache.put("scan" + i, "scanned");
+            }
+
+            assertEquals(10, cache.getCount(), name);
+
+            for(int i = 0; i < 5; i++) {
+                assertEquals("value" + i, cache.get("hot" + i), name);
+            }
+
+        }
+
+    }
+
+    @Test
+    public void testBoundedCaches() throws IOException, ResourceException {
+
+        final List<Supplier<EvictionPolicy>> policies = List.of(
+            LruPolicy::new,
+            ClockPolicy::new,
+            () -> new SlruPolicy(10),
+            LfuPolicy::new,
+            () -> new ArcPolicy(10)
+        );
+
+        for(final Supplier<EvictionPolicy> policy : policies) {
+
+            final String name = policy.get().getClass().getSimpleName();
+            final File root = new File(tempDir, name);
+
+            final List<String> evicted = new ArrayList<>();
+
+            FilePersistedMaxCountCache<String> cache = countCache(root, policy.get(), evicted);
+
+            for(int i = 0; i < 3000; i++) {
+
+                cache.put("key" + i, "value" + i);
+
+                if(i % 3 == 0) {
+                    cache.get("key" + (i / 2));
+                }
+
+            }
+
+            assertEquals(10, cache.getCount(), name);
+            assertEquals(2990, evicted.size(), name);
+
+            int there = 0;
+
+            for(int i = 0; i < 3000; i++) {
+
+                if(cache.exists("key" + i)) {
+                    there++;
+                    assertFalse(evicted.contains("value" + i), name);
+                }
+
+            }
+
+            assertEquals(10, there, name);
+
+            //the same keys after a restart and still bounded
+            cache = countCache(root, policy.get(), evicted);
+
+            assertEquals(10, cache.getCount(), name);
+
+            for(int i = 0; i < 20; i++) {
+                cache.put("after" + i, "value");
+            }
+
+            assertEquals(10, cache.getCount(), name);
+            assertTrue(cache.exists("after19"), name);
+
+        }
+
+    }
+
+    private static FilePersistedMaxCountCache<String> countCache(File root, EvictionPolicy policy, List<String> evicted) throws IOException {
+
+        final Cache<String, String> fileCache = new ValueConvertingCache<String, String, byte[]>(
+            new KeyConvertingCache<String, byte[], byte[]>(new BytesFileCache(new File(root, "data")), new ReverseConverter<>(new BytesStringConverter())),
+            new SerializingConverter<String>()
+        );
+
+        return new FilePersistedMaxCountCache<>(new File(root, "persisting"), fileCache, 10, evicted::add, OPTIONS, policy);
+
+    }
+
+}
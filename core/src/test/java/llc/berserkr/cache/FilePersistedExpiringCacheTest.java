@@ -1,7 +1,9 @@
 package llc.berserkr.cache;
 
+import llc.berserkr.cache.converter.BytesStringConverter;
 import llc.berserkr.cache.converter.Converter;
 import llc.berserkr.cache.converter.ReverseConverter;
+import llc.berserkr.cache.converter.SerializingConverter;
 import llc.berserkr.cache.converter.StringSizeConverter;
 import llc.berserkr.cache.exception.ResourceException;
 import llc.berserkr.cache.util.StopWatch;
@@ -21,6 +23,9 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class FilePersistedExpiringCacheTest {
@@ -311,6 +316,78 @@ public class FilePersistedExpiringCacheTest {
 
 	}
 
+	@Test
+	public void testExpiresByBucket() throws IOException, ResourceException, InterruptedException {
+
+		final File root = new File(TEST_ROOT, "buckets");
+
+		final Cache<String, String> internal = stringCache(new File(root, "data"));
+		final Cache<String, byte []> persisting = persistingCache(new File(root, "expiring"));
+
+		FilePersistedExpiringCache<String> cache = new FilePersistedExpiringCache<String>(internal, persisting, 500, 100);
+
+		cache.put("a", "1");
+		cache.put("b", "2");
+
+		assertNotNull(persisting.get("filePersistedExpiringCache.buckets"));
+
+		Thread.sleep(300);
+
+		cache.put("c", "3");
+		cache.put("a", "4"); //put again, it's in the later bucket now
+
+		cache.remove("c");
+		cache.put("c", "5");
+
+		Thread.sleep(300);
+
+		//a cleanup pass runs on this, b's bucket is expired
+		assertFalse(cache.exists("b"));
+
+		assertFalse(internal.exists("b"));
+		assertNull(persisting.get("filePersistedExpiringCache.lastUpdated.b"));
+
+		assertEquals("4", cache.get("a"));
+		assertEquals("5", cache.get("c"));
+
+		//the buckets are picked up again after a restart
+		cache = new FilePersistedExpiringCache<String>(internal, persisting, 500, 100);
+
+		assertEquals("4", cache.get("a"));
+
+		Thread.sleep(400);
+
+		assertFalse(cache.exists("a"));
+
+		assertFalse(internal.exists("a"));
+		assertFalse(internal.exists("c"));
+
+		Thread.sleep(100);
+
+		cache.put("d", "6");
+
+		//every bucket but d's is gone
+		assertEquals(1, persisting.get("filePersistedExpiringCache.buckets").length / 8 - 1);
+
+		cache.clear();
+
+		assertNull(persisting.get("filePersistedExpiringCache.buckets"));
+		assertFalse(cache.exists("d"));
+
+	}
+
+	private static Cache<String, String> stringCache(File folder) throws IOException {
+		return new ValueConvertingCache<String, String, byte[]>(
+			persistingCache(folder), new SerializingConverter<String>()
+		);
+	}
+
+	private static Cache<String, byte []> persistingCache(File folder) throws IOException {
+		return new KeyConvertingCache<String, byte[], byte[]>(
+			new BytesFileCache(folder), new ReverseConverter<>(new BytesStringConverter())
+		);
+	}
+
 	void deleteRoot(File root) {
 		if (root.exists()) {
 			if (root.isDirectory()) {
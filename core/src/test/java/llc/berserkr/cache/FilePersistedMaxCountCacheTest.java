@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
@@ -192,6 +193,8 @@ public class FilePersistedMaxCountCacheTest {
 
 			Thread.sleep(3000);
 
+			final CountDownLatch reads = new CountDownLatch(9);
+
 			for (int x = 1; x < 10; x++) {
 
 				final int xfinal = x;
@@ -211,6 +214,9 @@ public class FilePersistedMaxCountCacheTest {
 						catch (ResourceException e) {
 							e.printStackTrace();
 						}
+						finally {
+							reads.countDown();
+						}
 
 					}
 
@@ -218,6 +224,8 @@ public class FilePersistedMaxCountCacheTest {
 
 			}
 
+			reads.await(); //a read moves the key to the front, let them finish before the puts that evict them
+
 			for (int x = 500; x < 560; x++) {
 
 				final int xfinal = x;
@@ -483,6 +491,50 @@ public class FilePersistedMaxCountCacheTest {
 
 	}
 
+	@Test
+	public void testGetKeepsValues() throws IOException, ResourceException {
+
+		final File root = new File("./test-files/temp" + UUID.randomUUID() + "/");
+
+		final Cache<String, String> fileCache = new ValueConvertingCache<String, String, byte[]>(
+				new KeyConvertingCache<String, byte[], byte[]>(new BytesFileCache(new File(root, "data")), new ReverseConverter<>(new BytesStringConverter())),
+				new SerializingConverter<String>());
+
+		final List<String> evicted = new ArrayList<>();
+
+		Cache<String, String> cache = new FilePersistedMaxCountCache<String>(new File(root, "persisting"), fileCache, 3, evicted::add);
+
+		cache.put("1", "one");
+		cache.put("2", "two");
+		cache.put("3", "three");
+
+		//read, 1 is used more recently than 2 now
+		assertEquals("one", cache.get("1"));
+
+		cache.put("4", "four");
+
+		assertEquals(List.of("two"), evicted);
+		assertNotNull(cache.get("1"));
+
+		//the read order is journaled with the next write and survives a restart
+		cache.get("3");
+		cache.put("5", "five");
+
+		assertEquals(List.of("two", "four"), evicted);
+
+		cache = new FilePersistedMaxCountCache<String>(new File(root, "persisting"), fileCache, 3, evicted::add);
+
+		cache.put("6", "six");
+
+		assertEquals(List.of("two", "four", "one"), evicted);
+		assertNotNull(cache.get("3"));
+		assertNotNull(cache.get("5"));
+		assertNotNull(cache.get("6"));
+
+		deleteRoot(root);
+
+	}
+
 	void deleteRoot(File root) {
 
 		if (root.exists()) {
@@ -16,6 +16,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -468,6 +469,8 @@ public class FilePersistedMaxSizeCacheTest {
 
 			Thread.sleep(3000);
 
+			final CountDownLatch reads = new CountDownLatch(9);
+
 			for (int x = 1; x < 10; x++) {
 
 				final int xfinal = x;
@@ -489,6 +492,9 @@ public class FilePersistedMaxSizeCacheTest {
                             flag = true;
 							e.printStackTrace();
 						}
+						finally {
+							reads.countDown();
+						}
 
 					}
 
@@ -496,6 +502,8 @@ public class FilePersistedMaxSizeCacheTest {
 
 			}
 
+			reads.await(); //a read moves the key to the front, let them finish before the puts that evict them
+
 			for (int x = 500; x < 560; x++) {
 
 				final int xfinal = x;
@@ -0,0 +1,211 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.FileHash;
+import llc.berserkr.cache.hash.KeyHasher;
+import llc.berserkr.cache.hash.KeyHashers;
+import llc.berserkr.cache.hash.StorageOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyHasherTest {
+
+    private static final File tempDir = new File("./test-files/key-hasher");
+
+    @BeforeEach
+    public void setUp() {
+        deleteRoot(tempDir);
+        tempDir.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteRoot(tempDir);
+    }
+
+    @Test
+    public void testXxHash64() {
+
+        final KeyHasher hasher = KeyHashers.XXHASH64;
+
+        assertEquals(0xEF46DB3751D8E999L, hasher.hash(new byte[0]));
+        assertEquals(0xD24EC4F1A98C6E5BL, hasher.hash(bytes("a")));
+        assertEquals(0x44BC2CF5AD770999L, hasher.hash(bytes("abc")));
+
+        //past 32 bytes, every stage of the algorithm
+        assertEquals(0xFBCEA83C8A378BF1L, hasher.hash(bytes("Nobody inspects the spammish repetition")));
+
+    }
+
+    @Test
+    public void testMurmur3() {
+
+        final KeyHasher hasher = KeyHashers.MURMUR3;
+
+        assertEquals(0L, hasher.hash(new byte[0]));
+        assertEquals(0xcbd8a7b341bd9b02L, hasher.hash(bytes("hello")));
+        assertEquals(0xe34bbc7bbc071b6cL, hasher.hash(bytes("The quick brown fox jumps over the lazy dog")));
+
+    }
+
+    @Test
+    public void testArraysIsPositive() {
+
+        final Random random = new Random(3);
+
+        for(int i = 0; i < 10000; i++) {
+
+            final byte [] key = new byte[random.nextInt(20)];
+            random.nextBytes(key);
+
+            assertTrue(KeyHashers.ARRAYS.hash(key) >= 0);
+
+        }
+
+        assertSame(KeyHashers.ARRAYS, KeyHashers.forName("arrays"));
+        assertSame(KeyHashers.MURMUR3, KeyHashers.forName("murmur3"));
+        assertSame(KeyHashers.XXHASH64, KeyHashers.forName("xxhash64"));
+        assertNull(KeyHashers.forName("nope"));
+
+    }
+
+    @Test
+    public void testHasherIsRecorded() throws ReadFailure, WriteFailure {
+
+        final File root = new File(tempDir, "hash");
+        final File data = new File(tempDir, "data");
+
+        final FileHash hash = new FileHash(root, data, 64, StorageOptions.defaults().withKeyHasher(KeyHashers.MURMUR3));
+
+        hash.put(bytes("key"), bytes("value"));
+
+        //the index says what it was written with
+        final FileHash reopened = new FileHash(root, data, 64);
+
+        assertSame(KeyHashers.MURMUR3, reopened.getKeyHasher());
+        assertEquals("value", new String(reopened.get(bytes("key")), StandardCharsets.UTF_8));
+
+        assertThrows(RuntimeException.class, () -> new FileHash(root, data, 64, StorageOptions.defaults().withKeyHasher(KeyHashers.XXHASH64)));
+
+        //new indexes get the default
+        assertSame(KeyHashers.DEFAULT, new FileHash(new File(tempDir, "hash2"), new File(tempDir, "data2"), 64).getKeyHasher());
+
+    }
+
+    @Test
+    public void testLegacyIndexKeepsArrays() throws ReadFailure, WriteFailure {
+
+        final File root = new File(tempDir, "legacy");
+        final File data = new File(tempDir, "legacy-data");
+
+        final FileHash hash = new FileHash(root, data, 64, StorageOptions.defaults().withKeyHasher(KeyHashers.ARRAYS).withMaxLoadFactor(0));
+
+        hash.put(bytes("key"), bytes("value"));
+
+        //an index from before there was a sidecar
+        assertTrue(new File(root.getPath() + ".meta").delete());
+
+        assertThrows(RuntimeException.class, () -> new FileHash(root, data, 64, StorageOptions.defaults().withKeyHasher(KeyHashers.XXHASH64)));
+
+        final FileHash reopened = new FileHash(root, data, 64);
+
+        assertSame(KeyHashers.ARRAYS, reopened.getKeyHasher());
+        assertEquals("value", new String(reopened.get(bytes("key")), StandardCharsets.UTF_8));
+
+    }
+
+    @Test
+    public void testPowerOfTwoIndex() throws ReadFailure, WriteFailure, InterruptedException {
+
+        final File root = new File(tempDir, "hash");
+        final File data = new File(tempDir, "data");
+
+        final StorageOptions options = StorageOptions.defaults().withPowerOfTwoIndex(true).withMaxLoadFactor(1);
+
+        final FileHash hash = new FileHash(root, data, 1000, options);
+
+        assertEquals(1024, hash.getBucketCount());
+
+        for(int i = 0; i < 2000; i++) {
+            hash.put(bytes("key" + i), bytes("value" + i));
+        }
+
+        for(int i = 0; i < 2000; i++) {
+            assertEquals("value" + i, new String(hash.get(bytes("key" + i)), StandardCharsets.UTF_8));
+        }
+
+        //let the splits finish before another instance opens the files
+        final long deadline = System.currentTimeMillis() + 30000;
+
+        while(hash.getBucketCount() < 2000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        final FileHash reopened = new FileHash(root, data, 1000, options);
+
+        assertEquals(2000, reopened.getBucketCount());
+
+        for(int i = 0; i < 2000; i++) {
+            assertEquals("value" + i, new String(reopened.get(bytes("key" + i)), StandardCharsets.UTF_8));
+        }
+
+    }
+
+    @Test
+    public void testOccupancyHistogram() throws ReadFailure, WriteFailure {
+
+        final int buckets = 512;
+        final int keys = 2048;
+
+        final FileHash hash = new FileHash(new File(tempDir, "hash"), new File(tempDir, "data"), buckets, StorageOptions.defaults().withMaxLoadFactor(0));
+
+        for(int i = 0; i < keys; i++) {
+            hash.put(bytes("https://example.com/items/" + UUID.nameUUIDFromBytes(bytes(String.valueOf(i)))), bytes(String.valueOf(i)));
+        }
+
+        final long [] histogram = hash.getOccupancyHistogram();
+
+        long bucketTotal = 0;
+        long entryTotal = 0;
+
+        for(int i = 0; i < histogram.length; i++) {
+            bucketTotal += histogram[i];
+            entryTotal += histogram[i] * i;
+        }
+
+        assertEquals(buckets, bucketTotal);
+        assertEquals(keys, entryTotal);
+
+        //4 per bucket on average, a well spread hash doesn't get anywhere near 4x that
+        assertTrue(histogram.length <= 16, "longest collision set " + (histogram.length - 1));
+
+    }
+
+    void deleteRoot (File root) {
+        if (root.exists()) {
+            if (root.isDirectory()) {
+                final File[] listed = root.listFiles();
+                if (listed != null) {
+                    for (File cacheFile : listed) {
+                        deleteRoot(cacheFile);
+                    }
+                }
+            }
+            root.delete();
+        }
+    }
+
+    private static byte [] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
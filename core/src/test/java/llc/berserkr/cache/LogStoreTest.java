@@ -0,0 +1,378 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.exception.ReadFailure;
+import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.FileHash;
+import llc.berserkr.cache.hash.LogStore;
+import llc.berserkr.cache.hash.StorageEngine;
+import llc.berserkr.cache.hash.StorageOptions;
+import llc.berserkr.cache.hash.StreamingFileHash;
+import llc.berserkr.cache.util.DataUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogStoreTest {
+
+    public static File tempDir = new File("./test-files");
+    private File cacheDir;
+
+    //nothing compacts in the background unless a test asks for it
+    private static final StorageOptions OPTIONS = StorageOptions.defaults()
+        .withDurability(DurabilityPolicy.OS_BUFFERED)
+        .withLogCompaction(0, 1000);
+
+    @BeforeEach
+    public void setUp() {
+        deleteRoot(tempDir);
+        cacheDir = new File(tempDir, "LogStore");
+        cacheDir.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteRoot(tempDir);
+    }
+
+    private void deleteRoot(File root) {
+        if (root.exists()) {
+            if (root.isDirectory()) {
+                File[] children = root.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        deleteRoot(child);
+                    }
+                }
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testPutReadErase() throws WriteFailure, ReadFailure {
+
+        final LogStore store = new LogStore(new File(cacheDir, "log"), OPTIONS);
+
+        final long one = store.put(-1, bytes("one"));
+        final long two = store.put(-1, bytes("two"));
+
+        assertNotEquals(one, two);
+        assertEquals("one", string(store.read(one)));
+        assertEquals("two", string(store.read(two)));
+
+        //overwriting keeps the handle
+        assertEquals(one, store.put(one, bytes("one again")));
+        assertEquals("one again", string(store.read(one)));
+
+        store.erase(one);
+
+        assertNull(store.read(one));
+        assertEquals(1, store.size());
+
+        //erased handles are given out again
+        assertEquals(one, store.put(-1, bytes("three")));
+        assertEquals("three", string(store.read(one)));
+
+        store.clear();
+
+        assertNull(store.read(one));
+        assertNull(store.read(two));
+        assertEquals(0, store.size());
+
+    }
+
+    @Test
+    public void testStreams() throws WriteFailure, ReadFailure, IOException {
+
+        final LogStore store = new LogStore(new File(cacheDir, "log"), OPTIONS);
+
+        final byte [] big = new byte[100_000];
+
+        for(int i = 0; i < big.length; i++) {
+            big[i] = (byte) (i * 31);
+        }
+
+        final long handle = store.put(-1, new ByteArrayInputStream(big));
+
+        assertArrayEquals(big, store.read(handle));
+
+        try(final InputStream in = store.openStream(handle)) {
+            assertArrayEquals(big, DataUtils.convertInputStreamToBytes(in));
+        }
+
+        assertNull(store.openStream(handle + 1));
+
+        //past what's read into memory, it goes through a spool file that's gone after
+        final byte [] bigger = new byte[3 * 1024 * 1024 + 17];
+
+        for(int i = 0; i < bigger.length; i++) {
+            bigger[i] = (byte) (i * 7);
+        }
+
+        final long spooled = store.put(handle, new ByteArrayInputStream(bigger));
+
+        assertEquals(handle, spooled);
+        assertArrayEquals(bigger, store.read(spooled));
+        assertEquals(0, cacheDir.listFiles((dir, name) -> name.endsWith(".spool")).length);
+
+    }
+
+    @Test
+    public void testRecovery() throws WriteFailure, ReadFailure {
+
+        final File root = new File(cacheDir, "log");
+        final StorageOptions options = OPTIONS.withLogFileSize(1024);
+
+        final long kept;
+        final long replaced;
+        final long erased;
+
+        {
+            final LogStore store = new LogStore(root, options);
+
+            kept = store.put(-1, bytes("kept"));
+            replaced = store.put(-1, bytes("first"));
+            erased = store.put(-1, bytes("erased"));
+
+            //enough to roll over a few files
+            for(int i = 0; i < 50; i++) {
+                store.put(replaced, bytes("replaced " + i + " " + "x".repeat(40)));
+            }
+
+            store.erase(erased);
+
+            assertTrue(store.getFileCount() > 1);
+        }
+
+        final LogStore reopened = new LogStore(root, options);
+
+        assertEquals("kept", string(reopened.read(kept)));
+        assertEquals("replaced 49 " + "x".repeat(40), string(reopened.read(replaced)));
+        assertNull(reopened.read(erased));
+        assertEquals(2, reopened.size());
+
+        //the erased handle is free again after a reopen
+        assertEquals(erased, reopened.put(-1, bytes("new")));
+
+    }
+
+    @Test
+    public void testTornTail() throws WriteFailure, ReadFailure, IOException {
+
+        final File root = new File(cacheDir, "log");
+
+        final long first;
+        final long second;
+
+        {
+            final LogStore store = new LogStore(root, OPTIONS);
+
+            first = store.put(-1, bytes("first"));
+            second = store.put(-1, bytes("second"));
+
+            store.put(first, bytes("first updated"));
+        }
+
+        final File log = new File(root.getPath() + ".0.log");
+
+        //a crash part way through the last append
+        try(final RandomAccessFile random = new RandomAccessFile(log, "rw")) {
+            random.setLength(random.length() - 3);
+        }
+
+        final long tornLength = log.length();
+
+        final LogStore reopened = new LogStore(root, OPTIONS);
+
+        //the torn update is gone and the value before it comes back
+        assertEquals("first", string(reopened.read(first)));
+        assertEquals("second", string(reopened.read(second)));
+        assertTrue(log.length() < tornLength);
+
+        //appends carry on after the cut
+        reopened.put(second, bytes("second updated"));
+
+        final LogStore again = new LogStore(root, OPTIONS);
+
+        assertEquals("first", string(again.read(first)));
+        assertEquals("second updated", string(again.read(second)));
+
+    }
+
+    @Test
+    public void testCorruptTail() throws WriteFailure, ReadFailure, IOException {
+
+        final File root = new File(cacheDir, "log");
+
+        final long handle;
+
+        {
+            final LogStore store = new LogStore(root, OPTIONS);
+
+            handle = store.put(-1, bytes("good"));
+            store.put(handle, bytes("bad!"));
+        }
+
+        final File log = new File(root.getPath() + ".0.log");
+
+        //flip a byte of the last payload, the crc doesn't match anymore
+        try(final RandomAccessFile random = new RandomAccessFile(log, "rw")) {
+            random.seek(random.length() - 1);
+            random.write('?');
+        }
+
+        final LogStore reopened = new LogStore(root, OPTIONS);
+
+        assertEquals("good", string(reopened.read(handle)));
+
+    }
+
+    @Test
+    public void testCompaction() throws WriteFailure, ReadFailure, IOException {
+
+        final File root = new File(cacheDir, "log");
+        final StorageOptions options = OPTIONS.withLogFileSize(4096).withLogCompaction(0.5, 60_000);
+
+        final LogStore store = new LogStore(root, options);
+
+        final long [] handles = new long[20];
+
+        for(int i = 0; i < handles.length; i++) {
+            handles[i] = store.put(-1, bytes("value " + i + " " + "x".repeat(100)));
+        }
+
+        //rewrite most of them over and over so the early files are mostly dead
+        for(int round = 0; round < 10; round++) {
+            for(int i = 0; i < handles.length - 2; i++) {
+                store.put(handles[i], bytes("value " + i + " round " + round + " " + "y".repeat(100)));
+            }
+        }
+
+        final int filesBefore = store.getFileCount();
+        final long totalBefore = store.getTotalBytes();
+
+        final InputStream held = store.openStream(handles[handles.length - 1]);
+
+        while(store.compact());
+
+        assertTrue(store.getFileCount() < filesBefore, store.getFileCount() + " < " + filesBefore);
+        assertTrue(store.getTotalBytes() < totalBefore);
+
+        //a stream opened before the compaction still reads from the file it was in
+        assertEquals("value 19 " + "x".repeat(100), string(DataUtils.convertInputStreamToBytes(held)));
+        held.close();
+
+        for(int i = 0; i < handles.length; i++) {
+
+            final String expected = i < handles.length - 2 ? "value " + i + " round 9 " + "y".repeat(100) : "value " + i + " " + "x".repeat(100);
+
+            assertEquals(expected, string(store.read(handles[i])));
+
+        }
+
+        //the moved records are found again after a reopen
+        final LogStore reopened = new LogStore(root, options);
+
+        assertEquals(handles.length, reopened.size());
+        assertEquals("value 0 round 9 " + "y".repeat(100), string(reopened.read(handles[0])));
+        assertEquals("value 19 " + "x".repeat(100), string(reopened.read(handles[19])));
+
+    }
+
+    @Test
+    public void testFileHashOnLog() throws WriteFailure, ReadFailure {
+
+        final File hashFile = new File(cacheDir, "hash");
+        final File dataFile = new File(cacheDir, "data");
+
+        //no background splits still writing to the first log while it's reopened
+        final StorageOptions options = OPTIONS.withStorageEngine(StorageEngine.LOG).withMaxLoadFactor(0);
+
+        {
+            final FileHash hash = new FileHash(hashFile, dataFile, 100, options);
+
+            for(int i = 0; i < 1000; i++) {
+                hash.put(bytes("key" + i), bytes("value" + i));
+            }
+
+            for(int i = 0; i < 1000; i += 2) {
+                hash.remove(bytes("key" + i));
+            }
+
+            hash.put(bytes("key1"), bytes("updated"));
+        }
+
+        final FileHash reopened = new FileHash(hashFile, dataFile, 100, options);
+
+        assertEquals("updated", string(reopened.get(bytes("key1"))));
+
+        for(int i = 2; i < 1000; i++) {
+
+            final byte [] value = reopened.get(bytes("key" + i));
+
+            if(i % 2 == 0) {
+                assertNull(value);
+            }
+            else {
+                assertEquals("value" + i, string(value));
+            }
+
+        }
+
+        //no segment file, the buckets are in the log
+        assertTrue(new File(dataFile.getPath() + ".0.log").exists());
+
+    }
+
+    @Test
+    public void testStreamingFileHashOnLog() throws WriteFailure, ReadFailure, IOException {
+
+        final StorageOptions options = OPTIONS.withStorageEngine(StorageEngine.LOG);
+
+        final StreamingFileHash hash = new StreamingFileHash(
+            new File(cacheDir, "hash"), new File(cacheDir, "blobs"), new File(cacheDir, "data"), new File(cacheDir, "temp"), 100, options
+        );
+
+        for(int i = 0; i < 200; i++) {
+            hash.put(bytes("key" + i), new ByteArrayInputStream(bytes("value" + i)));
+        }
+
+        hash.put(bytes("key7"), new ByteArrayInputStream(bytes("seven")));
+        hash.remove(bytes("key8"));
+
+        for(int i = 0; i < 200; i++) {
+
+            try(final InputStream in = hash.get(bytes("key" + i))) {
+
+                if(i == 8) {
+                    assertNull(in);
+                }
+                else {
+                    assertEquals(i == 7 ? "seven" : "value" + i, string(DataUtils.convertInputStreamToBytes(in)));
+                }
+
+            }
+
+        }
+
+    }
+
+    private static byte [] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte [] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,400 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.converter.BytesStringConverter;
+import llc.berserkr.cache.converter.Converter;
+import llc.berserkr.cache.converter.InputStreamConverter;
+import llc.berserkr.cache.converter.ReverseConverter;
+import llc.berserkr.cache.converter.SerializingConverter;
+import llc.berserkr.cache.data.RecencyList;
+import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.StorageOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecencyListTest {
+
+    public static File tempDir = new File("./test-files");
+    private File listDir;
+
+    private static final StorageOptions OPTIONS = StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED);
+
+    @BeforeEach
+    public void setUp() {
+        deleteRoot(tempDir);
+        listDir = new File(tempDir, "RecencyList");
+        listDir.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteRoot(tempDir);
+    }
+
+    private void deleteRoot(File root) {
+        if (root.exists()) {
+            if (root.isDirectory()) {
+                File[] children = root.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        deleteRoot(child);
+                    }
+                }
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testOrderAndSizes() throws WriteFailure {
+
+        final RecencyList list = new RecencyList(listDir, OPTIONS);
+
+        assertNull(list.eldest());
+
+        list.touch("a", 10);
+        list.touch("b", 20);
+        list.touch("c", 30);
+
+        assertEquals(60, list.getTotalSize());
+        assertEquals("a", list.eldest());
+
+        //touching moves it to the front with its new size
+        list.touch("a", 5);
+
+        assertEquals(55, list.getTotalSize());
+        assertEquals(5, list.getSize("a"));
+        assertEquals("b", list.eldest());
+
+        assertTrue(list.remove("b"));
+        assertFalse(list.remove("b"));
+
+        assertEquals(List.of("c", "a"), drain(list));
+        assertEquals(0, list.getTotalSize());
+        assertEquals(-1, list.getSize("a"));
+
+    }
+
+    @Test
+    public void testReload() throws WriteFailure, IOException {
+
+        RecencyList list = new RecencyList(listDir, OPTIONS);
+
+        //enough to checkpoint a few times part way through
+        for(int i = 0; i < 20_000; i++) {
+            list.touch("key" + (i % 1000), i % 7);
+        }
+
+        list.remove("key999");
+        list.touch("key0", 100);
+
+        final List<String> expected = order(list);
+        final long size = list.getTotalSize();
+
+        list = new RecencyList(listDir, OPTIONS);
+
+        assertEquals(size, list.getTotalSize());
+        assertEquals(expected, order(list));
+
+        //a record half written when we crashed is dropped and the journal carries on after the last whole one
+        final File journal = new File(listDir, "recency.journal");
+
+        list.touch("torn", 1);
+
+        try(final RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        list = new RecencyList(listDir, OPTIONS);
+
+        assertEquals(expected, order(list));
+
+        list.touch("after", 3);
+
+        list = new RecencyList(listDir, OPTIONS);
+
+        assertEquals("after", last(list));
+        assertEquals(size + 3, list.getTotalSize());
+
+        list.clear();
+
+        list = new RecencyList(listDir, OPTIONS);
+
+        assertEquals(0, list.getCount());
+        assertNull(list.eldest());
+
+    }
+
+    @Test
+    public void testReplayAfterSnapshot() throws WriteFailure, IOException {
+
+        final RecencyList list = new RecencyList(listDir, OPTIONS);
+
+        for(int i = 0; i < 100; i++) {
+            list.touch("key" + i, i);
+        }
+
+        list.checkpoint();
+
+        list.touch("key5", 1);
+        list.remove("key7");
+        list.touch("key200", 2);
+
+        final File journal = new File(listDir, "recency.journal");
+        final File saved = new File(listDir, "saved.journal");
+
+        Files.copy(journal.toPath(), saved.toPath());
+
+        list.checkpoint();
+
+        final List<String> expected = order(list);
+
+        //as if we crashed after the snapshot was written but before the journal was emptied
+        Files.copy(saved.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        final RecencyList reloaded = new RecencyList(listDir, OPTIONS);
+
+        assertEquals(expected, order(reloaded));
+        assertEquals(list.getTotalSize(), reloaded.getTotalSize());
+
+    }
+
+    @Test
+    public void testRecordAccess() throws WriteFailure, IOException {
+
+        RecencyList list = new RecencyList(listDir, OPTIONS);
+
+        list.touch("a", 1);
+        list.touch("b", 1);
+        list.touch("c", 1);
+
+        list.recordAccess("a");
+        list.recordAccess("missing"); //a read doesn't add it
+
+        assertEquals("b", list.eldest());
+        assertEquals(3, list.getCount());
+
+        //more reads than the buffer holds between writes, it's drained as it fills
+        for(int i = 0; i < 5000; i++) {
+            list.recordAccess(i % 2 == 0 ? "b" : "a");
+        }
+
+        assertEquals("c", list.eldest());
+
+        //not journaled until something is written
+        list = new RecencyList(listDir, OPTIONS);
+
+        assertEquals("a", list.eldest());
+
+        list.recordAccess("a");
+        list.recordAccess("b");
+        list.touch("d", 1);
+
+        list = new RecencyList(listDir, OPTIONS);
+
+        assertEquals(List.of("c", "a", "b", "d"), order(list));
+
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+
+        final RecencyList list = new RecencyList(listDir, OPTIONS);
+
+        for(int i = 0; i < 100; i++) {
+            list.touch("key" + i, 1);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+
+            final List<Future<?>> readers = new ArrayList<>();
+
+            for(int t = 0; t < 7; t++) {
+
+                final int seed = t;
+
+                readers.add(executor.submit(() -> {
+
+                    for(int i = 0; i < 100_000; i++) {
+                        list.recordAccess("key" + ((i * 31 + seed) % 100));
+                    }
+
+                    return null;
+
+                }));
+
+            }
+
+            //writing while they read, every key is put back so the count doesn't change
+            final Future<?> writer = executor.submit(() -> {
+
+                for(int i = 0; i < 10_000; i++) {
+
+                    final String key = "key" + (i % 100);
+
+                    list.remove(key);
+                    list.touch(key, 1);
+
+                }
+
+                return null;
+
+            });
+
+            for(final Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+
+            writer.get(60, TimeUnit.SECONDS);
+
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(100, list.getCount());
+        assertEquals(100, list.getTotalSize());
+
+        final List<String> order = order(list);
+
+        assertEquals(100, order.size());
+        assertEquals(100, new HashSet<>(order).size());
+
+        //what was journaled gives the same list
+        final RecencyList reloaded = new RecencyList(listDir, OPTIONS);
+
+        assertEquals(order, order(reloaded));
+
+    }
+
+    @Test
+    public void testMaxSizeCacheReopen() throws IOException, ResourceException {
+
+        final File root = new File(listDir, "cache");
+
+        final StreamFileCache disk = new StreamFileCache(new File(root, "data"), 100, OPTIONS.withMaxLoadFactor(0));
+
+        final Cache<String, String> values = new ValueConvertingCache<String, String, byte []>(
+            new ValueConvertingCache<String, byte [], InputStream>(
+                new KeyConvertingCache<String, byte [], InputStream>(
+                    disk, new ReverseConverter<>(new BytesStringConverter())
+                ),
+                new ReverseConverter<>(new InputStreamConverter())
+            ),
+            new SerializingConverter<String>()
+        );
+
+        //a value counts for its length
+        final Converter<Integer, String> sizes = new Converter<>() {
+
+            @Override
+            public String convert(Integer old) {
+                return null;
+            }
+
+            @Override
+            public Integer restore(String newVal) {
+                return newVal.length();
+            }
+
+        };
+
+        FilePersistedMaxSizeCache<String> cache = new FilePersistedMaxSizeCache<>(root, values, sizes, 100, OPTIONS);
+
+        for(int i = 0; i < 12; i++) {
+            cache.put("key" + i, "0123456789");
+        }
+
+        assertEquals(100, cache.getCurrentSize());
+        assertNull(cache.get("key1"));
+        assertNotNull(cache.get("key2"));
+
+        //a smaller value for a key that's there counts for less
+        cache.put("key2", "01234");
+
+        assertEquals(95, cache.getCurrentSize());
+
+        cache.remove("key11");
+
+        assertEquals(85, cache.getCurrentSize());
+
+        cache = new FilePersistedMaxSizeCache<>(root, values, sizes, 100, OPTIONS);
+
+        assertEquals(85, cache.getCurrentSize());
+
+        //key3 is the eldest now, key2 was put again after it
+        cache.put("key20", "01234567890123456789012345678901234");
+
+        assertNull(cache.get("key3"));
+        assertNull(cache.get("key4"));
+        assertNotNull(cache.get("key5"));
+        assertNotNull(cache.get("key2"));
+        assertEquals(100, cache.getCurrentSize());
+
+        cache.clear();
+
+        assertEquals(0, cache.getCurrentSize());
+        assertNull(cache.get("key2"));
+
+    }
+
+    private static List<String> drain(RecencyList list) throws WriteFailure {
+
+        final List<String> returnVal = new ArrayList<>();
+
+        for(String key = list.eldest(); key != null; key = list.eldest()) {
+            returnVal.add(key);
+            list.remove(key);
+        }
+
+        return returnVal;
+
+    }
+
+    /**
+     * eldest first, read from a copy so the list isn't changed
+     */
+    private List<String> order(RecencyList list) throws WriteFailure, IOException {
+
+        final File copy = new File(tempDir, "copy");
+
+        deleteRoot(copy);
+        copy.mkdirs();
+
+        list.checkpoint();
+
+        Files.copy(new File(listDir, "recency.snapshot").toPath(), new File(copy, "recency.snapshot").toPath());
+
+        return drain(new RecencyList(copy, OPTIONS));
+
+    }
+
+    private String last(RecencyList list) throws WriteFailure, IOException {
+
+        final List<String> order = order(list);
+
+        return order.get(order.size() - 1);
+
+    }
+
+}
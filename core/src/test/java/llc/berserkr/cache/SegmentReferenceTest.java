@@ -0,0 +1,113 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.hash.SegmentReference;
+import llc.berserkr.cache.hash.SegmentedFile;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentReferenceTest {
+
+    @Test
+    public void testMatchesMaps() {
+
+        final SegmentReference reference = new SegmentReference();
+
+        final Map<Long, Byte> types = new HashMap<>();
+        final Map<Long, Integer> sizes = new HashMap<>();
+
+        final Random random = new Random(11);
+
+        //addresses from a small range so removes shift back entries that collided
+        for(int i = 0; i < 200000; i++) {
+
+            final long address = 1024 + random.nextInt(20000) * 9L;
+
+            switch (random.nextInt(4)) {
+                case 0: {
+                    final byte type = (byte) (SegmentedFile.FREE_STATE + random.nextInt(6));
+                    reference.setSegmentType(address, type);
+                    types.put(address, type);
+                    break;
+                }
+                case 1: {
+                    final int size = random.nextInt(Integer.MAX_VALUE);
+                    reference.setSegmentSize(address, size);
+                    sizes.put(address, size);
+                    break;
+                }
+                case 2: {
+                    reference.remove(address);
+                    types.remove(address);
+                    sizes.remove(address);
+                    break;
+                }
+                default: {
+                    assertEquals(types.get(address), reference.getSegmentType(address));
+                    assertEquals(sizes.getOrDefault(address, SegmentReference.UNKNOWN_SIZE), reference.getSegmentSize(address));
+                    break;
+                }
+            }
+
+        }
+
+        for(long address = 1024; address < 1024 + 20000 * 9L; address += 9) {
+            assertEquals(types.get(address), reference.getSegmentType(address));
+            assertEquals(sizes.getOrDefault(address, SegmentReference.UNKNOWN_SIZE), reference.getSegmentSize(address));
+        }
+
+        final Map<Long, Boolean> known = new HashMap<>();
+
+        for(Long address : types.keySet()) {
+            known.put(address, true);
+        }
+
+        for(Long address : sizes.keySet()) {
+            known.put(address, true);
+        }
+
+        assertEquals(known.size(), reference.size());
+
+        reference.clear();
+
+        assertEquals(0, reference.size());
+        assertNull(reference.getSegmentType(1024));
+        assertEquals(SegmentReference.UNKNOWN_SIZE, reference.getSegmentSize(1024));
+
+    }
+
+    @Test
+    public void testFootprint() {
+
+        final SegmentReference reference = new SegmentReference();
+
+        final int segments = 1000000;
+
+        long address = 1024;
+
+        for(int i = 0; i < segments; i++) {
+
+            reference.setSegmentType(address, SegmentedFile.BOUND_STATE);
+            reference.setSegmentSize(address, 4096);
+
+            address += 4096 + 9;
+
+        }
+
+        assertEquals(segments, reference.size());
+
+        //two longs a slot, the table is at least 3/8 full
+        final long perSegment = reference.getFootprintBytes() / segments;
+
+        assertTrue(perSegment <= 43, "bytes per segment " + perSegment);
+
+        assertEquals(SegmentedFile.BOUND_STATE, reference.getSegmentType(1024));
+        assertEquals(4096, reference.getSegmentSize(1024));
+
+    }
+
+}
@@ -4,7 +4,9 @@ import llc.berserkr.cache.exception.OutOfSpaceException;
 import llc.berserkr.cache.exception.ReadFailure;
 import llc.berserkr.cache.exception.SpaceFragementedException;
 import llc.berserkr.cache.exception.WriteFailure;
+import llc.berserkr.cache.hash.IoBackend;
 import llc.berserkr.cache.hash.SegmentedFile;
+import llc.berserkr.cache.hash.StorageOptions;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,12 +16,23 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static llc.berserkr.cache.hash.SegmentedTransactions.*;
 import static llc.berserkr.cache.util.DataUtils.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class SegmentedFileTest {
@@ -229,6 +242,89 @@ public class SegmentedFileTest {
         logger.info("end " + (System.currentTimeMillis() - start));
     }
 
+    @Test
+    public void testFreeSpaceIndex() throws ReadFailure, WriteFailure, OutOfSpaceException, IOException {
+
+        final List<Long> addresses = new ArrayList<>();
+
+        {
+            final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+            for(int i = 0; i < 10; i++) {
+                final long address = segmentedFile.writeToEnd(new ByteArrayInputStream(new byte[100]));
+                segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
+                addresses.add(address);
+            }
+
+            final long big = segmentedFile.writeToEnd(new ByteArrayInputStream(new byte[1000]));
+            segmentedFile.writeState(big, SegmentedFile.BOUND_STATE);
+            addresses.add(big);
+
+            for(final int i : new int[] {0, 1, 4, 6, 8}) {
+                segmentedFile.writeState(addresses.get(i), SegmentedFile.FREE_STATE);
+            }
+
+            assertEquals(5, segmentedFile.getFreeSegmentCount());
+        }
+
+        //reopen, the index should come from the sidecar
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+        assertEquals(5, segmentedFile.getFreeSegmentCount());
+        assertEquals(500, segmentedFile.getFreeBytes());
+
+        //nothing single fits so the two contiguous segments at the front get merged
+        try {
+            segmentedFile.getFreeSegment(150);
+            fail();
+        }
+        catch (SpaceFragementedException e) {
+
+            assertEquals((long) addresses.get(0), e.getAddress());
+            assertEquals(209, e.getSegmentSize());
+
+            segmentedFile.setSegmentSize(e.getAddress(), e.getSegmentSize());
+            segmentedFile.write(e.getAddress(), new byte[150]);
+            segmentedFile.writeState(e.getAddress(), SegmentedFile.BOUND_STATE);
+        }
+
+        assertEquals(3, segmentedFile.getFreeSegmentCount());
+
+        //a segment way bigger than needed gets split and the back half stays free
+        segmentedFile.writeState(addresses.get(10), SegmentedFile.FREE_STATE);
+
+        final long split = segmentedFile.getFreeSegment(300);
+
+        assertEquals((long) addresses.get(10), split);
+        assertEquals(500, segmentedFile.getSegmentLength(split));
+        assertEquals(4, segmentedFile.getFreeSegmentCount());
+        assertEquals(300 + 491, segmentedFile.getFreeBytes());
+
+        segmentedFile.write(split, new byte[300]);
+        segmentedFile.writeState(split, SegmentedFile.BOUND_STATE);
+
+        //lose the sidecar, it gets rebuilt from the segments
+        new File(segmentFile.getPath() + ".free").delete();
+
+        final SegmentedFile rebuilt = new SegmentedFile(segmentFile);
+
+        assertEquals(4, rebuilt.getFreeSegmentCount());
+        assertEquals(300 + 491, rebuilt.getFreeBytes());
+
+        assertEquals(split + 9 + 500, rebuilt.getFreeSegment(400));
+
+        try {
+            rebuilt.getFreeSegment(1000);
+            fail();
+        }
+        catch (OutOfSpaceException e) {
+            //expected
+        }
+
+        assertEquals(rebuilt.findEnd(), segmentFile.length());
+
+    }
+
     @Test
     public void testTransactionReversal() throws ReadFailure, WriteFailure, OutOfSpaceException, IOException {
 
@@ -358,4 +454,615 @@ public class SegmentedFileTest {
 
     }
 
+    @Test
+    public void testConcurrentAllocation() throws Exception {
+
+        final int THREADS = 8;
+        final int OPS = 300;
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+        final Map<Long, byte []> live = new ConcurrentHashMap<>();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Thread> threads = new ArrayList<>();
+
+        for(int t = 0; t < THREADS; t++) {
+
+            final int thread = t;
+
+            threads.add(new Thread(() -> {
+
+                final Random random = new Random(thread);
+                final List<Long> mine = new ArrayList<>();
+
+                try {
+
+                    start.await();
+
+                    for(int op = 0; op < OPS; op++) {
+
+                        if(!mine.isEmpty() && random.nextInt(3) == 0) {
+
+                            final long address = mine.remove(random.nextInt(mine.size()));
+
+                            live.remove(address);
+                            segmentedFile.writeState(address, SegmentedFile.FREE_STATE);
+
+                            continue;
+                        }
+
+                        final byte [] data = new byte[10 + random.nextInt(400)];
+                        Arrays.fill(data, (byte) (thread * OPS + op));
+
+                        final long address = allocate(segmentedFile, data);
+
+                        if(live.putIfAbsent(address, data) != null) {
+                            throw new IllegalStateException("handed out twice " + address);
+                        }
+
+                        mine.add(address);
+
+                    }
+
+                }
+                catch (Throwable e) {
+                    errors.add(e);
+                }
+
+            }));
+
+        }
+
+        for(final Thread thread : threads) {
+            thread.start();
+        }
+
+        start.countDown();
+
+        for(final Thread thread : threads) {
+            thread.join();
+        }
+
+        if(!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+
+        for(final Map.Entry<Long, byte []> entry : live.entrySet()) {
+            assertArrayEquals(entry.getValue(), convertInputStreamToBytes(segmentedFile.readSegment(entry.getKey())));
+        }
+
+        assertEquals(segmentedFile.findEnd(), segmentFile.length());
+
+        //the headers have to still be one walkable list
+        new File(segmentFile.getPath() + ".free").delete();
+
+        final SegmentedFile rebuilt = new SegmentedFile(segmentFile);
+
+        for(final Map.Entry<Long, byte []> entry : live.entrySet()) {
+            assertEquals(SegmentedFile.BOUND_STATE, rebuilt.readSegmentState(entry.getKey()));
+            assertArrayEquals(entry.getValue(), convertInputStreamToBytes(rebuilt.readSegment(entry.getKey())));
+        }
+
+        assertEquals(segmentedFile.getFreeSegmentCount(), rebuilt.getFreeSegmentCount());
+
+    }
+
+    @Test
+    public void testReservedAddRecovery() throws ReadFailure, WriteFailure {
+
+        final long address;
+
+        {
+            final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+            final long keptTransaction = startAddTransaction(segmentedFile, 100);
+            final long kept = segmentedFile.writeToEnd(new byte[100], keptTransaction);
+            segmentedFile.writeState(kept, SegmentedFile.BOUND_STATE);
+            endTransactions(segmentedFile, keptTransaction);
+
+            //reserve the end and "crash" before the add transaction is closed
+            address = segmentedFile.writeToEnd(new byte[200], startAddTransaction(segmentedFile, 200));
+
+            assertEquals(SegmentedFile.TRANSITIONAL_STATE, segmentedFile.readSegmentState(address));
+        }
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+        //the reserved segment is given back rather than another one being added
+        assertEquals(SegmentedFile.FREE_STATE, segmentedFile.readSegmentState(address));
+        assertEquals(200, segmentedFile.getSegmentLength(address));
+        assertEquals(1, segmentedFile.getFreeSegmentCount());
+        assertEquals(address + 9 + 200, segmentFile.length());
+        assertEquals(segmentedFile.findEnd(), segmentFile.length());
+
+    }
+
+    @Test
+    public void testTransactionSlots() throws Exception {
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile, StorageOptions.defaults().withTransactionSlots(100));
+
+        assertEquals(100, segmentedFile.getFreeTransactionSlots());
+
+        //far more than the kilobyte at the front of the segment file ever held
+        final List<Long> open = new ArrayList<>();
+
+        for(int i = 0; i < 100; i++) {
+            open.add(startWritingTransaction(segmentedFile, 1024 + i));
+        }
+
+        assertEquals(100, new HashSet<>(open).size());
+        assertEquals(0, segmentedFile.getFreeTransactionSlots());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final long [] waited = new long[1];
+
+        final Thread blocked = new Thread(() -> {
+            try {
+                started.countDown();
+                waited[0] = startWritingTransaction(segmentedFile, 5000);
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        blocked.start();
+        started.await();
+
+        blocked.join(200);
+        assertTrue(blocked.isAlive()); //every slot is in use
+
+        endTransactions(segmentedFile, open.remove(42));
+
+        blocked.join(10000);
+        assertFalse(blocked.isAlive());
+
+        open.add(waited[0]);
+
+        for(final long transaction : open) {
+            endTransactions(segmentedFile, transaction);
+        }
+
+        assertEquals(100, segmentedFile.getFreeTransactionSlots());
+
+    }
+
+    @Test
+    public void testLegacyTransactionReplay() throws Exception {
+
+        final long address;
+
+        {
+            final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+            address = segmentedFile.writeToEnd(new ByteArrayInputStream(new byte[100]));
+            segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
+        }
+
+        //a write that was in flight when a version that kept transactions in the segment file stopped
+        final byte [] record = new byte[10];
+        record[0] = SegmentedFile.WRITING_TRANSACTION;
+        System.arraycopy(longToByteArray(address), 0, record, 1, 8);
+        record[9] = SegmentedFile.WRITING_TRANSACTION;
+
+        try(final RandomAccessFile random = new RandomAccessFile(segmentFile, "rw")) {
+            random.seek(48);
+            random.write(record);
+        }
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile, StorageOptions.defaults().withTransactionSlots(8));
+
+        assertEquals(SegmentedFile.FREE_STATE, segmentedFile.readSegmentState(address));
+        assertEquals(0, segmentedFile.readTransactionalBytes(48)[0]);
+        assertEquals(8, segmentedFile.getFreeTransactionSlots());
+
+    }
+
+    @Test
+    public void testRelocateAndTruncate() throws ReadFailure, WriteFailure {
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+        final List<Long> addresses = new ArrayList<>();
+
+        for(int i = 0; i < 20; i++) {
+            addresses.add(allocate(segmentedFile, segmentData(i)));
+        }
+
+        //free the front so there's somewhere to move the back to
+        for(int i = 0; i < 10; i++) {
+            segmentedFile.writeState(addresses.get(i), SegmentedFile.FREE_STATE);
+        }
+
+        final long lengthBefore = segmentedFile.getLength();
+
+        //nothing below the first segment
+        assertEquals(-1, segmentedFile.relocate(addresses.get(0) - 1));
+
+        final Map<Long, Long> moves = new HashMap<>();
+
+        for(int i = 19; i >= 10; i--) {
+
+            final long moved = segmentedFile.relocate(addresses.get(i));
+
+            assertTrue(moved >= 0 && moved < addresses.get(i), "segment " + i + " moved to " + moved);
+
+            moves.put(addresses.get(i), moved);
+
+            //the caller frees the old one once nothing points at it
+            segmentedFile.writeState(addresses.get(i), SegmentedFile.FREE_STATE);
+
+        }
+
+        final long reclaimed = segmentedFile.truncateFreeTail();
+
+        assertTrue(reclaimed > 0);
+        assertEquals(lengthBefore - reclaimed, segmentedFile.getLength());
+        assertEquals(lengthBefore - reclaimed, segmentFile.length());
+
+        for(int i = 10; i < 20; i++) {
+            assertEquals(
+                new String(segmentData(i), StandardCharsets.UTF_8),
+                new String(readBytes(segmentedFile, moves.get(addresses.get(i))), StandardCharsets.UTF_8)
+            );
+        }
+
+        //nothing free is left at the end, another truncate does nothing
+        assertEquals(0, segmentedFile.truncateFreeTail());
+
+        //appends carry on from the new end and the file reopens without a rebuild changing anything
+        final long appended = allocate(segmentedFile, new byte[5000]);
+
+        assertTrue(appended < lengthBefore);
+
+        final long freeBytes = segmentedFile.getFreeBytes();
+
+        final SegmentedFile reopened = new SegmentedFile(segmentFile);
+
+        assertEquals(freeBytes, reopened.getFreeBytes());
+
+        for(int i = 10; i < 20; i++) {
+            assertEquals(
+                new String(segmentData(i), StandardCharsets.UTF_8),
+                new String(readBytes(reopened, moves.get(addresses.get(i))), StandardCharsets.UTF_8)
+            );
+        }
+
+    }
+
+    @Test
+    public void testChannelBackend() throws Exception {
+
+        final StorageOptions options = StorageOptions.defaults().withIoBackend(IoBackend.CHANNEL);
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile, options);
+
+        final Map<Long, byte []> live = new ConcurrentHashMap<>();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+        //no handle per thread, a few hundred virtual threads share the one channel
+        try(final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            for(int t = 0; t < 200; t++) {
+
+                final int thread = t;
+
+                executor.submit(() -> {
+
+                    try {
+
+                        for(int op = 0; op < 5; op++) {
+
+                            final byte [] data = new byte[10 + (thread * 7 + op) % 300];
+                            Arrays.fill(data, (byte) (thread + op));
+
+                            final long address = allocate(segmentedFile, data);
+
+                            if(live.putIfAbsent(address, data) != null) {
+                                throw new IllegalStateException("handed out twice " + address);
+                            }
+
+                            assertArrayEquals(data, readBytes(segmentedFile, address));
+
+                        }
+
+                    }
+                    catch (Throwable e) {
+                        errors.add(e);
+                    }
+
+                });
+
+            }
+
+        }
+
+        if(!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+
+        final List<Long> addresses = new ArrayList<>(live.keySet());
+
+        //a stream keeps its own position, reading other segments on the same thread doesn't move it
+        try(final InputStream held = segmentedFile.readSegment(addresses.get(0))) {
+
+            final byte [] expected = live.get(addresses.get(0));
+
+            assertEquals(expected[0], (byte) held.read());
+
+            for(int i = 1; i < addresses.size(); i++) {
+                assertArrayEquals(live.get(addresses.get(i)), readBytes(segmentedFile, addresses.get(i)));
+            }
+
+            final byte [] rest = convertInputStreamToBytes(held);
+
+            assertArrayEquals(Arrays.copyOfRange(expected, 1, expected.length), rest);
+
+        }
+
+        //an interrupt closes a FileChannel for every thread, it has to be opened again for the next read
+        Thread.currentThread().interrupt();
+
+        try {
+            segmentedFile.readSegmentState(addresses.get(0));
+        }
+        catch (ReadFailure expected) {
+            //the interrupted read may fail
+        }
+        finally {
+            Thread.interrupted();
+        }
+
+        for(final Map.Entry<Long, byte []> entry : live.entrySet()) {
+            assertArrayEquals(entry.getValue(), readBytes(segmentedFile, entry.getKey()));
+        }
+
+        //same file format either way
+        final SegmentedFile reopened = new SegmentedFile(segmentFile);
+
+        for(final Map.Entry<Long, byte []> entry : live.entrySet()) {
+            assertArrayEquals(entry.getValue(), readBytes(reopened, entry.getKey()));
+        }
+
+        assertEquals(segmentedFile.getFreeSegmentCount(), reopened.getFreeSegmentCount());
+
+    }
+
+    @Test
+    public void testMappedReads() throws Exception {
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile, StorageOptions.defaults().withMappedSegments(true));
+
+        final List<Long> addresses = new ArrayList<>();
+
+        for(int i = 0; i < 20; i++) {
+            addresses.add(allocate(segmentedFile, segmentData(i)));
+        }
+
+        final ByteBuffer view = segmentedFile.readSegmentBuffer(addresses.get(3));
+
+        assertTrue(view.isReadOnly());
+        assertTrue(view.isDirect()); //a slice of the mapping, not a copy
+
+        final byte [] viewed = new byte[view.remaining()];
+        view.get(viewed);
+
+        assertArrayEquals(segmentData(3), viewed);
+        assertArrayEquals(segmentData(4), segmentedFile.readSegmentBytes(addresses.get(4)));
+        assertArrayEquals(segmentData(5), readBytes(segmentedFile, addresses.get(5)));
+
+        //the file grows past what was mapped, the new segments are mapped when they're read
+        final byte [] big = new byte[100_000];
+        new Random(3).nextBytes(big);
+
+        final long bigAddress = allocate(segmentedFile, big);
+
+        assertArrayEquals(big, readBytes(segmentedFile, bigAddress));
+        assertTrue(segmentedFile.readSegmentBuffer(bigAddress).isDirect());
+
+        //nothing to read in a segment that isn't bound
+        segmentedFile.writeState(addresses.get(0), SegmentedFile.FREE_STATE);
+
+        assertNull(segmentedFile.readSegment(addresses.get(0)));
+        assertNull(segmentedFile.readSegmentBuffer(addresses.get(0)));
+        assertNull(segmentedFile.readSegmentBytes(addresses.get(0)));
+
+        //cut the end off and grow it again, what's left is still read right
+        segmentedFile.writeState(bigAddress, SegmentedFile.FREE_STATE);
+
+        assertTrue(segmentedFile.truncateFreeTail() > 0);
+
+        final byte [] again = new byte[50_000];
+        new Random(4).nextBytes(again);
+
+        final long againAddress = allocate(segmentedFile, again);
+
+        assertArrayEquals(again, readBytes(segmentedFile, againAddress));
+
+        for(int i = 1; i < 20; i++) {
+            assertArrayEquals(segmentData(i), readBytes(segmentedFile, addresses.get(i)));
+        }
+
+        //the mapping is only for reads, the file is the same as an unmapped one
+        final SegmentedFile unmapped = new SegmentedFile(segmentFile);
+
+        assertArrayEquals(again, readBytes(unmapped, againAddress));
+        assertArrayEquals(segmentData(7), unmapped.readSegmentBytes(addresses.get(7)));
+
+    }
+
+    @Test
+    public void testChains() throws Exception {
+
+        final long head;
+        final long link;
+        final long claimed;
+
+        final byte [] first = new byte[3000];
+        final byte [] second = new byte[5000];
+        new Random(5).nextBytes(first);
+        new Random(6).nextBytes(second);
+
+        {
+            final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+            //room at the front for the chain to be compacted into
+            final long front = allocate(segmentedFile, new byte[10_000]);
+            segmentedFile.writeState(front, SegmentedFile.FREE_STATE);
+
+            //a whole chain reads back as one value
+            final long complete = reserve(segmentedFile, SegmentedFile.CHAIN_HEADER_SIZE + first.length);
+            final long completeLink = reserve(segmentedFile, SegmentedFile.LINK_HEADER_SIZE + second.length);
+
+            final long completeTransaction = startChainTransaction(segmentedFile, complete);
+
+            segmentedFile.writeLink(complete, true, completeLink, first, first.length);
+            segmentedFile.writeState(complete, SegmentedFile.LINKED_STATE);
+            segmentedFile.writeLink(completeLink, false, -1, second, second.length);
+            segmentedFile.writeState(completeLink, SegmentedFile.LINKED_STATE);
+            segmentedFile.writeChainLength(complete, first.length + second.length);
+            segmentedFile.writeState(complete, SegmentedFile.CHAINED_STATE);
+
+            endTransactions(segmentedFile, completeTransaction);
+
+            final byte [] whole = new byte[first.length + second.length];
+            System.arraycopy(first, 0, whole, 0, first.length);
+            System.arraycopy(second, 0, whole, first.length, second.length);
+
+            try(final InputStream in = segmentedFile.readSegment(complete)) {
+                assertEquals(whole.length, in.available());
+                assertArrayEquals(whole, convertInputStreamToBytes(in));
+            }
+
+            //a link on its own isn't a value and a chain isn't a bucket
+            assertNull(segmentedFile.readSegment(completeLink));
+            assertNull(segmentedFile.readSegmentBytes(complete));
+
+            //compaction copies a chain into one segment
+            final long relocated = segmentedFile.relocate(complete);
+
+            assertEquals(front, relocated);
+            assertEquals(SegmentedFile.BOUND_STATE, segmentedFile.readSegmentState(relocated));
+            assertArrayEquals(whole, readBytes(segmentedFile, relocated));
+
+            final long freeBefore = segmentedFile.getFreeBytes();
+
+            final long freeTransaction = startChainTransaction(segmentedFile, complete);
+            segmentedFile.freeChain(complete);
+            endTransactions(segmentedFile, freeTransaction);
+
+            assertEquals(SegmentedFile.FREE_STATE, segmentedFile.readSegmentState(complete));
+            assertEquals(SegmentedFile.FREE_STATE, segmentedFile.readSegmentState(completeLink));
+            assertEquals(freeBefore + SegmentedFile.CHAIN_HEADER_SIZE + first.length + SegmentedFile.LINK_HEADER_SIZE + second.length, segmentedFile.getFreeBytes());
+
+            //a chain that was being written when we "crash", the last link is claimed but nothing's in it yet
+            head = reserve(segmentedFile, SegmentedFile.CHAIN_HEADER_SIZE + 40_000);
+            link = reserve(segmentedFile, SegmentedFile.LINK_HEADER_SIZE + first.length);
+
+            startChainTransaction(segmentedFile, head);
+
+            segmentedFile.writeLink(head, true, link, new byte[40_000], 40_000);
+            segmentedFile.writeState(head, SegmentedFile.LINKED_STATE);
+
+            claimed = reserve(segmentedFile, SegmentedFile.LINK_HEADER_SIZE + second.length);
+
+            segmentedFile.writeLink(link, false, claimed, first, first.length);
+            segmentedFile.writeState(link, SegmentedFile.LINKED_STATE);
+
+        }
+
+        final SegmentedFile segmentedFile = new SegmentedFile(segmentFile);
+
+        //everything the chain got to is given back
+        assertEquals(SegmentedFile.FREE_STATE, segmentedFile.readSegmentState(head));
+        assertEquals(SegmentedFile.FREE_STATE, segmentedFile.readSegmentState(link));
+        assertEquals(SegmentedFile.FREE_STATE, segmentedFile.readSegmentState(claimed));
+
+        //and can be handed out again
+        final long reused = segmentedFile.getFreeSegment(30_000);
+
+        assertEquals(head, reused);
+
+    }
+
+    /**
+     * what the streaming data manager does to claim a link at the end of the file
+     */
+    private static long reserve(SegmentedFile segmentedFile, int length) throws ReadFailure, WriteFailure {
+
+        final long transAddress = startAddTransaction(segmentedFile, length);
+
+        final long address = segmentedFile.reserveEnd(length, transAddress);
+
+        endTransactions(segmentedFile, transAddress);
+
+        return address;
+
+    }
+
+    //all the same length so any freed one fits any other
+    private static byte [] segmentData(int i) {
+        return String.format("segment %02d %s", i, "x".repeat(100)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte [] readBytes(SegmentedFile segmentedFile, long address) throws ReadFailure {
+        try {
+            return convertInputStreamToBytes(segmentedFile.readSegment(address));
+        }
+        catch (IOException e) {
+            throw new ReadFailure("failed", e);
+        }
+    }
+
+    /**
+     * what the data managers do to get a segment for a put
+     */
+    private static long allocate(SegmentedFile segmentedFile, byte [] data) throws ReadFailure, WriteFailure {
+
+        try {
+
+            final long free = segmentedFile.getFreeSegment(data.length);
+
+            final long transAddress = startWritingTransaction(segmentedFile, free);
+
+            segmentedFile.write(free, data);
+            segmentedFile.writeState(free, SegmentedFile.BOUND_STATE);
+
+            endTransactions(segmentedFile, transAddress);
+
+            return free;
+
+        }
+        catch (SpaceFragementedException e) {
+
+            final long transAddress = startMergeTransaction(segmentedFile, e.getAddress(), e.getSegmentSize());
+
+            segmentedFile.setSegmentSize(e.getAddress(), e.getSegmentSize());
+            segmentedFile.write(e.getAddress(), data);
+            segmentedFile.writeState(e.getAddress(), SegmentedFile.BOUND_STATE);
+
+            endTransactions(segmentedFile, transAddress);
+
+            return e.getAddress();
+
+        }
+        catch (OutOfSpaceException e) {
+
+            final long transAddress = startAddTransaction(segmentedFile, data.length);
+
+            final long address = segmentedFile.writeToEnd(data, transAddress);
+
+            segmentedFile.writeState(address, SegmentedFile.BOUND_STATE);
+
+            endTransactions(segmentedFile, transAddress);
+
+            return address;
+
+        }
+
+    }
+
 }
@@ -2,7 +2,11 @@ package llc.berserkr.cache;
 
 import llc.berserkr.cache.converter.*;
 import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.IoBackend;
 import llc.berserkr.cache.hash.SegmentedBytesDataManager;
+import llc.berserkr.cache.hash.StorageEngine;
+import llc.berserkr.cache.hash.StorageOptions;
 import llc.berserkr.cache.util.StreamUtil;
 import llc.berserkr.cache.util.StringUtilities;
 import org.junit.jupiter.api.AfterEach;
@@ -12,13 +16,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static llc.berserkr.cache.util.DataUtils.convertInputStreamToBytes;
 import static org.junit.jupiter.api.Assertions.*;
@@ -740,4 +754,190 @@ public class StreamFileCacheTest {
         
     }
 	
+
+    @Test
+    public void knownLengthTest() throws IOException, ResourceException {
+
+        final File source = new File(TEST_ROOT, "source");
+
+        final byte [] file = new byte[2_000_000];
+        new Random(7).nextBytes(file);
+
+        try(final FileOutputStream out = new FileOutputStream(source)) {
+            out.write(file);
+        }
+
+        for(final StorageOptions options : new StorageOptions [] {
+            StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED),
+            StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED).withIoBackend(IoBackend.CHANNEL),
+            StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED).withStorageEngine(StorageEngine.LOG)
+        }) {
+
+            final File dataFolder = new File(TEST_ROOT, "known-" + UUID.randomUUID());
+
+            final StreamFileCache cache = new StreamFileCache(dataFolder, 100, options);
+
+            //a whole file, then just a part of one from where its channel is
+            try(final FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+
+                cache.put("file".getBytes(), channel, file.length);
+
+                channel.position(1000);
+
+                cache.put("part".getBytes(), channel, 50_000);
+
+                assertEquals(51_000, channel.position());
+
+            }
+
+            assertArrayEquals(file, convertInputStreamToBytes(cache.get("file".getBytes())));
+            assertArrayEquals(Arrays.copyOfRange(file, 1000, 51_000), convertInputStreamToBytes(cache.get("part".getBytes())));
+
+            //any channel, replacing a streamed value that was chained and the other way around
+            cache.put("other".getBytes(), new ByteArrayInputStream(file, 0, 300_000));
+            cache.put("other".getBytes(), Channels.newChannel(new ByteArrayInputStream(file, 5, 100)), 100);
+
+            assertArrayEquals(Arrays.copyOfRange(file, 5, 105), convertInputStreamToBytes(cache.get("other".getBytes())));
+
+            cache.put("file".getBytes(), new ByteArrayInputStream(file, 0, 10));
+
+            assertArrayEquals(Arrays.copyOf(file, 10), convertInputStreamToBytes(cache.get("file".getBytes())));
+
+            //a source shorter than it said leaves the value that was there
+            assertThrows(
+                ResourceException.class,
+                () -> cache.put("other".getBytes(), Channels.newChannel(new ByteArrayInputStream(file, 0, 1000)), 2000)
+            );
+
+            assertArrayEquals(Arrays.copyOfRange(file, 5, 105), convertInputStreamToBytes(cache.get("other".getBytes())));
+
+            cache.put("empty".getBytes(), Channels.newChannel(new ByteArrayInputStream(new byte[0])), 0);
+
+            assertArrayEquals(new byte[0], convertInputStreamToBytes(cache.get("empty".getBytes())));
+
+        }
+
+    }
+
+    @Test
+    public void transferToTest() throws Exception {
+
+        final byte [] value = new byte[300_000]; //chained with the segment engine
+        new Random(11).nextBytes(value);
+
+        final byte [] small = Arrays.copyOf(value, 1000);
+
+        for(final StorageOptions options : new StorageOptions [] {
+            StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED),
+            StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED).withIoBackend(IoBackend.CHANNEL),
+            StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED).withStorageEngine(StorageEngine.LOG)
+        }) {
+
+            final File dataFolder = new File(TEST_ROOT, "transfer-" + UUID.randomUUID());
+
+            final StreamFileCache cache = new StreamFileCache(dataFolder, 100, options);
+
+            cache.put("large".getBytes(), new ByteArrayInputStream(value));
+            cache.put("small".getBytes(), new ByteArrayInputStream(small));
+
+            //into a file, which is what a socket gets as well
+            final File out = new File(dataFolder, "out");
+
+            try(final FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                assertEquals(value.length, cache.transferTo("large".getBytes(), channel));
+            }
+
+            assertArrayEquals(value, Files.readAllBytes(out.toPath()));
+
+            //any channel, whole and in ranges including ones across links and past the end
+            assertArrayEquals(small, transfer(cache, "small", 0, Long.MAX_VALUE, small.length));
+            assertArrayEquals(Arrays.copyOfRange(small, 10, 20), transfer(cache, "small", 10, 10, 10));
+            assertArrayEquals(Arrays.copyOfRange(small, 990, 1000), transfer(cache, "small", 990, 100, 10));
+            assertArrayEquals(new byte[0], transfer(cache, "small", 5000, 100, 0));
+
+            assertArrayEquals(Arrays.copyOfRange(value, 65_000, 200_000), transfer(cache, "large", 65_000, 135_000, 135_000));
+            assertArrayEquals(Arrays.copyOfRange(value, 150_000, 300_000), transfer(cache, "large", 150_000, Long.MAX_VALUE, 150_000));
+            assertArrayEquals(new byte[0], transfer(cache, "large", 0, 0, 0));
+
+            assertEquals(-1, cache.transferTo("missing".getBytes(), Channels.newChannel(new ByteArrayOutputStream())));
+            assertThrows(IllegalArgumentException.class, () -> cache.transferTo("large".getBytes(), -1, 10, Channels.newChannel(new ByteArrayOutputStream())));
+
+            //a put to the key waits until the transfer is done
+            final CountDownLatch writing = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+            final WritableByteChannel slow = new WritableByteChannel() {
+
+                private final WritableByteChannel wrapped = Channels.newChannel(received);
+
+                @Override
+                public int write(ByteBuffer src) throws IOException {
+
+                    writing.countDown();
+
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+
+                    return wrapped.write(src);
+
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+
+            };
+
+            final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+            try {
+
+                final Future<Long> transfer = executor.submit(() -> cache.transferTo("small".getBytes(), slow));
+
+                assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+                final Future<?> put = executor.submit(() -> {
+                    cache.put("small".getBytes(), new ByteArrayInputStream("replaced".getBytes()));
+                    return null;
+                });
+
+                assertThrows(TimeoutException.class, () -> put.get(300, TimeUnit.MILLISECONDS));
+
+                release.countDown();
+
+                assertEquals(small.length, transfer.get(5, TimeUnit.SECONDS));
+                put.get(5, TimeUnit.SECONDS);
+
+                assertArrayEquals(small, received.toByteArray());
+                assertArrayEquals("replaced".getBytes(), transfer(cache, "small", 0, Long.MAX_VALUE, 8));
+
+            }
+            finally {
+                executor.shutdownNow();
+            }
+
+        }
+
+    }
+
+    private static byte [] transfer(StreamFileCache cache, String key, long offset, long count, long expected) throws ResourceException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(expected, cache.transferTo(key.getBytes(), offset, count, Channels.newChannel(out)));
+
+        return out.toByteArray();
+
+    }
+
 }
@@ -0,0 +1,241 @@
+package llc.berserkr.cache;
+
+import llc.berserkr.cache.converter.BytesStringConverter;
+import llc.berserkr.cache.converter.ReverseConverter;
+import llc.berserkr.cache.converter.SerializingConverter;
+import llc.berserkr.cache.eviction.WindowTinyLfuPolicy;
+import llc.berserkr.cache.exception.ResourceException;
+import llc.berserkr.cache.hash.DurabilityPolicy;
+import llc.berserkr.cache.hash.StorageOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WindowTinyLfuPolicyTest {
+
+    public static File tempDir = new File("./test-files");
+
+    private static final StorageOptions OPTIONS = StorageOptions.defaults().withDurability(DurabilityPolicy.OS_BUFFERED);
+
+    @BeforeEach
+    public void setUp() {
+        deleteRoot(tempDir);
+        tempDir.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteRoot(tempDir);
+    }
+
+    private void deleteRoot(File root) {
+        if (root.exists()) {
+            if (root.isDirectory()) {
+                File[] children = root.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        deleteRoot(child);
+                    }
+                }
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testScanDoesNotFlushHotKeys() {
+
+        final WindowTinyLfuPolicy policy = new WindowTinyLfuPolicy(100);
+        final Set<String> cached = new HashSet<>();
+
+        for(int i = 0; i < 50; i++) {
+            put(policy, cached, 100, "hot" + i);
+        }
+
+        for(int round = 0; round < 3; round++) {
+            for(int i = 0; i < 50; i++) {
+                policy.onAccess("hot" + i);
+            }
+        }
+
+        //each of these is only seen once, the hot ones keep being read
+        for(int i = 0; i < 10_000; i++) {
+
+            put(policy, cached, 100, "scan" + i);
+
+            if(i % 100 == 0) {
+                for(int j = 0; j < 50; j++) {
+                    policy.onAccess("hot" + j);
+                }
+            }
+
+        }
+
+        for(int i = 0; i < 50; i++) {
+            assertTrue(cached.contains("hot" + i), "hot" + i);
+            assertTrue(policy.isProtected("hot" + i));
+        }
+
+        assertEquals(100, cached.size());
+
+    }
+
+    @Test
+    public void testFrequencyAges() {
+
+        final WindowTinyLfuPolicy policy = new WindowTinyLfuPolicy(100);
+
+        for(int i = 0; i < 100; i++) {
+            policy.onAccess("popular");
+        }
+
+        assertEquals(15, policy.frequency("popular"));
+        assertEquals(0, policy.frequency("never"));
+
+        //the sketch for 100 keys is halved every 1280 increments
+        for(int i = 0; i < 1280; i++) {
+            policy.onAccess("other" + i);
+        }
+
+        assertTrue(policy.frequency("popular") <= 7);
+
+    }
+
+    @Test
+    public void testMaxCountCacheRestart() throws IOException, ResourceException {
+
+        final File root = new File(tempDir, "tinylfu");
+
+        final Cache<String, String> fileCache = new ValueConvertingCache<String, String, byte[]>(
+            new KeyConvertingCache<String, byte[], byte[]>(new BytesFileCache(new File(root, "data")), new ReverseConverter<>(new BytesStringConverter())),
+            new SerializingConverter<String>()
+        );
+
+        final List<String> evicted = new ArrayList<>();
+
+        WindowTinyLfuPolicy policy = new WindowTinyLfuPolicy(10);
+        FilePersistedMaxCountCache<String> cache = new FilePersistedMaxCountCache<>(new File(root, "persisting"), fileCache, 10, evicted::add, OPTIONS, policy);
+
+        for(int i = 0; i < 5; i++) {
+
+            cache.put("hot" + i, "value" + i);
+
+            for(int j = 0; j < 5; j++) {
+                assertNotNull(cache.get("hot" + i));
+            }
+
+        }
+
+        //enough writes that the list checkpoints and the policy's state is saved part way through
+        scan(cache, "scan", 3000);
+
+        assertEquals(10, cache.getCount());
+        assertTrue(new File(root, "persisting/countPersisted/tinylfu.state").exists());
+
+        for(int i = 0; i < 5; i++) {
+            assertEquals("value" + i, cache.get("hot" + i));
+            assertFalse(evicted.contains("value" + i));
+            cache.get("hot" + i); //twice, both are counted when it's replayed
+        }
+
+        //comes back with the same counts, from the saved sketch and the journal after it
+        cache.put("scan-after", "scanned"); //journals the reads above
+
+        final int [] frequencies = new int[5];
+
+        for(int i = 0; i < 5; i++) {
+            frequencies[i] = policy.frequency("hot" + i);
+        }
+
+        policy = new WindowTinyLfuPolicy(10);
+        cache = new FilePersistedMaxCountCache<>(new File(root, "persisting"), fileCache, 10, evicted::add, OPTIONS, policy);
+
+        for(int i = 0; i < 5; i++) {
+            assertEquals(frequencies[i], policy.frequency("hot" + i));
+            assertTrue(policy.isProtected("hot" + i));
+        }
+
+        scan(cache, "rescan", 1000);
+
+        for(int i = 0; i < 5; i++) {
+            assertEquals("value" + i, cache.get("hot" + i));
+        }
+
+        //the same scan through the least recently used cache pushes them all out
+        final File lruRoot = new File(tempDir, "lru");
+
+        final Cache<String, String> lruFileCache = new ValueConvertingCache<String, String, byte[]>(
+            new KeyConvertingCache<String, byte[], byte[]>(new BytesFileCache(new File(lruRoot, "data")), new ReverseConverter<>(new BytesStringConverter())),
+            new SerializingConverter<String>()
+        );
+
+        final List<String> lruEvicted = new ArrayList<>();
+
+        final FilePersistedMaxCountCache<String> lru = new FilePersistedMaxCountCache<>(new File(lruRoot, "persisting"), lruFileCache, 10, lruEvicted::add, OPTIONS);
+
+        for(int i = 0; i < 5; i++) {
+
+            lru.put("hot" + i, "value" + i);
+
+            for(int j = 0; j < 5; j++) {
+                lru.get("hot" + i);
+            }
+
+        }
+
+        scan(lru, "scan", 100);
+
+        for(int i = 0; i < 5; i++) {
+            assertTrue(lruEvicted.contains("value" + i));
+        }
+
+    }
+
+    /**
+     * puts keys that are never read again, reading the hot keys every ten
+     */
+    private static void scan(Cache<String, String> cache, String prefix, int count) throws ResourceException {
+
+        for(int i = 0; i < count; i++) {
+
+            cache.put(prefix + i, "scanned");
+
+            if(i % 10 == 0) {
+                for(int j = 0; j < 5; j++) {
+                    cache.get("hot" + j);
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * what the bounded caches do, evicting until it's back under the max
+     */
+    private static void put(WindowTinyLfuPolicy policy, Set<String> cached, int max, String key) {
+
+        policy.onInsert(key, 1);
+        cached.add(key);
+
+        if(cached.size() > max) {
+
+            for(final String victim : policy.selectVictims(cached.size() - max)) {
+                policy.onRemove(victim);
+                cached.remove(victim);
+            }
+
+        }
+
+    }
+
+}